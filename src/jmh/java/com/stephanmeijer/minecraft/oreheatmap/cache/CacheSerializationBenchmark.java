@@ -0,0 +1,100 @@
+package com.stephanmeijer.minecraft.oreheatmap.cache;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of saving a dimension to a {@link RegionTileFile} and of paging it back in: encoding every
+ * region, writing the file, reading its index and decoding every tile.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CacheSerializationBenchmark {
+
+    private static final String DIMENSION = "minecraft:overworld";
+
+    @Param({"1000", "100000", "1000000"})
+    public int chunks;
+
+    private ChunkCountStore counts;
+    private ChunkHistogramStore histograms;
+    private List<Long> regionKeys;
+    private int[] oreIds;
+    private Path directory;
+    private Path written;
+    private Path target;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        counts = new ChunkCountStore(chunks);
+        histograms = new ChunkHistogramStore();
+        regionKeys = SyntheticChunks.fill(counts, histograms, chunks);
+        oreIds = new int[SyntheticChunks.ORE_NAMES.size()];
+        for (int i = 0; i < oreIds.length; i++) {
+            oreIds[i] = i;
+        }
+        directory = Files.createTempDirectory("oreheatmap-jmh");
+        written = directory.resolve("read" + RegionTileFile.EXTENSION);
+        target = directory.resolve("write" + RegionTileFile.EXTENSION);
+        RegionTileFile.write(written, DIMENSION, SyntheticChunks.ORE_NAMES, encodeAll());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public void encodeAndWrite() throws IOException {
+        RegionTileFile.write(target, DIMENSION, SyntheticChunks.ORE_NAMES, encodeAll());
+    }
+
+    @Benchmark
+    public RegionTileFile openIndexOnly() throws IOException {
+        return RegionTileFile.open(written);
+    }
+
+    @Benchmark
+    public void openAndDecode(Blackhole blackhole) throws IOException {
+        RegionTileFile file = RegionTileFile.open(written);
+        ChunkCountStore decodedCounts = new ChunkCountStore(chunks);
+        ChunkHistogramStore decodedHistograms = new ChunkHistogramStore();
+        int decoded = 0;
+        for (long regionKey : file.regions()) {
+            decoded += file.readTile(regionKey, decodedCounts, decodedHistograms, oreIds, null);
+        }
+        blackhole.consume(decoded);
+        blackhole.consume(decodedHistograms);
+    }
+
+    private List<RegionTileFile.Tile> encodeAll() {
+        List<RegionTileFile.Tile> tiles = new ArrayList<>(regionKeys.size());
+        for (long regionKey : regionKeys) {
+            tiles.add(RegionTileFile.encodeTile(regionKey, counts, histograms, null));
+        }
+        return tiles;
+    }
+}
@@ -0,0 +1,113 @@
+package com.stephanmeijer.minecraft.oreheatmap.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.LongConsumer;
+
+/**
+ * Deterministic stand-in for an explored world: chunks filling a square around the origin, each
+ * with a handful of ores spread over a few sections, roughly like an overworld scan.
+ */
+public final class SyntheticChunks {
+
+    public static final List<String> ORE_NAMES = List.of(
+            "minecraft:coal_ore", "minecraft:deepslate_coal_ore", "minecraft:iron_ore", "minecraft:deepslate_iron_ore",
+            "minecraft:copper_ore", "minecraft:deepslate_copper_ore", "minecraft:gold_ore", "minecraft:deepslate_gold_ore",
+            "minecraft:redstone_ore", "minecraft:deepslate_redstone_ore", "minecraft:lapis_ore", "minecraft:deepslate_lapis_ore",
+            "minecraft:diamond_ore", "minecraft:deepslate_diamond_ore", "minecraft:emerald_ore", "minecraft:deepslate_emerald_ore");
+
+    private static final long SEED = 0x4F524548L;
+
+    private SyntheticChunks() {
+    }
+
+    /**
+     * Side of the square holding the given number of chunks.
+     */
+    public static int side(int chunks) {
+        return (int) Math.ceil(Math.sqrt(chunks));
+    }
+
+    /**
+     * Interns {@link #ORE_NAMES} so histogram ore ids match their positions in the list.
+     */
+    public static OreIndex oreIndex() {
+        OreIndex ores = new OreIndex();
+        for (String name : ORE_NAMES) {
+            ores.intern(name);
+        }
+        return ores;
+    }
+
+    /**
+     * Stores {@code chunks} synthetic chunks through {@link DimensionCache#put}.
+     */
+    public static DimensionCache fill(DimensionCache cache, int chunks) {
+        Random random = new Random(SEED);
+        forEachChunk(chunks, chunkPos -> {
+            int[] histogram = histogram(random);
+            cache.put(chunkPos, OreHistogram.total(histogram), histogram);
+        });
+        return cache;
+    }
+
+    /**
+     * Fills raw stores, e.g. for encoding tiles without a {@link DimensionCache}.
+     *
+     * @return the keys of the regions holding the chunks
+     */
+    public static List<Long> fill(ChunkCountStore counts, ChunkHistogramStore histograms, int chunks) {
+        Random random = new Random(SEED);
+        ChunkCountStore regions = new ChunkCountStore();
+        forEachChunk(chunks, chunkPos -> {
+            int[] histogram = histogram(random);
+            counts.put(chunkPos, OreHistogram.total(histogram));
+            histograms.put(chunkPos, histogram);
+            regions.put(RegionKeys.regionOf(chunkPos), 1);
+        });
+        List<Long> regionKeys = new ArrayList<>(regions.size());
+        regions.forEach((regionKey, ignored) -> regionKeys.add(regionKey));
+        return regionKeys;
+    }
+
+    /**
+     * A chunk's ores: two to six ores, each in one to four sections between Y -64 and 128.
+     */
+    public static int[] histogram(Random random) {
+        int ores = 2 + random.nextInt(5);
+        int[] entries = new int[ores * 4];
+        int size = 0;
+        for (int i = 0; i < ores; i++) {
+            int oreId = random.nextInt(ORE_NAMES.size());
+            int sections = 1 + random.nextInt(4);
+            int firstSection = -4 + random.nextInt(12 - sections);
+            for (int s = 0; s < sections; s++) {
+                entries[size++] = OreHistogram.entry(oreId, OreHistogram.sectionIndex(firstSection + s), 1 + random.nextInt(24));
+            }
+        }
+        int[] histogram = Arrays.copyOf(entries, size);
+        OreHistogram.sort(histogram);
+        return dedupe(histogram);
+    }
+
+    private static int[] dedupe(int[] sorted) {
+        // The same ore may have been drawn twice for a section; keep the first entry
+        int size = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (size == 0 || (sorted[i] >>> OreHistogram.COUNT_BITS) != (sorted[size - 1] >>> OreHistogram.COUNT_BITS)) {
+                sorted[size++] = sorted[i];
+            }
+        }
+        return Arrays.copyOf(sorted, size);
+    }
+
+    private static void forEachChunk(int chunks, LongConsumer consumer) {
+        int side = side(chunks);
+        int origin = -side / 2;
+        for (int i = 0; i < chunks; i++) {
+            consumer.accept(ChunkCountStore.pack(origin + (i % side), origin + (i / side)));
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.stephanmeijer.minecraft.oreheatmap.journeymap;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.stephanmeijer.minecraft.oreheatmap.OreHeatmapConfig;
+import com.stephanmeijer.minecraft.oreheatmap.cache.DimensionCache;
+import com.stephanmeijer.minecraft.oreheatmap.cache.OreFilter;
+import com.stephanmeijer.minecraft.oreheatmap.cache.SyntheticChunks;
+import journeymap.api.v2.client.IClientAPI;
+import net.minecraft.core.registries.Registries;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.level.Level;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * An overlay update through {@link HeatmapRenderer}: paging in the viewport, reading the scale,
+ * walking the cells at a pyramid level and building or reconciling the overlays, with JourneyMap
+ * replaced by the replay's {@link TraceReplay#stubClientAPI stub}, which accepts and drops them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OverlayPassBenchmark {
+
+    // Chunks across the viewport, about a zoomed-out fullscreen map
+    private static final int VIEWPORT = 128;
+    private static final float MAX_OPACITY = 0.6f;
+    private static final OreFilter DIAMONDS = OreFilter.of("diamonds",
+            Set.of("minecraft:diamond_ore", "minecraft:deepslate_diamond_ore"));
+
+    @Param({"1000", "100000", "1000000"})
+    public int chunks;
+
+    @Param({"0", "3", "5"})
+    public int level;
+
+    @Param({"POLYGONS", "IMAGE_TILES"})
+    public OreHeatmapConfig.RenderMode mode;
+
+    private final IClientAPI jmAPI = TraceReplay.stubClientAPI(ui -> null);
+    private ResourceKey<Level> dimension;
+    private DimensionCache cache;
+    // Centered on the synthetic square, so smaller worlds leave part of the viewport empty
+    private final List<ChunkArea> viewports = List.of(ChunkArea.around(0, 0, VIEWPORT / 2));
+    private HeatmapRenderer steadyRenderer;
+    private boolean filtered;
+
+    @Setup(org.openjdk.jmh.annotations.Level.Trial)
+    public void setUp() {
+        dimension = ResourceKey.create(Registries.DIMENSION, ResourceLocation.parse("minecraft:overworld"));
+        cache = SyntheticChunks.fill(new DimensionCache("minecraft:overworld", SyntheticChunks.oreIndex(), null), chunks);
+        steadyRenderer = new HeatmapRenderer(jmAPI);
+        render(steadyRenderer);
+    }
+
+    @Benchmark
+    public HeatScale scale() {
+        return HeatScale.of(OreHeatmapConfig.Normalization.P95, cache);
+    }
+
+    /**
+     * A map opened on the viewport: every overlay is built and handed to JourneyMap.
+     */
+    @Benchmark
+    public int firstPass() {
+        HeatmapRenderer renderer = new HeatmapRenderer(jmAPI);
+        render(renderer);
+        return renderer.size();
+    }
+
+    /**
+     * Redrawing an unchanged viewport, as most ticks do: every cell is compared with its overlay
+     * and none is shown again.
+     */
+    @Benchmark
+    public int steadyState() {
+        render(steadyRenderer);
+        return steadyRenderer.size();
+    }
+
+    /**
+     * Switching between all ores and a filter, i.e. rebuilding the counts, pyramid and distribution.
+     */
+    @Benchmark
+    public void switchFilter() {
+        filtered = !filtered;
+        cache.setFilter(filtered ? DIAMONDS : OreFilter.ALL);
+    }
+
+    private void render(HeatmapRenderer renderer) {
+        renderer.render(dimension, cache, viewports, level, OreHeatmapConfig.Normalization.P95, mode, MAX_OPACITY);
+    }
+}
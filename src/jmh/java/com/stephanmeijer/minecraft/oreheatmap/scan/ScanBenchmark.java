@@ -0,0 +1,366 @@
+package com.stephanmeijer.minecraft.oreheatmap.scan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.stephanmeijer.minecraft.oreheatmap.cache.OreHistogram;
+import com.stephanmeijer.minecraft.oreheatmap.cache.SyntheticChunks;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Scanning one chunk against the tracked-ore table, from the single ore block of a minimal config
+ * to every block of {@code #c:ores}.
+ *
+ * <p>Minecraft's registries cannot be bootstrapped here, so sections are modelled the way a
+ * {@code PalettedContainer} stores them, a palette of global state ids plus one palette index per
+ * block, and the table is built directly over synthetic state ids. The palette tally stands in for
+ * {@code PalettedContainer.count}; the rest is {@link ChunkOreScanner#scan(ChunkSnapshot)} and
+ * {@link TrackedOreMatcher.OreTable#oreIndex} themselves. Chunks replayed from a session trace are
+ * covered too, from their {@link SectionStates} through {@link ChunkOreScanner#capture}.
+ *
+ * <p>The matching that the table replaced is modelled as well: a registry key lookup in an identity
+ * map, a probe of the tracked block IDs and a loop over the tracked tags, each a lookup in the
+ * block's own tag set, with the same equality as {@code ResourceLocation} and {@code TagKey}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ScanBenchmark {
+
+    public enum Tracked {
+        SINGLE_BLOCK,
+        C_ORES
+    }
+
+    // Roughly the vanilla block state count
+    private static final int STATE_IDS = 27_000;
+    private static final int SECTIONS = 24;
+    private static final int MIN_SECTION_Y = -4;
+    private static final int BLOCKS = 4096;
+    // Distinct chunks cycled through, so one chunk's data does not stay hot in the cache
+    private static final int CHUNK_POOL = 64;
+    private static final int STONE = 1;
+    private static final int DEEPSLATE = 2;
+    private static final int AIR = 0;
+    // Tags every block carries besides its ore tags, e.g. mineable/pickaxe
+    private static final int COMMON_TAGS = 3;
+    private static final String DIMENSION = "minecraft:overworld";
+
+    // Stand-ins for ResourceLocation, TagKey and a block with its registry holder's tags
+    private record BlockId(String namespace, String path) {
+    }
+
+    private record BlockTag(BlockId location) {
+    }
+
+    /**
+     * A section in {@code PalettedContainer} form, tallied by palette entry like {@code PalettedContainer.count}.
+     */
+    private record PaletteSection(int[] palette, short[] blocks) implements ChunkSnapshot.Section {
+
+        @Override
+        public void count(ChunkSnapshot.StateCounter counter) {
+            int[] tally = new int[palette.length];
+            for (short index : blocks) {
+                tally[index]++;
+            }
+            for (int i = 0; i < palette.length; i++) {
+                if (tally[i] > 0) {
+                    counter.accept(palette[i], tally[i]);
+                }
+            }
+        }
+    }
+
+    private static final class LegacyBlock {
+
+        private final Set<BlockTag> tags;
+
+        LegacyBlock(Set<BlockTag> tags) {
+            this.tags = tags;
+        }
+
+        boolean is(BlockTag tag) {
+            return tags.contains(tag);
+        }
+    }
+
+    @Param({"SINGLE_BLOCK", "C_ORES"})
+    public Tracked tracked;
+
+    private TrackedOreMatcher.OreTable table;
+    // [chunk][section] palette of state ids and per-block palette indices; null for air-only sections
+    private int[][][] palettes;
+    private short[][][] blocks;
+    // The same chunks as captured on the client thread, and as tallies recorded in a session trace
+    private ChunkSnapshot[] snapshots;
+    private List<List<SectionStates>> tallies;
+    private int next;
+    // Legacy matching: block of each state id, the registry's block to ID map, and the config
+    private LegacyBlock[] blockByState;
+    private Map<LegacyBlock, BlockId> registry;
+    private Set<BlockId> trackedBlocks;
+    private List<BlockTag> trackedTags;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        int ores = tracked == Tracked.SINGLE_BLOCK ? 1 : SyntheticChunks.ORE_NAMES.size();
+        // Ore blocks take scattered state ids, as they do in the registry
+        int[] oreStates = new int[SyntheticChunks.ORE_NAMES.size()];
+        for (int i = 0; i < oreStates.length; i++) {
+            oreStates[i] = 100 + random.nextInt(STATE_IDS - 100);
+        }
+        short[] oreByState = new short[STATE_IDS];
+        Arrays.fill(oreByState, (short) -1);
+        String[] names = new String[ores];
+        for (int ore = 0; ore < ores; ore++) {
+            oreByState[oreStates[ore]] = (short) ore;
+            names[ore] = SyntheticChunks.ORE_NAMES.get(ore);
+        }
+        table = new TrackedOreMatcher.OreTable(oreByState, names, names);
+        buildRegistry(oreStates);
+
+        palettes = new int[CHUNK_POOL][SECTIONS][];
+        blocks = new short[CHUNK_POOL][SECTIONS][];
+        for (int chunk = 0; chunk < CHUNK_POOL; chunk++) {
+            for (int section = 0; section < SECTIONS; section++) {
+                int sectionY = MIN_SECTION_Y + section;
+                if (sectionY >= 8) {
+                    continue;
+                }
+                buildSection(random, oreStates, sectionY < 0 ? DEEPSLATE : STONE, chunk, section);
+            }
+        }
+        buildSnapshots();
+    }
+
+    /**
+     * Candidate sections of each chunk as {@code ChunkOreScanner.capture} selects them in game, and
+     * every non-air section as the tally a session trace records.
+     */
+    private void buildSnapshots() {
+        snapshots = new ChunkSnapshot[CHUNK_POOL];
+        tallies = new ArrayList<>();
+        for (int chunk = 0; chunk < CHUNK_POOL; chunk++) {
+            List<ChunkSnapshot.Section> candidates = new ArrayList<>();
+            List<Integer> sectionYs = new ArrayList<>();
+            List<SectionStates> states = new ArrayList<>();
+            for (int section = 0; section < SECTIONS; section++) {
+                int[] palette = palettes[chunk][section];
+                if (palette == null) {
+                    continue;
+                }
+                if (isCandidate(palette)) {
+                    candidates.add(new PaletteSection(palette, blocks[chunk][section]));
+                    sectionYs.add(MIN_SECTION_Y + section);
+                }
+                states.add(new SectionStates(MIN_SECTION_Y + section, palette.clone(), tally(chunk, section)));
+            }
+            snapshots[chunk] = new ChunkSnapshot(DIMENSION, chunk, List.copyOf(candidates),
+                    sectionYs.stream().mapToInt(Integer::intValue).toArray(), table);
+            tallies.add(List.copyOf(states));
+        }
+    }
+
+    /**
+     * One block per state id, each with a few common tags; the ores also carry {@code c:ores}.
+     * The config is the single ore block ID, or the {@code #c:ores} tag.
+     */
+    private void buildRegistry(int[] oreStates) {
+        BlockTag cOres = new BlockTag(new BlockId("c", "ores"));
+        List<BlockTag> common = new ArrayList<>();
+        for (int i = 0; i < COMMON_TAGS; i++) {
+            common.add(new BlockTag(new BlockId("minecraft", "common_" + i)));
+        }
+        Map<Integer, String> oreNames = new HashMap<>();
+        for (int ore = 0; ore < oreStates.length; ore++) {
+            oreNames.put(oreStates[ore], SyntheticChunks.ORE_NAMES.get(ore));
+        }
+        blockByState = new LegacyBlock[STATE_IDS];
+        registry = new IdentityHashMap<>();
+        for (int stateId = 0; stateId < STATE_IDS; stateId++) {
+            String oreName = oreNames.get(stateId);
+            Set<BlockTag> tags = new HashSet<>(common);
+            BlockId id;
+            if (oreName == null) {
+                id = new BlockId("minecraft", "block_" + stateId);
+            } else {
+                id = new BlockId("minecraft", oreName.substring(oreName.indexOf(':') + 1));
+                tags.add(cOres);
+            }
+            // Holders keep their tags in an immutable set, as bindTags does
+            LegacyBlock block = new LegacyBlock(Set.copyOf(tags));
+            blockByState[stateId] = block;
+            registry.put(block, id);
+        }
+        String single = SyntheticChunks.ORE_NAMES.get(0);
+        trackedBlocks = new HashSet<>();
+        trackedTags = List.of();
+        if (tracked == Tracked.SINGLE_BLOCK) {
+            trackedBlocks.add(new BlockId("minecraft", single.substring(single.indexOf(':') + 1)));
+        } else {
+            trackedTags = List.of(cOres);
+        }
+    }
+
+    /**
+     * A section of base stone with a few other blocks and a random subset of the ores, each ore
+     * present in a handful of small veins.
+     */
+    private void buildSection(Random random, int[] oreStates, int base, int chunk, int section) {
+        int[] palette = new int[2 + 6 + oreStates.length];
+        int size = 0;
+        palette[size++] = base;
+        palette[size++] = AIR;
+        for (int i = 0; i < 6; i++) {
+            palette[size++] = 3 + random.nextInt(97);
+        }
+        for (int oreState : oreStates) {
+            if (random.nextInt(4) == 0) {
+                palette[size++] = oreState;
+            }
+        }
+        short[] indices = new short[BLOCKS];
+        for (int i = 0; i < BLOCKS; i++) {
+            int roll = random.nextInt(100);
+            indices[i] = (short) (roll < 90 ? 0 : roll < 94 ? 1 : 2 + random.nextInt(6));
+        }
+        for (int paletteIndex = 8; paletteIndex < size; paletteIndex++) {
+            for (int vein = 0; vein < 2; vein++) {
+                int start = random.nextInt(BLOCKS - 8);
+                for (int i = 0; i < 1 + random.nextInt(8); i++) {
+                    indices[start + i] = (short) paletteIndex;
+                }
+            }
+        }
+        palettes[chunk][section] = Arrays.copyOf(palette, size);
+        blocks[chunk][section] = indices;
+    }
+
+    /**
+     * The scan of a chunk captured in game: tally each candidate section by palette entry, look each
+     * entry up once and build the histogram.
+     */
+    @Benchmark
+    public int[] scanChunk() {
+        return ChunkOreScanner.scan(snapshots[nextChunk()]);
+    }
+
+    /**
+     * A chunk replayed from a session trace: select the candidate sections of its tallies, then scan them.
+     */
+    @Benchmark
+    public int[] scanTracedChunk() {
+        int chunk = nextChunk();
+        return ChunkOreScanner.scan(ChunkOreScanner.capture(DIMENSION, chunk, tallies.get(chunk), table));
+    }
+
+    /**
+     * Baseline: looking every block up in the table instead of every palette entry.
+     */
+    @Benchmark
+    public int[] perBlockMatching() {
+        int chunk = nextChunk();
+        int[] counts = new int[table.oreCount()];
+        int[] entries = OreHistogram.EMPTY;
+        for (int section = 0; section < SECTIONS; section++) {
+            int[] palette = palettes[chunk][section];
+            if (palette == null) {
+                continue;
+            }
+            for (short index : blocks[chunk][section]) {
+                int ore = table.oreIndex(palette[index]);
+                if (ore >= 0) {
+                    counts[ore]++;
+                }
+            }
+            entries = OreHistogram.appendSection(entries, counts, MIN_SECTION_Y + section);
+        }
+        return entries;
+    }
+
+    /**
+     * The scan before the table: skip sections whose palette holds no tracked state, tally the
+     * rest and total the entries matched by the registry lookup, ID set and tag loop.
+     */
+    @Benchmark
+    public int legacyMatching() {
+        int chunk = nextChunk();
+        int total = 0;
+        for (int section = 0; section < SECTIONS; section++) {
+            int[] palette = palettes[chunk][section];
+            if (palette == null || !isLegacyCandidate(palette)) {
+                continue;
+            }
+            int[] tally = tally(chunk, section);
+            for (int i = 0; i < palette.length; i++) {
+                if (isTrackedOre(blockByState[palette[i]])) {
+                    total += tally[i];
+                }
+            }
+        }
+        return total;
+    }
+
+    private int[] tally(int chunk, int section) {
+        int[] tally = new int[palettes[chunk][section].length];
+        for (short index : blocks[chunk][section]) {
+            tally[index]++;
+        }
+        return tally;
+    }
+
+    private boolean isTrackedOre(LegacyBlock block) {
+        BlockId id = registry.get(block);
+        if (trackedBlocks.contains(id)) {
+            return true;
+        }
+        for (BlockTag tag : trackedTags) {
+            if (block.is(tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isLegacyCandidate(int[] palette) {
+        for (int stateId : palette) {
+            if (isTrackedOre(blockByState[stateId])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isCandidate(int[] palette) {
+        for (int stateId : palette) {
+            if (table.oreIndex(stateId) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int nextChunk() {
+        int chunk = next;
+        next = (next + 1) % CHUNK_POOL;
+        return chunk;
+    }
+}
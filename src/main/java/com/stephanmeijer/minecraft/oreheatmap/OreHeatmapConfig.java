@@ -7,12 +7,17 @@ import net.neoforged.neoforge.common.ModConfigSpec;
 public class OreHeatmapConfig {
     private static final ModConfigSpec.Builder BUILDER = new ModConfigSpec.Builder();
     public static final ModConfigSpec.DoubleValue RESCAN_RADIUS_MULTIPLIER;
-    public static final ModConfigSpec.IntValue RESCAN_CHUNKS_PER_TICK;
+    public static final ModConfigSpec.DoubleValue TICK_BUDGET_MILLIS;
     public static final ModConfigSpec.BooleanValue ENABLED;
     public static final ModConfigSpec.IntValue SCAN_RADIUS;
     public static final ModConfigSpec.IntValue UPDATE_INTERVAL_TICKS;
     public static final ModConfigSpec.DoubleValue OVERLAY_OPACITY;
     public static final ModConfigSpec.BooleanValue SHOW_OVERLAY_IN_CAVES;
+    public static final ModConfigSpec.EnumValue<RenderMode> RENDER_MODE;
+    public static final ModConfigSpec.EnumValue<Normalization> NORMALIZATION;
+    public static final ModConfigSpec.EnumValue<YBandMode> Y_BAND_MODE;
+    public static final ModConfigSpec.IntValue Y_BAND_HALF_HEIGHT;
+    public static final ModConfigSpec.IntValue CACHE_MEMORY_MB;
 
     // Ore configurations
     public static final ModConfigSpec.ConfigValue<List<? extends String>> TRACKED_ORES;
@@ -32,24 +37,57 @@ public class OreHeatmapConfig {
                 .defineInRange("scanRadius", 3, 1, 8);
 
         UPDATE_INTERVAL_TICKS = BUILDER
-                .comment("How often to update the overlay (in ticks, 20 = 1 second)")
+                .comment("Longest time between overlay updates (in ticks, 20 = 1 second).",
+                        "Updates come sooner when counts changed and the tick budget has room.")
                 .defineInRange("updateIntervalTicks", 40, 20, 200);
 
+        TICK_BUDGET_MILLIS = BUILDER
+                .comment("Client-thread time the heatmap may use per tick, in milliseconds.",
+                        "Scanning, rescans, overlay updates and saves share it; work that does not fit waits for the next tick.")
+                .defineInRange("tickBudgetMillis", 2.0, 0.5, 20.0);
+
         OVERLAY_OPACITY = BUILDER
                 .comment("Opacity of the heatmap overlay (0.0 - 1.0)")
                 .defineInRange("overlayOpacity", 0.6, 0.1, 1.0);
 
+        RENDER_MODE = BUILDER
+                .comment("How the heatmap is drawn:",
+                        "  POLYGONS    - one shape per chunk, aggregated into larger cells when zoomed out",
+                        "  IMAGE_TILES - one image per 32x32 chunk region, cheaper for large explored areas")
+                .defineEnum("renderMode", RenderMode.POLYGONS);
+
+        NORMALIZATION = BUILDER
+                .comment("How ore counts map to heat colors, per dimension:",
+                        "  MAX - linear up to the richest chunk",
+                        "  P95 - linear up to the 95th percentile; richer chunks all show at full heat",
+                        "  LOG - logarithmic up to the richest chunk, keeping detail among poorer chunks")
+                .defineEnum("normalization", Normalization.P95);
+
         SHOW_OVERLAY_IN_CAVES = BUILDER
                 .comment("Show the overlay in cave/underground maps")
                 .define("showInCaves", true);
 
+        Y_BAND_MODE = BUILDER
+                .comment("Which heights the heatmap counts ores in:",
+                        "  COLUMN    - the whole chunk column, bedrock to build limit",
+                        "  PLAYER    - within yBandHalfHeight blocks above and below the player",
+                        "  MAP_LAYER - the cave layer JourneyMap is showing; the whole column on surface maps")
+                .defineEnum("yBandMode", YBandMode.MAP_LAYER);
+
+        Y_BAND_HALF_HEIGHT = BUILDER
+                .comment("Blocks above and below the player counted in PLAYER mode (rounded to 16-block sections)")
+                .defineInRange("yBandHalfHeight", 16, 8, 128);
+
         RESCAN_RADIUS_MULTIPLIER = BUILDER
                 .comment("Re-Scan Radius Multiplier")
                 .defineInRange("rescanRadiusMultiplier", 2.0, 1.0, 5.0);
 
-        RESCAN_CHUNKS_PER_TICK = BUILDER
-                .comment("Re-Scan Chunks per tick.")
-                .defineInRange("rescanChunksPerTick", 1, 1, 200);
+        CACHE_MEMORY_MB = BUILDER
+                .comment("Memory the cached ore counts may use, in megabytes (estimated).",
+                        "Over it, dimensions the player is not in are saved and dropped from memory, least recently visited first,",
+                        "then regions of the current dimension away from the player and the open maps.",
+                        "Dropped data is read back from disk when needed again.")
+                .defineInRange("cacheMemoryMb", 256, 16, 8192);
 
         BUILDER.pop();
 
@@ -71,6 +109,23 @@ public class OreHeatmapConfig {
         SPEC = BUILDER.build();
     }
 
+    public enum RenderMode {
+        POLYGONS,
+        IMAGE_TILES
+    }
+
+    public enum Normalization {
+        MAX,
+        P95,
+        LOG
+    }
+
+    public enum YBandMode {
+        COLUMN,
+        PLAYER,
+        MAP_LAYER
+    }
+
     /**
      * Validates ore entry format.
      * Supported formats:
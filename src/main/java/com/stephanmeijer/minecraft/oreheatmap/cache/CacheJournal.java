@@ -0,0 +1,296 @@
+package com.stephanmeijer.minecraft.oreheatmap.cache;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import com.stephanmeijer.minecraft.oreheatmap.OreHeatmapMod;
+
+/**
+ * Append-only log of chunk count changes made since the last compaction.
+ *
+ * <p>Journals are numbered ({@code journal.<sequence>.log}). Compaction rotates to a new journal,
+ * folds everything up to the rotated one into the region tile files, and only then deletes the
+ * older journals, so a crash at any point leaves either the journal or the tiles intact.
+ * Every record carries a CRC32; replay stops at the first torn or corrupt record.
+ *
+ * <p>Dimension keys and ore names are written once per journal and referenced by small ids.
+ * Chunk records carry the chunk's {@link OreHistogram}; a count without entries stands for a chunk
+ * whose per-ore counts are unknown, as in the tile files. Record types of older journals are not
+ * read; replay treats them like any other damage.
+ *
+ * <p>All methods except {@link #replayAll} and {@link #hasJournal} run on the cache writer thread.
+ */
+final class CacheJournal {
+
+    private static final String PREFIX = "journal.";
+    private static final String SUFFIX = ".log";
+    private static final byte RECORD_DIMENSION = 1;
+    private static final byte RECORD_ORE = 3;
+    private static final byte RECORD_CHUNK_HISTOGRAM = 5;
+    private static final int CHUNK_RECORD_BYTES = 21;
+
+    /**
+     * One changed chunk count.
+     */
+    record Change(String dimension, long chunkPos, int count, int[] histogram) {
+    }
+
+    /**
+     * Receives replayed changes in journal order.
+     */
+    @FunctionalInterface
+    interface ChangeSink {
+        void accept(String dimension, long chunkPos, int count, int[] histogram);
+    }
+
+    private final Path directory;
+    private final OreIndex ores;
+    private final Map<String, Integer> dimensionIds = new HashMap<>();
+    private final BitSet journaledOres = new BitSet();
+    private int sequence;
+    private FileChannel channel;
+
+    CacheJournal(Path directory, OreIndex ores, int sequence) {
+        this.directory = directory;
+        this.ores = ores;
+        this.sequence = sequence;
+    }
+
+    void append(List<Change> changes) throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(path(sequence), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(changes.size() * CHUNK_RECORD_BYTES + 64);
+        for (Change change : changes) {
+            Integer id = dimensionIds.get(change.dimension());
+            if (id == null) {
+                id = dimensionIds.size();
+                dimensionIds.put(change.dimension(), id);
+                byte[] name = change.dimension().getBytes(StandardCharsets.UTF_8);
+                buffer = ensureRemaining(buffer, name.length + 9);
+                int start = buffer.position();
+                buffer.put(RECORD_DIMENSION).putShort((short) (int) id).putShort((short) name.length).put(name);
+                putChecksum(buffer, start);
+            }
+            int[] histogram = change.histogram() == null ? OreHistogram.EMPTY : change.histogram();
+            for (int entry : histogram) {
+                int oreId = OreHistogram.oreId(entry);
+                if (!journaledOres.get(oreId)) {
+                    journaledOres.set(oreId);
+                    byte[] name = ores.name(oreId).getBytes(StandardCharsets.UTF_8);
+                    buffer = ensureRemaining(buffer, name.length + 9);
+                    int start = buffer.position();
+                    buffer.put(RECORD_ORE).putShort((short) oreId).putShort((short) name.length).put(name);
+                    putChecksum(buffer, start);
+                }
+            }
+            buffer = ensureRemaining(buffer, CHUNK_RECORD_BYTES + histogram.length * Integer.BYTES);
+            int start = buffer.position();
+            buffer.put(RECORD_CHUNK_HISTOGRAM).putShort((short) (int) id).putLong(change.chunkPos()).putInt(change.count())
+                    .putShort((short) histogram.length);
+            for (int entry : histogram) {
+                buffer.putInt(entry);
+            }
+            putChecksum(buffer, start);
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Closes the current journal and starts the next one.
+     *
+     * @return sequence number of the journal that was closed
+     */
+    int rotate() throws IOException {
+        close();
+        dimensionIds.clear();
+        journaledOres.clear();
+        return sequence++;
+    }
+
+    /**
+     * Deletes all journals up to and including the given sequence number.
+     */
+    void deleteUpTo(int lastSequence) throws IOException {
+        for (Path journal : list(directory)) {
+            if (sequenceOf(journal) <= lastSequence) {
+                Files.delete(journal);
+            }
+        }
+    }
+
+    void close() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Replays every journal in the directory in order. Ore ids are translated to the given index.
+     *
+     * @return the sequence number a new journal should use
+     */
+    static int replayAll(Path directory, OreIndex ores, ChangeSink sink) throws IOException {
+        int next = 0;
+        for (Path journal : list(directory)) {
+            replay(journal, ores, sink);
+            next = Math.max(next, sequenceOf(journal) + 1);
+        }
+        return next;
+    }
+
+    private static void replay(Path journal, OreIndex ores, ChangeSink sink) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(journal));
+        Map<Integer, String> dimensions = new HashMap<>();
+        int[] oreIds = new int[0];
+        int records = 0;
+        int validEnd = 0;
+        try {
+            while (buffer.hasRemaining()) {
+                int start = buffer.position();
+                byte type = buffer.get();
+                int id = buffer.getShort() & 0xFFFF;
+                if (type == RECORD_DIMENSION) {
+                    byte[] name = new byte[buffer.getShort() & 0xFFFF];
+                    buffer.get(name);
+                    if (!checksumMatches(buffer, start)) {
+                        break;
+                    }
+                    dimensions.put(id, new String(name, StandardCharsets.UTF_8));
+                    validEnd = buffer.position();
+                } else if (type == RECORD_ORE) {
+                    byte[] name = new byte[buffer.getShort() & 0xFFFF];
+                    buffer.get(name);
+                    if (!checksumMatches(buffer, start)) {
+                        break;
+                    }
+                    if (id >= oreIds.length) {
+                        int previousLength = oreIds.length;
+                        oreIds = Arrays.copyOf(oreIds, id + 1);
+                        Arrays.fill(oreIds, previousLength, oreIds.length, -1);
+                    }
+                    oreIds[id] = ores.intern(new String(name, StandardCharsets.UTF_8));
+                    validEnd = buffer.position();
+                } else if (type == RECORD_CHUNK_HISTOGRAM) {
+                    long chunkPos = buffer.getLong();
+                    int count = buffer.getInt();
+                    int[] histogram = new int[buffer.getShort() & 0xFFFF];
+                    for (int i = 0; i < histogram.length; i++) {
+                        histogram[i] = buffer.getInt();
+                    }
+                    if (!checksumMatches(buffer, start) || !dimensions.containsKey(id)) {
+                        break;
+                    }
+                    histogram = translate(histogram, oreIds);
+                    if (histogram == null) {
+                        break;
+                    }
+                    sink.accept(dimensions.get(id), chunkPos, count, histogram.length == 0 && count > 0 ? null : histogram);
+                    records++;
+                    validEnd = buffer.position();
+                } else {
+                    break;
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            // Torn final record from an interrupted write; everything before it is valid
+        }
+        if (validEnd < buffer.limit()) {
+            OreHeatmapMod.LOGGER.warn("Ignoring {} trailing bytes of damaged journal {}", buffer.limit() - validEnd, journal);
+        }
+        OreHeatmapMod.LOGGER.debug("Replayed {} changes from {}", records, journal);
+    }
+
+    /**
+     * Rewrites journal ore ids to index ids.
+     *
+     * @return the translated histogram, or null if an ore was never declared, i.e. the journal is corrupt
+     */
+    private static int[] translate(int[] histogram, int[] oreIds) {
+        for (int entry : histogram) {
+            int journalId = OreHistogram.oreId(entry);
+            if (journalId >= oreIds.length || oreIds[journalId] < 0) {
+                return null;
+            }
+        }
+        return OreHistogram.remap(histogram, oreIds);
+    }
+
+    /**
+     * Whether the directory holds changes that were not compacted into the tile files yet.
+     */
+    static boolean hasJournal(Path directory) throws IOException {
+        for (Path journal : list(directory)) {
+            if (Files.size(journal) > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<Path> list(Path directory) throws IOException {
+        List<Path> journals = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path path : files) {
+                if (sequenceOf(path) >= 0) {
+                    journals.add(path);
+                }
+            }
+        }
+        journals.sort((a, b) -> Integer.compare(sequenceOf(a), sequenceOf(b)));
+        return journals;
+    }
+
+    private static int sequenceOf(Path journal) {
+        String name = journal.getFileName().toString();
+        try {
+            return Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
+
+    private Path path(int journalSequence) {
+        return directory.resolve(PREFIX + journalSequence + SUFFIX);
+    }
+
+    private static ByteBuffer ensureRemaining(ByteBuffer buffer, int needed) {
+        if (buffer.remaining() >= needed) {
+            return buffer;
+        }
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + needed));
+        return larger.put(buffer.flip());
+    }
+
+    private static void putChecksum(ByteBuffer buffer, int start) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), start, buffer.position() - start);
+        buffer.putInt((int) crc.getValue());
+    }
+
+    private static boolean checksumMatches(ByteBuffer buffer, int start) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), start, buffer.position() - start);
+        return buffer.getInt() == (int) crc.getValue();
+    }
+}
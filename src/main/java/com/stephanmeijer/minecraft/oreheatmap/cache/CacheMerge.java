@@ -0,0 +1,393 @@
+package com.stephanmeijer.minecraft.oreheatmap.cache;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+import com.stephanmeijer.minecraft.oreheatmap.OreHeatmapMod;
+
+/**
+ * Merges the ore caches of several players or worlds into one, so a shared map does not have to be
+ * scanned again by everyone. Sources are cache directories, such as those written by
+ * {@link WorldCache#exportTo}. What the target already holds is always merged in, whether or not
+ * it is listed as a source.
+ *
+ * <p>Each dimension is merged as a k-way merge of the sources' tile indexes, in Z-order of the
+ * regions. A region is decoded from the sources that hold it, merged chunk by chunk and compressed
+ * into the new file before the next one is read, so memory use depends on the number of sources,
+ * not on how many chunks they hold. Regions held by a single source are copied without decoding.
+ * A damaged region tile is left out, as if the source did not hold the region.
+ *
+ * <p>Chunks found in several sources are resolved by a {@link Policy}. Tile files record no times
+ * per chunk, so which source is newest goes by when its dimension file was last written.
+ *
+ * <p>Journaled changes of the target are kept and replayed on top of the merged file when it is
+ * next opened. Other sources should be closed caches or exports: their journals are left out.
+ *
+ * <p>Usage: {@code CacheMerge <target directory> <source directory>... [--policy NEWEST|MAX|AUTHORITATIVE]
+ * [--authoritative <source directory>]}. The game must not have the target world open while this runs.
+ */
+public final class CacheMerge {
+
+    private static final String USAGE = "Usage: CacheMerge <target directory> <source directory>... "
+            + "[--policy NEWEST|MAX|AUTHORITATIVE] [--authoritative <source directory>]";
+
+    /**
+     * Which counts win when several sources hold the same chunk.
+     */
+    public enum Policy {
+        /** Counts of the source written last, which saw the most recent mining. */
+        NEWEST,
+        /** The highest count, so ores mined out in one player's world still show from another's. */
+        MAX,
+        /** Counts of the authoritative source, such as a scan of the server's save files; otherwise as {@link #NEWEST}. */
+        AUTHORITATIVE
+    }
+
+    /**
+     * What a merge wrote.
+     *
+     * @param chunks    chunks in the merged caches, including those known to be empty
+     * @param conflicts chunks held by several sources with different counts
+     */
+    public record Summary(int dimensions, int regions, long chunks, long conflicts) {
+    }
+
+    /**
+     * One source's file of the dimension being merged.
+     */
+    private static final class Source {
+        private final RegionTileFile file;
+        private final long modified;
+        private final boolean authoritative;
+        private int[] oreIds;
+        // Whether histograms can be copied as-is, because the source numbers ores as the target does
+        private boolean sameOres;
+        private long[] regions;
+        private int position;
+
+        // The region being merged
+        private ChunkCountStore counts;
+        private ChunkHistogramStore histograms;
+        private long[] emptyChunks;
+
+        Source(RegionTileFile file, long modified, boolean authoritative) {
+            this.file = file;
+            this.modified = modified;
+            this.authoritative = authoritative;
+        }
+    }
+
+    private final Policy policy;
+    private final List<Source> sources;
+    private long chunks;
+    private long conflicts;
+
+    private CacheMerge(Policy policy, List<Source> sources) {
+        this.policy = policy;
+        this.sources = sources;
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<Path> directories = new ArrayList<>();
+        Path authoritative = null;
+        Policy policy = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--policy" -> policy = Policy.valueOf(optionValue(args, ++i).toUpperCase(Locale.ROOT));
+                case "--authoritative" -> authoritative = Path.of(optionValue(args, ++i));
+                default -> directories.add(Path.of(args[i]));
+            }
+        }
+        if (directories.size() < 2) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        Path target = directories.get(0);
+        List<Path> sources = new ArrayList<>(directories.subList(1, directories.size()));
+        if (authoritative != null && !sources.contains(authoritative)) {
+            sources.add(authoritative);
+        }
+        if (policy == null) {
+            policy = authoritative != null ? Policy.AUTHORITATIVE : Policy.NEWEST;
+        }
+
+        System.out.printf(Locale.ROOT, "Merging %d caches into %s, %s%n", sources.size(), target, policy);
+        long start = System.nanoTime();
+        Summary summary = merge(sources, authoritative, target, policy);
+        System.out.printf(Locale.ROOT, "Merged %d dimensions in %.1f s: %d regions, %d chunks, %d conflicts%n",
+                summary.dimensions(), (System.nanoTime() - start) / 1_000_000_000.0, summary.regions(), summary.chunks(),
+                summary.conflicts());
+    }
+
+    /**
+     * Merges cache directories into {@code target}, writing each dimension as a new generation there.
+     * The target's own files take part as one more source if it is not listed.
+     *
+     * @param authoritative the source whose counts win under {@link Policy#AUTHORITATIVE}; may be null
+     * @throws IOException if a source cannot be read or a file cannot be written; dimensions merged
+     *                     before that are kept
+     */
+    public static Summary merge(List<Path> sources, Path authoritative, Path target, Policy policy) throws IOException {
+        Summary summary = merge(sources, authoritative, target, policy, Map.of());
+        // Nothing else has the target open, so the replaced generations can go right away
+        for (Map.Entry<String, Integer> file : WorldCache.newestGenerations(target).entrySet()) {
+            for (int older = file.getValue() - 1; older >= 0; older--) {
+                WorldCache.deleteQuietly(target.resolve(file.getKey() + "." + older + RegionTileFile.EXTENSION));
+            }
+        }
+        return summary;
+    }
+
+    /**
+     * Like {@link #merge(List, Path, Path, Policy)}, with the times to tell which source is newest
+     * by for some of the target's files, e.g. from before a save that rewrote them. The target's
+     * older generations are left in place, as an open {@link WorldCache} may still read them.
+     *
+     * @param targetTimes modification times in milliseconds by file base name, used instead of the
+     *                    times of the target's current files
+     */
+    static Summary merge(List<Path> sources, Path authoritative, Path target, Policy policy, Map<String, Long> targetTimes)
+            throws IOException {
+        if (policy == Policy.AUTHORITATIVE && authoritative == null) {
+            throw new IllegalArgumentException("No authoritative source given");
+        }
+        Files.createDirectories(target);
+        List<Path> allSources = new ArrayList<>(sources);
+        boolean targetListed = false;
+        for (Path source : sources) {
+            targetListed |= Files.isDirectory(source) && Files.isSameFile(source, target);
+        }
+        if (!targetListed) {
+            // Otherwise its files would be replaced by the merged ones without being read
+            allSources.add(target);
+        }
+        // Dimension files of every source, by file base name
+        Map<String, List<Path>> files = new TreeMap<>();
+        for (Path source : allSources) {
+            for (Map.Entry<String, Integer> file : WorldCache.newestGenerations(source).entrySet()) {
+                files.computeIfAbsent(file.getKey(), base -> new ArrayList<>())
+                        .add(source.resolve(file.getKey() + "." + file.getValue() + RegionTileFile.EXTENSION));
+            }
+            if (!Files.isSameFile(source, target) && CacheJournal.hasJournal(source)) {
+                OreHeatmapMod.LOGGER.warn("Ore cache {} has changes that were not compacted - they are left out of the merge", source);
+            }
+        }
+
+        Map<String, Integer> targetGenerations = WorldCache.newestGenerations(target);
+        int regions = 0;
+        long chunks = 0;
+        long conflicts = 0;
+        for (Map.Entry<String, List<Path>> dimension : files.entrySet()) {
+            List<Source> opened = new ArrayList<>();
+            for (Path path : dimension.getValue()) {
+                boolean isAuthoritative = authoritative != null && Files.isSameFile(path.getParent(), authoritative);
+                long modified = Files.getLastModifiedTime(path).toMillis();
+                if (Files.isSameFile(path.getParent(), target)) {
+                    modified = targetTimes.getOrDefault(dimension.getKey(), modified);
+                }
+                opened.add(new Source(RegionTileFile.open(path), modified, isAuthoritative));
+            }
+            String dimensionKey = opened.get(0).file.dimension();
+            int generation = targetGenerations.getOrDefault(dimension.getKey(), -1) + 1;
+            CacheMerge merge = new CacheMerge(policy, opened);
+            long start = System.nanoTime();
+            regions += merge.write(WorldCache.filePath(target, dimensionKey, generation), dimensionKey);
+            chunks += merge.chunks;
+            conflicts += merge.conflicts;
+            OreHeatmapMod.LOGGER.info("Merged ore caches of {} from {} sources in {} ms: {} chunks, {} conflicts", dimensionKey,
+                    opened.size(), (System.nanoTime() - start) / 1_000_000, merge.chunks, merge.conflicts);
+        }
+        return new Summary(files.size(), regions, chunks, conflicts);
+    }
+
+    /**
+     * Writes the merged dimension.
+     *
+     * @return number of regions written
+     */
+    private int write(Path path, String dimension) throws IOException {
+        // Sources are kept in order of precedence, so the first to hold a chunk wins unless the policy compares counts
+        Comparator<Source> newestFirst = Comparator.comparingLong((Source source) -> source.modified).reversed();
+        sources.sort(policy == Policy.AUTHORITATIVE
+                ? Comparator.comparingInt((Source source) -> source.authoritative ? 0 : 1).thenComparing(newestFirst)
+                : newestFirst);
+
+        OreIndex ores = new OreIndex();
+        for (Source source : sources) {
+            List<String> names = source.file.oreNames();
+            source.oreIds = new int[names.size()];
+            source.sameOres = true;
+            for (int i = 0; i < names.size(); i++) {
+                source.oreIds[i] = ores.intern(names.get(i));
+                source.sameOres &= source.oreIds[i] == i;
+            }
+        }
+
+        long[] order = regionOrder();
+        Iterator<RegionTileFile.Tile> tiles = new Iterator<>() {
+            private int next;
+            private RegionTileFile.Tile pending;
+
+            @Override
+            public boolean hasNext() {
+                while (pending == null && next < order.length) {
+                    pending = mergeRegion(order[next++]);
+                }
+                return pending != null;
+            }
+
+            @Override
+            public RegionTileFile.Tile next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                RegionTileFile.Tile tile = pending;
+                pending = null;
+                return tile;
+            }
+        };
+        RegionTileFile.write(path, dimension, ores.names(), order.length, tiles);
+        return order.length;
+    }
+
+    /**
+     * Every region held by any source, in Z-order: a k-way merge of the sources' sorted indexes.
+     */
+    private long[] regionOrder() {
+        PriorityQueue<Source> cursors = new PriorityQueue<>(
+                (a, b) -> RegionKeys.compareZOrder(a.regions[a.position], b.regions[b.position]));
+        int total = 0;
+        for (Source source : sources) {
+            source.regions = source.file.regions().stream().sorted(RegionKeys::compareZOrder).mapToLong(Long::longValue).toArray();
+            source.position = 0;
+            total += source.regions.length;
+            if (source.regions.length > 0) {
+                cursors.add(source);
+            }
+        }
+
+        long[] order = new long[total];
+        int size = 0;
+        while (!cursors.isEmpty()) {
+            Source source = cursors.poll();
+            long region = source.regions[source.position++];
+            if (size == 0 || order[size - 1] != region) {
+                order[size++] = region;
+            }
+            if (source.position < source.regions.length) {
+                cursors.add(source);
+            }
+        }
+        return Arrays.copyOf(order, size);
+    }
+
+    /**
+     * Merges one region of every source that holds it.
+     *
+     * @return the merged tile, or null if the region holds no chunks
+     */
+    private RegionTileFile.Tile mergeRegion(long regionKey) {
+        List<Source> holding = new ArrayList<>();
+        for (Source source : sources) {
+            if (source.file.hasRegion(regionKey)) {
+                holding.add(source);
+            }
+        }
+        if (holding.size() == 1 && holding.get(0).sameOres) {
+            try {
+                chunks += holding.get(0).file.chunkCount(regionKey);
+                return holding.get(0).file.tileView(regionKey);
+            } catch (RuntimeException e) {
+                // Damaged; decoding below leaves it out
+            }
+        }
+
+        for (Iterator<Source> it = holding.iterator(); it.hasNext();) {
+            Source source = it.next();
+            source.counts = new ChunkCountStore(RegionKeys.CHUNKS_PER_REGION);
+            source.histograms = new ChunkHistogramStore();
+            source.emptyChunks = new long[RegionKeys.CHUNKS_PER_REGION / Long.SIZE];
+            try {
+                source.file.readTile(regionKey, source.counts, source.histograms, source.oreIds, source.emptyChunks);
+            } catch (RuntimeException e) {
+                // Malformed bytes fail in many ways; the region's chunks are scanned again in game
+                OreHeatmapMod.LOGGER.warn("Leaving damaged region {},{} of {} out of the merge: {}", ChunkCountStore.unpackX(regionKey),
+                        ChunkCountStore.unpackZ(regionKey), source.file.dimension(), e.toString());
+                source.counts = null;
+                source.histograms = null;
+                source.emptyChunks = null;
+                it.remove();
+            }
+        }
+        ChunkCountStore counts = new ChunkCountStore(RegionKeys.CHUNKS_PER_REGION);
+        ChunkHistogramStore histograms = new ChunkHistogramStore();
+        long[] emptyChunks = new long[RegionKeys.CHUNKS_PER_REGION / Long.SIZE];
+        for (int localIndex = 0; localIndex < RegionKeys.CHUNKS_PER_REGION; localIndex++) {
+            long chunkPos = RegionKeys.chunkAt(regionKey, localIndex);
+            boolean found = false;
+            boolean conflict = false;
+            int count = 0;
+            int[] histogram = OreHistogram.EMPTY;
+            for (Source source : holding) {
+                int sourceCount = source.counts.get(chunkPos, -1);
+                int[] sourceHistogram = OreHistogram.EMPTY;
+                if (sourceCount >= 0) {
+                    int[] stored = source.histograms.get(chunkPos);
+                    sourceHistogram = stored == null ? OreHistogram.EMPTY : stored;
+                } else if ((source.emptyChunks[localIndex >>> 6] & (1L << localIndex)) != 0) {
+                    sourceCount = 0;
+                } else {
+                    continue;
+                }
+                if (!found) {
+                    found = true;
+                    count = sourceCount;
+                    histogram = sourceHistogram;
+                    continue;
+                }
+                conflict |= sourceCount != count || !Arrays.equals(sourceHistogram, histogram);
+                if (policy == Policy.MAX && sourceCount > count) {
+                    count = sourceCount;
+                    histogram = sourceHistogram;
+                }
+            }
+            if (!found) {
+                continue;
+            }
+            chunks++;
+            if (conflict) {
+                conflicts++;
+            }
+            if (count == 0 && histogram.length == 0) {
+                emptyChunks[localIndex >>> 6] |= 1L << localIndex;
+            } else {
+                counts.put(chunkPos, count);
+                histograms.put(chunkPos, histogram);
+            }
+        }
+        for (Source source : holding) {
+            source.counts = null;
+            source.histograms = null;
+            source.emptyChunks = null;
+        }
+        return RegionTileFile.encodeTile(regionKey, counts, histograms, emptyChunks);
+    }
+
+    private static String optionValue(String[] args, int index) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + args[index - 1] + "\n" + USAGE);
+        }
+        return args[index];
+    }
+}
@@ -0,0 +1,273 @@
+package com.stephanmeijer.minecraft.oreheatmap.cache;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Ore counts for the chunks of one dimension, keyed by packed chunk position.
+ * Open-addressing long to int hash table with linear probing, so entries cost
+ * 12 bytes of array space instead of a String, a boxed Integer and a map node.
+ *
+ * <p>Written by a single thread (the client thread); any number of threads may read concurrently.
+ * Point lookups are optimistic and lock-free unless they race a write.
+ */
+public final class ChunkCountStore {
+
+    /**
+     * Receives entries during iteration without boxing.
+     */
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(long chunkPos, int count);
+    }
+
+    // Packs to chunk z = Integer.MIN_VALUE, far outside any world border
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final int MIN_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private final StampedLock lock = new StampedLock();
+    private long[] keys;
+    private int[] values;
+    private int size;
+    private int resizeThreshold;
+
+    public ChunkCountStore() {
+        this(MIN_CAPACITY);
+    }
+
+    public ChunkCountStore(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * Packs chunk coordinates exactly like {@code ChunkPos.asLong(x, z)}.
+     */
+    public static long pack(int chunkX, int chunkZ) {
+        return (chunkX & 0xFFFFFFFFL) | ((chunkZ & 0xFFFFFFFFL) << 32);
+    }
+
+    public static int unpackX(long chunkPos) {
+        return (int) chunkPos;
+    }
+
+    public static int unpackZ(long chunkPos) {
+        return (int) (chunkPos >>> 32);
+    }
+
+    /**
+     * Returns the stored count, or {@code missing} if the chunk has no entry.
+     */
+    public int get(long chunkPos, int missing) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            int result = find(keys, values, chunkPos, missing);
+            if (lock.validate(stamp)) {
+                return result;
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return find(keys, values, chunkPos, missing);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public boolean contains(long chunkPos) {
+        return get(chunkPos, -1) >= 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Stores a count. Counts must not be negative.
+     *
+     * @return the previous count, or -1 if the chunk had no entry
+     */
+    public int put(long chunkPos, int count) {
+        long stamp = lock.writeLock();
+        try {
+            int slot = slotFor(keys, chunkPos);
+            int previous = -1;
+            if (keys[slot] == EMPTY) {
+                if (size >= resizeThreshold) {
+                    allocateAndRehash(keys.length << 1);
+                    slot = slotFor(keys, chunkPos);
+                }
+                keys[slot] = chunkPos;
+                size++;
+            } else {
+                previous = values[slot];
+            }
+            values[slot] = count;
+            return previous;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void remove(long chunkPos) {
+        long stamp = lock.writeLock();
+        try {
+            int slot = slotFor(keys, chunkPos);
+            if (keys[slot] != EMPTY) {
+                shiftBackFrom(slot);
+                size--;
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            allocate(MIN_CAPACITY);
+            size = 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Grows the table once ahead of a bulk load so it does not rehash repeatedly.
+     */
+    public void ensureCapacity(int expectedSize) {
+        int capacity = capacityFor(expectedSize);
+        if (capacity <= keys.length) {
+            return;
+        }
+        long stamp = lock.writeLock();
+        try {
+            allocateAndRehash(capacity);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Visits every entry under a read lock. The consumer must not modify this store.
+     */
+    public void forEach(EntryConsumer consumer) {
+        long stamp = lock.readLock();
+        try {
+            long[] k = keys;
+            int[] v = values;
+            for (int i = 0; i < k.length; i++) {
+                if (k[i] != EMPTY) {
+                    consumer.accept(k[i], v[i]);
+                }
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Returns the highest stored count, or 0 if empty.
+     */
+    public int max() {
+        int[] max = new int[1];
+        forEach((chunkPos, count) -> max[0] = Math.max(max[0], count));
+        return max[0];
+    }
+
+    private static int find(long[] k, int[] v, long chunkPos, int missing) {
+        // Arrays may be read mid-write during an optimistic read; the probe is bounded
+        // and the caller discards the result if a write intervened
+        int mask = k.length - 1;
+        if (v.length != k.length) {
+            return missing;
+        }
+        int slot = mix(chunkPos) & mask;
+        for (int probes = 0; probes < k.length; probes++) {
+            long key = k[slot];
+            if (key == chunkPos) {
+                return v[slot];
+            }
+            if (key == EMPTY) {
+                return missing;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return missing;
+    }
+
+    /**
+     * Returns the slot holding the key, or the empty slot where it would be inserted.
+     */
+    private static int slotFor(long[] k, long chunkPos) {
+        int mask = k.length - 1;
+        int slot = mix(chunkPos) & mask;
+        while (k[slot] != EMPTY && k[slot] != chunkPos) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Backward-shift deletion: pulls later entries of the probe chain into the freed slot
+     * so lookups never need tombstones.
+     */
+    private void shiftBackFrom(int freed) {
+        int mask = keys.length - 1;
+        int gap = freed;
+        int slot = gap;
+        while (true) {
+            slot = (slot + 1) & mask;
+            long key = keys[slot];
+            if (key == EMPTY) {
+                break;
+            }
+            int home = mix(key) & mask;
+            // Move the entry back if its home slot is not cyclically within (gap, slot]
+            boolean movable = gap <= slot ? home <= gap || home > slot : home <= gap && home > slot;
+            if (movable) {
+                keys[gap] = key;
+                values[gap] = values[slot];
+                gap = slot;
+            }
+        }
+        keys[gap] = EMPTY;
+        values[gap] = 0;
+    }
+
+    private void allocate(int capacity) {
+        long[] newKeys = new long[capacity];
+        Arrays.fill(newKeys, EMPTY);
+        keys = newKeys;
+        values = new int[capacity];
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private void allocateAndRehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = slotFor(keys, oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int needed = (int) Math.ceil(Math.max(expectedSize, 1) / LOAD_FACTOR) + 1;
+        return Math.max(MIN_CAPACITY, Integer.highestOneBit(needed - 1) << 1);
+    }
+
+    static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        return (int) (h ^ (h >>> 16));
+    }
+}
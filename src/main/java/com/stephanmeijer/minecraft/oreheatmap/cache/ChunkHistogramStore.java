@@ -0,0 +1,120 @@
+package com.stephanmeijer.minecraft.oreheatmap.cache;
+
+import java.util.Arrays;
+
+/**
+ * {@link OreHistogram}s keyed by packed chunk position: an open-addressing long to int[] table
+ * laid out like {@link ChunkCountStore}, so the per-chunk overhead is one key and one reference.
+ *
+ * <p>Client thread only.
+ */
+public final class ChunkHistogramStore {
+
+    // Packs to chunk z = Integer.MIN_VALUE, far outside any world border
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final int MIN_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private long[] keys;
+    private int[][] values;
+    private int size;
+    private int resizeThreshold;
+
+    public ChunkHistogramStore() {
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * Returns the stored histogram, or null if the chunk has none.
+     */
+    public int[] get(long chunkPos) {
+        int slot = slotFor(keys, chunkPos);
+        return keys[slot] == EMPTY ? null : values[slot];
+    }
+
+    public void put(long chunkPos, int[] histogram) {
+        int slot = slotFor(keys, chunkPos);
+        if (keys[slot] == EMPTY) {
+            if (size >= resizeThreshold) {
+                rehash(keys.length << 1);
+                slot = slotFor(keys, chunkPos);
+            }
+            keys[slot] = chunkPos;
+            size++;
+        }
+        values[slot] = histogram;
+    }
+
+    public void remove(long chunkPos) {
+        int slot = slotFor(keys, chunkPos);
+        if (keys[slot] != EMPTY) {
+            shiftBackFrom(slot);
+            size--;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static int slotFor(long[] k, long chunkPos) {
+        int mask = k.length - 1;
+        int slot = mix(chunkPos) & mask;
+        while (k[slot] != EMPTY && k[slot] != chunkPos) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Backward-shift deletion, as in {@link ChunkCountStore}.
+     */
+    private void shiftBackFrom(int freed) {
+        int mask = keys.length - 1;
+        int gap = freed;
+        int slot = gap;
+        while (true) {
+            slot = (slot + 1) & mask;
+            long key = keys[slot];
+            if (key == EMPTY) {
+                break;
+            }
+            int home = mix(key) & mask;
+            boolean movable = gap <= slot ? home <= gap || home > slot : home <= gap && home > slot;
+            if (movable) {
+                keys[gap] = key;
+                values[gap] = values[slot];
+                gap = slot;
+            }
+        }
+        keys[gap] = EMPTY;
+        values[gap] = null;
+    }
+
+    private void allocate(int capacity) {
+        long[] newKeys = new long[capacity];
+        Arrays.fill(newKeys, EMPTY);
+        keys = newKeys;
+        values = new int[capacity][];
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[][] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = slotFor(keys, oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        return (int) (h ^ (h >>> 16));
+    }
+}
@@ -0,0 +1,95 @@
+package com.stephanmeijer.minecraft.oreheatmap.cache;
+
+/**
+ * Distribution of the non-zero chunk counts of one dimension, for scaling the heatmap colors.
+ *
+ * <p>A log-linear histogram: counts below {@link #LINEAR_LIMIT} get a bin each, larger counts
+ * share 16 bins per power of two, so a reported value is at most 1/16 above the true one.
+ * Adding or removing a count is a single array update; {@link #quantile} and {@link #max}
+ * walk the fixed set of bins and never touch the chunks themselves.
+ *
+ * <p>Mutated only on the client thread.
+ */
+public final class CountDistribution {
+
+    private static final int LINEAR_LIMIT = 64;
+    private static final int LINEAR_BITS = 6;
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BINS = LINEAR_LIMIT + ((Integer.SIZE - 1 - LINEAR_BITS) * SUB_BUCKETS);
+
+    private final int[] bins = new int[BINS];
+    private int size;
+
+    /**
+     * Number of non-zero counts recorded.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Smallest recorded value that at least the given fraction of counts do not exceed, e.g. 0.95
+     * for the 95th percentile; 0 if nothing is recorded.
+     */
+    public int quantile(double fraction) {
+        if (size == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * size));
+        long seen = 0;
+        for (int bin = 0; bin < BINS; bin++) {
+            seen += bins[bin];
+            if (seen >= rank) {
+                return upperBound(bin);
+            }
+        }
+        return max();
+    }
+
+    /**
+     * Largest recorded count, or 0 if nothing is recorded.
+     */
+    public int max() {
+        for (int bin = BINS - 1; bin >= 0; bin--) {
+            if (bins[bin] > 0) {
+                return upperBound(bin);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Replaces one chunk's count; either side may be zero or negative for "no count".
+     */
+    void update(int previous, int count) {
+        if (previous > 0) {
+            bins[bin(previous)]--;
+            size--;
+        }
+        if (count > 0) {
+            bins[bin(count)]++;
+            size++;
+        }
+    }
+
+    private static int bin(int count) {
+        if (count < LINEAR_LIMIT) {
+            return count;
+        }
+        int exponent = Integer.SIZE - 1 - Integer.numberOfLeadingZeros(count);
+        int sub = (count >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_LIMIT + ((exponent - LINEAR_BITS) * SUB_BUCKETS) + sub;
+    }
+
+    private static int upperBound(int bin) {
+        if (bin < LINEAR_LIMIT) {
+            return bin;
+        }
+        int exponent = ((bin - LINEAR_LIMIT) / SUB_BUCKETS) + LINEAR_BITS;
+        int sub = (bin - LINEAR_LIMIT) % SUB_BUCKETS;
+        long lower = (long) (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (int) Math.min(Integer.MAX_VALUE, lower + width - 1);
+    }
+}
@@ -0,0 +1,724 @@
+package com.stephanmeijer.minecraft.oreheatmap.cache;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.LongConsumer;
+
+import com.stephanmeijer.minecraft.oreheatmap.OreHeatmapMod;
+import com.stephanmeijer.minecraft.oreheatmap.metrics.HeatmapMetrics;
+
+/**
+ * Cached ore counts for one dimension, backed by a region-tiled file on disk.
+ *
+ * <p>Regions stored on disk are decoded into memory only when first needed: any access to a
+ * chunk pages in its region, and {@link #loadRegionsIn} pages in the area being displayed.
+ * Regions changed since the last save are tracked so a save only re-encodes those tiles.
+ * {@link #evictRegions} pages saved regions that were not used for a while back out, so memory
+ * follows the areas being looked at rather than everything explored.
+ *
+ * <p>The number of chunks held per region doubles as a coarse spatial index, so area queries
+ * skip empty regions and never touch chunks outside the requested area. Paged-in counts are
+ * also aggregated into a {@link HeatPyramid} for drawing zoomed-out maps, and their
+ * {@link CountDistribution} is kept up to date for scaling colors.
+ *
+ * <p>Each chunk also keeps an {@link OreHistogram} of its ores per section. Area queries, the pyramid
+ * and {@link #maxCount} report counts for the current view: an {@link OreFilter} and optionally a
+ * range of sections. Views other than all ores over the whole column are derived from the
+ * histograms, through per-chunk prefix sums when a range is set, so switching views or following
+ * the player up and down recomputes them from memory without rescanning.
+ *
+ * <p>Chunks scanned without any ores take no count; a bitmap per region marks them instead, so they
+ * are known to be scanned and never rescanned, but stay out of area queries, the pyramid and the
+ * distribution. They are saved and paged in with their region like every other chunk.
+ *
+ * <p>Mutated only on the client thread.
+ */
+public final class DimensionCache {
+
+    /**
+     * Receives every count stored through {@link #put}, e.g. to journal it.
+     */
+    @FunctionalInterface
+    public interface ChangeLog {
+        void record(String dimension, long chunkPos, int count, int[] histogram);
+    }
+
+    /**
+     * Tiles to write for one save, captured on the client thread.
+     */
+    record SaveJob(DimensionCache cache, List<String> oreNames, List<RegionTileFile.Tile> tiles, int generation) {
+    }
+
+    private final String dimension;
+    private final OreIndex ores;
+    private final ChangeLog changeLog;
+    private final ChunkCountStore counts = new ChunkCountStore();
+    private final ChunkHistogramStore histograms = new ChunkHistogramStore();
+    private final ChunkCountStore regionOccupancy = new ChunkCountStore();
+    private final ChunkCountStore regionVersions = new ChunkCountStore();
+    // Rough heap use of one chunk in memory: its count, histogram and share of the view and pyramid
+    private static final int ESTIMATED_BYTES_PER_CHUNK = 160;
+    // An empty-chunk bitmap and its map entry
+    private static final int ESTIMATED_BYTES_PER_EMPTY_BITMAP = RegionKeys.CHUNKS_PER_REGION / Byte.SIZE + 64;
+
+    // Chunks scanned without ores, as a bitmap of local indices per region
+    private final Map<Long, long[]> emptyChunks = new HashMap<>();
+    // Counts under the current view; the same store as counts when all ores of the whole column are shown
+    private ChunkCountStore shown = counts;
+    private HeatPyramid pyramid = new HeatPyramid();
+    private CountDistribution distribution = new CountDistribution();
+    private OreFilter filter = OreFilter.ALL;
+    private boolean[] filteredOres;
+    // Section index range of the view; prefix sums of the filtered ores exist only while it is set
+    private boolean sectionLimited;
+    private int fromSection;
+    private int toSection;
+    private ChunkHistogramStore prefixes;
+    private final Set<Long> unloadedRegions = new HashSet<>();
+    // Eviction pass in which each paged-in region was last used
+    private final ChunkCountStore regionUses = new ChunkCountStore();
+    private int useEpoch;
+    private final Set<Long> dirtyRegions = new HashSet<>();
+    private final Set<Long> savingRegions = new HashSet<>();
+    private RegionTileFile file;
+    private int[] fileOreIds;
+    // Set when raw tiles of the attached file cannot be carried over into a new one
+    private boolean rewriteFile;
+    private int generation;
+    private boolean saving;
+    private boolean damagedTileReported;
+
+    public DimensionCache(String dimension) {
+        this(dimension, new OreIndex(), null);
+    }
+
+    public DimensionCache(String dimension, OreIndex ores, ChangeLog changeLog) {
+        this.dimension = dimension;
+        this.ores = ores;
+        this.changeLog = changeLog;
+    }
+
+    public String dimension() {
+        return dimension;
+    }
+
+    /**
+     * Counts under the current filter for the regions paged in so far. Callers wanting a
+     * specific area should page it in first via {@link #loadRegionsIn}.
+     */
+    public ChunkCountStore counts() {
+        return shown;
+    }
+
+    /**
+     * Total of all ores in a chunk regardless of the view: 0 for a chunk scanned without ores,
+     * -1 if the chunk was never scanned.
+     */
+    public int count(long chunkPos) {
+        loadRegion(RegionKeys.regionOf(chunkPos));
+        return counts.get(chunkPos, isEmptyChunk(chunkPos) ? 0 : -1);
+    }
+
+    /**
+     * Per-ore counts of a paged-in chunk, or null if it was stored without them.
+     */
+    public int[] histogram(long chunkPos) {
+        int[] histogram = histograms.get(chunkPos);
+        return histogram == null && isEmptyChunk(chunkPos) ? OreHistogram.EMPTY : histogram;
+    }
+
+    public OreFilter filter() {
+        return filter;
+    }
+
+    /**
+     * Switches the ores counted by area queries, the pyramid and {@link #maxCount}.
+     * Recomputed from the paged-in histograms; chunks stored without a histogram count as zero.
+     */
+    public void setFilter(OreFilter newFilter) {
+        if (newFilter == filter) {
+            return;
+        }
+        filter = newFilter;
+        filteredOres = newFilter.isAll() ? null : newFilter.resolve(ores);
+        if (sectionLimited) {
+            prefixes = new ChunkHistogramStore();
+        }
+        rebuildView();
+    }
+
+    /**
+     * Limits the view to ores between two section Y coordinates ({@code blockY >> 4}, inclusive).
+     * Chunks stored without per-section counts count as zero while a range is set.
+     *
+     * @return whether the view changed
+     */
+    public boolean setSectionRange(int minSectionY, int maxSectionY) {
+        int from = OreHistogram.sectionIndex(minSectionY);
+        int to = OreHistogram.sectionIndex(maxSectionY);
+        if (sectionLimited && from == fromSection && to == toSection) {
+            return false;
+        }
+        if (!sectionLimited) {
+            prefixes = new ChunkHistogramStore();
+        }
+        sectionLimited = true;
+        fromSection = from;
+        toSection = to;
+        rebuildView();
+        return true;
+    }
+
+    public boolean isSectionLimited() {
+        return sectionLimited;
+    }
+
+    /**
+     * Lower bound of the range set by {@link #setSectionRange}, as a section Y coordinate.
+     */
+    public int minSectionY() {
+        return fromSection - OreHistogram.sectionIndex(0);
+    }
+
+    /**
+     * Upper bound of the range set by {@link #setSectionRange}, as a section Y coordinate.
+     */
+    public int maxSectionY() {
+        return toSection - OreHistogram.sectionIndex(0);
+    }
+
+    /**
+     * Shows the whole column again.
+     *
+     * @return whether the view changed
+     */
+    public boolean clearSectionRange() {
+        if (!sectionLimited) {
+            return false;
+        }
+        sectionLimited = false;
+        prefixes = null;
+        rebuildView();
+        return true;
+    }
+
+    private void rebuildView() {
+        boolean allShown = filter.isAll() && !sectionLimited;
+        shown = allShown ? counts : new ChunkCountStore(counts.size());
+        pyramid = new HeatPyramid();
+        distribution = new CountDistribution();
+        counts.forEach((chunkPos, count) -> {
+            int shownCount = shownCount(chunkPos, count);
+            if (shown != counts) {
+                shown.put(chunkPos, shownCount);
+            }
+            updateShown(chunkPos, -1, shownCount);
+        });
+        regionOccupancy.forEach((regionKey, chunks) -> bumpVersion(regionKey));
+    }
+
+    /**
+     * Whether a chunk was scanned, including chunks that had no ores.
+     */
+    public boolean contains(long chunkPos) {
+        loadRegion(RegionKeys.regionOf(chunkPos));
+        return counts.contains(chunkPos) || isEmptyChunk(chunkPos);
+    }
+
+    /**
+     * Stores a chunk's total and per-ore counts. A chunk without ores that holds no count yet is
+     * only marked as scanned.
+     *
+     * @param histogram per-ore counts, or null if unknown
+     */
+    public void put(long chunkPos, int count, int[] histogram) {
+        apply(chunkPos, count, histogram);
+        if (changeLog != null) {
+            changeLog.record(dimension, chunkPos, count, histogram);
+        }
+    }
+
+    /**
+     * Applies one changed block to a cached chunk: an ore of {@code removedOre} mined and one of
+     * {@code addedOre} placed, either -1 for none. Chunks stored without a histogram only have
+     * their count adjusted.
+     *
+     * @return the chunk's new count, or -1 if the chunk is not cached
+     */
+    public int changeBlock(long chunkPos, int section, int removedOre, int addedOre) {
+        int count = count(chunkPos);
+        if (count < 0) {
+            return -1;
+        }
+        int[] histogram = histogram(chunkPos);
+        if (removedOre >= 0) {
+            count = Math.max(0, count - 1);
+            histogram = histogram == null ? null : OreHistogram.add(histogram, removedOre, section, -1);
+        }
+        if (addedOre >= 0) {
+            count++;
+            histogram = histogram == null ? null : OreHistogram.add(histogram, addedOre, section, 1);
+        }
+        if (histogram != null) {
+            count = OreHistogram.total(histogram);
+        }
+        put(chunkPos, count, histogram);
+        return count;
+    }
+
+    /**
+     * Pages in every stored region overlapping the given chunk area (bounds inclusive).
+     */
+    public void loadRegionsIn(int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ) {
+        for (int rx = minChunkX >> RegionKeys.REGION_SHIFT; rx <= maxChunkX >> RegionKeys.REGION_SHIFT; rx++) {
+            for (int rz = minChunkZ >> RegionKeys.REGION_SHIFT; rz <= maxChunkZ >> RegionKeys.REGION_SHIFT; rz++) {
+                long regionKey = ChunkCountStore.pack(rx, rz);
+                // Also marks paged-in regions as used, so they are not evicted while on screen
+                if (unloadedRegions.contains(regionKey) || regionUses.contains(regionKey)) {
+                    loadRegion(regionKey);
+                }
+            }
+        }
+    }
+
+    /**
+     * Pages regions out, least recently used first, until the estimated memory use is within
+     * {@code maxBytes}. Regions used since the previous call stay, and so do regions with changes
+     * that are not saved yet. Paged-out regions are read back from the file when next needed.
+     *
+     * @return whether unsaved regions were kept that would otherwise have been paged out
+     */
+    public boolean evictRegions(long maxBytes) {
+        int epoch = useEpoch++;
+        if (estimatedBytes() <= maxBytes) {
+            return false;
+        }
+        List<Long> idle = new ArrayList<>();
+        regionUses.forEach((regionKey, used) -> {
+            if (used != epoch) {
+                idle.add(regionKey);
+            }
+        });
+        idle.sort(Comparator.comparingInt(regionKey -> regionUses.get(regionKey, 0)));
+
+        boolean keptUnsaved = false;
+        for (long regionKey : idle) {
+            if (estimatedBytes() <= maxBytes) {
+                break;
+            }
+            if (dirtyRegions.contains(regionKey) || savingRegions.contains(regionKey)) {
+                keptUnsaved = true;
+            } else if (file != null && file.hasRegion(regionKey)) {
+                evictRegion(regionKey);
+            } else {
+                // Saved regions are all in the file, so this one holds nothing
+                regionUses.remove(regionKey);
+            }
+        }
+        return keptUnsaved;
+    }
+
+    /**
+     * Visits the paged-in chunks inside the given chunk area (bounds inclusive).
+     * Cost is proportional to the occupied regions overlapping the area, not to the whole dimension.
+     */
+    public void forEachInArea(int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ,
+                              ChunkCountStore.EntryConsumer consumer) {
+        for (int rx = minChunkX >> RegionKeys.REGION_SHIFT; rx <= maxChunkX >> RegionKeys.REGION_SHIFT; rx++) {
+            int fromX = Math.max(minChunkX, rx << RegionKeys.REGION_SHIFT);
+            int toX = Math.min(maxChunkX, (rx << RegionKeys.REGION_SHIFT) + RegionKeys.REGION_SIZE - 1);
+            for (int rz = minChunkZ >> RegionKeys.REGION_SHIFT; rz <= maxChunkZ >> RegionKeys.REGION_SHIFT; rz++) {
+                if (regionOccupancy.get(ChunkCountStore.pack(rx, rz), 0) == 0) {
+                    continue;
+                }
+                int fromZ = Math.max(minChunkZ, rz << RegionKeys.REGION_SHIFT);
+                int toZ = Math.min(maxChunkZ, (rz << RegionKeys.REGION_SHIFT) + RegionKeys.REGION_SIZE - 1);
+                forEachInRange(fromX, fromZ, toX, toZ, consumer);
+            }
+        }
+    }
+
+    /**
+     * Visits the paged-in data inside the given chunk area (bounds inclusive) aggregated at a
+     * {@link HeatPyramid} level: level 0 visits single chunks, level {@code n} cells of 2^n x 2^n chunks.
+     * A cell is visited if any part of it overlaps the area.
+     */
+    public void forEachCellInArea(int level, int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ,
+                                  HeatPyramid.CellConsumer consumer) {
+        if (level == 0) {
+            forEachInArea(minChunkX, minChunkZ, maxChunkX, maxChunkZ, (chunkPos, count) ->
+                    consumer.accept(ChunkCountStore.unpackX(chunkPos), ChunkCountStore.unpackZ(chunkPos), count, 1));
+            return;
+        }
+        int cellShift = RegionKeys.REGION_SHIFT - level;
+        for (int rx = minChunkX >> RegionKeys.REGION_SHIFT; rx <= maxChunkX >> RegionKeys.REGION_SHIFT; rx++) {
+            int fromX = Math.max(minChunkX >> level, rx << cellShift);
+            int toX = Math.min(maxChunkX >> level, ((rx + 1) << cellShift) - 1);
+            for (int rz = minChunkZ >> RegionKeys.REGION_SHIFT; rz <= maxChunkZ >> RegionKeys.REGION_SHIFT; rz++) {
+                if (regionOccupancy.get(ChunkCountStore.pack(rx, rz), 0) == 0) {
+                    continue;
+                }
+                int fromZ = Math.max(minChunkZ >> level, rz << cellShift);
+                int toZ = Math.min(maxChunkZ >> level, ((rz + 1) << cellShift) - 1);
+                pyramid.forEachInRange(level, fromX, fromZ, toX, toZ, consumer);
+            }
+        }
+    }
+
+    /**
+     * Visits the occupied, paged-in regions overlapping the given chunk area (bounds inclusive).
+     */
+    public void forEachRegionInArea(int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ, LongConsumer consumer) {
+        for (int rx = minChunkX >> RegionKeys.REGION_SHIFT; rx <= maxChunkX >> RegionKeys.REGION_SHIFT; rx++) {
+            for (int rz = minChunkZ >> RegionKeys.REGION_SHIFT; rz <= maxChunkZ >> RegionKeys.REGION_SHIFT; rz++) {
+                long regionKey = ChunkCountStore.pack(rx, rz);
+                if (regionOccupancy.get(regionKey, 0) > 0) {
+                    consumer.accept(regionKey);
+                }
+            }
+        }
+    }
+
+    /**
+     * Counter bumped whenever a chunk in the region changes in memory, so derived data such as
+     * rendered tiles can tell whether it is stale.
+     */
+    public int regionVersion(long regionKey) {
+        return regionVersions.get(regionKey, 0);
+    }
+
+    /**
+     * Distribution of the non-zero counts under the current view, over the regions paged in so far.
+     */
+    public CountDistribution distribution() {
+        return distribution;
+    }
+
+    /**
+     * Highest count in the dimension, within the {@link CountDistribution} bin precision. Regions not
+     * paged in yet are included when all ores of the whole column are shown, from the maxima stored
+     * in the file index.
+     */
+    public int maxCount() {
+        int max = distribution.max();
+        if (shown != counts) {
+            return max;
+        }
+        for (long regionKey : unloadedRegions) {
+            max = Math.max(max, file.maxCount(regionKey));
+        }
+        return max;
+    }
+
+    public boolean isDirty() {
+        return !dirtyRegions.isEmpty();
+    }
+
+    public boolean isEmpty() {
+        return counts.isEmpty() && emptyChunks.isEmpty() && unloadedRegions.isEmpty();
+    }
+
+    /**
+     * Number of chunks in memory, whatever the view.
+     */
+    public int loadedChunkCount() {
+        return counts.size();
+    }
+
+    /**
+     * Number of chunks in memory known to hold no ores.
+     */
+    public int loadedEmptyChunkCount() {
+        int empty = 0;
+        for (long[] bitmap : emptyChunks.values()) {
+            for (long word : bitmap) {
+                empty += Long.bitCount(word);
+            }
+        }
+        return empty;
+    }
+
+    /**
+     * Rough heap use of the chunks in memory, for deciding what to evict.
+     */
+    public long estimatedBytes() {
+        return (long) counts.size() * ESTIMATED_BYTES_PER_CHUNK + (long) emptyChunks.size() * ESTIMATED_BYTES_PER_EMPTY_BITMAP;
+    }
+
+    /**
+     * Number of stored regions not paged in yet.
+     */
+    public int unloadedRegionCount() {
+        return unloadedRegions.size();
+    }
+
+    int generation() {
+        return generation;
+    }
+
+    boolean hasFile() {
+        return file != null;
+    }
+
+    boolean isSaving() {
+        return saving;
+    }
+
+    /**
+     * Stores counts without recording them, e.g. when replaying a journal.
+     */
+    void apply(long chunkPos, int count, int[] histogram) {
+        long regionKey = RegionKeys.regionOf(chunkPos);
+        loadRegion(regionKey);
+        long[] empty = emptyChunks.get(regionKey);
+        int localIndex = RegionKeys.localIndex(chunkPos);
+        if (count == 0 && (histogram == null || histogram.length == 0) && !counts.contains(chunkPos)) {
+            if (empty == null) {
+                empty = new long[RegionKeys.CHUNKS_PER_REGION / Long.SIZE];
+                emptyChunks.put(regionKey, empty);
+            }
+            if ((empty[localIndex >>> 6] & (1L << localIndex)) == 0) {
+                empty[localIndex >>> 6] |= 1L << localIndex;
+                dirtyRegions.add(regionKey);
+            }
+            return;
+        }
+        if (empty != null) {
+            empty[localIndex >>> 6] &= ~(1L << localIndex);
+        }
+        int previous = counts.put(chunkPos, count);
+        if (previous < 0) {
+            regionOccupancy.put(regionKey, regionOccupancy.get(regionKey, 0) + 1);
+        }
+        histograms.put(chunkPos, histogram);
+        if (prefixes != null) {
+            // Recomputed on demand from the new histogram
+            prefixes.put(chunkPos, null);
+        }
+        int shownCount = shownCount(chunkPos, count);
+        int previousShown = shown == counts ? previous : shown.put(chunkPos, shownCount);
+        updateShown(chunkPos, previousShown, shownCount);
+        bumpVersion(regionKey);
+        dirtyRegions.add(regionKey);
+    }
+
+    /**
+     * Adopts a freshly opened file as the backing store. All its regions start out unloaded.
+     */
+    void attach(RegionTileFile tileFile, int fileGeneration) {
+        useFile(tileFile, fileGeneration);
+        unloadedRegions.clear();
+        unloadedRegions.addAll(tileFile.regions());
+    }
+
+    /**
+     * Captures the tiles for a save: changed regions are encoded from memory now, all other
+     * regions are referenced in the current file and copied byte for byte by the writer.
+     *
+     * @return null if nothing changed or a save of this dimension is still in flight
+     */
+    SaveJob beginSave() {
+        if (saving || (dirtyRegions.isEmpty() && !rewriteFile)) {
+            return null;
+        }
+        if (rewriteFile) {
+            // A different ore numbering: re-encode every region from memory
+            for (long regionKey : file.regions()) {
+                loadRegion(regionKey);
+                dirtyRegions.add(regionKey);
+            }
+            rewriteFile = false;
+        }
+        Set<Long> regions = new HashSet<>(dirtyRegions);
+        if (file != null) {
+            regions.addAll(file.regions());
+        }
+        List<RegionTileFile.Tile> tiles = new ArrayList<>(regions.size());
+        for (long regionKey : regions) {
+            RegionTileFile.Tile tile = dirtyRegions.contains(regionKey) ?
+                    RegionTileFile.encodeTile(regionKey, counts, histograms, emptyChunks.get(regionKey)) :
+                    file.tileView(regionKey);
+            if (tile != null) {
+                tiles.add(tile);
+            }
+        }
+        savingRegions.addAll(dirtyRegions);
+        dirtyRegions.clear();
+        saving = true;
+        return new SaveJob(this, ores.names(), tiles, generation + 1);
+    }
+
+    /**
+     * Switches to the file written for the last {@link #beginSave}. Regions that were not
+     * paged in are byte-identical in the new file and stay unloaded.
+     */
+    void completeSave(RegionTileFile tileFile, int fileGeneration) {
+        useFile(tileFile, fileGeneration);
+        savingRegions.clear();
+        saving = false;
+    }
+
+    /**
+     * Marks the regions of a failed save as changed again so the next save retries them.
+     */
+    void failSave() {
+        dirtyRegions.addAll(savingRegions);
+        savingRegions.clear();
+        saving = false;
+    }
+
+    private void forEachInRange(int fromX, int fromZ, int toX, int toZ, ChunkCountStore.EntryConsumer consumer) {
+        for (int x = fromX; x <= toX; x++) {
+            for (int z = fromZ; z <= toZ; z++) {
+                long chunkPos = ChunkCountStore.pack(x, z);
+                int count = shown.get(chunkPos, -1);
+                if (count >= 0) {
+                    consumer.accept(chunkPos, count);
+                }
+            }
+        }
+    }
+
+    private void useFile(RegionTileFile tileFile, int fileGeneration) {
+        this.file = tileFile;
+        this.generation = fileGeneration;
+        this.fileOreIds = ores.remap(tileFile.oreNames());
+        boolean sameNumbering = true;
+        for (int i = 0; i < fileOreIds.length; i++) {
+            sameNumbering &= fileOreIds[i] == i;
+        }
+        this.rewriteFile = !sameNumbering;
+    }
+
+    private int shownCount(long chunkPos, int count) {
+        if (shown == counts) {
+            return count;
+        }
+        int[] histogram = histograms.get(chunkPos);
+        if (histogram == null) {
+            return 0;
+        }
+        if (filteredOres != null && ores.size() > filteredOres.length) {
+            // Ores interned since the filter was set
+            filteredOres = filter.resolve(ores);
+        }
+        if (!sectionLimited) {
+            return OreHistogram.sum(histogram, filteredOres);
+        }
+        int[] prefix = prefixes.get(chunkPos);
+        if (prefix == null) {
+            prefix = OreHistogram.prefixSums(histogram, filteredOres);
+            prefixes.put(chunkPos, prefix);
+        }
+        return OreHistogram.rangeSum(prefix, fromSection, toSection);
+    }
+
+    private void loadRegion(long regionKey) {
+        regionUses.put(regionKey, useEpoch);
+        if (unloadedRegions.contains(regionKey)) {
+            long start = System.nanoTime();
+            // Unloaded regions never have chunks in memory, so the tile holds all of them
+            long[] empty = new long[RegionKeys.CHUNKS_PER_REGION / Long.SIZE];
+            int decoded;
+            try {
+                decoded = file.readTile(regionKey, counts, histograms, fileOreIds, empty);
+            } catch (RuntimeException e) {
+                // Malformed bytes fail in many ways; the region starts over empty and is rescanned
+                dropDamagedRegion(regionKey, e);
+                return;
+            }
+            unloadedRegions.remove(regionKey);
+            regionOccupancy.put(regionKey, decoded);
+            for (long word : empty) {
+                if (word != 0) {
+                    emptyChunks.put(regionKey, empty);
+                    break;
+                }
+            }
+            for (int i = 0; i < RegionKeys.CHUNKS_PER_REGION; i++) {
+                long chunkPos = RegionKeys.chunkAt(regionKey, i);
+                int count = counts.get(chunkPos, -1);
+                if (count >= 0) {
+                    int shownCount = shownCount(chunkPos, count);
+                    if (shown != counts) {
+                        shown.put(chunkPos, shownCount);
+                    }
+                    updateShown(chunkPos, -1, shownCount);
+                }
+            }
+            bumpVersion(regionKey);
+            HeatmapMetrics.REGIONS_PAGED_IN.increment();
+            HeatmapMetrics.REGION_PAGE_IN.recordSince(start);
+        }
+    }
+
+    /**
+     * Forgets the chunks decoded from a damaged tile before it failed. The region is marked changed,
+     * so the next save leaves the tile out instead of copying it over.
+     */
+    private void dropDamagedRegion(long regionKey, RuntimeException cause) {
+        for (int i = 0; i < RegionKeys.CHUNKS_PER_REGION; i++) {
+            long chunkPos = RegionKeys.chunkAt(regionKey, i);
+            counts.remove(chunkPos);
+            histograms.remove(chunkPos);
+        }
+        unloadedRegions.remove(regionKey);
+        dirtyRegions.add(regionKey);
+        if (!damagedTileReported) {
+            damagedTileReported = true;
+            OreHeatmapMod.LOGGER.error("Damaged region tile in ore cache for {} - its chunks will be scanned again", dimension, cause);
+        } else {
+            OreHeatmapMod.LOGGER.debug("Damaged region tile {},{} in ore cache for {}: {}", ChunkCountStore.unpackX(regionKey),
+                    ChunkCountStore.unpackZ(regionKey), dimension, cause.toString());
+        }
+    }
+
+    /**
+     * Drops a saved region's chunks from memory and everything derived from them.
+     */
+    private void evictRegion(long regionKey) {
+        for (int i = 0; i < RegionKeys.CHUNKS_PER_REGION; i++) {
+            long chunkPos = RegionKeys.chunkAt(regionKey, i);
+            int count = counts.get(chunkPos, -1);
+            if (count < 0) {
+                continue;
+            }
+            distribution.update(shown == counts ? count : shown.get(chunkPos, 0), -1);
+            if (shown != counts) {
+                shown.remove(chunkPos);
+            }
+            if (prefixes != null) {
+                prefixes.remove(chunkPos);
+            }
+            counts.remove(chunkPos);
+            histograms.remove(chunkPos);
+        }
+        pyramid.clearRegion(regionKey);
+        regionOccupancy.remove(regionKey);
+        emptyChunks.remove(regionKey);
+        regionUses.remove(regionKey);
+        unloadedRegions.add(regionKey);
+        bumpVersion(regionKey);
+        HeatmapMetrics.REGIONS_EVICTED.increment();
+    }
+
+    private boolean isEmptyChunk(long chunkPos) {
+        long[] empty = emptyChunks.get(RegionKeys.regionOf(chunkPos));
+        int localIndex = RegionKeys.localIndex(chunkPos);
+        return empty != null && (empty[localIndex >>> 6] & (1L << localIndex)) != 0;
+    }
+
+    private void updateShown(long chunkPos, int previousShown, int shownCount) {
+        pyramid.update(chunkPos, previousShown, shownCount);
+        distribution.update(previousShown, shownCount);
+    }
+
+    private void bumpVersion(long regionKey) {
+        regionVersions.put(regionKey, regionVersions.get(regionKey, 0) + 1);
+    }
+}
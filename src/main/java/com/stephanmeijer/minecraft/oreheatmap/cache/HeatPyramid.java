@@ -0,0 +1,91 @@
+package com.stephanmeijer.minecraft.oreheatmap.cache;
+
+/**
+ * Mipmap-like aggregates of chunk ore counts: level {@code n} holds one cell per
+ * 2^n x 2^n chunks with the summed count and the number of scanned chunks beneath it.
+ * Level 0 is the chunk counts themselves and is not stored here.
+ *
+ * <p>The top level matches the cache's regions, so a cell never spans two regions. Every change
+ * to a chunk is applied to all levels as a delta, costing {@link #MAX_LEVEL} updates per chunk.
+ *
+ * <p>Written by a single thread (the client thread), like {@link ChunkCountStore}.
+ */
+public final class HeatPyramid {
+
+    public static final int MAX_LEVEL = RegionKeys.REGION_SHIFT;
+
+    /**
+     * Receives aggregated cells. Cell coordinates are chunk coordinates shifted right by the level.
+     */
+    @FunctionalInterface
+    public interface CellConsumer {
+        void accept(int cellX, int cellZ, int oreSum, int chunkCount);
+    }
+
+    private final ChunkCountStore[] sums = new ChunkCountStore[MAX_LEVEL];
+    private final ChunkCountStore[] chunkCounts = new ChunkCountStore[MAX_LEVEL];
+
+    public HeatPyramid() {
+        for (int i = 0; i < MAX_LEVEL; i++) {
+            sums[i] = new ChunkCountStore();
+            chunkCounts[i] = new ChunkCountStore();
+        }
+    }
+
+    /**
+     * Folds a chunk's new count into every level.
+     *
+     * @param previous the chunk's previous count, or negative if it was not scanned before
+     */
+    void update(long chunkPos, int previous, int count) {
+        int delta = count - Math.max(previous, 0);
+        int chunkX = ChunkCountStore.unpackX(chunkPos);
+        int chunkZ = ChunkCountStore.unpackZ(chunkPos);
+        for (int level = 1; level <= MAX_LEVEL; level++) {
+            long cell = ChunkCountStore.pack(chunkX >> level, chunkZ >> level);
+            if (delta != 0) {
+                ChunkCountStore sum = sums[level - 1];
+                sum.put(cell, sum.get(cell, 0) + delta);
+            }
+            if (previous < 0) {
+                ChunkCountStore scanned = chunkCounts[level - 1];
+                scanned.put(cell, scanned.get(cell, 0) + 1);
+            }
+        }
+    }
+
+    /**
+     * Drops every cell of a region, whose chunks all left memory. Cells never span regions.
+     */
+    void clearRegion(long regionKey) {
+        int regionX = ChunkCountStore.unpackX(regionKey);
+        int regionZ = ChunkCountStore.unpackZ(regionKey);
+        for (int level = 1; level <= MAX_LEVEL; level++) {
+            int cellShift = RegionKeys.REGION_SHIFT - level;
+            for (int x = regionX << cellShift; x < (regionX + 1) << cellShift; x++) {
+                for (int z = regionZ << cellShift; z < (regionZ + 1) << cellShift; z++) {
+                    long cell = ChunkCountStore.pack(x, z);
+                    sums[level - 1].remove(cell);
+                    chunkCounts[level - 1].remove(cell);
+                }
+            }
+        }
+    }
+
+    /**
+     * Visits the cells of a level inside the given cell area (bounds inclusive) that contain scanned chunks.
+     */
+    void forEachInRange(int level, int fromCellX, int fromCellZ, int toCellX, int toCellZ, CellConsumer consumer) {
+        ChunkCountStore sum = sums[level - 1];
+        ChunkCountStore scanned = chunkCounts[level - 1];
+        for (int x = fromCellX; x <= toCellX; x++) {
+            for (int z = fromCellZ; z <= toCellZ; z++) {
+                long cell = ChunkCountStore.pack(x, z);
+                int chunks = scanned.get(cell, 0);
+                if (chunks > 0) {
+                    consumer.accept(x, z, sum.get(cell, 0), chunks);
+                }
+            }
+        }
+    }
+}
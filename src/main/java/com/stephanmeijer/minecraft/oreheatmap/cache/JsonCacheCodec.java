@@ -0,0 +1,61 @@
+package com.stephanmeijer.minecraft.oreheatmap.cache;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.gson.stream.JsonReader;
+import com.stephanmeijer.minecraft.oreheatmap.OreHeatmapMod;
+
+/**
+ * Streams the legacy JSON cache format ({@code {"dimension": {"x,z": count}}}) directly
+ * into {@link ChunkCountStore}s, without building intermediate maps. Only used to migrate
+ * old caches to {@link RegionTileFile}s.
+ */
+public final class JsonCacheCodec {
+
+    private JsonCacheCodec() {
+    }
+
+    public static Map<String, ChunkCountStore> read(Reader reader) throws IOException {
+        Map<String, ChunkCountStore> dimensions = new HashMap<>();
+        JsonReader json = new JsonReader(reader);
+        json.beginObject();
+        while (json.hasNext()) {
+            String dimension = json.nextName();
+            ChunkCountStore store = dimensions.computeIfAbsent(dimension, k -> new ChunkCountStore());
+            json.beginObject();
+            while (json.hasNext()) {
+                String chunkKey = json.nextName();
+                int count = json.nextInt();
+                long chunkPos = parseChunkKey(chunkKey);
+                if (chunkPos == Long.MIN_VALUE) {
+                    OreHeatmapMod.LOGGER.warn("Skipping invalid chunk key in cache: {}", chunkKey);
+                } else if (count > 0) {
+                    store.put(chunkPos, count);
+                }
+            }
+            json.endObject();
+        }
+        json.endObject();
+        return dimensions;
+    }
+
+    /**
+     * Parses an {@code "x,z"} key, returning {@code Long.MIN_VALUE} if it is malformed.
+     */
+    private static long parseChunkKey(String chunkKey) {
+        int comma = chunkKey.indexOf(',');
+        if (comma <= 0 || comma == chunkKey.length() - 1) {
+            return Long.MIN_VALUE;
+        }
+        try {
+            int x = Integer.parseInt(chunkKey, 0, comma, 10);
+            int z = Integer.parseInt(chunkKey, comma + 1, chunkKey.length(), 10);
+            return ChunkCountStore.pack(x, z);
+        } catch (NumberFormatException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.stephanmeijer.minecraft.oreheatmap.cache;
+
+import java.util.Set;
+
+/**
+ * Selects which ore types a heatmap view counts: all of them, or a named group of block IDs.
+ */
+public final class OreFilter {
+
+    public static final OreFilter ALL = new OreFilter("all", null);
+
+    private final String name;
+    private final Set<String> ores;
+
+    private OreFilter(String name, Set<String> ores) {
+        this.name = name;
+        this.ores = ores;
+    }
+
+    public static OreFilter of(String name, Set<String> ores) {
+        return new OreFilter(name, Set.copyOf(ores));
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public boolean isAll() {
+        return ores == null;
+    }
+
+    /**
+     * Block IDs counted by a named filter; empty for {@link #ALL}.
+     */
+    public Set<String> ores() {
+        return ores == null ? Set.of() : ores;
+    }
+
+    /**
+     * Marks the selected ores by their id in the given index.
+     */
+    boolean[] resolve(OreIndex index) {
+        int size = index.size();
+        boolean[] included = new boolean[size];
+        for (int id = 0; id < size; id++) {
+            included[id] = ores == null || ores.contains(index.name(id));
+        }
+        return included;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
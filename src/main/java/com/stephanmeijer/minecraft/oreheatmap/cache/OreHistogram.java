@@ -0,0 +1,216 @@
+package com.stephanmeijer.minecraft.oreheatmap.cache;
+
+import java.util.Arrays;
+
+/**
+ * Per-ore, per-section counts of one chunk, packed as a sorted array of
+ * {@code (oreId << 21) | (section << 13) | count} entries. Only ores present in a section have an
+ * entry, so a typical chunk needs a few dozen ints. Ore ids are indices into the world's
+ * {@link OreIndex}; sections are 16-block slices stored as {@link #sectionIndex section indices}.
+ *
+ * <p>Vertical queries go through {@link #prefixSums}, built once per chunk and ore selection,
+ * so the count for any Y range is a single subtraction.
+ */
+public final class OreHistogram {
+
+    public static final int[] EMPTY = new int[0];
+
+    static final int COUNT_BITS = 13;     // A section holds at most 4096 blocks
+    static final int SECTION_BITS = 8;    // Section Y -127..126 covers every legal build height
+    static final int MAX_ORE_ID = (1 << (Integer.SIZE - SECTION_BITS - COUNT_BITS)) - 1;
+    private static final int COUNT_MASK = (1 << COUNT_BITS) - 1;
+    private static final int SECTION_MASK = (1 << SECTION_BITS) - 1;
+    private static final int SECTION_OFFSET = 128;
+
+    private OreHistogram() {
+    }
+
+    /**
+     * Maps a section Y coordinate ({@code blockY >> 4}) to the index stored in entries.
+     */
+    public static int sectionIndex(int sectionY) {
+        return Math.max(0, Math.min(SECTION_MASK, sectionY + SECTION_OFFSET));
+    }
+
+    public static int entry(int oreId, int section, int count) {
+        return (oreId << (SECTION_BITS + COUNT_BITS)) | (section << COUNT_BITS) | count;
+    }
+
+    public static int oreId(int entry) {
+        return entry >>> (SECTION_BITS + COUNT_BITS);
+    }
+
+    public static int section(int entry) {
+        return (entry >>> COUNT_BITS) & SECTION_MASK;
+    }
+
+    public static int count(int entry) {
+        return entry & COUNT_MASK;
+    }
+
+    public static int total(int[] entries) {
+        int total = 0;
+        for (int entry : entries) {
+            total += count(entry);
+        }
+        return total;
+    }
+
+    /**
+     * Sums the counts of the ores selected by {@code included}, indexed by ore id; null selects all.
+     */
+    public static int sum(int[] entries, boolean[] included) {
+        int total = 0;
+        for (int entry : entries) {
+            if (isIncluded(entry, included)) {
+                total += count(entry);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Cumulative counts of the selected ores over the chunk's sections: element 0 holds the first
+     * section index with an entry, element {@code i + 1} the sum of all sections before
+     * {@code first + i}, and the last element the sum over all sections.
+     *
+     * @param included selected ores indexed by ore id, or null for all
+     */
+    public static int[] prefixSums(int[] entries, boolean[] included) {
+        int first = Integer.MAX_VALUE;
+        int last = Integer.MIN_VALUE;
+        for (int entry : entries) {
+            int section = section(entry);
+            if (isIncluded(entry, included)) {
+                first = Math.min(first, section);
+                last = Math.max(last, section);
+            }
+        }
+        if (first > last) {
+            return EMPTY;
+        }
+        int[] prefix = new int[last - first + 3];
+        prefix[0] = first;
+        for (int entry : entries) {
+            int section = section(entry);
+            if (isIncluded(entry, included)) {
+                prefix[section - first + 2] += count(entry);
+            }
+        }
+        for (int i = 2; i < prefix.length; i++) {
+            prefix[i] += prefix[i - 1];
+        }
+        return prefix;
+    }
+
+    /**
+     * Sum of the sections {@code fromSection..toSection} (inclusive section indices) from {@link #prefixSums}.
+     */
+    public static int rangeSum(int[] prefix, int fromSection, int toSection) {
+        if (prefix.length == 0) {
+            return 0;
+        }
+        int first = prefix[0];
+        int last = first + prefix.length - 3;
+        int from = Math.max(fromSection, first);
+        int to = Math.min(toSection, last);
+        if (from > to) {
+            return 0;
+        }
+        return prefix[to - first + 2] - prefix[from - first + 1];
+    }
+
+    /**
+     * Adds {@code delta} to one ore's count in one section, e.g. for a single block mined or placed.
+     * Counts stop at zero and emptied entries are dropped.
+     *
+     * @return updated entries in a new array, or {@code entries} itself if nothing changed
+     */
+    public static int[] add(int[] entries, int oreId, int section, int delta) {
+        int index = indexOf(entries, oreId, section);
+        if (index < 0) {
+            if (delta <= 0) {
+                return entries;
+            }
+            int[] grown = Arrays.copyOf(entries, entries.length + 1);
+            grown[entries.length] = entry(oreId, section, Math.min(delta, COUNT_MASK));
+            sort(grown);
+            return grown;
+        }
+        int count = Math.max(0, Math.min(COUNT_MASK, count(entries[index]) + delta));
+        if (count == 0) {
+            int[] shrunk = new int[entries.length - 1];
+            System.arraycopy(entries, 0, shrunk, 0, index);
+            System.arraycopy(entries, index + 1, shrunk, index, shrunk.length - index);
+            return shrunk;
+        }
+        int[] updated = entries.clone();
+        updated[index] = entry(oreId, section, count);
+        return updated;
+    }
+
+    /**
+     * Appends one section's non-zero counts as histogram entries and resets them for the next section.
+     * Entries come out sorted by ore once {@link #remap} translates the ids.
+     */
+    public static int[] appendSection(int[] entries, int[] counts, int sectionY) {
+        int present = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                present++;
+            }
+        }
+        if (present == 0) {
+            return entries;
+        }
+        int[] grown = Arrays.copyOf(entries, entries.length + present);
+        int section = sectionIndex(sectionY);
+        int next = entries.length;
+        for (int ore = 0; ore < counts.length; ore++) {
+            if (counts[ore] > 0) {
+                grown[next++] = entry(ore, section, counts[ore]);
+                counts[ore] = 0;
+            }
+        }
+        return grown;
+    }
+
+    /**
+     * Translates ore ids in place, e.g. from a scan's ore table to the world's.
+     */
+    public static int[] remap(int[] entries, int[] oreIds) {
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = entry(oreIds[oreId(entries[i])], section(entries[i]), count(entries[i]));
+        }
+        sort(entries);
+        return entries;
+    }
+
+    static void sort(int[] entries) {
+        // Ore ids may use the sign bit, so compare unsigned
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] ^= Integer.MIN_VALUE;
+        }
+        Arrays.sort(entries);
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] ^= Integer.MIN_VALUE;
+        }
+    }
+
+    private static int indexOf(int[] entries, int oreId, int section) {
+        for (int i = 0; i < entries.length; i++) {
+            if (oreId(entries[i]) == oreId && section(entries[i]) == section) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isIncluded(int entry, boolean[] included) {
+        if (included == null) {
+            return true;
+        }
+        int oreId = oreId(entry);
+        return oreId < included.length && included[oreId];
+    }
+}
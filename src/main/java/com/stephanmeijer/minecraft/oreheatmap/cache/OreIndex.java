@@ -0,0 +1,57 @@
+package com.stephanmeijer.minecraft.oreheatmap.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Numbers the ore types (block IDs) seen in one world's cache. Ids are append-only, so every ore
+ * table written to disk is a prefix of any later one and stored ids stay valid as ores are added.
+ *
+ * <p>Interned on the client thread; names are also looked up by the cache writer thread.
+ */
+public final class OreIndex {
+
+    private final List<String> names = new ArrayList<>();
+    private final Map<String, Integer> ids = new HashMap<>();
+
+    public synchronized int intern(String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        if (names.size() > OreHistogram.MAX_ORE_ID) {
+            throw new IllegalStateException("Too many ore types in cache: " + names.size());
+        }
+        names.add(name);
+        ids.put(name, names.size() - 1);
+        return names.size() - 1;
+    }
+
+    public synchronized String name(int id) {
+        return names.get(id);
+    }
+
+    public synchronized int size() {
+        return names.size();
+    }
+
+    /**
+     * Copy of the table in id order, for writing to disk.
+     */
+    public synchronized List<String> names() {
+        return List.copyOf(names);
+    }
+
+    /**
+     * Maps the ids of a stored ore table to ids in this index.
+     */
+    int[] remap(List<String> storedNames) {
+        int[] remap = new int[storedNames.size()];
+        for (int i = 0; i < remap.length; i++) {
+            remap[i] = intern(storedNames.get(i));
+        }
+        return remap;
+    }
+}
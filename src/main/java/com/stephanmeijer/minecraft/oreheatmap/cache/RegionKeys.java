@@ -0,0 +1,66 @@
+package com.stephanmeijer.minecraft.oreheatmap.cache;
+
+/**
+ * Helpers for the fixed 32x32-chunk regions the cache is tiled into, mirroring Anvil's layout.
+ * Region keys are packed the same way as chunk positions.
+ */
+public final class RegionKeys {
+
+    public static final int REGION_SHIFT = 5;
+    public static final int REGION_SIZE = 1 << REGION_SHIFT;
+    public static final int CHUNKS_PER_REGION = REGION_SIZE * REGION_SIZE;
+
+    private RegionKeys() {
+    }
+
+    public static long regionOf(long chunkPos) {
+        return ChunkCountStore.pack(ChunkCountStore.unpackX(chunkPos) >> REGION_SHIFT,
+                ChunkCountStore.unpackZ(chunkPos) >> REGION_SHIFT);
+    }
+
+    /**
+     * Index of a chunk within its region, row-major by z.
+     */
+    public static int localIndex(long chunkPos) {
+        int x = ChunkCountStore.unpackX(chunkPos) & (REGION_SIZE - 1);
+        int z = ChunkCountStore.unpackZ(chunkPos) & (REGION_SIZE - 1);
+        return (z << REGION_SHIFT) | x;
+    }
+
+    /**
+     * Position of a packed chunk or region key along the Z-order (Morton) curve, which keeps keys that
+     * are close on the map mostly close in order. Negative coordinates sort before positive ones.
+     */
+    public static long zOrder(long key) {
+        return spread(ChunkCountStore.unpackX(key) ^ Integer.MIN_VALUE) | (spread(ChunkCountStore.unpackZ(key) ^ Integer.MIN_VALUE) << 1);
+    }
+
+    /**
+     * Compares two packed keys by {@link #zOrder}.
+     */
+    public static int compareZOrder(long a, long b) {
+        return Long.compareUnsigned(zOrder(a), zOrder(b));
+    }
+
+    /**
+     * Inverse of {@link #localIndex}: the chunk at the given index of a region.
+     */
+    public static long chunkAt(long regionKey, int localIndex) {
+        int x = (ChunkCountStore.unpackX(regionKey) << REGION_SHIFT) | (localIndex & (REGION_SIZE - 1));
+        int z = (ChunkCountStore.unpackZ(regionKey) << REGION_SHIFT) | (localIndex >>> REGION_SHIFT);
+        return ChunkCountStore.pack(x, z);
+    }
+
+    /**
+     * Moves the 32 bits of an int to the even bits of a long.
+     */
+    private static long spread(int value) {
+        long bits = value & 0xFFFFFFFFL;
+        bits = (bits | (bits << 16)) & 0x0000FFFF0000FFFFL;
+        bits = (bits | (bits << 8)) & 0x00FF00FF00FF00FFL;
+        bits = (bits | (bits << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        bits = (bits | (bits << 2)) & 0x3333333333333333L;
+        bits = (bits | (bits << 1)) & 0x5555555555555555L;
+        return bits;
+    }
+}
@@ -0,0 +1,506 @@
+package com.stephanmeijer.minecraft.oreheatmap.cache;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Binary cache file for one dimension, split into 32x32-chunk region tiles.
+ *
+ * <p>Layout (big-endian):
+ * <pre>
+ * int    magic "OHMC"
+ * short  format version
+ * short  dimension key length, followed by its UTF-8 bytes
+ * short  ore table size, then per ore: short name length, followed by its UTF-8 bytes
+ * int    tile count
+ * tile count x { int regionX, int regionZ, int offset, int length, int maxCount }
+ * tile payloads, in Z-order of their regions
+ * </pre>
+ * A tile payload is the int length of the encoded tile followed by the tile compressed with Deflate.
+ * The encoded tile lists its chunks along the region's Z-order curve, all as varints: the number of
+ * chunks with ores and the number of chunks scanned without ores, then the positions of both lists
+ * on the curve, each as the gap to the previous position of its list, then one count per chunk with
+ * ores and each such chunk's {@link OreHistogram}: an entry count, then per entry the difference of
+ * its ore and section to the previous entry's, and its count. Ore ids in the histograms refer to the
+ * file's ore table. A chunk with a count but no entries was stored without per-ore counts, e.g.
+ * migrated from JSON, and reads back without a histogram. A tile may hold only empty chunks.
+ *
+ * <p>Files of any other version are rejected; caches of older mod versions are migrated from their
+ * JSON file instead, see {@code WorldCache}.
+ *
+ * <p>Files are opened through a read-only memory mapping, and only the index is parsed up front,
+ * so tiles are decoded only when a region is actually needed. Tiles are compressed and written
+ * one at a time, so neither reading nor writing a file holds more than one decoded tile.
+ */
+public final class RegionTileFile {
+
+    public static final String EXTENSION = ".ohc";
+
+    private static final int MAGIC = 0x4F484D43;
+    private static final short VERSION = 6;
+    private static final int INDEX_ENTRY_BYTES = 20;
+    // Both chunk counts at the start of a tile take at most two varint bytes each
+    private static final int CHUNK_COUNTS_BYTES = 4;
+    // Local indices of a region's chunks in Z-order, so neighbouring chunks are mostly stored together
+    private static final int[] Z_ORDER = zOrderedLocalIndices();
+
+    /**
+     * Location of one tile inside the file.
+     */
+    private record TileRef(int offset, int length, int maxCount) {
+    }
+
+    /**
+     * An encoded tile ready to be written.
+     *
+     * @param compressed whether the payload is already in the form stored in the file; otherwise
+     *                   it is compressed when written
+     */
+    public record Tile(long regionKey, ByteBuffer payload, int maxCount, boolean compressed) {
+    }
+
+    private final String dimension;
+    private final List<String> oreNames;
+    private final ByteBuffer data;
+    private final Map<Long, TileRef> index;
+    // Tiles claiming to be longer than this are damaged; checked before anything is allocated
+    private final int maxEncodedLength;
+
+    private RegionTileFile(String dimension, List<String> oreNames, ByteBuffer data, Map<Long, TileRef> index) {
+        this.dimension = dimension;
+        this.oreNames = oreNames;
+        this.data = data;
+        this.index = index;
+        this.maxEncodedLength = (int) Math.min(Integer.MAX_VALUE, maxEncodedTileBytes(oreNames.size()));
+    }
+
+    public static RegionTileFile open(Path path) throws IOException {
+        ByteBuffer data;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.BIG_ENDIAN);
+        }
+
+        if (data.remaining() < 12 || data.getInt() != MAGIC) {
+            throw new IOException("Not an ore heatmap cache file: " + path);
+        }
+        short version = data.getShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported cache format version " + version + ": " + path);
+        }
+        // Callers fall back to an older generation on IOException, so a short header must not escape as anything else
+        try {
+            String dimension = readString(data);
+            List<String> oreNames = new ArrayList<>();
+            int ores = data.getShort() & 0xFFFF;
+            for (int i = 0; i < ores; i++) {
+                oreNames.add(readString(data));
+            }
+
+            int tileCount = data.getInt();
+            if (tileCount < 0 || (long) tileCount * INDEX_ENTRY_BYTES > data.remaining()) {
+                throw new IOException("Corrupt tile index in " + path);
+            }
+            Map<Long, TileRef> index = new LinkedHashMap<>(tileCount * 2);
+            for (int i = 0; i < tileCount; i++) {
+                long regionKey = ChunkCountStore.pack(data.getInt(), data.getInt());
+                TileRef ref = new TileRef(data.getInt(), data.getInt(), data.getInt());
+                if (ref.offset < 0 || ref.length < 0 || (long) ref.offset + ref.length > data.capacity()) {
+                    throw new IOException("Tile out of bounds in " + path);
+                }
+                index.put(regionKey, ref);
+            }
+            return new RegionTileFile(dimension, List.copyOf(oreNames), data, index);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Corrupt header in " + path, e);
+        }
+    }
+
+    public String dimension() {
+        return dimension;
+    }
+
+    /**
+     * Ore names by the ids used in this file's histograms.
+     */
+    public List<String> oreNames() {
+        return oreNames;
+    }
+
+    public Set<Long> regions() {
+        return Collections.unmodifiableSet(index.keySet());
+    }
+
+    public boolean hasRegion(long regionKey) {
+        return index.containsKey(regionKey);
+    }
+
+    /**
+     * Highest count in a tile, stored in the index so it is known without decoding.
+     */
+    public int maxCount(long regionKey) {
+        TileRef ref = index.get(regionKey);
+        return ref == null ? 0 : ref.maxCount;
+    }
+
+    /**
+     * Decodes a tile into the stores. Does nothing if the region is not in this file.
+     *
+     * @param oreIds      maps this file's ore ids to the ids histograms are stored under
+     * @param emptyChunks receives the bits of chunks scanned without ores, by {@link RegionKeys#localIndex};
+     *                    may be null
+     * @return number of chunks decoded, not counting empty ones
+     */
+    public int readTile(long regionKey, ChunkCountStore counts, ChunkHistogramStore histograms, int[] oreIds, long[] emptyChunks) {
+        ByteBuffer payload = rawTile(regionKey);
+        if (payload == null) {
+            return 0;
+        }
+        payload = inflate(payload);
+        int decoded = getVarint(payload);
+        int empty = getVarint(payload);
+        if (decoded < 0 || empty < 0 || decoded + empty > RegionKeys.CHUNKS_PER_REGION) {
+            throw new IllegalStateException("Damaged cache tile");
+        }
+        long[] chunks = new long[decoded];
+        int position = -1;
+        for (int i = 0; i < decoded; i++) {
+            position += getVarint(payload) + 1;
+            chunks[i] = RegionKeys.chunkAt(regionKey, localIndexAt(position));
+        }
+        position = -1;
+        for (int i = 0; i < empty; i++) {
+            position += getVarint(payload) + 1;
+            int localIndex = localIndexAt(position);
+            if (emptyChunks != null) {
+                emptyChunks[localIndex >>> 6] |= 1L << localIndex;
+            }
+        }
+        int[] chunkCounts = new int[decoded];
+        for (int i = 0; i < decoded; i++) {
+            chunkCounts[i] = getVarint(payload);
+            counts.put(chunks[i], chunkCounts[i]);
+        }
+        for (int i = 0; i < decoded; i++) {
+            int[] entries = getHistogram(payload);
+            if (entries.length > 0) {
+                histograms.put(chunks[i], OreHistogram.remap(entries, oreIds));
+            } else {
+                histograms.put(chunks[i], chunkCounts[i] == 0 ? OreHistogram.EMPTY : null);
+            }
+        }
+        return decoded;
+    }
+
+    /**
+     * Number of chunks in a tile, including empty ones. Only the start of the tile is decoded.
+     */
+    public int chunkCount(long regionKey) {
+        ByteBuffer payload = rawTile(regionKey);
+        if (payload == null) {
+            return 0;
+        }
+        payload = inflate(payload, CHUNK_COUNTS_BYTES);
+        return getVarint(payload) + getVarint(payload);
+    }
+
+    /**
+     * Returns a read-only view of a tile's encoded bytes, or null if the region is not in this file.
+     */
+    public ByteBuffer rawTile(long regionKey) {
+        TileRef ref = index.get(regionKey);
+        if (ref == null) {
+            return null;
+        }
+        return data.duplicate().position(ref.offset).limit(ref.offset + ref.length).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns a tile as-is, without copying, so it can be carried over into a new file.
+     * The view stays valid for as long as it is referenced.
+     */
+    public Tile tileView(long regionKey) {
+        ByteBuffer raw = rawTile(regionKey);
+        return raw == null ? null : new Tile(regionKey, raw, maxCount(regionKey), true);
+    }
+
+    /**
+     * Largest encoded tile a file with the given number of ores can hold: every chunk of the region
+     * with an entry for each ore in every section, and every varint at its longest.
+     */
+    static long maxEncodedTileBytes(int oreCount) {
+        long maxEntries = (long) oreCount << OreHistogram.SECTION_BITS;
+        return CHUNK_COUNTS_BYTES + RegionKeys.CHUNKS_PER_REGION * (2 + 5 + 5 + maxEntries * 10);
+    }
+
+    /**
+     * Encodes the chunks of one region from the stores, or returns null if the region holds no chunks.
+     * Histogram ore ids are written as-is and must match the ore table the file is written with.
+     *
+     * @param emptyChunks bits of the chunks scanned without ores, by {@link RegionKeys#localIndex}; may be null
+     */
+    public static Tile encodeTile(long regionKey, ChunkCountStore counts, ChunkHistogramStore histograms, long[] emptyChunks) {
+        int[] presentPositions = new int[RegionKeys.CHUNKS_PER_REGION];
+        int[] presentCounts = new int[RegionKeys.CHUNKS_PER_REGION];
+        int[][] presentHistograms = new int[RegionKeys.CHUNKS_PER_REGION][];
+        int[] emptyPositions = new int[RegionKeys.CHUNKS_PER_REGION];
+        int present = 0;
+        int empty = 0;
+        int histogramEntries = 0;
+        int max = 0;
+        for (int position = 0; position < RegionKeys.CHUNKS_PER_REGION; position++) {
+            int localIndex = Z_ORDER[position];
+            long chunkPos = RegionKeys.chunkAt(regionKey, localIndex);
+            int count = counts.get(chunkPos, -1);
+            if (count >= 0) {
+                int[] histogram = histograms.get(chunkPos);
+                presentPositions[present] = position;
+                presentCounts[present] = count;
+                presentHistograms[present] = histogram == null ? OreHistogram.EMPTY : histogram;
+                histogramEntries += presentHistograms[present].length;
+                present++;
+                max = Math.max(max, count);
+            } else if (emptyChunks != null && (emptyChunks[localIndex >>> 6] & (1L << localIndex)) != 0) {
+                // A chunk with a count is never also marked empty
+                emptyPositions[empty++] = position;
+            }
+        }
+        if (present == 0 && empty == 0) {
+            return null;
+        }
+        // Worst case of the varints: 2 bytes per position, 5 per count and entry count, 10 per entry
+        ByteBuffer payload = ByteBuffer.allocate(CHUNK_COUNTS_BYTES + (present + empty) * 2 + present * 10 + histogramEntries * 10);
+        putVarint(payload, present);
+        putVarint(payload, empty);
+        putPositions(payload, presentPositions, present);
+        putPositions(payload, emptyPositions, empty);
+        for (int i = 0; i < present; i++) {
+            putVarint(payload, presentCounts[i]);
+        }
+        for (int i = 0; i < present; i++) {
+            putHistogram(payload, presentHistograms[i]);
+        }
+        return new Tile(regionKey, payload.flip(), max, false);
+    }
+
+    /**
+     * Writes a complete file. The data goes to a temporary file first and is moved into place
+     * once fully on disk, so an interrupted write never leaves a truncated file at {@code path}.
+     * Tiles are compressed one at a time as they are written.
+     */
+    public static void write(Path path, String dimension, List<String> oreNames, List<Tile> tiles) throws IOException {
+        // Regions close on the map end up close in the file
+        List<Tile> ordered = new ArrayList<>(tiles);
+        ordered.sort((a, b) -> RegionKeys.compareZOrder(a.regionKey(), b.regionKey()));
+        write(path, dimension, oreNames, ordered.size(), ordered.iterator());
+    }
+
+    /**
+     * Writes a complete file from tiles produced one at a time, in the order given, so a file can be
+     * written without holding all its tiles. Like {@link #write(Path, String, List, List)} otherwise.
+     *
+     * @param maxTiles number of tiles to reserve index space for; the iterator may produce fewer
+     */
+    public static void write(Path path, String dimension, List<String> oreNames, int maxTiles, Iterator<Tile> tiles) throws IOException {
+        byte[] name = dimension.getBytes(StandardCharsets.UTF_8);
+        List<byte[]> ores = new ArrayList<>(oreNames.size());
+        int oreBytes = 0;
+        for (String oreName : oreNames) {
+            byte[] bytes = oreName.getBytes(StandardCharsets.UTF_8);
+            ores.add(bytes);
+            oreBytes += 2 + bytes.length;
+        }
+        int headerSize = 4 + 2 + 2 + name.length + 2 + oreBytes + 4 + maxTiles * INDEX_ENTRY_BYTES;
+
+        ByteBuffer header = ByteBuffer.allocate(headerSize);
+        header.putInt(MAGIC).putShort(VERSION).putShort((short) name.length).put(name).putShort((short) ores.size());
+        for (byte[] bytes : ores) {
+            header.putShort((short) bytes.length).put(bytes);
+        }
+        int tileCountPosition = header.position();
+        header.putInt(0);
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        Deflater deflater = new Deflater();
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long offset = headerSize;
+            int tileCount = 0;
+            channel.position(offset);
+            while (tiles.hasNext()) {
+                Tile tile = tiles.next();
+                if (tileCount == maxTiles) {
+                    throw new IOException("More than " + maxTiles + " tiles for " + dimension);
+                }
+                ByteBuffer stored = tile.compressed() ? tile.payload().duplicate() : deflate(tile.payload(), deflater);
+                int length = stored.remaining();
+                if (offset + length > Integer.MAX_VALUE) {
+                    throw new IOException("Cache for " + dimension + " exceeds 2 GB");
+                }
+                header.putInt(ChunkCountStore.unpackX(tile.regionKey()))
+                        .putInt(ChunkCountStore.unpackZ(tile.regionKey()))
+                        .putInt((int) offset)
+                        .putInt(length)
+                        .putInt(tile.maxCount());
+                writeFully(channel, stored);
+                offset += length;
+                tileCount++;
+            }
+            // Index entries left unused lie between the index and the first tile and are never read
+            header.putInt(tileCountPosition, tileCount);
+            channel.position(0);
+            writeFully(channel, header.rewind());
+            channel.force(true);
+        } finally {
+            deflater.end();
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static ByteBuffer deflate(ByteBuffer encoded, Deflater deflater) {
+        deflater.reset();
+        deflater.setInput(encoded.duplicate());
+        deflater.finish();
+        int length = encoded.remaining();
+        byte[] out = new byte[Integer.BYTES + length + (length >> 4) + 64];
+        int written = Integer.BYTES;
+        while (!deflater.finished()) {
+            if (written == out.length) {
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+            written += deflater.deflate(out, written, out.length - written);
+        }
+        return ByteBuffer.wrap(out, 0, written).putInt(0, length);
+    }
+
+    private ByteBuffer inflate(ByteBuffer stored) {
+        return inflate(stored, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Inflates the first {@code maxLength} bytes of a tile, or all of it if shorter.
+     */
+    private ByteBuffer inflate(ByteBuffer stored, int maxLength) {
+        int encodedLength = stored.getInt();
+        if (encodedLength < 0 || encodedLength > maxEncodedLength) {
+            throw new IllegalStateException("Damaged cache tile");
+        }
+        byte[] encoded = new byte[Math.min(encodedLength, maxLength)];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(stored);
+            int length = 0;
+            while (length < encoded.length) {
+                int inflated = inflater.inflate(encoded, length, encoded.length - length);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalStateException("Truncated cache tile");
+                }
+                length += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Damaged cache tile", e);
+        } finally {
+            inflater.end();
+        }
+        return ByteBuffer.wrap(encoded);
+    }
+
+    private static void putPositions(ByteBuffer buffer, int[] positions, int length) {
+        int previous = -1;
+        for (int i = 0; i < length; i++) {
+            putVarint(buffer, positions[i] - previous - 1);
+            previous = positions[i];
+        }
+    }
+
+    private static int localIndexAt(int position) {
+        if (position >= RegionKeys.CHUNKS_PER_REGION) {
+            throw new IllegalStateException("Damaged cache tile");
+        }
+        return Z_ORDER[position];
+    }
+
+    private static int[] zOrderedLocalIndices() {
+        int[] order = new int[RegionKeys.CHUNKS_PER_REGION];
+        for (int localIndex = 0; localIndex < RegionKeys.CHUNKS_PER_REGION; localIndex++) {
+            long local = ChunkCountStore.pack(localIndex & (RegionKeys.REGION_SIZE - 1), localIndex >>> RegionKeys.REGION_SHIFT);
+            order[(int) RegionKeys.zOrder(local) & (RegionKeys.CHUNKS_PER_REGION - 1)] = localIndex;
+        }
+        return order;
+    }
+
+    private static void putHistogram(ByteBuffer buffer, int[] entries) {
+        putVarint(buffer, entries.length);
+        int previousKey = 0;
+        for (int entry : entries) {
+            // Entries are sorted by ore and section, so the keys only grow
+            int key = entry >>> OreHistogram.COUNT_BITS;
+            putVarint(buffer, key - previousKey);
+            putVarint(buffer, OreHistogram.count(entry));
+            previousKey = key;
+        }
+    }
+
+    private static int[] getHistogram(ByteBuffer buffer) {
+        int[] entries = new int[getVarint(buffer)];
+        int key = 0;
+        for (int e = 0; e < entries.length; e++) {
+            key += getVarint(buffer);
+            entries[e] = (key << OreHistogram.COUNT_BITS) | getVarint(buffer);
+        }
+        return entries;
+    }
+
+    /**
+     * Writes an int as an unsigned LEB128 varint: 7 bits per byte, low bits first.
+     */
+    private static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static int getVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < Integer.SIZE; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Malformed varint in cache tile");
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
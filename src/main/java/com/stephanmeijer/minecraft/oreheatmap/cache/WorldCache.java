@@ -0,0 +1,620 @@
+package com.stephanmeijer.minecraft.oreheatmap.cache;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.stephanmeijer.minecraft.oreheatmap.OreHeatmapMod;
+import com.stephanmeijer.minecraft.oreheatmap.metrics.HeatmapMetrics;
+
+/**
+ * The ore cache of one world: a directory holding one {@link RegionTileFile} per dimension
+ * plus a {@link CacheJournal} of the changes made since the last compaction.
+ *
+ * <p>New counts are appended to the journal by a background writer thread. Compaction
+ * periodically folds them into the tile files, also on the writer thread: each dimension is
+ * written as a new generation ({@code <dimension>.<generation>.ohc}) and the journal is only
+ * deleted once every tile file is safely on disk. On open the newest readable generation wins
+ * and the journal is replayed on top of it.
+ *
+ * <p>A dimension's file is only opened when the dimension is first used, so opening a world costs
+ * little more than the dimension the player is in. {@link #evictIdle} drops dimensions nobody is in
+ * again, least recently visited first, once the cache holds more than a given amount of memory,
+ * and then pages out the regions of the active dimension that were not used for a while.
+ *
+ * <p>All public methods must be called from the client thread.
+ */
+public final class WorldCache {
+
+    private static final String MIGRATED_SUFFIX = ".migrated";
+
+    private final Map<String, DimensionCache> dimensions = new ConcurrentHashMap<>();
+    // Newest generation of each dimension file not opened yet, by file base name
+    private final Map<String, Integer> storedGenerations = new HashMap<>();
+    // When each dimension was last the active one, for evicting the least recently visited first
+    private final Map<String, Long> lastVisited = new HashMap<>();
+    private long visits;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "OreHeatmap-CacheWriter");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Results of writer work, applied on the client thread by pollCompletions
+    private final Queue<Runnable> completions = new ConcurrentLinkedQueue<>();
+
+    private List<CacheJournal.Change> pendingChanges = new ArrayList<>();
+    private OreIndex ores = new OreIndex();
+    private OreFilter filter = OreFilter.ALL;
+    private Path directory;
+    private CacheJournal journal;
+    private Future<?> lastWrite;
+    private boolean compacting;
+    private boolean importing;
+
+    /**
+     * Opens the cache directory of a world, migrating a legacy JSON cache if that is all there is.
+     */
+    public void open(Path worldDirectory, Path legacyJson) throws IOException {
+        close();
+        directory = worldDirectory;
+        Files.createDirectories(directory);
+
+        Map<String, Integer> newestGeneration = newestGenerations(directory);
+        storedGenerations.putAll(newestGeneration);
+
+        // Opens the dimensions with journaled changes, which are saved and evicted again if idle
+        int nextJournal = CacheJournal.replayAll(directory, ores, (dim, chunkPos, count, histogram) ->
+                dimension(dim).apply(chunkPos, count, histogram));
+        journal = new CacheJournal(directory, ores, nextJournal);
+
+        if (newestGeneration.isEmpty() && legacyJson != null && Files.exists(legacyJson)) {
+            migrateLegacyJson(legacyJson);
+        }
+    }
+
+    /**
+     * Saves the cache and copies the newest file of every dimension into {@code target}, which can
+     * then be opened or merged like any cache directory, see {@link CacheMerge}. Files already in
+     * {@code target} for the same dimensions are replaced. File times are kept, as merges go by them
+     * to tell which cache is newest.
+     *
+     * @return number of dimension files exported
+     * @throws IOException if a dimension could not be saved or copied
+     */
+    public int exportTo(Path target) throws IOException {
+        if (directory == null) {
+            throw new IOException("No cache is open");
+        }
+        saveAll();
+        Files.createDirectories(target);
+        Map<String, Integer> files = currentGenerations();
+        for (Map.Entry<String, Integer> file : files.entrySet()) {
+            Files.copy(directory.resolve(file.getKey() + "." + file.getValue() + RegionTileFile.EXTENSION),
+                    target.resolve(file.getKey() + ".0" + RegionTileFile.EXTENSION), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.COPY_ATTRIBUTES);
+        }
+        return files.size();
+    }
+
+    /**
+     * Merges another cache directory into this one on the writer thread, see {@link CacheMerge}, and
+     * reopens the cache once the merge is done. Compactions wait until then; changes made meanwhile
+     * are journaled and replayed on top of the merged files.
+     *
+     * <p>The cache is saved first. Under {@link CacheMerge.Policy#NEWEST} its dimensions still count
+     * as written when they were saved before that, so the save does not make them win every conflict.
+     *
+     * @param authoritative the directory whose counts win under {@link CacheMerge.Policy#AUTHORITATIVE}; may be null
+     * @return completed from {@link #pollCompletions} on the client thread, once the cache is reopened
+     * @throws IOException           if the cache could not be saved first
+     * @throws IllegalStateException if an import is already running
+     */
+    public CompletableFuture<CacheMerge.Summary> importFrom(Path source, Path authoritative, CacheMerge.Policy policy) throws IOException {
+        if (directory == null) {
+            throw new IOException("No cache is open");
+        }
+        if (importing) {
+            throw new IllegalStateException("An ore cache import is already running");
+        }
+        Map<String, Long> savedTimes = new HashMap<>();
+        for (Map.Entry<String, Integer> file : currentGenerations().entrySet()) {
+            Path path = directory.resolve(file.getKey() + "." + file.getValue() + RegionTileFile.EXTENSION);
+            savedTimes.put(file.getKey(), Files.getLastModifiedTime(path).toMillis());
+        }
+        saveAll();
+
+        importing = true;
+        Path target = directory;
+        CompletableFuture<CacheMerge.Summary> done = new CompletableFuture<>();
+        lastWrite = writer.submit(() -> runImport(target, source, authoritative, policy, savedTimes, done));
+        return done;
+    }
+
+    public boolean isImporting() {
+        return importing;
+    }
+
+    /**
+     * Hands the changes recorded since the last call to the writer thread.
+     */
+    public void flushJournal() {
+        if (pendingChanges.isEmpty() || journal == null) {
+            return;
+        }
+        List<CacheJournal.Change> batch = pendingChanges;
+        pendingChanges = new ArrayList<>();
+        CacheJournal target = journal;
+        lastWrite = writer.submit(() -> {
+            try {
+                target.append(batch);
+            } catch (IOException e) {
+                OreHeatmapMod.LOGGER.error("Failed to append {} changes to ore cache journal", batch.size(), e);
+            }
+        });
+    }
+
+    /**
+     * Starts folding the journal into the tile files on the writer thread.
+     * Only changed regions are encoded on the calling thread.
+     */
+    public void compact() {
+        if (compacting || importing || journal == null) {
+            return;
+        }
+        flushJournal();
+
+        List<DimensionCache.SaveJob> jobs = new ArrayList<>();
+        for (DimensionCache cache : dimensions.values()) {
+            DimensionCache.SaveJob job = cache.beginSave();
+            if (job != null) {
+                jobs.add(job);
+            }
+        }
+        if (jobs.isEmpty()) {
+            return;
+        }
+
+        compacting = true;
+        Path target = directory;
+        CacheJournal targetJournal = journal;
+        lastWrite = writer.submit(() -> runCompaction(target, targetJournal, jobs));
+    }
+
+    /**
+     * Compacts and blocks until everything is on disk, e.g. on logout.
+     */
+    public void save() {
+        compact();
+        awaitWriter();
+        pollCompletions();
+    }
+
+    /**
+     * Applies finished background saves. Call regularly from the client thread.
+     */
+    public void pollCompletions() {
+        Runnable completion;
+        while ((completion = completions.poll()) != null) {
+            completion.run();
+        }
+    }
+
+    /**
+     * Forgets all in-memory data. Changes not yet flushed to the journal are dropped.
+     */
+    public void close() {
+        if (journal != null) {
+            CacheJournal closing = journal;
+            lastWrite = writer.submit(() -> {
+                try {
+                    closing.close();
+                } catch (IOException e) {
+                    OreHeatmapMod.LOGGER.error("Failed to close ore cache journal", e);
+                }
+            });
+        }
+        awaitWriter();
+        // A finished import sees the cache closed and cancels its future instead of reopening
+        directory = null;
+        pollCompletions();
+        dimensions.clear();
+        storedGenerations.clear();
+        lastVisited.clear();
+        ores = new OreIndex();
+        pendingChanges = new ArrayList<>();
+        journal = null;
+        compacting = false;
+        importing = false;
+    }
+
+    /**
+     * Removes all cache files of this world and all in-memory data. The cache stays open.
+     */
+    public void delete() throws IOException {
+        Path dir = directory;
+        if (dir == null) {
+            dimensions.clear();
+            return;
+        }
+        List<DimensionCache> caches = new ArrayList<>(dimensions.values());
+        Map<String, Integer> stored = new HashMap<>(storedGenerations);
+        close();
+        directory = dir;
+
+        for (Map.Entry<String, Integer> entry : stored.entrySet()) {
+            Files.deleteIfExists(dir.resolve(entry.getKey() + "." + entry.getValue() + RegionTileFile.EXTENSION));
+        }
+        for (DimensionCache cache : caches) {
+            Path current = filePath(dir, cache.dimension(), cache.generation());
+            try {
+                Files.deleteIfExists(current);
+            } catch (IOException e) {
+                // Still mapped on some platforms; an empty newer generation shadows it until the next open
+                int shadowGeneration = cache.generation() + 1;
+                Path shadow = filePath(dir, cache.dimension(), shadowGeneration);
+                RegionTileFile.write(shadow, cache.dimension(), List.of(), List.of());
+                dimension(cache.dimension()).attach(RegionTileFile.open(shadow), shadowGeneration);
+            }
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path path : files) {
+                if (!path.getFileName().toString().endsWith(RegionTileFile.EXTENSION)) {
+                    Files.delete(path);
+                }
+            }
+        }
+        journal = new CacheJournal(dir, ores, 0);
+    }
+
+    /**
+     * Returns a dimension's cache, opening its file or creating it empty if it is not in memory.
+     */
+    public DimensionCache dimension(String dimension) {
+        DimensionCache cache = dimensions.get(dimension);
+        if (cache == null) {
+            cache = new DimensionCache(dimension, ores, this::record);
+            cache.setFilter(filter);
+            dimensions.put(dimension, cache);
+            String base = fileBaseName(dimension);
+            Integer generation = storedGenerations.remove(base);
+            if (generation != null) {
+                openNewestReadable(cache, base, generation);
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Ore numbering used by the histograms of this world. Replaced when another world is opened.
+     */
+    public OreIndex ores() {
+        return ores;
+    }
+
+    /**
+     * Switches which ores every dimension counts, see {@link DimensionCache#setFilter}.
+     * Kept across worlds.
+     */
+    public void setFilter(OreFilter newFilter) {
+        filter = newFilter;
+        for (DimensionCache cache : dimensions.values()) {
+            cache.setFilter(newFilter);
+        }
+    }
+
+    /**
+     * Returns a dimension's cache, opening its file if needed, or null if the dimension has no data.
+     */
+    public DimensionCache find(String dimension) {
+        DimensionCache cache = dimensions.get(dimension);
+        if (cache == null && storedGenerations.containsKey(fileBaseName(dimension))) {
+            cache = dimension(dimension);
+        }
+        return cache;
+    }
+
+    /**
+     * The dimensions in memory; dimensions whose file was not opened yet are left out.
+     */
+    public Collection<DimensionCache> dimensions() {
+        return dimensions.values();
+    }
+
+    /**
+     * Number of dimensions with data on disk that are not in memory.
+     */
+    public int storedDimensionCount() {
+        return storedGenerations.size();
+    }
+
+    public boolean isEmpty() {
+        return dimensions.isEmpty() && storedGenerations.isEmpty();
+    }
+
+    /**
+     * Drops dimensions other than the active one from memory, least recently active first, until
+     * the estimated memory use of all dimensions is within {@code maxBytes}. If that is not enough,
+     * regions of the active dimension are paged out, see {@link DimensionCache#evictRegions}.
+     * Dimensions and regions with unsaved changes are compacted first and dropped by a later call,
+     * once their file is written. Dropped dimensions are opened from their file again when next used.
+     *
+     * @return whether a compaction was started
+     */
+    public boolean evictIdle(String activeDimension, long maxBytes) {
+        lastVisited.put(activeDimension, ++visits);
+        long total = 0;
+        for (DimensionCache cache : dimensions.values()) {
+            total += cache.estimatedBytes();
+        }
+
+        boolean needsSave = false;
+        if (total > maxBytes) {
+            List<DimensionCache> idle = new ArrayList<>();
+            for (DimensionCache cache : dimensions.values()) {
+                if (!cache.dimension().equals(activeDimension)) {
+                    idle.add(cache);
+                }
+            }
+            idle.sort(Comparator.comparingLong(cache -> lastVisited.getOrDefault(cache.dimension(), 0L)));
+            for (DimensionCache cache : idle) {
+                if (total <= maxBytes) {
+                    break;
+                }
+                if (cache.isDirty() || cache.isSaving()) {
+                    needsSave = true;
+                    continue;
+                }
+                total -= cache.estimatedBytes();
+                dimensions.remove(cache.dimension());
+                if (cache.hasFile()) {
+                    storedGenerations.put(fileBaseName(cache.dimension()), cache.generation());
+                }
+                HeatmapMetrics.DIMENSIONS_EVICTED.increment();
+                OreHeatmapMod.LOGGER.debug("Evicted ore cache of idle dimension {} from memory", cache.dimension());
+            }
+        }
+        // Called on every pass, also under the cap, as it tracks which regions were used in between
+        DimensionCache active = dimensions.get(activeDimension);
+        if (active != null) {
+            long activeBytes = active.estimatedBytes();
+            needsSave |= active.evictRegions(maxBytes - (total - activeBytes));
+            total += active.estimatedBytes() - activeBytes;
+        }
+        if (needsSave && total > maxBytes && !compacting && !importing) {
+            compact();
+            return true;
+        }
+        return false;
+    }
+
+    private void record(String dimension, long chunkPos, int count, int[] histogram) {
+        if (journal != null) {
+            pendingChanges.add(new CacheJournal.Change(dimension, chunkPos, count, histogram));
+        }
+    }
+
+    /**
+     * Runs on the writer thread. Journals up to the rotation point are deleted only
+     * if every dimension was written successfully.
+     */
+    private void runCompaction(Path target, CacheJournal targetJournal, List<DimensionCache.SaveJob> jobs) {
+        boolean allWritten = true;
+        try {
+            int rotated = targetJournal.rotate();
+            for (DimensionCache.SaveJob job : jobs) {
+                String dimension = job.cache().dimension();
+                int generation = job.generation();
+                try {
+                    long start = System.nanoTime();
+                    Path path = filePath(target, dimension, generation);
+                    RegionTileFile.write(path, dimension, job.oreNames(), job.tiles());
+                    RegionTileFile written = RegionTileFile.open(path);
+                    HeatmapMetrics.CACHE_SAVE.recordSince(start);
+                    completions.add(() -> job.cache().completeSave(written, generation));
+                    deleteQuietly(filePath(target, dimension, generation - 1));
+                } catch (IOException e) {
+                    OreHeatmapMod.LOGGER.error("Failed to write ore cache for {}", dimension, e);
+                    completions.add(job.cache()::failSave);
+                    allWritten = false;
+                }
+            }
+            if (allWritten) {
+                targetJournal.deleteUpTo(rotated);
+            }
+        } catch (IOException e) {
+            OreHeatmapMod.LOGGER.error("Ore cache compaction failed", e);
+            if (allWritten) {
+                for (DimensionCache.SaveJob job : jobs) {
+                    completions.add(job.cache()::failSave);
+                }
+            }
+        } finally {
+            completions.add(() -> {
+                compacting = false;
+            });
+        }
+    }
+
+    /**
+     * Runs on the writer thread, then reopens the cache on the client thread.
+     */
+    private void runImport(Path target, Path source, Path authoritative, CacheMerge.Policy policy, Map<String, Long> savedTimes,
+                           CompletableFuture<CacheMerge.Summary> done) {
+        CacheMerge.Summary summary = null;
+        Exception failure = null;
+        try {
+            summary = CacheMerge.merge(List.of(source), authoritative, target, policy, savedTimes);
+        } catch (IOException | RuntimeException e) {
+            failure = e;
+        }
+        CacheMerge.Summary merged = summary;
+        Exception mergeFailure = failure;
+        completions.add(() -> {
+            importing = false;
+            if (!target.equals(directory)) {
+                // Closed meanwhile; the merged files are read when the world is next opened
+                done.cancel(false);
+                return;
+            }
+            // Reopening replays the journal, which then holds everything recorded during the merge.
+            // Dimensions opened meanwhile read the generations the merge replaced; opening the merged
+            // ones deletes those.
+            flushJournal();
+            try {
+                open(target, null);
+            } catch (IOException e) {
+                done.completeExceptionally(mergeFailure != null ? mergeFailure : e);
+                return;
+            }
+            if (mergeFailure != null) {
+                done.completeExceptionally(mergeFailure);
+            } else {
+                done.complete(merged);
+            }
+        });
+    }
+
+    /**
+     * Saves every dimension and blocks until done.
+     *
+     * @throws IOException if a dimension could not be saved
+     */
+    private void saveAll() throws IOException {
+        save();
+        for (DimensionCache cache : dimensions.values()) {
+            if (cache.isDirty()) {
+                throw new IOException("Ore cache for " + cache.dimension() + " could not be saved");
+            }
+        }
+    }
+
+    /**
+     * Newest generation of every dimension file, opened or not, by file base name.
+     */
+    private Map<String, Integer> currentGenerations() {
+        Map<String, Integer> files = new HashMap<>(storedGenerations);
+        for (DimensionCache cache : dimensions.values()) {
+            if (cache.hasFile()) {
+                files.put(fileBaseName(cache.dimension()), cache.generation());
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Blocks until the writer thread has done the work handed to it so far, without applying the results.
+     */
+    void awaitWriter() {
+        if (lastWrite == null) {
+            return;
+        }
+        try {
+            lastWrite.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            OreHeatmapMod.LOGGER.error("Ore cache writer failed", e.getCause());
+        }
+        lastWrite = null;
+    }
+
+    private void openNewestReadable(DimensionCache cache, String base, int newestGeneration) {
+        for (int generation = newestGeneration; generation >= 0; generation--) {
+            Path path = directory.resolve(base + "." + generation + RegionTileFile.EXTENSION);
+            if (!Files.exists(path)) {
+                continue;
+            }
+            try {
+                RegionTileFile file = RegionTileFile.open(path);
+                cache.attach(file, generation);
+                // Older generations are leftovers from interrupted cleanups
+                for (int older = generation - 1; older >= 0; older--) {
+                    deleteQuietly(directory.resolve(base + "." + older + RegionTileFile.EXTENSION));
+                }
+                return;
+            } catch (IOException e) {
+                OreHeatmapMod.LOGGER.error("Unreadable ore cache file {} - trying previous generation", path, e);
+            }
+        }
+    }
+
+    private void migrateLegacyJson(Path legacyJson) throws IOException {
+        Map<String, ChunkCountStore> legacy;
+        try (Reader reader = Files.newBufferedReader(legacyJson)) {
+            legacy = JsonCacheCodec.read(reader);
+        }
+        for (Map.Entry<String, ChunkCountStore> entry : legacy.entrySet()) {
+            DimensionCache cache = dimension(entry.getKey());
+            entry.getValue().forEach((chunkPos, count) -> cache.apply(chunkPos, count, null));
+        }
+        save();
+        Files.move(legacyJson, legacyJson.resolveSibling(legacyJson.getFileName() + MIGRATED_SUFFIX));
+        OreHeatmapMod.LOGGER.info("Migrated JSON ore cache {} to region tiles ({} dimensions)", legacyJson, legacy.size());
+    }
+
+    static Path filePath(Path dir, String dimension, int generation) {
+        return dir.resolve(fileBaseName(dimension) + "." + generation + RegionTileFile.EXTENSION);
+    }
+
+    /**
+     * Newest generation of each dimension file in a cache directory, by file base name.
+     */
+    static Map<String, Integer> newestGenerations(Path dir) throws IOException {
+        Map<String, Integer> newestGeneration = new HashMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + RegionTileFile.EXTENSION)) {
+            for (Path path : files) {
+                String fileName = path.getFileName().toString();
+                String stem = fileName.substring(0, fileName.length() - RegionTileFile.EXTENSION.length());
+                int dot = stem.lastIndexOf('.');
+                if (dot <= 0) {
+                    continue;
+                }
+                int generation;
+                try {
+                    generation = Integer.parseInt(stem.substring(dot + 1));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                String base = stem.substring(0, dot);
+                if (generation > newestGeneration.getOrDefault(base, -1)) {
+                    newestGeneration.put(base, generation);
+                }
+            }
+        }
+        return newestGeneration;
+    }
+
+    /**
+     * Maps a dimension key to a file name. ':' and '/' cannot appear in file names on all platforms
+     * and '~' and '+' cannot appear in resource locations, so the mapping stays unique.
+     */
+    static String fileBaseName(String dimension) {
+        return dimension.replace(':', '~').replace('/', '+');
+    }
+
+    static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            // Still mapped on some platforms; cleaned up the next time the world is opened
+            OreHeatmapMod.LOGGER.debug("Could not delete old cache file {}: {}", path, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.stephanmeijer.minecraft.oreheatmap.client;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.StringArgumentType;
+import com.mojang.brigadier.context.CommandContext;
+import com.stephanmeijer.minecraft.oreheatmap.OreHeatmapMod;
+import com.stephanmeijer.minecraft.oreheatmap.cache.CacheMerge;
+import com.stephanmeijer.minecraft.oreheatmap.journeymap.OreHeatmapOverlayManager;
+import com.stephanmeijer.minecraft.oreheatmap.journeymap.OreHeatmapPlugin;
+import com.stephanmeijer.minecraft.oreheatmap.metrics.HeatmapMetrics;
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.commands.Commands;
+import net.minecraft.network.chat.Component;
+import net.neoforged.api.distmarker.Dist;
+import net.neoforged.bus.api.SubscribeEvent;
+import net.neoforged.fml.common.EventBusSubscriber;
+import net.neoforged.neoforge.client.event.RegisterClientCommandsEvent;
+
+/**
+ * Client-side {@code /oreheatmap} commands:
+ * {@code stats} prints the heatmap metrics to chat, {@code stats dump} writes them to a file and
+ * {@code stats reset} starts counting afresh. {@code trace start} and {@code trace stop} record a
+ * session trace for replaying offline. {@code scanworld} counts the ores of a single-player world
+ * from its save files. {@code export} copies the world's cache for other players, and
+ * {@code import <export> [newest|max|authoritative]} merges such a copy into it.
+ */
+@EventBusSubscriber(modid = OreHeatmapMod.MODID, bus = EventBusSubscriber.Bus.GAME, value = Dist.CLIENT)
+public class OreHeatmapCommands {
+
+    @SubscribeEvent
+    public static void registerCommands(RegisterClientCommandsEvent event) {
+        CommandDispatcher<CommandSourceStack> dispatcher = event.getDispatcher();
+        dispatcher.register(Commands.literal("oreheatmap")
+                .then(Commands.literal("stats")
+                        .executes(OreHeatmapCommands::showStats)
+                        .then(Commands.literal("dump").executes(OreHeatmapCommands::dumpStats))
+                        .then(Commands.literal("reset").executes(OreHeatmapCommands::resetStats)))
+                .then(Commands.literal("trace")
+                        .then(Commands.literal("start").executes(OreHeatmapCommands::startTrace))
+                        .then(Commands.literal("stop").executes(OreHeatmapCommands::stopTrace)))
+                .then(Commands.literal("scanworld").executes(OreHeatmapCommands::scanWorld))
+                .then(Commands.literal("export").executes(OreHeatmapCommands::exportCache))
+                .then(Commands.literal("import")
+                        .then(Commands.argument("source", StringArgumentType.string())
+                                .executes(context -> importCache(context, CacheMerge.Policy.NEWEST))
+                                .then(Commands.literal("newest").executes(context -> importCache(context, CacheMerge.Policy.NEWEST)))
+                                .then(Commands.literal("max").executes(context -> importCache(context, CacheMerge.Policy.MAX)))
+                                .then(Commands.literal("authoritative").executes(context -> importCache(context, CacheMerge.Policy.AUTHORITATIVE))))));
+    }
+
+    private static int showStats(CommandContext<CommandSourceStack> context) {
+        OreHeatmapOverlayManager manager = overlayManager();
+        if (manager == null) {
+            context.getSource().sendFailure(Component.literal("Ore heatmap is not running"));
+            return 0;
+        }
+        for (String line : manager.statsReport()) {
+            context.getSource().sendSuccess(() -> Component.literal(line), false);
+        }
+        return 1;
+    }
+
+    private static int dumpStats(CommandContext<CommandSourceStack> context) {
+        OreHeatmapOverlayManager manager = overlayManager();
+        if (manager == null) {
+            context.getSource().sendFailure(Component.literal("Ore heatmap is not running"));
+            return 0;
+        }
+        try {
+            Path path = manager.dumpStats();
+            context.getSource().sendSuccess(() -> Component.literal("Ore heatmap stats written to " + path), false);
+            return 1;
+        } catch (IOException e) {
+            OreHeatmapMod.LOGGER.error("Failed to write ore heatmap stats", e);
+            context.getSource().sendFailure(Component.literal("Failed to write ore heatmap stats: " + e.getMessage()));
+            return 0;
+        }
+    }
+
+    private static int resetStats(CommandContext<CommandSourceStack> context) {
+        HeatmapMetrics.reset();
+        context.getSource().sendSuccess(() -> Component.literal("Ore heatmap stats reset"), false);
+        return 1;
+    }
+
+    private static int startTrace(CommandContext<CommandSourceStack> context) {
+        OreHeatmapOverlayManager manager = overlayManager();
+        if (manager == null) {
+            context.getSource().sendFailure(Component.literal("Ore heatmap is not running"));
+            return 0;
+        }
+        try {
+            Path path = manager.startTrace();
+            context.getSource().sendSuccess(() -> Component.literal("Recording ore heatmap trace to " + path), false);
+            return 1;
+        } catch (IOException e) {
+            OreHeatmapMod.LOGGER.error("Failed to start ore heatmap trace", e);
+            context.getSource().sendFailure(Component.literal("Failed to start ore heatmap trace: " + e.getMessage()));
+            return 0;
+        }
+    }
+
+    private static int stopTrace(CommandContext<CommandSourceStack> context) {
+        OreHeatmapOverlayManager manager = overlayManager();
+        Path path = manager == null ? null : manager.stopTrace();
+        if (path == null) {
+            context.getSource().sendFailure(Component.literal("No ore heatmap trace is being recorded"));
+            return 0;
+        }
+        context.getSource().sendSuccess(() -> Component.literal("Ore heatmap trace written to " + path), false);
+        return 1;
+    }
+
+    private static int scanWorld(CommandContext<CommandSourceStack> context) {
+        OreHeatmapOverlayManager manager = overlayManager();
+        if (manager == null) {
+            context.getSource().sendFailure(Component.literal("Ore heatmap is not running"));
+            return 0;
+        }
+        try {
+            manager.startSaveScan();
+            context.getSource().sendSuccess(() -> Component.literal("Scanning the world's save files for ores..."), false);
+            return 1;
+        } catch (IllegalStateException e) {
+            context.getSource().sendFailure(Component.literal(e.getMessage()));
+            return 0;
+        }
+    }
+
+    private static int exportCache(CommandContext<CommandSourceStack> context) {
+        OreHeatmapOverlayManager manager = overlayManager();
+        if (manager == null) {
+            context.getSource().sendFailure(Component.literal("Ore heatmap is not running"));
+            return 0;
+        }
+        try {
+            Path path = manager.exportCache();
+            context.getSource().sendSuccess(() -> Component.literal("Ore heatmap cache exported to " + path), false);
+            return 1;
+        } catch (IllegalStateException e) {
+            context.getSource().sendFailure(Component.literal(e.getMessage()));
+            return 0;
+        } catch (IOException e) {
+            OreHeatmapMod.LOGGER.error("Failed to export ore heatmap cache", e);
+            context.getSource().sendFailure(Component.literal("Failed to export ore heatmap cache: " + e.getMessage()));
+            return 0;
+        }
+    }
+
+    private static int importCache(CommandContext<CommandSourceStack> context, CacheMerge.Policy policy) {
+        OreHeatmapOverlayManager manager = overlayManager();
+        if (manager == null) {
+            context.getSource().sendFailure(Component.literal("Ore heatmap is not running"));
+            return 0;
+        }
+        try {
+            manager.importCache(StringArgumentType.getString(context, "source"), policy);
+            context.getSource().sendSuccess(() -> Component.literal("Importing ore heatmap cache..."), false);
+            return 1;
+        } catch (IllegalStateException e) {
+            context.getSource().sendFailure(Component.literal(e.getMessage()));
+            return 0;
+        } catch (IOException e) {
+            OreHeatmapMod.LOGGER.error("Failed to import ore heatmap cache", e);
+            context.getSource().sendFailure(Component.literal("Failed to import ore heatmap cache: " + e.getMessage()));
+            return 0;
+        }
+    }
+
+    private static OreHeatmapOverlayManager overlayManager() {
+        OreHeatmapPlugin plugin = OreHeatmapPlugin.getInstance();
+        return plugin == null ? null : plugin.getOverlayManager();
+    }
+}
@@ -25,9 +25,13 @@ public class OreHeatmapKeyBindings {
     public static final String KEY_CATEGORY = "key.categories." + OreHeatmapMod.MODID;
     public static final String KEY_TOGGLE_OVERLAY = "key." + OreHeatmapMod.MODID + ".toggle_overlay";
     public static final String KEY_RESET_CACHE = "key." + OreHeatmapMod.MODID + ".reset_cache";
+    public static final String KEY_CYCLE_ORE_VIEW = "key." + OreHeatmapMod.MODID + ".cycle_ore_view";
+    public static final String KEY_SHOW_STATS = "key." + OreHeatmapMod.MODID + ".show_stats";
 
     public static KeyMapping toggleOverlayKey;
     public static KeyMapping resetCacheKey;
+    public static KeyMapping cycleOreViewKey;
+    public static KeyMapping showStatsKey;
 
     @SubscribeEvent
     public static void registerKeyMappings(RegisterKeyMappingsEvent event) {
@@ -49,6 +53,23 @@ public class OreHeatmapKeyBindings {
         );
         event.register(resetCacheKey);
 
+        cycleOreViewKey = new KeyMapping(
+                KEY_CYCLE_ORE_VIEW,
+                KeyConflictContext.IN_GAME,
+                InputConstants.Type.KEYSYM,
+                GLFW.GLFW_KEY_I,
+                KEY_CATEGORY
+        );
+        event.register(cycleOreViewKey);
+
+        showStatsKey = new KeyMapping(
+                KEY_SHOW_STATS,
+                KeyConflictContext.IN_GAME,
+                InputConstants.UNKNOWN,  // Unbound by default, also available as /oreheatmap stats
+                KEY_CATEGORY
+        );
+        event.register(showStatsKey);
+
         // Register the tick handler for key press detection
         NeoForge.EVENT_BUS.register(ClientTickHandler.class);
 
@@ -61,7 +82,7 @@ public class OreHeatmapKeyBindings {
     public static class ClientTickHandler {
         @SubscribeEvent
         public static void onClientTick(ClientTickEvent.Post event) {
-            if (toggleOverlayKey == null || resetCacheKey == null) {
+            if (toggleOverlayKey == null || resetCacheKey == null || cycleOreViewKey == null || showStatsKey == null) {
                 return;
             }
 
@@ -96,6 +117,23 @@ public class OreHeatmapKeyBindings {
                     plugin.getOverlayManager().resetCache();
                 }
             }
+
+            while (cycleOreViewKey.consumeClick()) {
+                OreHeatmapPlugin plugin = OreHeatmapPlugin.getInstance();
+                if (plugin != null && plugin.getOverlayManager() != null) {
+                    plugin.getOverlayManager().cycleOreView();
+                }
+            }
+
+            while (showStatsKey.consumeClick()) {
+                OreHeatmapPlugin plugin = OreHeatmapPlugin.getInstance();
+                Minecraft mc = Minecraft.getInstance();
+                if (plugin != null && plugin.getOverlayManager() != null && mc.player != null) {
+                    for (String line : plugin.getOverlayManager().statsReport()) {
+                        mc.player.displayClientMessage(Component.literal(line), false);
+                    }
+                }
+            }
         }
     }
 }
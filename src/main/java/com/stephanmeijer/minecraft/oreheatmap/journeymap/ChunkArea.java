@@ -0,0 +1,59 @@
+package com.stephanmeijer.minecraft.oreheatmap.journeymap;
+
+import java.util.List;
+
+import com.stephanmeijer.minecraft.oreheatmap.cache.HeatPyramid;
+
+/**
+ * Inclusive rectangle of chunk coordinates, e.g. the part of a map that is on screen.
+ */
+public record ChunkArea(int minX, int minZ, int maxX, int maxZ) {
+
+    public static ChunkArea around(int chunkX, int chunkZ, int radius) {
+        return new ChunkArea(chunkX - radius, chunkZ - radius, chunkX + radius, chunkZ + radius);
+    }
+
+    /**
+     * The chunks covering a rectangle of block coordinates.
+     */
+    public static ChunkArea ofBlocks(double minBlockX, double minBlockZ, double maxBlockX, double maxBlockZ) {
+        return new ChunkArea(
+                (int) Math.floor(minBlockX) >> 4,
+                (int) Math.floor(minBlockZ) >> 4,
+                (int) Math.floor(maxBlockX) >> 4,
+                (int) Math.floor(maxBlockZ) >> 4
+        );
+    }
+
+    public ChunkArea expand(int chunks) {
+        return new ChunkArea(minX - chunks, minZ - chunks, maxX + chunks, maxZ + chunks);
+    }
+
+    public boolean contains(int chunkX, int chunkZ) {
+        return chunkX >= minX && chunkX <= maxX && chunkZ >= minZ && chunkZ <= maxZ;
+    }
+
+    /**
+     * Number of {@link HeatPyramid} cells of the given level touching this area.
+     */
+    public long cellsAt(int level) {
+        return (long) ((maxX >> level) - (minX >> level) + 1) * ((maxZ >> level) - (minZ >> level) + 1);
+    }
+
+    /**
+     * Finest {@link HeatPyramid} level at which the areas together touch at most {@code maxCells}
+     * cells, or {@link HeatPyramid#MAX_LEVEL} if none does.
+     */
+    public static int detailLevel(List<ChunkArea> areas, long maxCells) {
+        for (int level = 0; level < HeatPyramid.MAX_LEVEL; level++) {
+            long cells = 0;
+            for (ChunkArea area : areas) {
+                cells += area.cellsAt(level);
+            }
+            if (cells <= maxCells) {
+                return level;
+            }
+        }
+        return HeatPyramid.MAX_LEVEL;
+    }
+}
@@ -0,0 +1,43 @@
+package com.stephanmeijer.minecraft.oreheatmap.journeymap;
+
+import com.stephanmeijer.minecraft.oreheatmap.OreHeatmapConfig;
+import com.stephanmeijer.minecraft.oreheatmap.cache.DimensionCache;
+
+/**
+ * Maps chunk ore counts to heat densities in [0, 1] for one dimension.
+ *
+ * @param mode      how counts are normalized
+ * @param reference count drawn at full heat: the dimension's maximum, or its 95th percentile
+ *                  so a few outlier chunks do not wash out the rest of the map
+ */
+record HeatScale(OreHeatmapConfig.Normalization mode, int reference) {
+
+    private static final double PERCENTILE = 0.95;
+
+    /**
+     * Reads the scale from the dimension's count distribution; costs a walk over its bins, not its chunks.
+     */
+    static HeatScale of(OreHeatmapConfig.Normalization mode, DimensionCache cache) {
+        int reference = mode == OreHeatmapConfig.Normalization.P95 ?
+                cache.distribution().quantile(PERCENTILE) :
+                cache.maxCount();
+        return new HeatScale(mode, reference);
+    }
+
+    /**
+     * False until some chunk has more than one ore, when every count is drawn at full heat.
+     */
+    boolean isScaled() {
+        return reference > 1;
+    }
+
+    float density(int count) {
+        if (!isScaled()) {
+            return 1.0f;
+        }
+        if (mode == OreHeatmapConfig.Normalization.LOG) {
+            return (float) Math.min(1.0, Math.log1p(count) / Math.log1p(reference));
+        }
+        return Math.min(1.0f, count / (float) reference);
+    }
+}
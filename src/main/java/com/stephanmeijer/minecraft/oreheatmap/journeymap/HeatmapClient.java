@@ -0,0 +1,110 @@
+package com.stephanmeijer.minecraft.oreheatmap.journeymap;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+import com.stephanmeijer.minecraft.oreheatmap.OreHeatmapConfig;
+import com.stephanmeijer.minecraft.oreheatmap.scan.ChunkSnapshot;
+import com.stephanmeijer.minecraft.oreheatmap.scan.SectionStates;
+import com.stephanmeijer.minecraft.oreheatmap.scan.TrackedOreMatcher;
+import net.minecraft.network.chat.Component;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.tags.TagKey;
+import net.minecraft.world.level.block.Block;
+
+/**
+ * What the overlay manager reads from the running game and the mod config. The game's is
+ * {@link MinecraftHeatmapClient}; the trace replay supplies a recorded one, so the manager runs
+ * without a client.
+ *
+ * <p>Chunk lookups are in the level the player is in. Used from the client thread only.
+ */
+interface HeatmapClient {
+
+    /**
+     * The local player's position.
+     *
+     * @param dimension dimension location string of the player's level
+     */
+    record Player(String dimension, int blockX, int blockY, int blockZ) {
+
+        int chunkX() {
+            return blockX >> 4;
+        }
+
+        int chunkZ() {
+            return blockZ >> 4;
+        }
+    }
+
+    /**
+     * The config values the manager reads, see {@link OreHeatmapConfig}.
+     */
+    record Settings(boolean enabled, double tickBudgetMillis, int updateIntervalTicks, int cacheMemoryMb,
+                    OreHeatmapConfig.Normalization normalization, OreHeatmapConfig.RenderMode renderMode, double overlayOpacity,
+                    boolean showOverlayInCaves, OreHeatmapConfig.YBandMode yBandMode, int yBandHalfHeight,
+                    double rescanRadiusMultiplier, List<String> trackedOres) {
+    }
+
+    Settings settings();
+
+    /**
+     * Directory the {@code journeymap} folder lives in.
+     */
+    Path gameDirectory();
+
+    /**
+     * Names the world being played for its cache directory, or null if no world is open.
+     */
+    String worldId();
+
+    /**
+     * Save directory of the single-player world being played, or null on a server.
+     */
+    Path localWorldPath();
+
+    /**
+     * The local player, or null if there is none.
+     */
+    Player player();
+
+    /**
+     * Render distance in chunks.
+     */
+    int renderDistance();
+
+    boolean hasChunk(int chunkX, int chunkZ);
+
+    /**
+     * Copies the sections of a loaded chunk that may hold tracked ores, see {@code ChunkOreScanner.capture}.
+     */
+    ChunkSnapshot capture(String dimension, long chunkPos, TrackedOreMatcher matcher);
+
+    /**
+     * Counts the tracked ores of a loaded chunk on the calling thread.
+     *
+     * @return histogram with ore ids indexing the table
+     */
+    int[] scan(long chunkPos, TrackedOreMatcher.OreTable ores);
+
+    /**
+     * The block states of a loaded chunk's sections, for session traces.
+     */
+    List<SectionStates> blockStates(long chunkPos);
+
+    /**
+     * Resolves the tracked block IDs and tags to block states, see {@link TrackedOreMatcher#resolve}.
+     */
+    TrackedOreMatcher.OreTable resolveOres(Set<ResourceLocation> trackedBlocks, Set<TagKey<Block>> trackedTags);
+
+    /**
+     * Shows a message to the player, above the hotbar or in chat.
+     */
+    void showMessage(Component message, boolean actionBar);
+
+    /**
+     * Runs a task on the client thread, e.g. to report the end of background work.
+     */
+    void execute(Runnable task);
+}
@@ -0,0 +1,174 @@
+package com.stephanmeijer.minecraft.oreheatmap.journeymap;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.mojang.blaze3d.platform.NativeImage;
+import com.stephanmeijer.minecraft.oreheatmap.OreHeatmapMod;
+import com.stephanmeijer.minecraft.oreheatmap.cache.ChunkCountStore;
+import com.stephanmeijer.minecraft.oreheatmap.cache.DimensionCache;
+import com.stephanmeijer.minecraft.oreheatmap.cache.RegionKeys;
+import com.stephanmeijer.minecraft.oreheatmap.metrics.HeatmapMetrics;
+import journeymap.api.v2.client.IClientAPI;
+import journeymap.api.v2.client.display.ImageOverlay;
+import journeymap.api.v2.client.model.MapImage;
+import net.minecraft.core.BlockPos;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.world.level.Level;
+
+/**
+ * Heatmap drawn as one image overlay per cache region, one pixel per chunk.
+ *
+ * <p>A tile is rasterized again only when its region changed in the cache or the color scale
+ * changed; otherwise the image from the previous update stays on the map. This keeps the number
+ * of overlays, and JourneyMap draw calls, at one per visible region regardless of zoom.
+ *
+ * <p>Used from the client thread only.
+ */
+final class HeatmapImageTiles {
+
+    // Y-coordinate for overlay image plane
+    private static final int IMAGE_Y_LEVEL = 64;
+
+    private static final class RegionTile {
+        final ImageOverlay overlay;
+        int renderedVersion;
+        int renderedStyle;
+        int lastSeen;
+
+        RegionTile(ImageOverlay overlay) {
+            this.overlay = overlay;
+        }
+    }
+
+    private final IClientAPI jmAPI;
+    private final Map<Long, RegionTile> active = new HashMap<>();
+
+    private HeatScale styledScale;
+    private float styledMaxOpacity = -1;
+    private int style;
+    private int update;
+
+    HeatmapImageTiles(IClientAPI jmAPI) {
+        this.jmAPI = jmAPI;
+    }
+
+    /**
+     * Starts a reconciliation pass. A changed scale invalidates every tile's pixels.
+     */
+    void beginUpdate(HeatScale scale, float maxOpacity) {
+        update++;
+        if (!scale.equals(styledScale) || maxOpacity != styledMaxOpacity) {
+            styledScale = scale;
+            styledMaxOpacity = maxOpacity;
+            style++;
+        }
+    }
+
+    /**
+     * Ensures the region has an up-to-date tile. Only rasterizes and talks to JourneyMap on change.
+     */
+    void show(ResourceKey<Level> dim, DimensionCache cache, long regionKey) {
+        RegionTile existing = active.get(regionKey);
+        int version = cache.regionVersion(regionKey);
+
+        if (existing != null) {
+            existing.lastSeen = update;
+            if (existing.renderedVersion == version && existing.renderedStyle == style) {
+                return;
+            }
+            existing.overlay.setImage(render(cache.counts(), regionKey));
+            existing.renderedVersion = version;
+            existing.renderedStyle = style;
+            submit(existing.overlay);
+            return;
+        }
+
+        int minX = ChunkCountStore.unpackX(regionKey) << (RegionKeys.REGION_SHIFT + 4);
+        int minZ = ChunkCountStore.unpackZ(regionKey) << (RegionKeys.REGION_SHIFT + 4);
+        int size = RegionKeys.REGION_SIZE * 16;
+        ImageOverlay overlay = new ImageOverlay(OreHeatmapMod.MODID, dim,
+                new BlockPos(minX, IMAGE_Y_LEVEL, minZ),
+                new BlockPos(minX + size, IMAGE_Y_LEVEL, minZ + size),
+                render(cache.counts(), regionKey));
+        try {
+            jmAPI.show(overlay);
+            HeatmapMetrics.OVERLAYS_SHOWN.increment();
+        } catch (Exception e) {
+            OreHeatmapMod.LOGGER.error("show: Failed to show tile: {}", e.getMessage());
+            return;
+        }
+        RegionTile created = new RegionTile(overlay);
+        created.renderedVersion = version;
+        created.renderedStyle = style;
+        created.lastSeen = update;
+        active.put(regionKey, created);
+    }
+
+    /**
+     * Removes every tile not shown since {@link #beginUpdate}.
+     */
+    void endUpdate() {
+        Iterator<RegionTile> it = active.values().iterator();
+        while (it.hasNext()) {
+            RegionTile tile = it.next();
+            if (tile.lastSeen != update) {
+                it.remove();
+                remove(tile.overlay);
+            }
+        }
+    }
+
+    void clear() {
+        for (RegionTile tile : active.values()) {
+            remove(tile.overlay);
+        }
+        active.clear();
+    }
+
+    int size() {
+        return active.size();
+    }
+
+    /**
+     * Rasterizes a region with the same color ramp and opacity as the polygon overlays.
+     * JourneyMap takes ownership of the returned image.
+     */
+    private MapImage render(ChunkCountStore counts, long regionKey) {
+        NativeImage image = new NativeImage(RegionKeys.REGION_SIZE, RegionKeys.REGION_SIZE, true);
+        for (int i = 0; i < RegionKeys.CHUNKS_PER_REGION; i++) {
+            int count = counts.get(RegionKeys.chunkAt(regionKey, i), 0);
+            int x = i & (RegionKeys.REGION_SIZE - 1);
+            int z = i >>> RegionKeys.REGION_SHIFT;
+            image.setPixelRGBA(x, z, count > 0 ? pixel(count) : 0);
+        }
+        return new MapImage(image);
+    }
+
+    private int pixel(int count) {
+        float density = styledScale.density(count);
+        int rgb = HeatmapOverlays.calculateHeatmapColor(density);
+        int alpha = Math.round(HeatmapOverlays.fillOpacity(density, styledMaxOpacity) * 255);
+        // NativeImage stores ABGR
+        return (alpha << 24) | ((rgb & 0xFF) << 16) | (rgb & 0xFF00) | ((rgb >> 16) & 0xFF);
+    }
+
+    private void submit(ImageOverlay overlay) {
+        try {
+            jmAPI.show(overlay);
+            HeatmapMetrics.OVERLAYS_UPDATED.increment();
+        } catch (Exception e) {
+            OreHeatmapMod.LOGGER.debug("submit: Failed to update tile: {}", e.getMessage());
+        }
+    }
+
+    private void remove(ImageOverlay overlay) {
+        try {
+            jmAPI.remove(overlay);
+            HeatmapMetrics.OVERLAYS_REMOVED.increment();
+        } catch (Exception e) {
+            OreHeatmapMod.LOGGER.debug("remove: Failed to remove tile: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.stephanmeijer.minecraft.oreheatmap.journeymap;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.stephanmeijer.minecraft.oreheatmap.OreHeatmapMod;
+import com.stephanmeijer.minecraft.oreheatmap.metrics.HeatmapMetrics;
+import journeymap.api.v2.client.IClientAPI;
+import journeymap.api.v2.client.display.PolygonOverlay;
+import journeymap.api.v2.client.model.MapPolygon;
+import journeymap.api.v2.client.model.ShapeProperties;
+import net.minecraft.core.BlockPos;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.world.level.Level;
+
+/**
+ * The heatmap overlays currently submitted to JourneyMap, one per chunk or, when zoomed out,
+ * per aggregated {@code HeatPyramid} cell.
+ *
+ * <p>Remembers the style bucket and ore count each overlay was last shown with and only calls
+ * {@link IClientAPI#show} when one of them visibly changes. Polygon geometry is built once per
+ * overlay, since cells never move. A new {@link HeatScale} or opacity restyles only the
+ * overlays whose bucket actually changed.
+ *
+ * <p>Used from the client thread only.
+ */
+final class HeatmapOverlays {
+
+    // Heatmap colors
+    private static final int COLOR_LOW = 0xFFFFE0;   // Light yellow/white
+    private static final int COLOR_MID = 0xFF8C00;   // Dark orange
+    private static final int COLOR_HIGH = 0x8B0000;  // Dark red
+
+    // Density is quantized into this many color/opacity steps; one more marks "no scale yet"
+    private static final int STYLE_BUCKETS = 32;
+    private static final int UNSCALED_BUCKET = STYLE_BUCKETS;
+
+    // Y-coordinate for overlay polygon plane
+    private static final int POLYGON_Y_LEVEL = 64;
+
+    // Overlay keys: cell x and z in the low 56 bits, pyramid level above them
+    private static final int KEY_COORD_BITS = 28;
+    private static final long KEY_COORD_MASK = (1L << KEY_COORD_BITS) - 1;
+
+    private static final class ChunkOverlay {
+        final PolygonOverlay overlay;
+        int oreCount;
+        int chunkCount;
+        int styleBucket;
+        int lastSeen;
+
+        ChunkOverlay(PolygonOverlay overlay) {
+            this.overlay = overlay;
+        }
+    }
+
+    private final IClientAPI jmAPI;
+    private final Map<Long, ChunkOverlay> active = new HashMap<>();
+
+    private HeatScale styledScale;
+    private float styledMaxOpacity = -1;
+    private int update;
+
+    HeatmapOverlays(IClientAPI jmAPI) {
+        this.jmAPI = jmAPI;
+    }
+
+    /**
+     * Starts a reconciliation pass. Restyles existing overlays first if the scale changed.
+     */
+    void beginUpdate(HeatScale scale, float maxOpacity) {
+        update++;
+        if (!scale.equals(styledScale) || maxOpacity != styledMaxOpacity) {
+            styledScale = scale;
+            styledMaxOpacity = maxOpacity;
+            restyleAll();
+        }
+    }
+
+    /**
+     * Ensures the cell has an overlay matching its counts. Only talks to JourneyMap on change.
+     * The cell is colored by its average count per scanned chunk.
+     *
+     * @param level      pyramid level; a cell spans 2^level x 2^level chunks
+     * @param oreCount   ores summed over the cell
+     * @param chunkCount scanned chunks in the cell
+     */
+    void show(ResourceKey<Level> dim, int level, int cellX, int cellZ, int oreCount, int chunkCount) {
+        long key = cellKey(level, cellX, cellZ);
+        ChunkOverlay existing = active.get(key);
+        int bucket = styleBucket(oreCount / chunkCount);
+
+        if (existing == null) {
+            PolygonOverlay overlay = new PolygonOverlay(OreHeatmapMod.MODID, dim, shapeFor(bucket),
+                    createCellPolygon(level, cellX, cellZ));
+            overlay.setTitle(title(oreCount, chunkCount));
+            try {
+                jmAPI.show(overlay);
+                HeatmapMetrics.OVERLAYS_SHOWN.increment();
+            } catch (Exception e) {
+                OreHeatmapMod.LOGGER.error("show: Failed to show overlay: {}", e.getMessage());
+                return;
+            }
+            ChunkOverlay created = new ChunkOverlay(overlay);
+            created.oreCount = oreCount;
+            created.chunkCount = chunkCount;
+            created.styleBucket = bucket;
+            created.lastSeen = update;
+            active.put(key, created);
+            return;
+        }
+
+        existing.lastSeen = update;
+        boolean titleChanged = existing.oreCount != oreCount || existing.chunkCount != chunkCount;
+        if (!titleChanged && existing.styleBucket == bucket) {
+            return;
+        }
+        if (titleChanged) {
+            existing.oreCount = oreCount;
+            existing.chunkCount = chunkCount;
+            existing.overlay.setTitle(title(oreCount, chunkCount));
+        }
+        if (existing.styleBucket != bucket) {
+            existing.styleBucket = bucket;
+            existing.overlay.setShapeProperties(shapeFor(bucket));
+        }
+        submit(existing.overlay);
+    }
+
+    /**
+     * Removes every overlay not shown since {@link #beginUpdate}.
+     */
+    void endUpdate() {
+        Iterator<ChunkOverlay> it = active.values().iterator();
+        while (it.hasNext()) {
+            ChunkOverlay chunkOverlay = it.next();
+            if (chunkOverlay.lastSeen != update) {
+                it.remove();
+                remove(chunkOverlay.overlay);
+            }
+        }
+    }
+
+    void clear() {
+        for (ChunkOverlay chunkOverlay : active.values()) {
+            remove(chunkOverlay.overlay);
+        }
+        active.clear();
+    }
+
+    int size() {
+        return active.size();
+    }
+
+    private void restyleAll() {
+        int restyled = 0;
+        for (ChunkOverlay chunkOverlay : active.values()) {
+            int bucket = styleBucket(chunkOverlay.oreCount / chunkOverlay.chunkCount);
+            if (bucket != chunkOverlay.styleBucket) {
+                chunkOverlay.styleBucket = bucket;
+                chunkOverlay.overlay.setShapeProperties(shapeFor(bucket));
+                submit(chunkOverlay.overlay);
+                restyled++;
+            }
+        }
+        OreHeatmapMod.LOGGER.debug("restyleAll: Restyled {} of {} overlays for max {}", restyled, active.size(), styledScale);
+    }
+
+    private int styleBucket(int oreCount) {
+        if (!styledScale.isScaled()) {
+            return UNSCALED_BUCKET;
+        }
+        float density = styledScale.density(oreCount);
+        return Math.min(STYLE_BUCKETS - 1, (int) (density * STYLE_BUCKETS));
+    }
+
+    private ShapeProperties shapeFor(int bucket) {
+        float density = bucket == UNSCALED_BUCKET ? 1.0f : bucket / (float) (STYLE_BUCKETS - 1);
+        int color = bucket == UNSCALED_BUCKET ? COLOR_MID : calculateHeatmapColor(density);
+        float fillOpacity = fillOpacity(density, styledMaxOpacity);
+
+        return new ShapeProperties()
+                .setFillColor(color)
+                .setFillOpacity(fillOpacity)
+                .setStrokeColor(color)
+                .setStrokeOpacity(Math.min(1.0f, fillOpacity + 0.15f))
+                .setStrokeWidth(1.0f);
+    }
+
+    private static String title(int oreCount, int chunkCount) {
+        if (chunkCount == 1) {
+            return "Ores: " + oreCount + " blocks";
+        }
+        return "Ores: " + oreCount + " blocks in " + chunkCount + " chunks";
+    }
+
+    private static long cellKey(int level, int cellX, int cellZ) {
+        return ((long) level << (2 * KEY_COORD_BITS)) | ((cellZ & KEY_COORD_MASK) << KEY_COORD_BITS) | (cellX & KEY_COORD_MASK);
+    }
+
+    private void submit(PolygonOverlay overlay) {
+        try {
+            jmAPI.show(overlay);
+            HeatmapMetrics.OVERLAYS_UPDATED.increment();
+        } catch (Exception e) {
+            OreHeatmapMod.LOGGER.debug("submit: Failed to update overlay: {}", e.getMessage());
+        }
+    }
+
+    private void remove(PolygonOverlay overlay) {
+        try {
+            jmAPI.remove(overlay);
+            HeatmapMetrics.OVERLAYS_REMOVED.increment();
+        } catch (Exception e) {
+            OreHeatmapMod.LOGGER.debug("remove: Failed to remove overlay: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Fill opacity for a density in [0, 1], from a faint 0.2 up to the configured maximum.
+     */
+    static float fillOpacity(float density, float maxOpacity) {
+        return 0.2f + (density * (maxOpacity - 0.2f));
+    }
+
+    /**
+     * Maps a density in [0, 1] onto the light yellow → orange → dark red ramp.
+     */
+    static int calculateHeatmapColor(float density) {
+        if (density < 0.5f) {
+            return interpolateColor(COLOR_LOW, COLOR_MID, density * 2);
+        } else {
+            return interpolateColor(COLOR_MID, COLOR_HIGH, (density - 0.5f) * 2);
+        }
+    }
+
+    private static int interpolateColor(int color1, int color2, float ratio) {
+        float t = Math.max(0, Math.min(1, ratio));
+
+        int r1 = (color1 >> 16) & 0xFF;
+        int g1 = (color1 >> 8) & 0xFF;
+        int b1 = color1 & 0xFF;
+
+        int r2 = (color2 >> 16) & 0xFF;
+        int g2 = (color2 >> 8) & 0xFF;
+        int b2 = color2 & 0xFF;
+
+        int r = (int) (r1 + (r2 - r1) * t);
+        int g = (int) (g1 + (g2 - g1) * t);
+        int b = (int) (b1 + (b2 - b1) * t);
+
+        return (r << 16) | (g << 8) | b;
+    }
+
+    private static MapPolygon createCellPolygon(int level, int cellX, int cellZ) {
+        int cellShift = 4 + level;
+        int minX = cellX << cellShift;
+        int minZ = cellZ << cellShift;
+        int maxX = minX + (1 << cellShift) - 1;
+        int maxZ = minZ + (1 << cellShift) - 1;
+
+        return new MapPolygon(
+                new BlockPos(minX, POLYGON_Y_LEVEL, maxZ),
+                new BlockPos(maxX + 1, POLYGON_Y_LEVEL, maxZ),
+                new BlockPos(maxX + 1, POLYGON_Y_LEVEL, minZ),
+                new BlockPos(minX, POLYGON_Y_LEVEL, minZ)
+        );
+    }
+}
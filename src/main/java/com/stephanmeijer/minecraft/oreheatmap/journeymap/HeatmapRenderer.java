@@ -0,0 +1,79 @@
+package com.stephanmeijer.minecraft.oreheatmap.journeymap;
+
+import java.util.List;
+
+import com.stephanmeijer.minecraft.oreheatmap.OreHeatmapConfig;
+import com.stephanmeijer.minecraft.oreheatmap.cache.DimensionCache;
+import journeymap.api.v2.client.IClientAPI;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.world.level.Level;
+
+/**
+ * Draws a dimension's cached counts for the visible map areas, as chunk and cell polygons or as
+ * region image tiles. Takes every setting as an argument, so the overlay manager and the trace
+ * replay drive exactly the same code.
+ *
+ * <p>Used from the client thread only.
+ */
+final class HeatmapRenderer {
+
+    private final HeatmapOverlays overlays;
+    private final HeatmapImageTiles imageTiles;
+
+    HeatmapRenderer(IClientAPI jmAPI) {
+        this.overlays = new HeatmapOverlays(jmAPI);
+        this.imageTiles = new HeatmapImageTiles(jmAPI);
+    }
+
+    /**
+     * Shows overlays for the cached chunks inside the viewports and retires the ones that left them.
+     * Work scales with the area on screen, not the explored area, and JourneyMap is only called for
+     * overlays that visibly changed. Zoomed out, chunks are aggregated into larger cells so the
+     * number of overlays stays bounded.
+     *
+     * @param detailLevel {@code HeatPyramid} level to draw polygons at
+     */
+    void render(ResourceKey<Level> dim, DimensionCache oreCounts, List<ChunkArea> viewports, int detailLevel,
+                OreHeatmapConfig.Normalization normalization, OreHeatmapConfig.RenderMode mode, float maxOpacity) {
+        for (ChunkArea viewport : viewports) {
+            oreCounts.loadRegionsIn(viewport.minX(), viewport.minZ(), viewport.maxX(), viewport.maxZ());
+        }
+        // Scaled per dimension from its count distribution, after paging in what is about to be drawn
+        HeatScale scale = HeatScale.of(normalization, oreCounts);
+
+        if (mode == OreHeatmapConfig.RenderMode.IMAGE_TILES) {
+            overlays.clear();
+            imageTiles.beginUpdate(scale, maxOpacity);
+            for (ChunkArea viewport : viewports) {
+                oreCounts.forEachRegionInArea(viewport.minX(), viewport.minZ(), viewport.maxX(), viewport.maxZ(),
+                        regionKey -> imageTiles.show(dim, oreCounts, regionKey));
+            }
+            imageTiles.endUpdate();
+            return;
+        }
+        imageTiles.clear();
+
+        overlays.beginUpdate(scale, maxOpacity);
+        for (ChunkArea viewport : viewports) {
+            oreCounts.forEachCellInArea(detailLevel, viewport.minX(), viewport.minZ(), viewport.maxX(), viewport.maxZ(),
+                    (cellX, cellZ, totalOres, chunkCount) -> {
+                        if (totalOres > 0) {
+                            overlays.show(dim, detailLevel, cellX, cellZ, totalOres, chunkCount);
+                        }
+                    });
+        }
+        overlays.endUpdate();
+    }
+
+    void clear() {
+        overlays.clear();
+        imageTiles.clear();
+    }
+
+    /**
+     * Number of overlays currently on the map.
+     */
+    int size() {
+        return overlays.size() + imageTiles.size();
+    }
+}
@@ -0,0 +1,115 @@
+package com.stephanmeijer.minecraft.oreheatmap.journeymap;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+import com.stephanmeijer.minecraft.oreheatmap.OreHeatmapConfig;
+import com.stephanmeijer.minecraft.oreheatmap.scan.ChunkOreScanner;
+import com.stephanmeijer.minecraft.oreheatmap.scan.ChunkSnapshot;
+import com.stephanmeijer.minecraft.oreheatmap.scan.SectionStates;
+import com.stephanmeijer.minecraft.oreheatmap.scan.TrackedOreMatcher;
+import com.stephanmeijer.minecraft.oreheatmap.scan.WorldSaveScanner;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.multiplayer.ClientLevel;
+import net.minecraft.client.player.LocalPlayer;
+import net.minecraft.network.chat.Component;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.tags.TagKey;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.storage.LevelResource;
+
+/**
+ * The running game client and the mod config, as the overlay manager sees them.
+ */
+final class MinecraftHeatmapClient implements HeatmapClient {
+
+    @Override
+    public Settings settings() {
+        return new Settings(OreHeatmapConfig.ENABLED.get(), OreHeatmapConfig.TICK_BUDGET_MILLIS.get(),
+                OreHeatmapConfig.UPDATE_INTERVAL_TICKS.get(), OreHeatmapConfig.CACHE_MEMORY_MB.get(),
+                OreHeatmapConfig.NORMALIZATION.get(), OreHeatmapConfig.RENDER_MODE.get(), OreHeatmapConfig.OVERLAY_OPACITY.get(),
+                OreHeatmapConfig.SHOW_OVERLAY_IN_CAVES.get(), OreHeatmapConfig.Y_BAND_MODE.get(), OreHeatmapConfig.Y_BAND_HALF_HEIGHT.get(),
+                OreHeatmapConfig.RESCAN_RADIUS_MULTIPLIER.get(), List.copyOf(OreHeatmapConfig.TRACKED_ORES.get()));
+    }
+
+    @Override
+    public Path gameDirectory() {
+        return Minecraft.getInstance().gameDirectory.toPath();
+    }
+
+    @Override
+    public String worldId() {
+        Minecraft mc = Minecraft.getInstance();
+        Path worldPath = localWorldPath();
+        if (worldPath != null) {
+            return WorldSaveScanner.localWorldId(worldPath);
+        } else if (mc.getCurrentServer() != null) {
+            return "server_" + mc.getCurrentServer().ip.replaceAll("[^a-zA-Z0-9]", "_");
+        }
+        return null;
+    }
+
+    @Override
+    public Path localWorldPath() {
+        Minecraft mc = Minecraft.getInstance();
+        if (mc.isLocalServer() && mc.getSingleplayerServer() != null) {
+            return mc.getSingleplayerServer().getWorldPath(LevelResource.ROOT).toAbsolutePath().normalize();
+        }
+        return null;
+    }
+
+    @Override
+    public Player player() {
+        LocalPlayer player = Minecraft.getInstance().player;
+        if (player == null) {
+            return null;
+        }
+        return new Player(player.level().dimension().location().toString(), player.getBlockX(), player.getBlockY(), player.getBlockZ());
+    }
+
+    @Override
+    public int renderDistance() {
+        return Minecraft.getInstance().options.renderDistance().get();
+    }
+
+    @Override
+    public boolean hasChunk(int chunkX, int chunkZ) {
+        ClientLevel level = Minecraft.getInstance().level;
+        return level != null && level.hasChunk(chunkX, chunkZ);
+    }
+
+    @Override
+    public ChunkSnapshot capture(String dimension, long chunkPos, TrackedOreMatcher matcher) {
+        return ChunkOreScanner.capture(dimension, Minecraft.getInstance().level.getChunk(ChunkPos.getX(chunkPos), ChunkPos.getZ(chunkPos)), matcher);
+    }
+
+    @Override
+    public int[] scan(long chunkPos, TrackedOreMatcher.OreTable ores) {
+        return ChunkOreScanner.scan(Minecraft.getInstance().level.getChunk(ChunkPos.getX(chunkPos), ChunkPos.getZ(chunkPos)), ores);
+    }
+
+    @Override
+    public List<SectionStates> blockStates(long chunkPos) {
+        return ChunkOreScanner.blockStates(Minecraft.getInstance().level.getChunk(ChunkPos.getX(chunkPos), ChunkPos.getZ(chunkPos)));
+    }
+
+    @Override
+    public TrackedOreMatcher.OreTable resolveOres(Set<ResourceLocation> trackedBlocks, Set<TagKey<Block>> trackedTags) {
+        return TrackedOreMatcher.resolve(trackedBlocks, trackedTags);
+    }
+
+    @Override
+    public void showMessage(Component message, boolean actionBar) {
+        LocalPlayer player = Minecraft.getInstance().player;
+        if (player != null) {
+            player.displayClientMessage(message, actionBar);
+        }
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        Minecraft.getInstance().execute(task);
+    }
+}
@@ -1,34 +1,43 @@
 package com.stephanmeijer.minecraft.oreheatmap.journeymap;
 
 import java.io.IOException;
-import java.io.Reader;
-import java.io.Writer;
-import java.lang.reflect.Type;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
-import com.stephanmeijer.minecraft.oreheatmap.OreHeatmapConfig;
 import com.stephanmeijer.minecraft.oreheatmap.OreHeatmapMod;
+import com.stephanmeijer.minecraft.oreheatmap.cache.CacheMerge;
+import com.stephanmeijer.minecraft.oreheatmap.cache.DimensionCache;
+import com.stephanmeijer.minecraft.oreheatmap.cache.OreFilter;
+import com.stephanmeijer.minecraft.oreheatmap.cache.OreHistogram;
+import com.stephanmeijer.minecraft.oreheatmap.cache.OreIndex;
+import com.stephanmeijer.minecraft.oreheatmap.cache.WorldCache;
+import com.stephanmeijer.minecraft.oreheatmap.metrics.HeatmapMetrics;
+import com.stephanmeijer.minecraft.oreheatmap.scan.ClientBlockChanges;
+import com.stephanmeijer.minecraft.oreheatmap.scan.ChunkScanPipeline;
+import com.stephanmeijer.minecraft.oreheatmap.scan.TrackedOreMatcher;
+import com.stephanmeijer.minecraft.oreheatmap.scan.WorldSaveScanner;
 import journeymap.api.v2.client.IClientAPI;
 import journeymap.api.v2.client.display.Context;
-import journeymap.api.v2.client.display.PolygonOverlay;
-import journeymap.api.v2.client.model.MapPolygon;
-import journeymap.api.v2.client.model.ShapeProperties;
 import journeymap.api.v2.client.util.UIState;
-import net.minecraft.client.Minecraft;
 import net.minecraft.client.player.LocalPlayer;
 import net.minecraft.core.BlockPos;
-import net.minecraft.core.registries.BuiltInRegistries;
 import net.minecraft.core.registries.Registries;
 import net.minecraft.network.chat.Component;
 import net.minecraft.resources.ResourceKey;
@@ -39,66 +48,120 @@ import net.minecraft.world.level.Level;
 import net.minecraft.world.level.block.Block;
 import net.minecraft.world.level.block.state.BlockState;
 import net.minecraft.world.level.chunk.LevelChunk;
-import net.minecraft.world.level.storage.LevelResource;
+import net.minecraft.world.phys.AABB;
 import net.neoforged.bus.api.SubscribeEvent;
 import net.neoforged.neoforge.client.event.ClientPlayerNetworkEvent;
+import net.neoforged.neoforge.event.TagsUpdatedEvent;
 import net.neoforged.neoforge.event.level.ChunkEvent;
 import net.neoforged.neoforge.event.tick.PlayerTickEvent;
 
 /**
  * Manages ore scanning and JourneyMap overlay rendering.
  * Uses event-based architecture: scans chunks when they load.
+ *
+ * <p>The event handlers only unpack their events; the game and the config are read through a
+ * {@link HeatmapClient}, so the trace replay drives this class without a client.
  */
 public class OreHeatmapOverlayManager {
 
     private final IClientAPI jmAPI;
-    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    private final HeatmapClient client;
 
-    // Persistent storage per dimension (dimension location string -> chunk data)
-    private final Map<String, Map<String, Integer>> dimensionOreCounts = new ConcurrentHashMap<>();
-    private final Map<String, PolygonOverlay> activeOverlays = new ConcurrentHashMap<>();
+    // On-disk ore cache of the current world; dimensions are opened on first use and the least
+    // recently visited idle ones are evicted once over the configured memory cap
+    private final WorldCache worldCache = new WorldCache();
+    private final HeatmapRenderer renderer;
 
     // Tracked ores: specific block IDs and tags
     private final Set<ResourceLocation> trackedBlocks = new HashSet<>();
     private final Set<TagKey<Block>> trackedTags = new HashSet<>();
+    private final TrackedOreMatcher oreMatcher = new TrackedOreMatcher();
 
-    // Dynamic color scaling - thread-safe for access from chunk load and player tick events
-    private final AtomicInteger maxOreCount = new AtomicInteger(1);
+    // Heatmap views: all ores, then one per ore group of the tracked ores
+    private final List<OreFilter> oreViews = new ArrayList<>(List.of(OreFilter.ALL));
+    private int oreViewIndex;
 
-    // Heatmap colors
-    private static final int COLOR_LOW = 0xFFFFE0;   // Light yellow/white
-    private static final int COLOR_MID = 0xFF8C00;   // Dark orange
-    private static final int COLOR_HIGH = 0x8B0000;  // Dark red
+    // World ore ids for the ore indices of the last matcher table seen in a scan result
+    private TrackedOreMatcher.OreTable translatedTable;
+    private OreIndex translatedIndex;
+    private int[] worldOreIds;
 
-    // Y-coordinate for overlay polygon plane
-    private static final int POLYGON_Y_LEVEL = 64;
+    // Off-thread chunk scanning: chunks queued or in flight, and chunks waiting for queue capacity
+    private final ChunkScanPipeline scanPipeline = new ChunkScanPipeline();
+    private final Set<Long> pendingScans = new HashSet<>();
+    private final Deque<Long> deferredScans = new ArrayDeque<>();
+    // Of the pending chunks, those whose snapshot was taken and handed to the workers
+    private final Set<Long> capturedScans = new HashSet<>();
+    // Chunks changed while their scan was in flight; scanned again once the result is in
+    private final Set<Long> staleScans = new HashSet<>();
+    private String scanDimension;
 
-    private int tickCounter;
-    private int saveCounter;
-    private static final int SAVE_INTERVAL = 600; // Save every 30 seconds (600 ticks)
+    // Extra chunks kept around each visible map area so panning does not reveal gaps
+    private static final int VIEWPORT_MARGIN_CHUNKS = 4;
+
+    // Most overlay cells drawn across all visible map areas before chunks get aggregated
+    private static final int MAX_VISIBLE_CELLS = 4096;
+
+    // Names the files written by /oreheatmap stats dump
+    private static final DateTimeFormatter STATS_FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss", Locale.ROOT);
+    private static final String TRACE_DIRECTORY = "traces";
+    private static final String EXPORT_DIRECTORY = "exports";
+
+    // Client-thread time allowed per tick, shared by all heatmap work
+    private final TickBudget budget = new TickBudget();
 
-    private ResourceKey<Level> currentDimension;
+    private int tickCounter;
+    private int compactionCounter;
+    private static final int COMPACTION_INTERVAL = 6000; // Fold the journal into the cache every 5 minutes (6000 ticks)
+    private int evictionCounter;
+    private static final int EVICTION_INTERVAL = 200; // Check the cache memory cap every 10 seconds (200 ticks)
+    // Earliest refresh after the last one when counts changed and the tick budget has room
+    private static final int MIN_REFRESH_TICKS = 5;
+    private boolean countsChanged;
+
+    private String currentDimension;
+    private ResourceKey<Level> currentLevel;
     private String currentWorldId;
     private boolean wasEnabled;  // Track previous enabled state
     private boolean cacheLoadFailed;  // Track if cache failed to load
     private Path cacheDirectory;  // Cached directory path
 
-    // Background rescan state
-    private boolean isRescanning = false;
-    private ChunkPos rescanCenter;
-    private int rescanRadius;
-    private final Set<ChunkPos> pendingChunks = new HashSet<>();
+    // Background rescan state; the queue stays around after finishing while chunks wait to load
+    private RescanQueue rescanQueue;
+    private String rescanDimension;
+    private boolean rescanFinished;
     private int chunksScanned;
 
+    // Session trace being recorded, or null, and the last state written to it
+    private SessionTrace.Recorder trace;
+    private String tracedDimension;
+    private HeatmapClient.Settings tracedSettings;
+    private final Map<Context.UI, SessionTrace.MapState> tracedMapStates = new EnumMap<>(Context.UI.class);
+
+    // Scan of the single-player world's save files: counts found by its workers, stored as the budget allows
+    private record SavedChunk(String dimension, long chunkPos, int[] histogram) {
+    }
+
+    private WorldSaveScanner saveScanner;
+    private Queue<SavedChunk> savedChunks = new ConcurrentLinkedQueue<>();
+    private TrackedOreMatcher.OreTable savedChunkOres;
+
     public OreHeatmapOverlayManager(IClientAPI jmAPI) {
+        this(jmAPI, new MinecraftHeatmapClient());
+    }
+
+    OreHeatmapOverlayManager(IClientAPI jmAPI, HeatmapClient client) {
         this.jmAPI = jmAPI;
+        this.client = client;
+        this.renderer = new HeatmapRenderer(jmAPI);
         loadTrackedOres();
         initializeCacheDirectory();
+        ClientBlockChanges.setListener(this::onBlockChanged);
     }
 
     private void initializeCacheDirectory() {
         try {
-            cacheDirectory = Minecraft.getInstance().gameDirectory.toPath()
+            cacheDirectory = client.gameDirectory()
                     .resolve("journeymap").resolve("ore_heatmap_cache");
             Files.createDirectories(cacheDirectory);
         } catch (IOException e) {
@@ -111,7 +174,7 @@ public class OreHeatmapOverlayManager {
         trackedBlocks.clear();
         trackedTags.clear();
 
-        for (String entry : OreHeatmapConfig.TRACKED_ORES.get()) {
+        for (String entry : client.settings().trackedOres()) {
             String trimmed = entry.trim();
 
             if (trimmed.startsWith("#")) {
@@ -126,80 +189,224 @@ public class OreHeatmapOverlayManager {
 
         OreHeatmapMod.LOGGER.info("Loaded {} tracked blocks and {} tracked tags",
                 trackedBlocks.size(), trackedTags.size());
+        resolveTrackedOres();
+    }
+
+    @SubscribeEvent
+    public void onTagsUpdated(TagsUpdatedEvent event) {
+        // Tag membership is only known once the server has sent its tags
+        if (event.getUpdateCause() == TagsUpdatedEvent.UpdateCause.CLIENT_PACKET_RECEIVED) {
+            resolveTrackedOres();
+        }
     }
 
-    private String getWorldId() {
-        Minecraft mc = Minecraft.getInstance();
-        if (mc.isLocalServer() && mc.getSingleplayerServer() != null) {
-            Path worldPath = mc.getSingleplayerServer().getWorldPath(LevelResource.ROOT);
-            Path normalized = worldPath.toAbsolutePath().normalize();
-            Path fileName = normalized.getFileName();
-            if (fileName == null) return null;
-            String folder = fileName.toString();
-            return "local_" + folder.replaceAll("[^a-zA-Z0-9_()-]", "_");
-        } else if (mc.getCurrentServer() != null) {
-            return "server_" + mc.getCurrentServer().ip.replaceAll("[^a-zA-Z0-9]", "_");
+    /**
+     * Resolves the tracked block IDs and tags to block states again, e.g. after the tags changed.
+     */
+    void resolveTrackedOres() {
+        TrackedOreMatcher.OreTable table = client.resolveOres(trackedBlocks, trackedTags);
+        oreMatcher.setTable(table);
+        if (trace != null) {
+            trace.oreTable(table);
         }
-        return null;
+        rebuildOreViews();
     }
 
-    private Path getCacheFilePath() {
+    /**
+     * Groups the tracked ore blocks into views, keeping the selected view if it still exists.
+     */
+    private void rebuildOreViews() {
+        TrackedOreMatcher.OreTable table = oreMatcher.table();
+        Map<String, Set<String>> groups = new TreeMap<>();
+        for (int i = 0; i < table.oreCount(); i++) {
+            groups.computeIfAbsent(table.groups()[i], group -> new HashSet<>()).add(table.ores()[i]);
+        }
+
+        String selected = oreViews.get(oreViewIndex).name();
+        oreViews.clear();
+        oreViews.add(OreFilter.ALL);
+        for (Map.Entry<String, Set<String>> group : groups.entrySet()) {
+            oreViews.add(OreFilter.of(group.getKey(), group.getValue()));
+        }
+
+        oreViewIndex = 0;
+        for (int i = 0; i < oreViews.size(); i++) {
+            if (oreViews.get(i).name().equals(selected)) {
+                oreViewIndex = i;
+            }
+        }
+        worldCache.setFilter(oreViews.get(oreViewIndex));
+    }
+
+    /**
+     * Switches the heatmap to the next ore view. Colors are recomputed from the stored
+     * per-ore counts, so no chunk is rescanned.
+     */
+    public void cycleOreView() {
+        oreViewIndex = (oreViewIndex + 1) % oreViews.size();
+        OreFilter view = oreViews.get(oreViewIndex);
+
+        long start = System.nanoTime();
+        worldCache.setFilter(view);
+        OreHeatmapMod.LOGGER.debug("cycleOreView: Switched to {} in {} µs", view, (System.nanoTime() - start) / 1000);
+
+        // Redraw on the next tick instead of waiting for the update interval
+        tickCounter = Integer.MAX_VALUE - 1;
+        if (trace != null) {
+            trace.cycleOreView();
+        }
+
+        client.showMessage(Component.translatable("message." + OreHeatmapMod.MODID + ".ore_view", view.name()), true);
+    }
+
+    /**
+     * Stores a scan's histogram, translated to the world's ore numbering.
+     */
+    private void storeScan(DimensionCache cache, long chunkPos, int[] histogram, TrackedOreMatcher.OreTable ores) {
+        int[] remapped = OreHistogram.remap(histogram, worldOreIds(ores));
+        cache.put(chunkPos, OreHistogram.total(histogram), remapped);
+        countsChanged = true;
+    }
+
+    /**
+     * World ore id of each ore index of a matcher table, cached for the last table seen.
+     */
+    private int[] worldOreIds(TrackedOreMatcher.OreTable ores) {
+        if (ores != translatedTable || worldCache.ores() != translatedIndex) {
+            translatedTable = ores;
+            translatedIndex = worldCache.ores();
+            worldOreIds = new int[ores.oreCount()];
+            for (int i = 0; i < worldOreIds.length; i++) {
+                worldOreIds[i] = translatedIndex.intern(ores.ores()[i]);
+            }
+        }
+        return worldOreIds;
+    }
+
+    /**
+     * Applies a block change in a client chunk to its cached counts without rescanning it:
+     * mining or placing an ore moves the chunk's count by one in the ore's section.
+     * A chunk whose snapshot is already with the scan workers is scanned again instead, as the
+     * snapshot may predate the change; a chunk still waiting to be captured needs nothing.
+     */
+    private void onBlockChanged(LevelChunk chunk, BlockPos pos, BlockState previous, BlockState current) {
+        blockChanged(chunk.getLevel().dimension().location().toString(), chunk.getPos().toLong(), pos.getY(),
+                Block.BLOCK_STATE_REGISTRY.getId(previous), Block.BLOCK_STATE_REGISTRY.getId(current));
+    }
+
+    void blockChanged(String dimKey, long packed, int blockY, int previousStateId, int currentStateId) {
+        TrackedOreMatcher.OreTable ores = oreMatcher.table();
+        int removedOre = ores.oreIndex(previousStateId);
+        int addedOre = ores.oreIndex(currentStateId);
+        if (removedOre == addedOre || currentWorldId == null) return;
+
+        if (trace != null) {
+            traceDimension(dimKey);
+            trace.blockChange(packed, blockY, previousStateId, currentStateId);
+        }
+        if (capturedScans.contains(packed)) {
+            staleScans.add(packed);
+            return;
+        }
+        // Deferred chunks are captured later, so their scan will see the change
+        if (pendingScans.contains(packed)) return;
+
+        DimensionCache cache = worldCache.find(dimKey);
+        if (cache == null) return;
+
+        int[] oreIds = worldOreIds(ores);
+        int count = cache.changeBlock(packed, OreHistogram.sectionIndex(blockY >> 4),
+                removedOre < 0 ? -1 : oreIds[removedOre], addedOre < 0 ? -1 : oreIds[addedOre]);
+        // Loaded chunks that are not cached have not been scanned yet, so their scan will see the change
+        if (count < 0) return;
+        countsChanged = true;
+        HeatmapMetrics.BLOCK_CHANGES.increment();
+        OreHeatmapMod.LOGGER.debug("blockChanged: Chunk {},{} now has {} ores", ChunkPos.getX(packed), ChunkPos.getZ(packed), count);
+    }
+
+    private Path getWorldCacheDirectory() {
+        if (cacheDirectory == null || currentWorldId == null) return null;
+        return cacheDirectory.resolve(currentWorldId);
+    }
+
+    // Older versions stored a single JSON file per world; migrated on first load
+    private Path getLegacyCacheFilePath() {
         if (cacheDirectory == null || currentWorldId == null) return null;
         return cacheDirectory.resolve(currentWorldId + ".json");
     }
 
     private void loadCacheFromDisk() {
         cacheLoadFailed = false;
-        Path cacheFile = getCacheFilePath();
-        if (cacheFile == null || !Files.exists(cacheFile)) return;
-
-        try (Reader reader = Files.newBufferedReader(cacheFile)) {
-            Type type = new TypeToken<Map<String, Map<String, Integer>>>(){}.getType();
-            Map<String, Map<String, Integer>> loaded = GSON.fromJson(reader, type);
-            if (loaded != null) {
-                dimensionOreCounts.clear();
-                dimensionOreCounts.putAll(loaded);
-                recalculateMaxOreCount();
-                OreHeatmapMod.LOGGER.info("Loaded ore cache for world: {} ({} dimensions)", currentWorldId, dimensionOreCounts.size());
-            }
+        Path worldDirectory = getWorldCacheDirectory();
+        if (worldDirectory == null) return;
+
+        try {
+            long start = System.nanoTime();
+            worldCache.open(worldDirectory, getLegacyCacheFilePath());
+            HeatmapMetrics.CACHE_LOAD.recordSince(start);
+            OreHeatmapMod.LOGGER.info("Loaded ore cache for world: {} ({} dimensions opened, {} more on disk)", currentWorldId,
+                    worldCache.dimensions().size(), worldCache.storedDimensionCount());
         } catch (Exception e) {
             OreHeatmapMod.LOGGER.error("Failed to load ore cache for world: {}", currentWorldId, e);
             cacheLoadFailed = true;
         }
     }
 
+    /**
+     * Blocks until all cached data is on disk. Only used when leaving a world;
+     * during play changes are journaled and compacted in the background.
+     */
     private void saveCacheToDisk() {
-        if (dimensionOreCounts.isEmpty()) return;
-        Path cacheFile = getCacheFilePath();
-        if (cacheFile == null) return;
+        if (worldCache.isEmpty()) return;
 
-        try (Writer writer = Files.newBufferedWriter(cacheFile)) {
-            GSON.toJson(dimensionOreCounts, writer);
-            OreHeatmapMod.LOGGER.debug("Saved ore cache for world: {}", currentWorldId);
-        } catch (IOException e) {
-            OreHeatmapMod.LOGGER.error("Failed to save ore cache", e);
-        }
+        worldCache.save();
+        OreHeatmapMod.LOGGER.debug("Saved ore cache for world: {}", currentWorldId);
     }
 
     @SubscribeEvent
     public void onPlayerLogout(ClientPlayerNetworkEvent.LoggingOut event) {
+        leaveWorld();
+    }
+
+    void leaveWorld() {
+        stopTrace();
         saveCacheToDisk();
         resetWorldState();
     }
 
     private void resetWorldState() {
         clearAllOverlays();
-        dimensionOreCounts.clear();
-        maxOreCount.set(1);
+        worldCache.close();
         currentWorldId = null;
         currentDimension = null;
+        currentLevel = null;
         cacheLoadFailed = false;
-        isRescanning = false;
-        pendingChunks.clear();
+        rescanQueue = null;
+        cancelPendingScans();
+        cancelSaveScan();
+    }
+
+    private void cancelPendingScans() {
+        scanPipeline.cancelAll();
+        pendingScans.clear();
+        deferredScans.clear();
+        capturedScans.clear();
+        staleScans.clear();
+        scanDimension = null;
+    }
+
+    private void switchScanDimension(String dimKey) {
+        if (dimKey.equals(scanDimension)) return;
+        scanDimension = dimKey;
+        scanPipeline.setActiveDimension(dimKey);
+        pendingScans.clear();
+        deferredScans.clear();
+        capturedScans.clear();
+        staleScans.clear();
     }
 
     private boolean ensureCorrectWorld() {
-        String newWorldId = getWorldId();
+        String newWorldId = client.worldId();
         if (newWorldId == null) return false;
 
         if (currentWorldId == null) {
@@ -225,89 +432,242 @@ public class OreHeatmapOverlayManager {
     public void onChunkLoad(ChunkEvent.Load event) {
         if (!event.getLevel().isClientSide()) return;
         if (!(event.getLevel() instanceof Level level)) return;
+        chunkLoaded(level.dimension().location().toString(), event.getChunk().getPos().toLong());
+    }
+
+    @SubscribeEvent
+    public void onChunkUnload(ChunkEvent.Unload event) {
+        if (trace == null || !event.getLevel().isClientSide()) return;
+        if (!(event.getLevel() instanceof Level level)) return;
+        // Only the level being played; a level left behind is dropped as a whole
+        if (level.dimension().location().toString().equals(tracedDimension)) {
+            trace.chunkUnload(event.getChunk().getPos().toLong());
+        }
+    }
+
+    /**
+     * Scans a chunk of the player's level that arrived from the server, unless it is cached.
+     */
+    void chunkLoaded(String dimKey, long packed) {
         if (!ensureCorrectWorld()) return;
 
-        LevelChunk chunk = (LevelChunk) event.getChunk();
-        ChunkPos pos = chunk.getPos();
+        int x = ChunkPos.getX(packed);
+        int z = ChunkPos.getZ(packed);
+        switchScanDimension(dimKey);
+        if (trace != null) {
+            traceChunkLoad(dimKey, packed);
+        }
+        if (rescanQueue != null && dimKey.equals(rescanDimension) && rescanQueue.unpark(packed)) {
+            OreHeatmapMod.LOGGER.debug("chunkLoaded: Chunk {},{} was waiting for the rescan - queued first", x, z);
+            return;
+        }
+
+        DimensionCache counts = worldCache.dimension(dimKey);
+        if (counts.contains(packed)) {
+            OreHeatmapMod.LOGGER.debug("chunkLoaded: Chunk {},{} already cached - skipped", x, z);
+            return;
+        }
 
-        String dimKey = level.dimension().location().toString();
-        Map<String, Integer> counts = dimensionOreCounts.computeIfAbsent(dimKey, k -> new ConcurrentHashMap<>());
+        if (!pendingScans.add(packed)) return;
 
-        String key = pos.x + "," + pos.z;
-        if (!counts.containsKey(key)) {
-            int count = scanChunk(level, pos);
-            if (count > 0) {
-                counts.put(key, count);
-                maxOreCount.updateAndGet(current -> Math.max(current, count));
-                OreHeatmapMod.LOGGER.debug("onChunkLoad: Scanned chunk {},{}: {} ores", pos.x, pos.z, count);
-            } else {
-                OreHeatmapMod.LOGGER.debug("onChunkLoad: Chunk {},{} loaded but 0 ores - not cached", pos.x, pos.z);
-            }
+        // Only copy the chunk when the pipeline can take it and the tick has time left; otherwise retry from the tick handler
+        if (!scanPipeline.hasCapacity() || !budget.canAfford(TickBudget.Task.SCAN_CAPTURE)) {
+            deferredScans.add(packed);
+            HeatmapMetrics.SCANS_DEFERRED.increment();
+            OreHeatmapMod.LOGGER.debug("chunkLoaded: Scan queue full or tick budget spent - deferred chunk {},{}", x, z);
+            return;
+        }
+        long start = System.nanoTime();
+        boolean submitted = scanPipeline.submit(client.capture(dimKey, packed, oreMatcher));
+        budget.record(TickBudget.Task.SCAN_CAPTURE, start, 1);
+        HeatmapMetrics.SCAN_CAPTURE.recordSince(start);
+        if (submitted) {
+            capturedScans.add(packed);
         } else {
-            OreHeatmapMod.LOGGER.debug("onChunkLoad: Chunk {},{} already cached - skipped", pos.x, pos.z);
+            deferredScans.add(packed);
+            HeatmapMetrics.SCANS_DEFERRED.increment();
+        }
+    }
+
+    /**
+     * Publishes as many ore counts produced by the scan workers as the tick budget allows.
+     * Runs on the client thread, which is the only writer of {@code worldCache}.
+     */
+    private void publishScanResults() {
+        long start = System.nanoTime();
+        int published = scanPipeline.drain(budget.affordableUnits(TickBudget.Task.SCAN_RESULTS), result -> {
+            pendingScans.remove(result.chunkPos());
+            capturedScans.remove(result.chunkPos());
+            if (staleScans.remove(result.chunkPos())) {
+                // Captured before a block change; count the chunk again from its current blocks
+                pendingScans.add(result.chunkPos());
+                deferredScans.add(result.chunkPos());
+                return;
+            }
+            int x = ChunkPos.getX(result.chunkPos());
+            int z = ChunkPos.getZ(result.chunkPos());
+            if (result.histogram() == null) {
+                OreHeatmapMod.LOGGER.debug("publishScanResults: Scan of chunk {},{} failed - not cached", x, z);
+                return;
+            }
+            // Chunks without ores are stored too, so they are not scanned again on their next load
+            storeScan(worldCache.dimension(result.dimension()), result.chunkPos(), result.histogram(), result.ores());
+            OreHeatmapMod.LOGGER.debug("publishScanResults: Scanned chunk {},{}: {} ores", x, z, OreHistogram.total(result.histogram()));
+        });
+        if (published > 0) {
+            budget.record(TickBudget.Task.SCAN_RESULTS, start, published);
+        }
+    }
+
+    /**
+     * Stores counts found by the save file scan as the tick budget allows. Chunks cached in the
+     * meantime keep their counts, which are at least as new as the save.
+     */
+    private void publishSavedChunks() {
+        if (savedChunks.isEmpty()) return;
+
+        long start = System.nanoTime();
+        int affordable = budget.affordableUnits(TickBudget.Task.SCAN_RESULTS);
+        int published = 0;
+        SavedChunk saved;
+        while (published < affordable && (saved = savedChunks.poll()) != null) {
+            DimensionCache cache = worldCache.dimension(saved.dimension());
+            if (!cache.contains(saved.chunkPos())) {
+                storeScan(cache, saved.chunkPos(), saved.histogram(), savedChunkOres);
+            }
+            published++;
+        }
+        if (published > 0) {
+            budget.record(TickBudget.Task.SCAN_RESULTS, start, published);
+        }
+    }
+
+    /**
+     * Resubmits chunks that arrived while the scan queue was full or the tick budget was spent,
+     * as capacity and time free up. Chunks unloaded in the meantime are dropped and get scanned
+     * again on their next load.
+     */
+    private void submitDeferredScans(String dimKey) {
+        while (!deferredScans.isEmpty() && scanPipeline.hasCapacity() && budget.canAfford(TickBudget.Task.SCAN_CAPTURE)) {
+            long packed = deferredScans.poll();
+            if (!client.hasChunk(ChunkPos.getX(packed), ChunkPos.getZ(packed))) {
+                pendingScans.remove(packed);
+                continue;
+            }
+            long start = System.nanoTime();
+            boolean submitted = scanPipeline.submit(client.capture(dimKey, packed, oreMatcher));
+            budget.record(TickBudget.Task.SCAN_CAPTURE, start, 1);
+            HeatmapMetrics.SCAN_CAPTURE.recordSince(start);
+            if (!submitted) {
+                deferredScans.addFirst(packed);
+                return;
+            }
+            capturedScans.add(packed);
         }
     }
 
     @SubscribeEvent
     public void onPlayerTick(PlayerTickEvent.Post event) {
-        if (!(event.getEntity() instanceof LocalPlayer player)) return;
-        if (!ensureCorrectWorld()) return;
+        if (event.getEntity() instanceof LocalPlayer) {
+            tick();
+        }
+    }
+
+    /**
+     * The client-thread work of one tick, within the configured tick budget.
+     */
+    void tick() {
+        HeatmapClient.Player player = client.player();
+        if (player == null || !ensureCorrectWorld()) return;
 
         if (cacheLoadFailed) {
             OreHeatmapMod.LOGGER.warn("Ore heatmap cache corrupted for {} - starting fresh", currentWorldId);
             cacheLoadFailed = false;
         }
 
-        Level level = player.level();
-        ResourceKey<Level> dim = level.dimension();
-        if (currentDimension == null || !currentDimension.equals(dim)) {
-            currentDimension = dim;
-            recalculateMaxOreCount();
-            isRescanning = false;
+        HeatmapClient.Settings settings = client.settings();
+        String dimKey = player.dimension();
+        if (!dimKey.equals(currentDimension)) {
+            currentDimension = dimKey;
+            currentLevel = ResourceKey.create(Registries.DIMENSION, ResourceLocation.parse(dimKey));
+            rescanQueue = null;
+            // Overlays are keyed by region only, and the new dimension's cache may have been reopened
+            clearAllOverlays();
+            evictionCounter = EVICTION_INTERVAL;
         }
 
+        long tickBudget = (long) (settings.tickBudgetMillis() * 1_000_000);
+        budget.beginTick(tickBudget);
+        if (trace != null) {
+            traceTick(player, settings);
+        }
+        worldCache.pollCompletions();
+        switchScanDimension(dimKey);
+
+        // Refreshes run first so they always get a fresh budget; queued work takes what is left
         tickCounter++;
-        if (tickCounter >= OreHeatmapConfig.UPDATE_INTERVAL_TICKS.get()) {
+        boolean refreshEarly = countsChanged && tickCounter >= MIN_REFRESH_TICKS && budget.hasHeadroomFor(TickBudget.Task.OVERLAY_UPDATE);
+        if (tickCounter >= settings.updateIntervalTicks() || refreshEarly) {
             tickCounter = 0;
+            countsChanged = false;
+            worldCache.flushJournal();
 
-            saveCounter++;
-            if (saveCounter >= Math.max(1, SAVE_INTERVAL / OreHeatmapConfig.UPDATE_INTERVAL_TICKS.get())) {
-                saveCounter = 0;
-                saveCacheToDisk();
-            }
-
-            boolean enabled = OreHeatmapConfig.ENABLED.get();
-            String dimKey = dim.location().toString();
-            Map<String, Integer> oreCounts = dimensionOreCounts.get(dimKey);
+            long start = System.nanoTime();
+            boolean enabled = settings.enabled();
+            DimensionCache oreCounts = worldCache.find(dimKey);
 
-            if (enabled && oreCounts != null) {
-                ChunkPos pChunk = new ChunkPos(player.blockPosition());
-                int radius = calculateVisibleRadius();
-                updateOverlays(level, dim, oreCounts, pChunk, radius);
+            if (enabled && oreCounts != null && applyHeightBand(player, oreCounts, settings)) {
+                updateOverlays(oreCounts, player.chunkX(), player.chunkZ(), calculateVisibleRadius(), settings);
             } else if (wasEnabled) {
                 clearAllOverlays();
             }
             wasEnabled = enabled;
+            budget.record(TickBudget.Task.OVERLAY_UPDATE, start, 1);
+            HeatmapMetrics.OVERLAY_UPDATE.recordSince(start);
         }
 
-        if (isRescanning) {
-            processRescanBatch(level, dim);
+        // Encoding changed tiles can be expensive, so a due compaction waits for a tick with room
+        compactionCounter++;
+        if (compactionCounter >= COMPACTION_INTERVAL && budget.canAfford(TickBudget.Task.SAVE)) {
+            compactionCounter = 0;
+            long start = System.nanoTime();
+            worldCache.compact();
+            budget.record(TickBudget.Task.SAVE, start, 1);
         }
-    }
 
-    private void recalculateMaxOreCount() {
-        int max = 1;
-        for (Map<String, Integer> chunks : dimensionOreCounts.values()) {
-            for (int count : chunks.values()) {
-                max = Math.max(max, count);
+        // Over the memory cap, idle dimensions and then regions away from the player and the maps are
+        // dropped; ones with unsaved changes are saved first
+        evictionCounter++;
+        if (evictionCounter >= EVICTION_INTERVAL && budget.canAfford(TickBudget.Task.SAVE)) {
+            evictionCounter = 0;
+            long start = System.nanoTime();
+            DimensionCache active = worldCache.find(dimKey);
+            if (active != null) {
+                for (ChunkArea viewport : calculateViewports(player.chunkX(), player.chunkZ(), calculateVisibleRadius())) {
+                    active.loadRegionsIn(viewport.minX(), viewport.minZ(), viewport.maxX(), viewport.maxZ());
+                }
             }
+            if (worldCache.evictIdle(dimKey, settings.cacheMemoryMb() * 1024L * 1024L)) {
+                budget.record(TickBudget.Task.SAVE, start, 1);
+            }
+        }
+
+        publishScanResults();
+        publishSavedChunks();
+        submitDeferredScans(dimKey);
+
+        if (rescanQueue != null && rescanQueue.hasQueued()) {
+            processRescanBatch(dimKey, player, settings);
+        }
+
+        HeatmapMetrics.TICK.record(budget.spentNanos());
+        if (budget.spentNanos() > tickBudget) {
+            HeatmapMetrics.TICKS_OVER_BUDGET.increment();
         }
-        maxOreCount.set(max);
     }
 
     private int calculateVisibleRadius() {
-        Minecraft mc = Minecraft.getInstance();
-        int mcRadius = mc.options.renderDistance().get();
+        int mcRadius = client.renderDistance();
 
         try {
             UIState mm = jmAPI.getUIState(Context.UI.Minimap);
@@ -326,323 +686,469 @@ public class OreHeatmapOverlayManager {
         return mcRadius;
     }
 
-    private int scanChunk(Level level, ChunkPos pos) {
-        if (!level.hasChunk(pos.x, pos.z)) {
-            OreHeatmapMod.LOGGER.debug("scanChunk: Chunk {},{} not loaded - skipped", pos.x, pos.z);
-            return -1;
-        }
+    /**
+     * Chunk areas currently shown by JourneyMap: the minimap around the player and,
+     * while it is open, the fullscreen map. Each is widened by a margin so overlays
+     * are already in place when the view pans.
+     */
+    private List<ChunkArea> calculateViewports(int centerX, int centerZ, int radius) {
+        List<ChunkArea> viewports = new ArrayList<>(2);
+        viewports.add(ChunkArea.around(centerX, centerZ, radius + VIEWPORT_MARGIN_CHUNKS));
 
-        LevelChunk chunk = level.getChunk(pos.x, pos.z);
-        int count = 0;
-
-        int minY = level.getMinBuildHeight();
-        int maxY = level.getMaxBuildHeight();
-
-        for (int x = 0; x < 16; x++) {
-            for (int z = 0; z < 16; z++) {
-                for (int y = minY; y < maxY; y++) {
-                    BlockPos bp = new BlockPos(pos.getMinBlockX() + x, y, pos.getMinBlockZ() + z);
-                    if (isTrackedOre(chunk.getBlockState(bp))) count++;
-                }
+        try {
+            UIState fullscreen = jmAPI.getUIState(Context.UI.Fullscreen);
+            if (fullscreen != null && fullscreen.active && fullscreen.blockBounds != null) {
+                AABB bounds = fullscreen.blockBounds;
+                viewports.add(ChunkArea.ofBlocks(bounds.minX, bounds.minZ, bounds.maxX, bounds.maxZ)
+                        .expand(VIEWPORT_MARGIN_CHUNKS));
             }
+        } catch (Exception e) {
+            OreHeatmapMod.LOGGER.debug("Could not get fullscreen map state - using minimap area only", e);
         }
 
-        OreHeatmapMod.LOGGER.debug("scanChunk: Scanned chunk {},{} → {} ores found", pos.x, pos.z, count);
-        return count;
+        return viewports;
     }
 
-    private boolean isTrackedOre(BlockState state) {
-        ResourceLocation id = BuiltInRegistries.BLOCK.getKey(state.getBlock());
-        if (trackedBlocks.contains(id)) return true;
-        for (TagKey<Block> tag : trackedTags) {
-            if (state.is(tag)) return true;
+    /**
+     * The map JourneyMap is drawing: the fullscreen map while it is open, otherwise the minimap.
+     */
+    private UIState currentMapState() {
+        UIState state = jmAPI.getUIState(Context.UI.Fullscreen);
+        if (state == null || !state.active) {
+            state = jmAPI.getUIState(Context.UI.Minimap);
         }
-        return false;
+        return state;
     }
 
-    private void updateOverlays(Level level, ResourceKey<Level> dim, Map<String, Integer> oreCounts,
-                                ChunkPos center, int radius) {
-        float maxOpacity = (float) (double) OreHeatmapConfig.OVERLAY_OPACITY.get();
-        int currentMax = maxOreCount.get();
-
-        Set<String> visibleKeys = new HashSet<>();
-
-        List<Map.Entry<String, Integer>> snapshot = new ArrayList<>(oreCounts.entrySet());
-
-        for (Map.Entry<String, Integer> entry : snapshot) {
-            String chunkKey = entry.getKey();
-            int totalOres = entry.getValue();
-
-            visibleKeys.add(chunkKey);
-
-            if (totalOres == 0) {
-                PolygonOverlay existing = activeOverlays.remove(chunkKey);
-                if (existing != null) {
-                    try {
-                        jmAPI.remove(existing);
-                    } catch (Exception e) {
-                        OreHeatmapMod.LOGGER.debug("updateOverlays: Failed to remove 0-ore overlay: {}", e.getMessage());
-                    }
-                }
-                continue;
-            }
+    /**
+     * Limits the counts shown to the configured heights: the whole column, a band around the
+     * player, or the cave layer JourneyMap is showing. Answered from per-section prefix sums.
+     *
+     * @return false if the heatmap should be hidden on the current map
+     */
+    private boolean applyHeightBand(HeatmapClient.Player player, DimensionCache oreCounts, HeatmapClient.Settings settings) {
+        UIState state = null;
+        try {
+            state = currentMapState();
+        } catch (Exception e) {
+            OreHeatmapMod.LOGGER.debug("Could not get map state - counting the whole column", e);
+        }
+        boolean caveMap = state != null && state.mapType == Context.MapType.Underground && state.chunkY != null;
+        if (caveMap && !settings.showOverlayInCaves()) {
+            return false;
+        }
 
-            String[] parts = chunkKey.split(",");
-            if (parts.length != 2) {
-                OreHeatmapMod.LOGGER.warn("updateOverlays: Invalid chunk key format: {}", chunkKey);
-                continue;
+        switch (settings.yBandMode()) {
+            case COLUMN -> oreCounts.clearSectionRange();
+            case PLAYER -> {
+                int halfHeight = settings.yBandHalfHeight();
+                oreCounts.setSectionRange((player.blockY() - halfHeight) >> 4, (player.blockY() + halfHeight) >> 4);
             }
-
-            ChunkPos chunkPos;
-            try {
-                chunkPos = new ChunkPos(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
-            } catch (NumberFormatException e) {
-                OreHeatmapMod.LOGGER.warn("updateOverlays: Invalid chunk coordinates in key: {}", chunkKey);
-                continue;
+            case MAP_LAYER -> {
+                if (caveMap) {
+                    oreCounts.setSectionRange(state.chunkY, state.chunkY);
+                } else {
+                    oreCounts.clearSectionRange();
+                }
             }
+        }
+        return true;
+    }
 
-            int color = calculateHeatmapColor(totalOres);
-
-            float densityFactor = Math.min(1.0f, totalOres / (float) Math.max(1, currentMax));
-            float fillOpacity = 0.2f + (densityFactor * (maxOpacity - 0.2f));
-
-            MapPolygon polygon = createChunkPolygon(chunkPos);
+    /**
+     * Draws the cached chunks inside the visible map areas with the configured style.
+     */
+    private void updateOverlays(DimensionCache oreCounts, int centerX, int centerZ, int radius, HeatmapClient.Settings settings) {
+        List<ChunkArea> viewports = calculateViewports(centerX, centerZ, radius);
+        // Zooming out widens the areas, so coarser levels keep the number of overlays bounded
+        int detailLevel = ChunkArea.detailLevel(viewports, MAX_VISIBLE_CELLS);
+        renderer.render(currentLevel, oreCounts, viewports, detailLevel, settings.normalization(),
+                settings.renderMode(), (float) settings.overlayOpacity());
+    }
 
-            ShapeProperties shapeProps = new ShapeProperties()
-                    .setFillColor(color)
-                    .setFillOpacity(fillOpacity)
-                    .setStrokeColor(color)
-                    .setStrokeOpacity(Math.min(1.0f, fillOpacity + 0.15f))
-                    .setStrokeWidth(1.0f);
+    public void clearAllOverlays() {
+        renderer.clear();
+    }
 
-            PolygonOverlay overlay = activeOverlays.get(chunkKey);
+    /**
+     * The metrics since startup or the last reset, followed by the current state: cache sizes per
+     * dimension, overlays on the map and scan work waiting.
+     */
+    public List<String> statsReport() {
+        List<String> lines = new ArrayList<>(HeatmapMetrics.report());
+        for (DimensionCache cache : worldCache.dimensions()) {
+            lines.add("Cache " + cache.dimension() + ": " + cache.loadedChunkCount() + " chunks in memory, " +
+                    cache.loadedEmptyChunkCount() + " known empty, " + cache.unloadedRegionCount() + " regions on disk only, ~" +
+                    cache.estimatedBytes() / (1024 * 1024) + " MB");
+        }
+        if (worldCache.storedDimensionCount() > 0) {
+            lines.add("Dimensions on disk only: " + worldCache.storedDimensionCount());
+        }
+        lines.add("Overlays on map: " + renderer.size());
+        lines.add("Scans pending: " + pendingScans.size() + " (" + deferredScans.size() + " deferred)");
+        if (rescanQueue != null) {
+            lines.add("Rescan: " + rescanQueue.queuedCount() + " queued, " + rescanQueue.parkedCount() + " waiting to load");
+        }
+        if (saveScanner != null || !savedChunks.isEmpty()) {
+            lines.add("Save file scan: " + (saveScanner != null ? "running, " : "done, ") + savedChunks.size() + " chunks waiting to be stored");
+        }
+        lines.add(String.format(Locale.ROOT, "Average cost: overlay update %d µs, scan result %d µs, capture %d µs, rescan %d µs",
+                budget.costNanos(TickBudget.Task.OVERLAY_UPDATE) / 1000, budget.costNanos(TickBudget.Task.SCAN_RESULTS) / 1000,
+                budget.costNanos(TickBudget.Task.SCAN_CAPTURE) / 1000, budget.costNanos(TickBudget.Task.RESCAN) / 1000));
+        return lines;
+    }
 
-            if (overlay == null) {
-                overlay = new PolygonOverlay(OreHeatmapMod.MODID, dim, shapeProps, polygon);
-                overlay.setTitle("Ores: " + totalOres + " blocks");
+    /**
+     * Writes {@link #statsReport} to a timestamped file next to the cache directories.
+     *
+     * @return the file written
+     */
+    public Path dumpStats() throws IOException {
+        if (cacheDirectory == null) {
+            throw new IOException("No cache directory");
+        }
+        Path path = cacheDirectory.resolve("stats-" + LocalDateTime.now().format(STATS_FILE_TIME) + ".txt");
+        HeatmapMetrics.dump(path, statsReport());
+        return path;
+    }
 
-                try {
-                    jmAPI.show(overlay);
-                    activeOverlays.put(chunkKey, overlay);
-                } catch (Exception e) {
-                    OreHeatmapMod.LOGGER.error("updateOverlays: Failed to show overlay: {}", e.getMessage());
-                }
-            } else {
-                overlay.setOuterArea(polygon);
-                overlay.setShapeProperties(shapeProps);
-                overlay.setTitle("Ores: " + totalOres + " blocks");
-
-                try {
-                    jmAPI.show(overlay);
-                } catch (Exception e) {
-                    OreHeatmapMod.LOGGER.debug("updateOverlays: Failed to update overlay: {}", e.getMessage());
+    /**
+     * Starts recording a session trace for offline replay, see {@link SessionTrace}.
+     *
+     * @return the trace file
+     */
+    public Path startTrace() throws IOException {
+        if (cacheDirectory == null) {
+            throw new IOException("No cache directory");
+        }
+        stopTrace();
+        Path directory = cacheDirectory.resolve(TRACE_DIRECTORY);
+        Files.createDirectories(directory);
+        trace = SessionTrace.Recorder.start(directory.resolve("trace-" + LocalDateTime.now().format(STATS_FILE_TIME) + SessionTrace.EXTENSION));
+        tracedDimension = null;
+        tracedSettings = client.settings();
+        tracedMapStates.clear();
+        trace.settings(tracedSettings);
+        trace.oreTable(oreMatcher.table());
+        // Chunks that loaded before the recording started, so the replay has them too
+        HeatmapClient.Player player = client.player();
+        if (player != null && currentWorldId != null) {
+            int radius = client.renderDistance();
+            for (int x = player.chunkX() - radius; x <= player.chunkX() + radius; x++) {
+                for (int z = player.chunkZ() - radius; z <= player.chunkZ() + radius; z++) {
+                    if (client.hasChunk(x, z)) {
+                        traceChunkLoad(player.dimension(), ChunkPos.asLong(x, z));
+                    }
                 }
             }
         }
+        OreHeatmapMod.LOGGER.info("Recording session trace to {}", trace.path());
+        return trace.path();
+    }
 
-        Set<String> toRemove = new HashSet<>();
-        for (String key : activeOverlays.keySet()) {
-            if (!visibleKeys.contains(key)) {
-                toRemove.add(key);
-            }
+    /**
+     * Finishes the trace being recorded, if any.
+     *
+     * @return the trace file, or null if none was being recorded
+     */
+    public Path stopTrace() {
+        if (trace == null) {
+            return null;
         }
-        for (String key : toRemove) {
-            PolygonOverlay overlay = activeOverlays.remove(key);
-            if (overlay != null) {
-                try {
-                    jmAPI.remove(overlay);
-                } catch (Exception e) {
-                    OreHeatmapMod.LOGGER.debug("updateOverlays: Failed to remove overlay: {}", e.getMessage());
-                }
-            }
+        SessionTrace.Recorder finished = trace;
+        trace = null;
+        finished.close();
+        OreHeatmapMod.LOGGER.info("Session trace {} finished with {} records", finished.path(), finished.records());
+        return finished.path();
+    }
+
+    private void traceTick(HeatmapClient.Player player, HeatmapClient.Settings settings) {
+        if (trace.isFailed()) {
+            stopTrace();
+            return;
         }
+        traceDimension(player.dimension());
+        if (!settings.equals(tracedSettings)) {
+            tracedSettings = settings;
+            trace.settings(settings);
+        }
+        traceMapState(Context.UI.Minimap);
+        traceMapState(Context.UI.Fullscreen);
+        trace.tick(player.blockX(), player.blockY(), player.blockZ(), client.renderDistance());
     }
 
-    private int calculateHeatmapColor(int oreCount) {
-        int currentMax = maxOreCount.get();
-        if (currentMax <= 1) {
-            return COLOR_MID;
+    private void traceMapState(Context.UI ui) {
+        SessionTrace.MapState state = null;
+        try {
+            state = SessionTrace.MapState.of(jmAPI.getUIState(ui));
+        } catch (Exception e) {
+            OreHeatmapMod.LOGGER.debug("Could not get map state for the session trace", e);
+        }
+        if (!tracedMapStates.containsKey(ui) || !Objects.equals(state, tracedMapStates.get(ui))) {
+            tracedMapStates.put(ui, state);
+            trace.mapState(ui, state);
         }
+    }
 
-        float t = oreCount / (float) currentMax;
+    /**
+     * Records a chunk's blocks as it loads, and whether it was cached at that point.
+     */
+    private void traceChunkLoad(String dimKey, long chunkPos) {
+        traceDimension(dimKey);
+        DimensionCache cache = worldCache.find(dimKey);
+        trace.chunkLoad(chunkPos, client.blockStates(chunkPos), cache != null && cache.contains(chunkPos));
+    }
 
-        if (t < 0.5f) {
-            return interpolateColor(COLOR_LOW, COLOR_MID, t * 2);
-        } else {
-            return interpolateColor(COLOR_MID, COLOR_HIGH, (t - 0.5f) * 2);
+    private void traceDimension(String dimKey) {
+        if (!dimKey.equals(tracedDimension)) {
+            tracedDimension = dimKey;
+            trace.dimension(dimKey);
         }
     }
 
-    private int interpolateColor(int color1, int color2, float ratio) {
-        float t = Math.max(0, Math.min(1, ratio));
+    /**
+     * Counts the ores of every chunk in the single-player world's save files on background threads,
+     * filling in the chunks the cache does not have yet. Chunks already cached keep their counts:
+     * they may have changed since the last save, which is also why loaded chunks are left to the
+     * regular scans. Progress is reported in chat.
+     *
+     * @throws IllegalStateException if no single-player world is open or a scan is already running
+     */
+    public void startSaveScan() {
+        if (!ensureCorrectWorld()) {
+            throw new IllegalStateException("No world is loaded");
+        }
+        Path worldPath = client.localWorldPath();
+        if (worldPath == null) {
+            throw new IllegalStateException("Only single-player worlds can be scanned from their save files");
+        }
+        if (saveScanner != null) {
+            throw new IllegalStateException("The save files are already being scanned");
+        }
 
-        int r1 = (color1 >> 16) & 0xFF;
-        int g1 = (color1 >> 8) & 0xFF;
-        int b1 = color1 & 0xFF;
+        TrackedOreMatcher.OreTable ores = oreMatcher.table();
+        // One core stays free for the game itself
+        WorldSaveScanner scanner = new WorldSaveScanner(List.of(ores.ores()), Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+        Queue<SavedChunk> found = new ConcurrentLinkedQueue<>();
+        saveScanner = scanner;
+        savedChunks = found;
+        savedChunkOres = ores;
+        OreHeatmapMod.LOGGER.info("Scanning save files of {} for {} ore blocks", worldPath, ores.oreCount());
+        scanner.scanAsync(worldPath, (dimension, chunkPos, histogram) -> found.add(new SavedChunk(dimension, chunkPos, histogram)))
+                .whenComplete((summary, error) -> client.execute(() -> finishSaveScan(scanner, summary, error)));
+    }
 
-        int r2 = (color2 >> 16) & 0xFF;
-        int g2 = (color2 >> 8) & 0xFF;
-        int b2 = color2 & 0xFF;
+    private void finishSaveScan(WorldSaveScanner scanner, WorldSaveScanner.Summary summary, Throwable error) {
+        scanner.close();
+        if (saveScanner != scanner) return;  // Cancelled
+        saveScanner = null;
 
-        int r = (int) (r1 + (r2 - r1) * t);
-        int g = (int) (g1 + (g2 - g1) * t);
-        int b = (int) (b1 + (b2 - b1) * t);
+        Component message;
+        if (error != null) {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            OreHeatmapMod.LOGGER.error("Save file scan failed", cause);
+            message = Component.literal("Save file scan failed: " + cause.getMessage());
+        } else {
+            OreHeatmapMod.LOGGER.info("Save file scan finished in {} ms: {} chunks in {} region files, {} with ores, {} not fully generated, {} unreadable",
+                    summary.elapsedNanos() / 1_000_000, summary.chunks(), summary.regions(), summary.chunksWithOres(),
+                    summary.chunksPending(), summary.chunksFailed());
+            message = Component.literal("Save file scan complete: " + summary.chunks() + " chunks, " + summary.chunksWithOres() + " with ores ("
+                    + summary.elapsedNanos() / 1_000_000_000 + " s)");
+        }
+        client.showMessage(message, false);
+    }
 
-        return (r << 16) | (g << 8) | b;
+    private void cancelSaveScan() {
+        if (saveScanner != null) {
+            saveScanner.cancel();
+            saveScanner = null;
+        }
+        // Workers still running add to the old queue
+        savedChunks = new ConcurrentLinkedQueue<>();
     }
 
-    private MapPolygon createChunkPolygon(ChunkPos chunkPos) {
-        int minX = chunkPos.getMinBlockX();
-        int minZ = chunkPos.getMinBlockZ();
-        int maxX = chunkPos.getMaxBlockX();
-        int maxZ = chunkPos.getMaxBlockZ();
+    /**
+     * Saves this world's cache and copies it to a timestamped directory under {@code exports/}
+     * next to the cache directories, to be passed on to other players and imported by them.
+     *
+     * @return the directory written
+     * @throws IllegalStateException if no world is loaded
+     */
+    public Path exportCache() throws IOException {
+        if (!ensureCorrectWorld() || cacheDirectory == null) {
+            throw new IllegalStateException("No world is loaded");
+        }
+        Path target = cacheDirectory.resolve(EXPORT_DIRECTORY).resolve(currentWorldId + "-" + LocalDateTime.now().format(STATS_FILE_TIME));
+        int files = worldCache.exportTo(target);
+        OreHeatmapMod.LOGGER.info("Exported ore cache of {} ({} dimensions) to {}", currentWorldId, files, target);
+        return target;
+    }
 
-        return new MapPolygon(
-                new BlockPos(minX, POLYGON_Y_LEVEL, maxZ),
-                new BlockPos(maxX + 1, POLYGON_Y_LEVEL, maxZ),
-                new BlockPos(maxX + 1, POLYGON_Y_LEVEL, minZ),
-                new BlockPos(minX, POLYGON_Y_LEVEL, minZ)
-        );
+    /**
+     * Merges an exported cache into this world's cache on the cache writer thread, see
+     * {@link WorldCache#importFrom}, and redraws the map once the merged cache is reopened. Under
+     * {@link CacheMerge.Policy#AUTHORITATIVE} the imported cache wins. The result is reported in chat.
+     *
+     * @param source directory of the exported cache, relative to {@code exports/} unless absolute
+     * @throws IllegalStateException if no world is loaded or an import is already running
+     * @throws IOException           if there is no such export or the cache could not be saved first
+     */
+    public void importCache(String source, CacheMerge.Policy policy) throws IOException {
+        if (!ensureCorrectWorld() || cacheDirectory == null) {
+            throw new IllegalStateException("No world is loaded");
+        }
+        Path sourceDirectory = cacheDirectory.resolve(EXPORT_DIRECTORY).resolve(source);
+        if (!Files.isDirectory(sourceDirectory)) {
+            throw new IOException("No exported cache at " + sourceDirectory);
+        }
+        String worldId = currentWorldId;
+        worldCache.importFrom(sourceDirectory, policy == CacheMerge.Policy.AUTHORITATIVE ? sourceDirectory : null, policy)
+                .whenComplete((summary, error) -> finishImport(worldId, sourceDirectory, policy, summary, error));
     }
 
-    public void clearAllOverlays() {
-        for (PolygonOverlay overlay : activeOverlays.values()) {
-            try {
-                jmAPI.remove(overlay);
-            } catch (Exception e) {
-                OreHeatmapMod.LOGGER.debug("clearAllOverlays: Failed to remove overlay: {}", e.getMessage());
-            }
+    private void finishImport(String worldId, Path sourceDirectory, CacheMerge.Policy policy, CacheMerge.Summary summary, Throwable error) {
+        if (error instanceof CancellationException) return;  // World left meanwhile
+
+        if (worldId.equals(currentWorldId)) {
+            // Overlays and queued rescans refer to the caches before the merge
+            clearAllOverlays();
+            rescanQueue = null;
+        }
+        Component message;
+        if (error != null) {
+            OreHeatmapMod.LOGGER.error("Failed to import ore cache {} into {}", sourceDirectory, worldId, error);
+            message = Component.literal("Failed to import ore heatmap cache: " + error.getMessage());
+        } else {
+            OreHeatmapMod.LOGGER.info("Imported ore cache {} into {} ({}): {} chunks, {} conflicts", sourceDirectory, worldId, policy,
+                    summary.chunks(), summary.conflicts());
+            message = Component.literal("Ore heatmap cache imported: " + summary.chunks() + " chunks, "
+                    + summary.conflicts() + " conflicts resolved by " + policy.name().toLowerCase(Locale.ROOT));
         }
-        activeOverlays.clear();
+        client.showMessage(message, false);
     }
 
     public void resetCache() {
         if (!ensureCorrectWorld()) return;
 
-        Minecraft mc = Minecraft.getInstance();
-        LocalPlayer player = mc.player;
+        HeatmapClient.Player player = client.player();
         if (player == null) return;
 
-        Level level = player.level();
-        ResourceKey<Level> dimension = level.dimension();
-        String dimKey = dimension.location().toString();
+        String dimKey = player.dimension();
+        HeatmapClient.Settings settings = client.settings();
 
         loadTrackedOres();
 
-        dimensionOreCounts.clear();
+        cancelPendingScans();
         clearAllOverlays();
-        maxOreCount.set(1);
-
-        Path cacheFile = getCacheFilePath();
-        if (cacheFile != null && Files.exists(cacheFile)) {
-            try {
-                Files.delete(cacheFile);
-                OreHeatmapMod.LOGGER.info("Deleted ore heatmap cache file for world: {}", currentWorldId);
-            } catch (IOException e) {
-                OreHeatmapMod.LOGGER.error("Failed to delete ore heatmap cache file", e);
-            }
+        if (trace != null) {
+            trace.reset();
         }
 
-        int visibleRadius = calculateVisibleRadius();
-        rescanRadius = (int) (visibleRadius * OreHeatmapConfig.RESCAN_RADIUS_MULTIPLIER.get());
-        rescanCenter = new ChunkPos(player.blockPosition());
-        pendingChunks.clear();
-
-        Map<String, Integer> oreCounts = dimensionOreCounts.computeIfAbsent(dimKey, k -> new ConcurrentHashMap<>());
-
-        int queued = 0;
-        for (int dx = -rescanRadius; dx <= rescanRadius; dx++) {
-            for (int dz = -rescanRadius; dz <= rescanRadius; dz++) {
-                if (Math.hypot(dx, dz) <= rescanRadius) {  // True round circle
-                    ChunkPos cp = new ChunkPos(rescanCenter.x + dx, rescanCenter.z + dz);
-                    pendingChunks.add(cp);
-                    queued++;
-                }
-            }
+        try {
+            worldCache.delete();
+            OreHeatmapMod.LOGGER.info("Deleted ore heatmap cache files for world: {}", currentWorldId);
+        } catch (IOException e) {
+            OreHeatmapMod.LOGGER.error("Failed to delete ore heatmap cache files", e);
         }
 
+        int visibleRadius = calculateVisibleRadius();
+        int rescanRadius = (int) (visibleRadius * settings.rescanRadiusMultiplier());
+        ChunkPos rescanCenter = new ChunkPos(player.chunkX(), player.chunkZ());
+
+        worldCache.dimension(dimKey);
+
+        rescanQueue = new RescanQueue(rescanCenter.x, rescanCenter.z, rescanRadius);
+        rescanDimension = dimKey;
+        rescanFinished = false;
         chunksScanned = 0;
-        isRescanning = true;
 
         OreHeatmapMod.LOGGER.info("ResetCache: Started background CIRCULAR rescan | multiplier={} | radius={} | center={} | queued={} chunks",
-                OreHeatmapConfig.RESCAN_RADIUS_MULTIPLIER.get(), rescanRadius, rescanCenter, queued);
+                settings.rescanRadiusMultiplier(), rescanRadius, rescanCenter, rescanQueue.queuedCount());
 
-        player.displayClientMessage(Component.literal("Ore heatmap reset! Background circular rescan started (radius " + rescanRadius + ")..."), true);
+        client.showMessage(Component.literal("Ore heatmap reset! Background circular rescan started (radius " + rescanRadius + ")..."), true);
     }
 
-    private void processRescanBatch(Level level, ResourceKey<Level> dimension) {
-        String dimKey = dimension.location().toString();
-        Map<String, Integer> oreCounts = dimensionOreCounts.get(dimKey);
+    /**
+     * Scans queued chunks nearest to the player first with whatever is left of the tick budget.
+     * Chunks that are not loaded are parked and scanned as soon as they load.
+     */
+    private void processRescanBatch(String dimKey, HeatmapClient.Player player, HeatmapClient.Settings settings) {
+        DimensionCache oreCounts = worldCache.find(dimKey);
         if (oreCounts == null) {
             OreHeatmapMod.LOGGER.warn("processRescanBatch: No oreCounts map for dimension {} - stopping", dimKey);
-            isRescanning = false;
-            return;
-        }
-
-        if (pendingChunks.isEmpty()) {
-            finishRescan(level, dimension);
+            rescanQueue = null;
             return;
         }
 
-        int batchSize = Math.min(OreHeatmapConfig.RESCAN_CHUNKS_PER_TICK.get(), pendingChunks.size());
-        List<ChunkPos> batch = new ArrayList<>(pendingChunks).subList(0, batchSize);
-        pendingChunks.removeAll(batch);
-
-        OreHeatmapMod.LOGGER.debug("processRescanBatch: Starting batch of {} chunks (remaining: {})", batchSize, pendingChunks.size());
+        rescanQueue.recenter(player.chunkX(), player.chunkZ());
 
+        long start = System.nanoTime();
         int batchScanned = 0;
         int loadedZero = 0;
         int notLoaded = 0;
 
-        for (ChunkPos cp : batch) {
-            String key = cp.x + "," + cp.z;
-
-            if (level.hasChunk(cp.x, cp.z)) {
-                int count = scanChunk(level, cp);
-                if (count > 0) {
-                    oreCounts.put(key, count);
-                    maxOreCount.updateAndGet(cur -> Math.max(cur, count));
-                    batchScanned++;
-                    OreHeatmapMod.LOGGER.debug("processRescanBatch: Scanned & saved chunk {},{} → {} ores", cp.x, cp.z, count);
-                } else {
-                    loadedZero++;
-                    OreHeatmapMod.LOGGER.debug("processRescanBatch: Chunk {},{} loaded but 0 ores - not cached", cp.x, cp.z);
-                }
-            } else {
+        TrackedOreMatcher.OreTable ores = oreMatcher.table();
+        while (rescanQueue.hasQueued() && budget.canAfford(TickBudget.Task.RESCAN)) {
+            long chunkStart = System.nanoTime();
+            long packed = rescanQueue.poll();
+            ChunkPos cp = new ChunkPos(packed);
+            if (!client.hasChunk(cp.x, cp.z)) {
+                rescanQueue.park(packed);
                 notLoaded++;
-                OreHeatmapMod.LOGGER.debug("processRescanBatch: Chunk {},{} not loaded yet - still pending", cp.x, cp.z);
+                OreHeatmapMod.LOGGER.debug("processRescanBatch: Chunk {},{} not loaded yet - parked until it loads", cp.x, cp.z);
+                // Charged to the tick without skewing the cost of a scan
+                budget.record(TickBudget.Task.RESCAN, chunkStart, 0);
+                continue;
+            }
+            int[] histogram = client.scan(packed, ores);
+            int count = OreHistogram.total(histogram);
+            storeScan(oreCounts, packed, histogram, ores);
+            if (count > 0) {
+                batchScanned++;
+                OreHeatmapMod.LOGGER.debug("processRescanBatch: Scanned & saved chunk {},{} → {} ores", cp.x, cp.z, count);
+            } else {
+                loadedZero++;
+                OreHeatmapMod.LOGGER.debug("processRescanBatch: Chunk {},{} loaded but 0 ores - marked as scanned", cp.x, cp.z);
             }
+            budget.record(TickBudget.Task.RESCAN, chunkStart, 1);
         }
 
-        chunksScanned += batchScanned;
+        chunksScanned += batchScanned + loadedZero;
+        OreHeatmapMod.LOGGER.debug("processRescanBatch: Batch complete in {} µs | scanned={} | loaded-zero={} | parked={} | remaining={}",
+                (System.nanoTime() - start) / 1000, batchScanned, loadedZero, notLoaded, rescanQueue.queuedCount());
 
-        LocalPlayer player = Minecraft.getInstance().player;
-        if (player != null) {
-            int progress = pendingChunks.isEmpty() ? 100 : (int) ((chunksScanned / (float) (chunksScanned + pendingChunks.size())) * 100);
-            player.displayClientMessage(Component.literal("Rescan progress: " + progress + "% (" + chunksScanned + " done)"), true);
+        if (rescanFinished) {
+            // Late chunks of a finished rescan are picked up quietly
+            if (!rescanQueue.hasQueued() && rescanQueue.parkedCount() == 0) {
+                rescanQueue = null;
+            }
+            return;
         }
 
-        OreHeatmapMod.LOGGER.debug("processRescanBatch: Batch complete | scanned={} | loaded-zero={} | not-loaded={} | remaining={}", batchScanned, loadedZero, notLoaded, pendingChunks.size());
+        int remaining = rescanQueue.queuedCount();
+        int progress = remaining == 0 ? 100 : (int) ((chunksScanned / (float) (chunksScanned + remaining)) * 100);
+        client.showMessage(Component.literal("Rescan progress: " + progress + "% (" + chunksScanned + " done, " +
+                rescanQueue.parkedCount() + " waiting to load)"), true);
 
-        if (pendingChunks.isEmpty()) {
-            finishRescan(level, dimension);
+        if (remaining == 0) {
+            finishRescan(dimKey, player, settings);
         }
     }
 
-    private void finishRescan(Level level, ResourceKey<Level> dimension) {
-        isRescanning = false;
-
-        if (OreHeatmapConfig.ENABLED.get()) {
-            ChunkPos playerChunk = new ChunkPos(Minecraft.getInstance().player.blockPosition());
-            int visibleRadius = calculateVisibleRadius();
-            updateOverlays(level, dimension, dimensionOreCounts.get(dimension.location().toString()), playerChunk, visibleRadius);
+    private void finishRescan(String dimKey, HeatmapClient.Player player, HeatmapClient.Settings settings) {
+        rescanFinished = true;
+        int waiting = rescanQueue.parkedCount();
+        if (waiting == 0) {
+            rescanQueue = null;
         }
 
-        LocalPlayer player = Minecraft.getInstance().player;
-        if (player != null) {
-            player.displayClientMessage(Component.literal("Background rescan complete!"), true);
+        if (settings.enabled()) {
+            updateOverlays(worldCache.dimension(dimKey), player.chunkX(), player.chunkZ(), calculateVisibleRadius(), settings);
         }
 
-        OreHeatmapMod.LOGGER.info("Background rescan finished | total scanned: {}", chunksScanned);
+        client.showMessage(Component.literal(waiting == 0 ? "Background rescan complete!" :
+                "Background rescan complete! " + waiting + " chunks will be scanned when they load"), true);
+
+        OreHeatmapMod.LOGGER.info("Background rescan finished | total scanned: {} | waiting to load: {}", chunksScanned, waiting);
     }
 }
@@ -0,0 +1,151 @@
+package com.stephanmeijer.minecraft.oreheatmap.journeymap;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import com.stephanmeijer.minecraft.oreheatmap.cache.ChunkCountStore;
+
+/**
+ * Chunks left to scan after a cache reset, nearest to the player first.
+ *
+ * <p>Queued chunks sit in a primitive array ordered by distance to a priority center and are taken
+ * from a cursor, so nothing is copied per tick. Once the player moves {@link #REPRIORITIZE_DISTANCE}
+ * chunks away from that center, the remaining chunks are reordered around the new position.
+ * Chunks that are not loaded when their turn comes are parked; their load event puts them back
+ * at the front of the queue.
+ *
+ * <p>Used from the client thread only.
+ */
+final class RescanQueue {
+
+    private static final int REPRIORITIZE_DISTANCE = 4;
+
+    private long[] queue;
+    private int head;
+    private int tail;
+    private final Set<Long> parked = new HashSet<>();
+    private int centerX;
+    private int centerZ;
+
+    /**
+     * Queues every chunk within {@code radius} chunks of the center, inside a true circle.
+     */
+    RescanQueue(int centerX, int centerZ, int radius) {
+        long radiusSq = (long) radius * radius;
+        int size = 0;
+        for (int dx = -radius; dx <= radius; dx++) {
+            for (int dz = -radius; dz <= radius; dz++) {
+                if (((long) dx * dx) + ((long) dz * dz) <= radiusSq) {
+                    size++;
+                }
+            }
+        }
+        queue = new long[size];
+        for (int dx = -radius; dx <= radius; dx++) {
+            for (int dz = -radius; dz <= radius; dz++) {
+                if (((long) dx * dx) + ((long) dz * dz) <= radiusSq) {
+                    queue[tail++] = ChunkCountStore.pack(centerX + dx, centerZ + dz);
+                }
+            }
+        }
+        this.centerX = centerX;
+        this.centerZ = centerZ;
+        sortByDistance();
+    }
+
+    boolean hasQueued() {
+        return head < tail;
+    }
+
+    int queuedCount() {
+        return tail - head;
+    }
+
+    int parkedCount() {
+        return parked.size();
+    }
+
+    /**
+     * Takes the nearest queued chunk. Only valid while {@link #hasQueued}.
+     */
+    long poll() {
+        return queue[head++];
+    }
+
+    /**
+     * Sets a chunk aside until {@link #unpark} reports it loaded.
+     */
+    void park(long chunkPos) {
+        parked.add(chunkPos);
+    }
+
+    /**
+     * Moves a parked chunk to the front of the queue now that it is loaded.
+     *
+     * @return false if the chunk was not parked
+     */
+    boolean unpark(long chunkPos) {
+        if (!parked.remove(chunkPos)) {
+            return false;
+        }
+        if (head == 0) {
+            // Leave room in front for the chunks still parked
+            int queued = queuedCount();
+            long[] grown = new long[queued + parked.size() + 1];
+            System.arraycopy(queue, head, grown, grown.length - queued, queued);
+            queue = grown;
+            tail = grown.length;
+            head = tail - queued;
+        }
+        queue[--head] = chunkPos;
+        return true;
+    }
+
+    /**
+     * Re-sorts the remaining chunks around the player's chunk once it moved far enough.
+     */
+    void recenter(int chunkX, int chunkZ) {
+        if (Math.max(Math.abs(chunkX - centerX), Math.abs(chunkZ - centerZ)) < REPRIORITIZE_DISTANCE) {
+            return;
+        }
+        centerX = chunkX;
+        centerZ = chunkZ;
+        sortByDistance();
+    }
+
+    /**
+     * Orders the queued chunks ring by ring outward from the center, i.e. by whole-chunk distance.
+     * A counting sort over the rings, so re-prioritizing is linear in the chunks left. Only the rings
+     * spanned by the queued chunks get a counter, however far away the player went.
+     */
+    private void sortByDistance() {
+        int size = queuedCount();
+        int[] rings = new int[size];
+        int minRing = Integer.MAX_VALUE;
+        int maxRing = 0;
+        for (int i = 0; i < size; i++) {
+            long chunkPos = queue[head + i];
+            long dx = ChunkCountStore.unpackX(chunkPos) - (long) centerX;
+            long dz = ChunkCountStore.unpackZ(chunkPos) - (long) centerZ;
+            rings[i] = (int) Math.sqrt((dx * dx) + (dz * dz));
+            minRing = Math.min(minRing, rings[i]);
+            maxRing = Math.max(maxRing, rings[i]);
+        }
+        if (size == 0) {
+            return;
+        }
+        int[] ringStart = new int[maxRing - minRing + 2];
+        for (int i = 0; i < size; i++) {
+            rings[i] -= minRing;
+            ringStart[rings[i] + 1]++;
+        }
+        for (int ring = 1; ring < ringStart.length; ring++) {
+            ringStart[ring] += ringStart[ring - 1];
+        }
+        long[] sorted = new long[size];
+        for (int i = 0; i < size; i++) {
+            sorted[ringStart[rings[i]]++] = queue[head + i];
+        }
+        System.arraycopy(sorted, 0, queue, head, size);
+    }
+}
@@ -0,0 +1,413 @@
+package com.stephanmeijer.minecraft.oreheatmap.journeymap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.stephanmeijer.minecraft.oreheatmap.OreHeatmapConfig;
+import com.stephanmeijer.minecraft.oreheatmap.OreHeatmapMod;
+import com.stephanmeijer.minecraft.oreheatmap.scan.SectionStates;
+import com.stephanmeijer.minecraft.oreheatmap.scan.TrackedOreMatcher;
+import journeymap.api.v2.client.display.Context;
+import journeymap.api.v2.client.util.UIState;
+import net.minecraft.world.phys.AABB;
+
+/**
+ * A recorded play session: what the overlay manager was given, tick by tick, so the manager can be
+ * run on the same input offline without a client (see the {@code replay} source set).
+ *
+ * <p>A gzipped stream of records. Chunks are recorded with their blocks as they load, tallied per
+ * section by block state ID, along with whether the cache already had them; block changes with the
+ * block states before and after, for changes that touch a tracked ore. Each tick records the
+ * player's position and render distance, and the map states, settings and ore table whenever they
+ * change. Block state IDs are only meaningful with the ore table of the same trace. A trace cut
+ * short by a crash replays up to its last complete record.
+ *
+ * <p>Save file scans and cache imports are not recorded.
+ */
+final class SessionTrace {
+
+    static final String EXTENSION = ".ohtrace";
+
+    private static final int MAGIC = 0x4F485452; // "OHTR"
+    private static final short VERSION = 1;
+    private static final byte RECORD_TICK = 1;
+    private static final byte RECORD_DIMENSION = 2;
+    private static final byte RECORD_SETTINGS = 3;
+    private static final byte RECORD_ORE_TABLE = 4;
+    private static final byte RECORD_MAP_STATE = 5;
+    private static final byte RECORD_CHUNK_LOAD = 6;
+    private static final byte RECORD_CHUNK_UNLOAD = 7;
+    private static final byte RECORD_BLOCK_CHANGE = 8;
+    private static final byte RECORD_ORE_VIEW = 9;
+    private static final byte RECORD_RESET = 10;
+
+    /**
+     * What the manager reads from a JourneyMap {@link UIState}.
+     *
+     * @param mapType     map type, or null if none
+     * @param chunkY      cave map slice, or null
+     * @param blockBounds block area shown, or null if unknown
+     */
+    record MapState(boolean active, int zoom, Context.MapType mapType, Integer chunkY, AABB blockBounds) {
+
+        /**
+         * @return the map state, or null if the map has none
+         */
+        static MapState of(UIState state) {
+            return state == null ? null : new MapState(state.active, state.zoom, state.mapType, state.chunkY, state.blockBounds);
+        }
+    }
+
+    /**
+     * Receives the records of a trace in order.
+     */
+    interface Listener {
+        void settings(HeatmapClient.Settings settings);
+
+        void oreTable(TrackedOreMatcher.OreTable ores);
+
+        /**
+         * The level the player is in changed; chunks loaded before belong to the old one.
+         */
+        void dimension(String dimension);
+
+        /**
+         * @param state the map's state, or null if it had none
+         */
+        void mapState(Context.UI ui, MapState state);
+
+        void tick(int blockX, int blockY, int blockZ, int renderDistance);
+
+        /**
+         * @param cached whether the cache already had the chunk when it loaded
+         */
+        void chunkLoad(long chunkPos, List<SectionStates> sections, boolean cached);
+
+        void chunkUnload(long chunkPos);
+
+        void blockChange(long chunkPos, int blockY, int previousStateId, int currentStateId);
+
+        /**
+         * The player switched to the next ore view.
+         */
+        void cycleOreView();
+
+        /**
+         * The cache was reset and a rescan started.
+         */
+        void reset();
+    }
+
+    private SessionTrace() {
+    }
+
+    /**
+     * Writes a trace from the client thread. A write error is logged once and ends the recording;
+     * the file written so far stays readable.
+     */
+    static final class Recorder {
+
+        private final Path path;
+        private final DataOutputStream out;
+        private boolean failed;
+        private long records;
+
+        private Recorder(Path path, DataOutputStream out) {
+            this.path = path;
+            this.out = out;
+        }
+
+        static Recorder start(Path path) throws IOException {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(path))));
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            return new Recorder(path, out);
+        }
+
+        Path path() {
+            return path;
+        }
+
+        long records() {
+            return records;
+        }
+
+        void tick(int blockX, int blockY, int blockZ, int renderDistance) {
+            write(RECORD_TICK, () -> {
+                out.writeInt(blockX);
+                out.writeInt(blockY);
+                out.writeInt(blockZ);
+                out.writeShort(renderDistance);
+            });
+        }
+
+        void dimension(String dimension) {
+            write(RECORD_DIMENSION, () -> out.writeUTF(dimension));
+        }
+
+        void settings(HeatmapClient.Settings settings) {
+            write(RECORD_SETTINGS, () -> {
+                out.writeBoolean(settings.enabled());
+                out.writeDouble(settings.tickBudgetMillis());
+                out.writeInt(settings.updateIntervalTicks());
+                out.writeInt(settings.cacheMemoryMb());
+                out.writeUTF(settings.normalization().name());
+                out.writeUTF(settings.renderMode().name());
+                out.writeDouble(settings.overlayOpacity());
+                out.writeBoolean(settings.showOverlayInCaves());
+                out.writeUTF(settings.yBandMode().name());
+                out.writeInt(settings.yBandHalfHeight());
+                out.writeDouble(settings.rescanRadiusMultiplier());
+                out.writeShort(settings.trackedOres().size());
+                for (String ore : settings.trackedOres()) {
+                    out.writeUTF(ore);
+                }
+            });
+        }
+
+        void oreTable(TrackedOreMatcher.OreTable ores) {
+            write(RECORD_ORE_TABLE, () -> {
+                out.writeInt(ores.oreByState().length);
+                out.writeShort(ores.oreCount());
+                for (int i = 0; i < ores.oreCount(); i++) {
+                    out.writeUTF(ores.ores()[i]);
+                    out.writeUTF(ores.groups()[i]);
+                }
+                int tracked = 0;
+                for (short ore : ores.oreByState()) {
+                    if (ore >= 0) {
+                        tracked++;
+                    }
+                }
+                out.writeInt(tracked);
+                for (int stateId = 0; stateId < ores.oreByState().length; stateId++) {
+                    if (ores.oreByState()[stateId] >= 0) {
+                        out.writeInt(stateId);
+                        out.writeShort(ores.oreByState()[stateId]);
+                    }
+                }
+            });
+        }
+
+        void mapState(Context.UI ui, MapState state) {
+            write(RECORD_MAP_STATE, () -> {
+                out.writeByte(ui.ordinal());
+                out.writeBoolean(state != null);
+                if (state == null) {
+                    return;
+                }
+                out.writeBoolean(state.active());
+                out.writeInt(state.zoom());
+                out.writeByte(state.mapType() == null ? -1 : state.mapType().ordinal());
+                out.writeBoolean(state.chunkY() != null);
+                if (state.chunkY() != null) {
+                    out.writeInt(state.chunkY());
+                }
+                AABB bounds = state.blockBounds();
+                out.writeBoolean(bounds != null);
+                if (bounds != null) {
+                    out.writeDouble(bounds.minX);
+                    out.writeDouble(bounds.minY);
+                    out.writeDouble(bounds.minZ);
+                    out.writeDouble(bounds.maxX);
+                    out.writeDouble(bounds.maxY);
+                    out.writeDouble(bounds.maxZ);
+                }
+            });
+        }
+
+        void chunkLoad(long chunkPos, List<SectionStates> sections, boolean cached) {
+            write(RECORD_CHUNK_LOAD, () -> {
+                out.writeLong(chunkPos);
+                out.writeBoolean(cached);
+                out.writeByte(sections.size());
+                for (SectionStates section : sections) {
+                    out.writeShort(section.sectionY());
+                    out.writeShort(section.stateIds().length);
+                    for (int i = 0; i < section.stateIds().length; i++) {
+                        out.writeInt(section.stateIds()[i]);
+                        out.writeShort(section.blocks()[i]);
+                    }
+                }
+            });
+        }
+
+        void chunkUnload(long chunkPos) {
+            write(RECORD_CHUNK_UNLOAD, () -> out.writeLong(chunkPos));
+        }
+
+        void blockChange(long chunkPos, int blockY, int previousStateId, int currentStateId) {
+            write(RECORD_BLOCK_CHANGE, () -> {
+                out.writeLong(chunkPos);
+                out.writeInt(blockY);
+                out.writeInt(previousStateId);
+                out.writeInt(currentStateId);
+            });
+        }
+
+        void cycleOreView() {
+            write(RECORD_ORE_VIEW, () -> { });
+        }
+
+        void reset() {
+            write(RECORD_RESET, () -> { });
+        }
+
+        boolean isFailed() {
+            return failed;
+        }
+
+        void close() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                OreHeatmapMod.LOGGER.error("Failed to finish session trace {}", path, e);
+            }
+        }
+
+        private void write(byte type, Body body) {
+            if (failed) {
+                return;
+            }
+            try {
+                out.writeByte(type);
+                body.write();
+                records++;
+            } catch (IOException e) {
+                failed = true;
+                OreHeatmapMod.LOGGER.error("Failed to write session trace {} - recording stopped", path, e);
+            }
+        }
+
+        @FunctionalInterface
+        private interface Body {
+            void write() throws IOException;
+        }
+    }
+
+    /**
+     * Reads a trace.
+     *
+     * @return number of records read
+     */
+    static long replay(Path path, Listener listener) throws IOException {
+        long records = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(path))))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a session trace: " + path);
+            }
+            short version = in.readShort();
+            if (version != VERSION) {
+                throw new IOException("Unsupported session trace version " + version + ": " + path);
+            }
+            while (true) {
+                int type;
+                try {
+                    type = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                switch (type) {
+                    case RECORD_TICK -> listener.tick(in.readInt(), in.readInt(), in.readInt(), in.readShort());
+                    case RECORD_DIMENSION -> listener.dimension(in.readUTF());
+                    case RECORD_SETTINGS -> listener.settings(readSettings(in));
+                    case RECORD_ORE_TABLE -> listener.oreTable(readOreTable(in));
+                    case RECORD_MAP_STATE -> {
+                        Context.UI ui = Context.UI.values()[in.readByte()];
+                        listener.mapState(ui, in.readBoolean() ? readMapState(in) : null);
+                    }
+                    case RECORD_CHUNK_LOAD -> {
+                        long chunkPos = in.readLong();
+                        boolean cached = in.readBoolean();
+                        listener.chunkLoad(chunkPos, readSections(in), cached);
+                    }
+                    case RECORD_CHUNK_UNLOAD -> listener.chunkUnload(in.readLong());
+                    case RECORD_BLOCK_CHANGE -> listener.blockChange(in.readLong(), in.readInt(), in.readInt(), in.readInt());
+                    case RECORD_ORE_VIEW -> listener.cycleOreView();
+                    case RECORD_RESET -> listener.reset();
+                    default -> throw new IOException("Unknown record type " + type + " in " + path);
+                }
+                records++;
+            }
+        } catch (EOFException e) {
+            OreHeatmapMod.LOGGER.warn("Session trace {} ends mid-record - replayed {} records", path, records);
+        }
+        return records;
+    }
+
+    private static HeatmapClient.Settings readSettings(DataInputStream in) throws IOException {
+        boolean enabled = in.readBoolean();
+        double tickBudgetMillis = in.readDouble();
+        int updateIntervalTicks = in.readInt();
+        int cacheMemoryMb = in.readInt();
+        OreHeatmapConfig.Normalization normalization = OreHeatmapConfig.Normalization.valueOf(in.readUTF());
+        OreHeatmapConfig.RenderMode renderMode = OreHeatmapConfig.RenderMode.valueOf(in.readUTF());
+        double overlayOpacity = in.readDouble();
+        boolean showOverlayInCaves = in.readBoolean();
+        OreHeatmapConfig.YBandMode yBandMode = OreHeatmapConfig.YBandMode.valueOf(in.readUTF());
+        int yBandHalfHeight = in.readInt();
+        double rescanRadiusMultiplier = in.readDouble();
+        List<String> trackedOres = new ArrayList<>();
+        int count = in.readShort();
+        for (int i = 0; i < count; i++) {
+            trackedOres.add(in.readUTF());
+        }
+        return new HeatmapClient.Settings(enabled, tickBudgetMillis, updateIntervalTicks, cacheMemoryMb, normalization, renderMode,
+                overlayOpacity, showOverlayInCaves, yBandMode, yBandHalfHeight, rescanRadiusMultiplier, List.copyOf(trackedOres));
+    }
+
+    private static TrackedOreMatcher.OreTable readOreTable(DataInputStream in) throws IOException {
+        int stateCount = in.readInt();
+        String[] ores = new String[in.readShort()];
+        String[] groups = new String[ores.length];
+        for (int i = 0; i < ores.length; i++) {
+            ores[i] = in.readUTF();
+            groups[i] = in.readUTF();
+        }
+        short[] oreByState = new short[stateCount];
+        Arrays.fill(oreByState, (short) -1);
+        int tracked = in.readInt();
+        for (int i = 0; i < tracked; i++) {
+            oreByState[in.readInt()] = in.readShort();
+        }
+        return new TrackedOreMatcher.OreTable(oreByState, ores, groups);
+    }
+
+    private static MapState readMapState(DataInputStream in) throws IOException {
+        boolean active = in.readBoolean();
+        int zoom = in.readInt();
+        int mapType = in.readByte();
+        Integer chunkY = in.readBoolean() ? in.readInt() : null;
+        AABB bounds = in.readBoolean()
+                ? new AABB(in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble())
+                : null;
+        return new MapState(active, zoom, mapType < 0 ? null : Context.MapType.values()[mapType], chunkY, bounds);
+    }
+
+    private static List<SectionStates> readSections(DataInputStream in) throws IOException {
+        int count = in.readByte() & 0xFF;
+        List<SectionStates> sections = new ArrayList<>(count);
+        for (int s = 0; s < count; s++) {
+            int sectionY = in.readShort();
+            int[] stateIds = new int[in.readShort()];
+            int[] blocks = new int[stateIds.length];
+            for (int i = 0; i < stateIds.length; i++) {
+                stateIds[i] = in.readInt();
+                blocks[i] = in.readShort();
+            }
+            sections.add(new SectionStates(sectionY, stateIds, blocks));
+        }
+        return sections;
+    }
+}
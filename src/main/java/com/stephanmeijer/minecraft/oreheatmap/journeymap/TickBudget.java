@@ -0,0 +1,100 @@
+package com.stephanmeijer.minecraft.oreheatmap.journeymap;
+
+import java.util.Arrays;
+
+/**
+ * Caps the client-thread time the heatmap spends per tick.
+ *
+ * <p>Every piece of work is metered as a {@link Task}, and a running average of its cost per unit
+ * is kept. Work asks how many units still fit before it starts, so queues are drained as far as
+ * the budget allows and the rest waits for the next tick. Spare time goes to queued work and to
+ * earlier overlay refreshes. The first task of a tick always gets at least one unit, so work larger
+ * than the whole budget still makes progress, on a tick of its own.
+ *
+ * <p>Used from the client thread only.
+ */
+final class TickBudget {
+
+    enum Task {
+        OVERLAY_UPDATE,
+        SCAN_RESULTS,
+        SCAN_CAPTURE,
+        SAVE,
+        RESCAN
+    }
+
+    // Assumed cost of a unit until the first measurement
+    private static final long INITIAL_COST_NANOS = 100_000;
+    // Running averages move 1/8 of the way towards each new measurement
+    private static final int SMOOTHING = 8;
+
+    private final long[] costNanos = new long[Task.values().length];
+    private long budgetNanos;
+    private long spentNanos;
+    private boolean fresh = true;
+
+    TickBudget() {
+        Arrays.fill(costNanos, INITIAL_COST_NANOS);
+    }
+
+    /**
+     * Starts a new tick with the given budget. Work metered before the next call counts against it,
+     * including work done in event handlers between ticks.
+     */
+    void beginTick(long budget) {
+        budgetNanos = budget;
+        spentNanos = 0;
+        fresh = true;
+    }
+
+    /**
+     * Time metered since {@link #beginTick}; may exceed the budget.
+     */
+    long spentNanos() {
+        return spentNanos;
+    }
+
+    long remainingNanos() {
+        return Math.max(0, budgetNanos - spentNanos);
+    }
+
+    /**
+     * Number of units of the task expected to fit in the rest of the tick.
+     */
+    int affordableUnits(Task task) {
+        long units = remainingNanos() / costNanos[task.ordinal()];
+        return (int) Math.min(Integer.MAX_VALUE, fresh ? Math.max(1, units) : units);
+    }
+
+    boolean canAfford(Task task) {
+        return affordableUnits(task) > 0;
+    }
+
+    /**
+     * Whether the task would use at most half of what is left, i.e. optional work can run early.
+     */
+    boolean hasHeadroomFor(Task task) {
+        return costNanos[task.ordinal()] * 2 <= remainingNanos();
+    }
+
+    /**
+     * Charges work started at {@code startNanos} ({@link System#nanoTime}) to the tick and folds its
+     * cost per unit into the task's average.
+     */
+    void record(Task task, long startNanos, int units) {
+        long elapsed = System.nanoTime() - startNanos;
+        spentNanos += elapsed;
+        fresh = false;
+        if (units > 0) {
+            long perUnit = Math.max(1, elapsed / units);
+            costNanos[task.ordinal()] += (perUnit - costNanos[task.ordinal()]) / SMOOTHING;
+        }
+    }
+
+    /**
+     * Average cost of one unit of the task.
+     */
+    long costNanos(Task task) {
+        return costNanos[task.ordinal()];
+    }
+}
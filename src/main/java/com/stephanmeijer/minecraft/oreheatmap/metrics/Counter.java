@@ -0,0 +1,36 @@
+package com.stephanmeijer.minecraft.oreheatmap.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A running total that any thread may add to without locking.
+ */
+public final class Counter {
+
+    private final String name;
+    private final LongAdder total = new LongAdder();
+
+    Counter(String name) {
+        this.name = name;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public void increment() {
+        total.increment();
+    }
+
+    public void add(long amount) {
+        total.add(amount);
+    }
+
+    public long get() {
+        return total.sum();
+    }
+
+    void reset() {
+        total.reset();
+    }
+}
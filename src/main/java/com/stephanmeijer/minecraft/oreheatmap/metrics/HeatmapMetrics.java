@@ -0,0 +1,107 @@
+package com.stephanmeijer.minecraft.oreheatmap.metrics;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Counters and latency histograms for the heatmap's work, kept since startup or the last
+ * {@link #reset}. Recording is a few atomic adds and never allocates, so the metrics stay on in
+ * normal play; reading them is only done on request, e.g. by the {@code /oreheatmap stats} command.
+ */
+public final class HeatmapMetrics {
+
+    private static final List<Counter> COUNTERS = new ArrayList<>();
+    private static final List<LatencyHistogram> LATENCIES = new ArrayList<>();
+
+    // Scanning
+    public static final Counter CHUNKS_SCANNED = counter("Chunks scanned");
+    public static final Counter SECTIONS_SCANNED = counter("Sections counted");
+    public static final Counter SECTIONS_SKIPPED = counter("Sections skipped by palette");
+    public static final Counter BLOCKS_EXAMINED = counter("Blocks examined");
+    public static final Counter SCANS_DEFERRED = counter("Scans deferred");
+    public static final Counter BLOCK_CHANGES = counter("Block changes applied");
+    public static final LatencyHistogram CHUNK_SCAN = latency("Chunk scan");
+    public static final LatencyHistogram SCAN_CAPTURE = latency("Chunk capture (client thread)");
+
+    // Overlays
+    public static final Counter OVERLAYS_SHOWN = counter("Overlays shown");
+    public static final Counter OVERLAYS_UPDATED = counter("Overlays updated");
+    public static final Counter OVERLAYS_REMOVED = counter("Overlays removed");
+    public static final LatencyHistogram OVERLAY_UPDATE = latency("Overlay update");
+
+    // Cache
+    public static final Counter REGIONS_PAGED_IN = counter("Regions paged in");
+    public static final Counter REGIONS_EVICTED = counter("Regions paged out");
+    public static final Counter DIMENSIONS_EVICTED = counter("Idle dimensions evicted");
+    public static final LatencyHistogram REGION_PAGE_IN = latency("Region page-in");
+    public static final LatencyHistogram CACHE_LOAD = latency("Cache load");
+    public static final LatencyHistogram CACHE_SAVE = latency("Cache save (per dimension)");
+
+    // Client thread
+    public static final Counter TICKS_OVER_BUDGET = counter("Ticks over budget");
+    public static final LatencyHistogram TICK = latency("Heatmap time per tick");
+
+    private HeatmapMetrics() {
+    }
+
+    private static Counter counter(String name) {
+        Counter counter = new Counter(name);
+        COUNTERS.add(counter);
+        return counter;
+    }
+
+    private static LatencyHistogram latency(String name) {
+        LatencyHistogram histogram = new LatencyHistogram(name);
+        LATENCIES.add(histogram);
+        return histogram;
+    }
+
+    /**
+     * One line per metric: counter totals, then sample count, mean, p50, p99 and max of each latency.
+     */
+    public static List<String> report() {
+        List<String> lines = new ArrayList<>(COUNTERS.size() + LATENCIES.size());
+        for (Counter counter : COUNTERS) {
+            lines.add(counter.name() + ": " + counter.get());
+        }
+        for (LatencyHistogram latency : LATENCIES) {
+            if (latency.count() == 0) {
+                lines.add(latency.name() + ": no samples");
+                continue;
+            }
+            lines.add(String.format(Locale.ROOT, "%s: n=%d mean=%s p50=%s p99=%s max=%s",
+                    latency.name(), latency.count(), formatNanos(latency.meanNanos()),
+                    formatNanos(latency.quantileNanos(0.5)), formatNanos(latency.quantileNanos(0.99)),
+                    formatNanos(latency.maxNanos())));
+        }
+        return lines;
+    }
+
+    /**
+     * Writes the given lines, e.g. {@link #report} plus context, to a text file.
+     */
+    public static void dump(Path path, List<String> lines) throws IOException {
+        Files.write(path, lines, StandardCharsets.UTF_8);
+    }
+
+    public static void reset() {
+        for (Counter counter : COUNTERS) {
+            counter.reset();
+        }
+        for (LatencyHistogram latency : LATENCIES) {
+            latency.reset();
+        }
+    }
+
+    private static String formatNanos(long nanos) {
+        if (nanos < 10_000_000) {
+            return nanos / 1000 + "µs";
+        }
+        return String.format(Locale.ROOT, "%.1fms", nanos / 1_000_000.0);
+    }
+}
@@ -0,0 +1,119 @@
+package com.stephanmeijer.minecraft.oreheatmap.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of durations in nanoseconds that any thread may record into without locking or
+ * allocating.
+ *
+ * <p>Log-linear bins: four per power of two, so a reported percentile is at most a quarter above
+ * the true one. The bins are fixed, so memory does not grow with the number of samples.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BINS = SUB_BUCKETS + ((Long.SIZE - 1 - SUB_BUCKET_BITS) * SUB_BUCKETS);
+
+    private final String name;
+    private final AtomicLongArray bins = new AtomicLongArray(BINS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Records the time since {@code startNanos}, a {@link System#nanoTime} reading.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public void record(long nanos) {
+        long sample = Math.max(0, nanos);
+        bins.incrementAndGet(bin(sample));
+        count.increment();
+        totalNanos.add(sample);
+        maxNanos.accumulateAndGet(sample, Math::max);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long meanNanos() {
+        long samples = count.sum();
+        return samples == 0 ? 0 : totalNanos.sum() / samples;
+    }
+
+    public long maxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * Smallest duration that at least the given fraction of samples did not exceed, e.g. 0.99 for
+     * the 99th percentile; 0 without samples.
+     */
+    public long quantileNanos(double fraction) {
+        long[] snapshot = new long[BINS];
+        long samples = 0;
+        for (int bin = 0; bin < BINS; bin++) {
+            snapshot[bin] = bins.get(bin);
+            samples += snapshot[bin];
+        }
+        if (samples == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * samples));
+        long seen = 0;
+        for (int bin = 0; bin < BINS; bin++) {
+            seen += snapshot[bin];
+            if (seen >= rank) {
+                // Never report more than the slowest sample actually seen
+                return Math.min(upperBound(bin), maxNanos());
+            }
+        }
+        return maxNanos();
+    }
+
+    void reset() {
+        for (int bin = 0; bin < BINS; bin++) {
+            bins.set(bin, 0);
+        }
+        count.reset();
+        totalNanos.reset();
+        maxNanos.set(0);
+    }
+
+    private static int bin(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + ((exponent - SUB_BUCKET_BITS) * SUB_BUCKETS) + sub;
+    }
+
+    private static long upperBound(int bin) {
+        if (bin < SUB_BUCKETS) {
+            return bin;
+        }
+        int exponent = ((bin - SUB_BUCKETS) / SUB_BUCKETS) + SUB_BUCKET_BITS;
+        if (exponent >= Long.SIZE - 2) {
+            return Long.MAX_VALUE;
+        }
+        int sub = (bin - SUB_BUCKETS) % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        long lower = (SUB_BUCKETS + sub) * width;
+        return lower + width - 1;
+    }
+}
@@ -0,0 +1,28 @@
+package com.stephanmeijer.minecraft.oreheatmap.mixin;
+
+import com.stephanmeijer.minecraft.oreheatmap.scan.ClientBlockChanges;
+import net.minecraft.core.BlockPos;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+/**
+ * Reports block state changes in client chunks to {@link ClientBlockChanges}.
+ * Every client-side block update, whether from the server or predicted locally, ends up here.
+ */
+@Mixin(LevelChunk.class)
+public abstract class LevelChunkMixin {
+
+    @Inject(method = "setBlockState", at = @At("RETURN"))
+    private void onSetBlockState(BlockPos pos, BlockState state, boolean isMoving, CallbackInfoReturnable<BlockState> cir) {
+        // Null when the block already had this state
+        BlockState previous = cir.getReturnValue();
+        LevelChunk chunk = (LevelChunk) (Object) this;
+        if (previous != null && chunk.getLevel().isClientSide()) {
+            ClientBlockChanges.fire(chunk, pos, previous, state);
+        }
+    }
+}
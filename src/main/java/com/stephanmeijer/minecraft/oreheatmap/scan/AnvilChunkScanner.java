@@ -0,0 +1,335 @@
+package com.stephanmeijer.minecraft.oreheatmap.scan;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.stephanmeijer.minecraft.oreheatmap.cache.OreHistogram;
+import com.stephanmeijer.minecraft.oreheatmap.metrics.HeatmapMetrics;
+
+/**
+ * Counts tracked ores in the NBT of a saved chunk, as decoded by {@link AnvilRegionFile}.
+ *
+ * <p>Walks the NBT in place and only looks at what counting needs: the chunk's generation status
+ * and each section's Y, block palette and packed block data. Everything else is skipped over
+ * without being decoded. Ores are matched by block ID, once per palette entry, and a section's
+ * block data is only unpacked if its palette holds a tracked ore, as in {@link ChunkOreScanner}.
+ *
+ * <p>Reads the format written since 1.18. Not thread-safe; use one instance per thread.
+ */
+final class AnvilChunkScanner {
+
+    private static final int TAG_END = 0;
+    private static final int TAG_BYTE = 1;
+    private static final int TAG_SHORT = 2;
+    private static final int TAG_INT = 3;
+    private static final int TAG_LONG = 4;
+    private static final int TAG_FLOAT = 5;
+    private static final int TAG_DOUBLE = 6;
+    private static final int TAG_BYTE_ARRAY = 7;
+    private static final int TAG_STRING = 8;
+    private static final int TAG_LIST = 9;
+    private static final int TAG_COMPOUND = 10;
+    private static final int TAG_INT_ARRAY = 11;
+    private static final int TAG_LONG_ARRAY = 12;
+
+    private static final byte[] STATUS = ascii("Status");
+    private static final byte[] SECTIONS = ascii("sections");
+    private static final byte[] Y = ascii("Y");
+    private static final byte[] BLOCK_STATES = ascii("block_states");
+    private static final byte[] PALETTE = ascii("palette");
+    private static final byte[] DATA = ascii("data");
+    private static final byte[] NAME = ascii("Name");
+    private static final byte[] FULL = ascii("minecraft:full");
+    private static final byte[] FULL_UNQUALIFIED = ascii("full");
+
+    private static final VarHandle BIG_ENDIAN_LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private static final int BLOCKS_PER_SECTION = 16 * 16 * 16;
+    private static final int MIN_BITS_PER_BLOCK = 4;
+
+    private final Map<String, Integer> oreIndices = new HashMap<>();
+    private final int[] counts;
+
+    private byte[] data;
+    private int pos;
+    private int limit;
+
+    // The section being read
+    private int[] paletteOres = new int[16];
+    private int[] tally = new int[16];
+    private int paletteSize;
+    private int dataOffset;
+    private int dataLongs;
+
+    /**
+     * @param ores block IDs to count; histogram ore ids index this list
+     */
+    AnvilChunkScanner(List<String> ores) {
+        for (int i = 0; i < ores.size(); i++) {
+            oreIndices.putIfAbsent(ores.get(i), i);
+        }
+        counts = new int[ores.size()];
+    }
+
+    /**
+     * Counts the tracked ores of one chunk.
+     *
+     * @return histogram with ore ids indexing the scanner's ore list, or null if the chunk was saved
+     * before it finished generating and holds no final blocks yet
+     * @throws IOException if the NBT is malformed
+     */
+    int[] scan(byte[] nbt, int length) throws IOException {
+        data = nbt;
+        pos = 0;
+        limit = length;
+        Arrays.fill(counts, 0);
+        if (readByte() != TAG_COMPOUND) {
+            throw new IOException("Chunk NBT does not start with a compound");
+        }
+        skip(readUnsignedShort());
+
+        boolean full = false;
+        int[] entries = OreHistogram.EMPTY;
+        int tag;
+        while ((tag = readByte()) != TAG_END) {
+            int nameLength = readUnsignedShort();
+            int name = pos;
+            skip(nameLength);
+            if (tag == TAG_STRING && matches(name, nameLength, STATUS)) {
+                int valueLength = readUnsignedShort();
+                int value = pos;
+                skip(valueLength);
+                full = matches(value, valueLength, FULL) || matches(value, valueLength, FULL_UNQUALIFIED);
+            } else if (tag == TAG_LIST && matches(name, nameLength, SECTIONS)) {
+                entries = readSections();
+            } else {
+                skipPayload(tag);
+            }
+        }
+        HeatmapMetrics.CHUNKS_SCANNED.increment();
+        return full ? entries : null;
+    }
+
+    private int[] readSections() throws IOException {
+        int elementType = readByte();
+        int size = readSize();
+        if (elementType != TAG_COMPOUND) {
+            skipElements(elementType, size);
+            return OreHistogram.EMPTY;
+        }
+        int[] entries = OreHistogram.EMPTY;
+        for (int i = 0; i < size; i++) {
+            int sectionY = Integer.MIN_VALUE;
+            paletteSize = 0;
+            dataOffset = -1;
+            int tag;
+            while ((tag = readByte()) != TAG_END) {
+                int nameLength = readUnsignedShort();
+                int name = pos;
+                skip(nameLength);
+                if (tag == TAG_BYTE && matches(name, nameLength, Y)) {
+                    sectionY = readByte();
+                } else if (tag == TAG_COMPOUND && matches(name, nameLength, BLOCK_STATES)) {
+                    readBlockStates();
+                } else {
+                    skipPayload(tag);
+                }
+            }
+            if (sectionY != Integer.MIN_VALUE && countSection()) {
+                entries = OreHistogram.appendSection(entries, counts, sectionY);
+            }
+        }
+        return entries;
+    }
+
+    private void readBlockStates() throws IOException {
+        int tag;
+        while ((tag = readByte()) != TAG_END) {
+            int nameLength = readUnsignedShort();
+            int name = pos;
+            skip(nameLength);
+            if (tag == TAG_LIST && matches(name, nameLength, PALETTE)) {
+                readPalette();
+            } else if (tag == TAG_LONG_ARRAY && matches(name, nameLength, DATA)) {
+                dataLongs = readInt();
+                dataOffset = pos;
+                skip((long) dataLongs * Long.BYTES);
+            } else {
+                skipPayload(tag);
+            }
+        }
+    }
+
+    /**
+     * Resolves each palette entry's block ID to an ore index, or -1.
+     */
+    private void readPalette() throws IOException {
+        int elementType = readByte();
+        int size = readSize();
+        if (elementType != TAG_COMPOUND) {
+            skipElements(elementType, size);
+            return;
+        }
+        if (size > paletteOres.length) {
+            paletteOres = new int[Math.max(size, paletteOres.length * 2)];
+            tally = new int[paletteOres.length];
+        }
+        for (int i = 0; i < size; i++) {
+            int ore = -1;
+            int tag;
+            while ((tag = readByte()) != TAG_END) {
+                int nameLength = readUnsignedShort();
+                int name = pos;
+                skip(nameLength);
+                if (tag == TAG_STRING && matches(name, nameLength, NAME)) {
+                    int valueLength = readUnsignedShort();
+                    int value = pos;
+                    skip(valueLength);
+                    ore = oreIndices.getOrDefault(new String(data, value, valueLength, StandardCharsets.UTF_8), -1);
+                } else {
+                    skipPayload(tag);
+                }
+            }
+            paletteOres[i] = ore;
+        }
+        paletteSize = size;
+    }
+
+    /**
+     * Adds the tracked ores of the section just read to {@link #counts}.
+     *
+     * @return whether the section was counted
+     */
+    private boolean countSection() throws IOException {
+        boolean candidate = false;
+        for (int i = 0; i < paletteSize; i++) {
+            if (paletteOres[i] >= 0) {
+                candidate = true;
+                break;
+            }
+        }
+        if (!candidate) {
+            if (paletteSize > 0) {
+                HeatmapMetrics.SECTIONS_SKIPPED.increment();
+            }
+            return false;
+        }
+        HeatmapMetrics.SECTIONS_SCANNED.increment();
+        HeatmapMetrics.BLOCKS_EXAMINED.add(BLOCKS_PER_SECTION);
+        // A single-state section stores no block data
+        if (paletteSize == 1) {
+            counts[paletteOres[0]] += BLOCKS_PER_SECTION;
+            return true;
+        }
+
+        int bits = Math.max(MIN_BITS_PER_BLOCK, Integer.SIZE - Integer.numberOfLeadingZeros(paletteSize - 1));
+        int perLong = Long.SIZE / bits;
+        int longs = (BLOCKS_PER_SECTION + perLong - 1) / perLong;
+        if (dataOffset < 0 || dataLongs < longs) {
+            throw new IOException("Section block data is missing or too short");
+        }
+        long mask = (1L << bits) - 1;
+        Arrays.fill(tally, 0, paletteSize, 0);
+        int block = 0;
+        for (int i = 0; i < longs; i++) {
+            long word = (long) BIG_ENDIAN_LONG.get(data, dataOffset + (i * Long.BYTES));
+            for (int j = 0; j < perLong && block < BLOCKS_PER_SECTION; j++, block++) {
+                int index = (int) (word & mask);
+                if (index < paletteSize) {
+                    tally[index]++;
+                }
+                word >>>= bits;
+            }
+        }
+        for (int i = 0; i < paletteSize; i++) {
+            if (paletteOres[i] >= 0) {
+                counts[paletteOres[i]] += tally[i];
+            }
+        }
+        return true;
+    }
+
+    private void skipPayload(int tag) throws IOException {
+        switch (tag) {
+            case TAG_BYTE -> skip(Byte.BYTES);
+            case TAG_SHORT -> skip(Short.BYTES);
+            case TAG_INT, TAG_FLOAT -> skip(Integer.BYTES);
+            case TAG_LONG, TAG_DOUBLE -> skip(Long.BYTES);
+            case TAG_BYTE_ARRAY -> skip(readInt());
+            case TAG_STRING -> skip(readUnsignedShort());
+            case TAG_LIST -> {
+                int elementType = readByte();
+                skipElements(elementType, readSize());
+            }
+            case TAG_COMPOUND -> {
+                int nested;
+                while ((nested = readByte()) != TAG_END) {
+                    skip(readUnsignedShort());
+                    skipPayload(nested);
+                }
+            }
+            case TAG_INT_ARRAY -> skip((long) readInt() * Integer.BYTES);
+            case TAG_LONG_ARRAY -> skip((long) readInt() * Long.BYTES);
+            default -> throw new IOException("Unknown NBT tag " + tag);
+        }
+    }
+
+    private void skipElements(int elementType, int size) throws IOException {
+        for (int i = 0; i < size; i++) {
+            skipPayload(elementType);
+        }
+    }
+
+    private boolean matches(int offset, int length, byte[] expected) {
+        return length == expected.length && Arrays.equals(data, offset, offset + length, expected, 0, length);
+    }
+
+    private int readByte() throws IOException {
+        require(1);
+        return data[pos++];
+    }
+
+    private int readUnsignedShort() throws IOException {
+        require(2);
+        int value = ((data[pos] & 0xFF) << 8) | (data[pos + 1] & 0xFF);
+        pos += 2;
+        return value;
+    }
+
+    private int readInt() throws IOException {
+        require(4);
+        int value = ((data[pos] & 0xFF) << 24) | ((data[pos + 1] & 0xFF) << 16) | ((data[pos + 2] & 0xFF) << 8) | (data[pos + 3] & 0xFF);
+        pos += 4;
+        return value;
+    }
+
+    private int readSize() throws IOException {
+        int size = readInt();
+        if (size < 0) {
+            throw new IOException("Negative NBT list size");
+        }
+        return size;
+    }
+
+    private void skip(long length) throws IOException {
+        require(length);
+        pos += (int) length;
+    }
+
+    private void require(long length) throws IOException {
+        if (length < 0 || pos + length > limit) {
+            throw new IOException("Chunk NBT ends early");
+        }
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,198 @@
+package com.stephanmeijer.minecraft.oreheatmap.scan;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import com.stephanmeijer.minecraft.oreheatmap.cache.ChunkCountStore;
+import com.stephanmeijer.minecraft.oreheatmap.cache.RegionKeys;
+
+/**
+ * One region file ({@code r.<x>.<z>.mca}) of a world save, read through a read-only memory mapping.
+ *
+ * <p>Layout: a 4 KiB table of chunk locations (3-byte sector offset, 1-byte sector count per chunk,
+ * in z-major order), a 4 KiB table of timestamps, then 4 KiB sectors. A stored chunk starts with
+ * its length and a compression byte, followed by the compressed NBT. Chunks too large for the
+ * file are stored whole in a {@code c.<x>.<z>.mcc} file next to it, flagged in the compression byte.
+ *
+ * <p>The mapping is shared and only read with absolute offsets, so threads may read different
+ * chunks of the same file concurrently, each with its own {@link Decoder}.
+ */
+final class AnvilRegionFile {
+
+    static final String EXTENSION = ".mca";
+
+    private static final int SECTOR_BYTES = 4096;
+    private static final int HEADER_BYTES = 2 * SECTOR_BYTES;
+    private static final int COMPRESSION_GZIP = 1;
+    private static final int COMPRESSION_ZLIB = 2;
+    private static final int COMPRESSION_NONE = 3;
+    private static final int COMPRESSION_LZ4 = 4;
+    private static final int EXTERNAL_FLAG = 0x80;
+
+    private final Path path;
+    private final long regionKey;
+    private final MappedByteBuffer data;
+
+    private AnvilRegionFile(Path path, long regionKey, MappedByteBuffer data) {
+        this.path = path;
+        this.regionKey = regionKey;
+        this.data = data;
+    }
+
+    /**
+     * Maps a region file.
+     *
+     * @return null if the file name is not a region file name or the file holds no chunks
+     */
+    static AnvilRegionFile open(Path path) throws IOException {
+        String[] parts = path.getFileName().toString().split("\\.");
+        if (parts.length != 4 || !parts[0].equals("r") || !("." + parts[3]).equals(EXTENSION)) {
+            return null;
+        }
+        int regionX;
+        int regionZ;
+        try {
+            regionX = Integer.parseInt(parts[1]);
+            regionZ = Integer.parseInt(parts[2]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // Worlds often hold empty region files for areas that were only looked at
+            if (channel.size() < HEADER_BYTES) {
+                return null;
+            }
+            return new AnvilRegionFile(path, ChunkCountStore.pack(regionX, regionZ), channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    Path path() {
+        return path;
+    }
+
+    /**
+     * Packed position of the chunk at a {@link RegionKeys#localIndex} of this region.
+     */
+    long chunkPos(int localIndex) {
+        return RegionKeys.chunkAt(regionKey, localIndex);
+    }
+
+    boolean hasChunk(int localIndex) {
+        return data.getInt(localIndex * Integer.BYTES) != 0;
+    }
+
+    /**
+     * Decompresses a chunk's NBT into the decoder's buffer.
+     *
+     * @return number of bytes decoded, or -1 if the chunk is not stored
+     * @throws IOException if the chunk is damaged or uses a compression this reader does not support
+     */
+    int read(int localIndex, Decoder decoder) throws IOException {
+        int location = data.getInt(localIndex * Integer.BYTES);
+        if (location == 0) {
+            return -1;
+        }
+        long offset = (long) (location >>> 8) * SECTOR_BYTES;
+        if (offset < HEADER_BYTES || offset + 5 > data.capacity()) {
+            throw new IOException("Chunk " + localIndex + " points outside " + path);
+        }
+        int length = data.getInt((int) offset);
+        int compression = data.get((int) offset + 4) & 0xFF;
+        if ((compression & EXTERNAL_FLAG) != 0) {
+            long chunkPos = chunkPos(localIndex);
+            Path external = path.resolveSibling("c." + ChunkCountStore.unpackX(chunkPos) + "." + ChunkCountStore.unpackZ(chunkPos) + ".mcc");
+            return decoder.decode(ByteBuffer.wrap(Files.readAllBytes(external)), compression & ~EXTERNAL_FLAG, path);
+        }
+        if (length < 1 || offset + 4 + length > data.capacity()) {
+            throw new IOException("Chunk " + localIndex + " is truncated in " + path);
+        }
+        return decoder.decode(data.slice((int) offset + 5, length - 1), compression, path);
+    }
+
+    /**
+     * Per-thread decompression state: an inflater and a buffer that grows to the largest chunk seen.
+     */
+    static final class Decoder implements AutoCloseable {
+
+        private final Inflater inflater = new Inflater();
+        private byte[] buffer = new byte[64 * 1024];
+
+        byte[] buffer() {
+            return buffer;
+        }
+
+        @Override
+        public void close() {
+            inflater.end();
+        }
+
+        private int decode(ByteBuffer compressed, int compression, Path path) throws IOException {
+            switch (compression) {
+                case COMPRESSION_ZLIB -> {
+                    return inflate(compressed);
+                }
+                case COMPRESSION_NONE -> {
+                    int length = compressed.remaining();
+                    ensureCapacity(length);
+                    compressed.get(buffer, 0, length);
+                    return length;
+                }
+                case COMPRESSION_GZIP -> {
+                    // Only written by old versions, so not worth inflating in place
+                    byte[] bytes = new byte[compressed.remaining()];
+                    compressed.get(bytes);
+                    byte[] decoded;
+                    try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+                        decoded = in.readAllBytes();
+                    }
+                    ensureCapacity(decoded.length);
+                    System.arraycopy(decoded, 0, buffer, 0, decoded.length);
+                    return decoded.length;
+                }
+                case COMPRESSION_LZ4 -> throw new IOException("LZ4-compressed chunks are not supported: " + path);
+                default -> throw new IOException("Unknown chunk compression " + compression + " in " + path);
+            }
+        }
+
+        /**
+         * Inflates straight from the mapping, without copying the compressed bytes.
+         */
+        private int inflate(ByteBuffer compressed) throws IOException {
+            inflater.reset();
+            inflater.setInput(compressed);
+            int length = 0;
+            try {
+                while (!inflater.finished()) {
+                    if (length == buffer.length) {
+                        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    }
+                    int inflated = inflater.inflate(buffer, length, buffer.length - length);
+                    if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new IOException("Chunk data ends early");
+                    }
+                    length += inflated;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Damaged chunk data", e);
+            }
+            return length;
+        }
+
+        private void ensureCapacity(int length) {
+            if (buffer.length < length) {
+                buffer = new byte[Math.max(length, buffer.length * 2)];
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.stephanmeijer.minecraft.oreheatmap.scan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.stephanmeijer.minecraft.oreheatmap.cache.OreHistogram;
+import com.stephanmeijer.minecraft.oreheatmap.metrics.HeatmapMetrics;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.chunk.PalettedContainer;
+
+/**
+ * Counts tracked ores in chunks, section by section, into an {@link OreHistogram} whose ore ids are
+ * indices of a {@link TrackedOreMatcher.OreTable}. Air-only sections and sections whose palette holds
+ * no tracked state are skipped without touching their block data.
+ */
+public final class ChunkOreScanner {
+
+    private static final int BLOCKS_PER_SECTION = 16 * 16 * 16;
+
+    private ChunkOreScanner() {
+    }
+
+    /**
+     * Counts tracked ores in a loaded chunk on the calling thread.
+     *
+     * @return histogram with ore ids indexing the table
+     */
+    public static int[] scan(LevelChunk chunk, TrackedOreMatcher.OreTable ores) {
+        long start = System.nanoTime();
+        LevelChunkSection[] sections = chunk.getSections();
+        int[] counts = new int[ores.oreCount()];
+        int[] entries = OreHistogram.EMPTY;
+        for (int i = 0; i < sections.length; i++) {
+            if (isCandidate(sections[i], ores)) {
+                countSection(new PalettedSection(sections[i].getStates()), ores, counts);
+                entries = OreHistogram.appendSection(entries, counts, chunk.getSectionYFromSectionIndex(i));
+            }
+        }
+        HeatmapMetrics.CHUNKS_SCANNED.increment();
+        HeatmapMetrics.CHUNK_SCAN.recordSince(start);
+        return entries;
+    }
+
+    /**
+     * Counts tracked ores in a snapshot with the table it was captured with. Safe to call from any thread.
+     *
+     * @return histogram with ore ids indexing {@link ChunkSnapshot#ores()}
+     */
+    public static int[] scan(ChunkSnapshot snapshot) {
+        long start = System.nanoTime();
+        int[] counts = new int[snapshot.ores().oreCount()];
+        int[] entries = OreHistogram.EMPTY;
+        for (int i = 0; i < snapshot.sections().size(); i++) {
+            countSection(snapshot.sections().get(i), snapshot.ores(), counts);
+            entries = OreHistogram.appendSection(entries, counts, snapshot.sectionYs()[i]);
+        }
+        HeatmapMetrics.CHUNKS_SCANNED.increment();
+        HeatmapMetrics.CHUNK_SCAN.recordSince(start);
+        return entries;
+    }
+
+    /**
+     * Copies the candidate sections of a chunk. Must be called on the client thread.
+     */
+    public static ChunkSnapshot capture(String dimension, LevelChunk chunk, TrackedOreMatcher matcher) {
+        TrackedOreMatcher.OreTable ores = matcher.table();
+        LevelChunkSection[] sections = chunk.getSections();
+        List<ChunkSnapshot.Section> copies = new ArrayList<>();
+        int[] sectionYs = new int[sections.length];
+        for (int i = 0; i < sections.length; i++) {
+            if (isCandidate(sections[i], ores)) {
+                sectionYs[copies.size()] = chunk.getSectionYFromSectionIndex(i);
+                copies.add(new PalettedSection(sections[i].getStates().copy()));
+            }
+        }
+        return new ChunkSnapshot(dimension, chunk.getPos().toLong(), List.copyOf(copies),
+                Arrays.copyOf(sectionYs, copies.size()), ores);
+    }
+
+    /**
+     * Selects the candidate sections of a chunk given as block state tallies, e.g. one recorded in a
+     * session trace. The tallies are immutable, so they are shared rather than copied.
+     */
+    public static ChunkSnapshot capture(String dimension, long chunkPos, List<SectionStates> sections, TrackedOreMatcher.OreTable ores) {
+        List<ChunkSnapshot.Section> candidates = new ArrayList<>();
+        int[] sectionYs = new int[sections.size()];
+        for (SectionStates section : sections) {
+            if (section.maybeHas(ores)) {
+                sectionYs[candidates.size()] = section.sectionY();
+                candidates.add(section);
+            } else {
+                HeatmapMetrics.SECTIONS_SKIPPED.increment();
+            }
+        }
+        return new ChunkSnapshot(dimension, chunkPos, List.copyOf(candidates), Arrays.copyOf(sectionYs, candidates.size()), ores);
+    }
+
+    /**
+     * Tallies the block states of every section of a chunk that is not all air, for session traces.
+     * Must be called on the client thread.
+     */
+    public static List<SectionStates> blockStates(LevelChunk chunk) {
+        LevelChunkSection[] sections = chunk.getSections();
+        List<SectionStates> tallies = new ArrayList<>();
+        for (int i = 0; i < sections.length; i++) {
+            if (sections[i] == null || sections[i].hasOnlyAir()) {
+                continue;
+            }
+            Map<Integer, Integer> blocks = new LinkedHashMap<>();
+            sections[i].getStates().count((state, occurrences) -> blocks.merge(Block.BLOCK_STATE_REGISTRY.getId(state), occurrences, Integer::sum));
+            tallies.add(new SectionStates(chunk.getSectionYFromSectionIndex(i),
+                    blocks.keySet().stream().mapToInt(Integer::intValue).toArray(), blocks.values().stream().mapToInt(Integer::intValue).toArray()));
+        }
+        return tallies;
+    }
+
+    private static boolean isCandidate(LevelChunkSection section, TrackedOreMatcher.OreTable ores) {
+        if (section == null || section.hasOnlyAir()) {
+            return false;
+        }
+        if (!section.maybeHas(state -> ores.oreIndex(Block.BLOCK_STATE_REGISTRY.getId(state)) >= 0)) {
+            HeatmapMetrics.SECTIONS_SKIPPED.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Counts tracked ores in a section by tallying its palette entries,
+     * so each distinct block state is looked up once instead of once per block.
+     */
+    private static void countSection(ChunkSnapshot.Section section, TrackedOreMatcher.OreTable ores, int[] counts) {
+        HeatmapMetrics.SECTIONS_SCANNED.increment();
+        HeatmapMetrics.BLOCKS_EXAMINED.add(BLOCKS_PER_SECTION);
+        section.count((stateId, blocks) -> {
+            int ore = ores.oreIndex(stateId);
+            if (ore >= 0) {
+                counts[ore] += blocks;
+            }
+        });
+    }
+
+    /**
+     * A section's block states as kept by the game, tallied by {@code PalettedContainer.count}.
+     */
+    private record PalettedSection(PalettedContainer<BlockState> states) implements ChunkSnapshot.Section {
+
+        @Override
+        public void count(ChunkSnapshot.StateCounter counter) {
+            states.count((state, occurrences) -> counter.accept(Block.BLOCK_STATE_REGISTRY.getId(state), occurrences));
+        }
+    }
+}
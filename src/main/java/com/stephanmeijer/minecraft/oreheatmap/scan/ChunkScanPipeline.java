@@ -0,0 +1,149 @@
+package com.stephanmeijer.minecraft.oreheatmap.scan;
+
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import com.stephanmeijer.minecraft.oreheatmap.OreHeatmapMod;
+
+/**
+ * Counts ores from chunk snapshots on a small bounded worker pool.
+ * Results are queued and handed back to the client thread via {@link #drain},
+ * so the caller's data structures only ever see a single writer.
+ */
+public final class ChunkScanPipeline {
+
+    private static final int MAX_WORKERS = 4;
+    private static final int QUEUE_CAPACITY = 512;
+
+    /**
+     * Ore counts for one chunk, produced by a worker.
+     *
+     * @param histogram per-section counts with ore ids indexing {@code ores}, or null if the scan failed
+     */
+    public record Result(String dimension, long chunkPos, int[] histogram, TrackedOreMatcher.OreTable ores, int epoch) {
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final Queue<Result> completed = new ConcurrentLinkedQueue<>();
+
+    // Bumped on cancelAll; work stamped with an older epoch is discarded
+    private final AtomicInteger epoch = new AtomicInteger();
+    // Work for any other dimension is discarded before and after counting
+    private volatile String activeDimension;
+
+    public ChunkScanPipeline() {
+        int workers = Math.max(1, Math.min(MAX_WORKERS, Runtime.getRuntime().availableProcessors() / 2));
+        this.executor = new ThreadPoolExecutor(workers, workers, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY), new WorkerThreadFactory(),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Whether a snapshot submitted now would be accepted.
+     * Callers check this before capturing so full queues cost no copies.
+     */
+    public boolean hasCapacity() {
+        return executor.getQueue().remainingCapacity() > 0;
+    }
+
+    /**
+     * Queues a snapshot for counting.
+     *
+     * @return false if the queue is full and the caller should retry later
+     */
+    public boolean submit(ChunkSnapshot snapshot) {
+        try {
+            executor.execute(new ScanTask(snapshot, epoch.get()));
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Hands up to {@code maxResults} completed results of the current epoch to the sink; the rest
+     * stay queued for the next call. Call from the client thread.
+     *
+     * @return the number of results handed over
+     */
+    public int drain(int maxResults, Consumer<Result> sink) {
+        int current = epoch.get();
+        int drained = 0;
+        Result result;
+        while (drained < maxResults && (result = completed.poll()) != null) {
+            if (result.epoch() == current) {
+                sink.accept(result);
+                drained++;
+            }
+        }
+        return drained;
+    }
+
+    /**
+     * Drops queued work for dimensions other than the given one.
+     */
+    public void setActiveDimension(String dimension) {
+        activeDimension = dimension;
+        executor.getQueue().removeIf(task -> !((ScanTask) task).snapshot.dimension().equals(dimension));
+    }
+
+    /**
+     * Discards all queued, running and completed work, e.g. on world change or cache reset.
+     */
+    public void cancelAll() {
+        epoch.incrementAndGet();
+        executor.getQueue().clear();
+        completed.clear();
+    }
+
+    private boolean isStale(ScanTask task) {
+        return task.epoch != epoch.get() || !task.snapshot.dimension().equals(activeDimension);
+    }
+
+    private final class ScanTask implements Runnable {
+        private final ChunkSnapshot snapshot;
+        private final int epoch;
+
+        ScanTask(ChunkSnapshot snapshot, int epoch) {
+            this.snapshot = snapshot;
+            this.epoch = epoch;
+        }
+
+        @Override
+        public void run() {
+            if (isStale(this)) {
+                return;
+            }
+            int[] counts;
+            try {
+                counts = ChunkOreScanner.scan(snapshot);
+            } catch (RuntimeException e) {
+                OreHeatmapMod.LOGGER.error("Failed to scan chunk snapshot {}", snapshot.chunkPos(), e);
+                counts = null;
+            }
+            if (!isStale(this)) {
+                completed.add(new Result(snapshot.dimension(), snapshot.chunkPos(), counts, snapshot.ores(), epoch));
+            }
+        }
+    }
+
+    private static final class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "OreHeatmap-Scanner-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.stephanmeijer.minecraft.oreheatmap.scan;
+
+import java.util.List;
+
+/**
+ * Immutable copy of the chunk sections that may contain tracked ores,
+ * taken on the client thread so the ores can be counted on a worker thread.
+ *
+ * @param dimension dimension location string the chunk belongs to
+ * @param chunkPos  packed chunk position as returned by {@code ChunkPos.toLong()}
+ * @param sections  copied block states of the candidate sections only
+ * @param sectionYs section Y coordinate ({@code blockY >> 4}) of each copied section
+ * @param ores      ore table the sections were selected with, and counts are indexed by
+ */
+public record ChunkSnapshot(String dimension, long chunkPos, List<Section> sections,
+                            int[] sectionYs, TrackedOreMatcher.OreTable ores) {
+
+    /**
+     * The copied block states of one section.
+     */
+    @FunctionalInterface
+    public interface Section {
+
+        /**
+         * Passes each distinct block state of the section, by global block state ID, with the number
+         * of blocks in that state.
+         */
+        void count(StateCounter counter);
+    }
+
+    @FunctionalInterface
+    public interface StateCounter {
+        void accept(int stateId, int blocks);
+    }
+}
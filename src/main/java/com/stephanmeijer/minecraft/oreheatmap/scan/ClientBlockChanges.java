@@ -0,0 +1,39 @@
+package com.stephanmeijer.minecraft.oreheatmap.scan;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+
+/**
+ * Relays block changes in client-side chunks, reported by the {@code LevelChunk} mixin, to a listener.
+ * Covers single block updates, section update packets and blocks the player breaks or places.
+ * Whole chunks arriving from the server are not reported; they are scanned on load instead.
+ *
+ * <p>Kept free of JourneyMap types so the mixin is safe to apply when JourneyMap is absent.
+ */
+public final class ClientBlockChanges {
+
+    @FunctionalInterface
+    public interface Listener {
+        void blockChanged(LevelChunk chunk, BlockPos pos, BlockState previous, BlockState current);
+    }
+
+    private static volatile Listener listener;
+
+    private ClientBlockChanges() {
+    }
+
+    public static void setListener(Listener newListener) {
+        listener = newListener;
+    }
+
+    /**
+     * Called on the client thread after a block in a client chunk changed state.
+     */
+    public static void fire(LevelChunk chunk, BlockPos pos, BlockState previous, BlockState current) {
+        Listener target = listener;
+        if (target != null) {
+            target.blockChanged(chunk, pos, previous, current);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.stephanmeijer.minecraft.oreheatmap.scan;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.stephanmeijer.minecraft.oreheatmap.cache.DimensionCache;
+import com.stephanmeijer.minecraft.oreheatmap.cache.OreHistogram;
+import com.stephanmeijer.minecraft.oreheatmap.cache.WorldCache;
+
+/**
+ * Command-line entry point that builds the heatmap cache of a single-player world from its save
+ * files, so an existing world shows up on the map without flying over it first.
+ *
+ * <p>Scanned chunks replace what the cache held for them. The game must not have the world open
+ * while this runs, as both would write the same cache files.
+ *
+ * <p>Usage: {@code OfflineWorldScan <world directory> [--cache <cache directory>] [--ores <id,id,...>]
+ * [--threads <n>]}. The cache directory defaults to JourneyMap's, found from a world in
+ * {@code .minecraft/saves}. Tags cannot be resolved without the game, so {@code --ores} takes block
+ * IDs and defaults to {@link WorldSaveScanner#VANILLA_ORES}.
+ */
+public final class OfflineWorldScan {
+
+    private static final String USAGE = "Usage: OfflineWorldScan <world directory> [--cache <cache directory>] "
+            + "[--ores <id,id,...>] [--threads <n>]";
+
+    private OfflineWorldScan() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 0 || args[0].isEmpty()) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        Path world = Path.of(args[0]).toAbsolutePath().normalize();
+        Path cacheRoot = defaultCacheRoot(world);
+        List<String> ores = WorldSaveScanner.VANILLA_ORES;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--cache" -> cacheRoot = Path.of(value);
+                case "--ores" -> ores = Arrays.stream(value.split(",")).map(String::trim).filter(ore -> !ore.isEmpty()).toList();
+                case "--threads" -> threads = Math.max(1, Integer.parseInt(value));
+                default -> throw new IllegalArgumentException("Unknown option " + args[i] + "\n" + USAGE);
+            }
+        }
+        String worldId = WorldSaveScanner.localWorldId(world);
+        if (cacheRoot == null || worldId == null) {
+            System.err.println("Cannot tell where the cache goes - pass --cache\n" + USAGE);
+            System.exit(2);
+        }
+
+        Path cacheDirectory = cacheRoot.resolve(worldId);
+        System.out.printf(Locale.ROOT, "Scanning %s into %s with %d threads, %d ore blocks%n", world, cacheDirectory, threads, ores.size());
+        WorldCache worldCache = new WorldCache();
+        worldCache.open(cacheDirectory, null);
+        int[] oreIds = new int[ores.size()];
+        for (int i = 0; i < oreIds.length; i++) {
+            oreIds[i] = worldCache.ores().intern(ores.get(i));
+        }
+
+        // Workers queue what they find; this thread is the cache's only writer
+        Queue<Scanned> found = new ConcurrentLinkedQueue<>();
+        WorldSaveScanner.Summary summary;
+        try (WorldSaveScanner scanner = new WorldSaveScanner(ores, threads)) {
+            CompletableFuture<WorldSaveScanner.Summary> scan = scanner.scanAsync(world,
+                    (dimension, chunkPos, histogram) -> found.add(new Scanned(dimension, chunkPos, histogram)));
+            while (true) {
+                store(worldCache, found, oreIds);
+                try {
+                    summary = scan.get(100, TimeUnit.MILLISECONDS);
+                    break;
+                } catch (TimeoutException e) {
+                    // Keep storing while the workers run
+                } catch (ExecutionException e) {
+                    worldCache.close();
+                    throw new IOException("Scan failed", e.getCause());
+                }
+            }
+        }
+        store(worldCache, found, oreIds);
+        worldCache.save();
+        worldCache.close();
+
+        System.out.printf(Locale.ROOT, "Scanned %d dimensions, %d region files in %.1f s: %d chunks, %d with ores, "
+                        + "%d not fully generated, %d unreadable%n",
+                summary.dimensions(), summary.regions(), summary.elapsedNanos() / 1_000_000_000.0, summary.chunks(),
+                summary.chunksWithOres(), summary.chunksPending(), summary.chunksFailed());
+    }
+
+    private record Scanned(String dimension, long chunkPos, int[] histogram) {
+    }
+
+    private static void store(WorldCache worldCache, Queue<Scanned> found, int[] oreIds) {
+        Scanned scanned;
+        while ((scanned = found.poll()) != null) {
+            DimensionCache cache = worldCache.dimension(scanned.dimension());
+            int[] histogram = OreHistogram.remap(scanned.histogram(), oreIds);
+            cache.put(scanned.chunkPos(), OreHistogram.total(histogram), histogram);
+        }
+        // Journaled in the background as it goes, rather than all at once on save
+        worldCache.flushJournal();
+    }
+
+    /**
+     * JourneyMap's cache directory for a world in {@code .minecraft/saves/<world>}, or null.
+     */
+    private static Path defaultCacheRoot(Path world) {
+        Path saves = world.getParent();
+        if (saves == null || saves.getParent() == null || saves.getFileName() == null || !saves.getFileName().toString().equals("saves")) {
+            return null;
+        }
+        return saves.getParent().resolve("journeymap").resolve("ore_heatmap_cache");
+    }
+}
@@ -0,0 +1,66 @@
+package com.stephanmeijer.minecraft.oreheatmap.scan;
+
+import java.util.Arrays;
+
+/**
+ * The blocks of one chunk section as a tally: each distinct global block state ID with the number
+ * of blocks in that state. Everything a scan reads from a section, without Minecraft types, so
+ * session traces can record chunks and replay them headless.
+ *
+ * @param sectionY section Y coordinate ({@code blockY >> 4})
+ * @param stateIds distinct block state IDs of the section
+ * @param blocks   number of blocks in each state
+ */
+public record SectionStates(int sectionY, int[] stateIds, int[] blocks) implements ChunkSnapshot.Section {
+
+    @Override
+    public void count(ChunkSnapshot.StateCounter counter) {
+        for (int i = 0; i < stateIds.length; i++) {
+            if (blocks[i] > 0) {
+                counter.accept(stateIds[i], blocks[i]);
+            }
+        }
+    }
+
+    /**
+     * Whether any block of the section is in a tracked state, like {@code LevelChunkSection.maybeHas}.
+     */
+    public boolean maybeHas(TrackedOreMatcher.OreTable ores) {
+        for (int i = 0; i < stateIds.length; i++) {
+            if (blocks[i] > 0 && ores.oreIndex(stateIds[i]) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A copy with one block moved from one state to another, e.g. after a block change.
+     */
+    public SectionStates withChange(int previousStateId, int currentStateId) {
+        int[] ids = stateIds;
+        int[] counts = blocks.clone();
+        int previous = indexOf(ids, previousStateId);
+        if (previous >= 0 && counts[previous] > 0) {
+            counts[previous]--;
+        }
+        int current = indexOf(ids, currentStateId);
+        if (current < 0) {
+            current = ids.length;
+            ids = Arrays.copyOf(ids, ids.length + 1);
+            counts = Arrays.copyOf(counts, counts.length + 1);
+            ids[current] = currentStateId;
+        }
+        counts[current]++;
+        return new SectionStates(sectionY, ids, counts);
+    }
+
+    private static int indexOf(int[] ids, int stateId) {
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] == stateId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
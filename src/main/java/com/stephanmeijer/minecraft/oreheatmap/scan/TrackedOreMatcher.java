@@ -0,0 +1,123 @@
+package com.stephanmeijer.minecraft.oreheatmap.scan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.stephanmeijer.minecraft.oreheatmap.OreHeatmapMod;
+import net.minecraft.core.Holder;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.tags.TagKey;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.state.BlockState;
+
+/**
+ * Resolves the configured ore block IDs and tags into a table indexed by global block state ID,
+ * holding the {@link OreTable} index of each state's ore. Matching is a single array read, see
+ * {@link OreTable#oreIndex}, so it is allocation-free and safe from any thread.
+ * Must be rebuilt whenever the tracked ore list or the block tags change.
+ */
+public final class TrackedOreMatcher {
+
+    // Conventional per-ore tags, e.g. c:ores/diamond, name the group an ore block belongs to
+    private static final String ORE_GROUP_NAMESPACE = "c";
+    private static final String ORE_GROUP_PREFIX = "ores/";
+
+    /**
+     * The tracked ore blocks at one point in time. Scans record per-ore counts by index into
+     * {@link #ores}; keep the table a scan used to interpret its counts.
+     *
+     * @param ores   block ID of each ore index
+     * @param groups group name of each ore index, e.g. "diamond" for both diamond ore blocks
+     */
+    public record OreTable(short[] oreByState, String[] ores, String[] groups) {
+
+        public int oreCount() {
+            return ores.length;
+        }
+
+        /**
+         * Ore index of a block state, or -1 if it is not tracked.
+         */
+        public int oreIndex(int stateId) {
+            return stateId >= 0 && stateId < oreByState.length ? oreByState[stateId] : -1;
+        }
+    }
+
+    // Replaced wholesale by setTable; readers always see a complete table
+    private volatile OreTable table = new OreTable(new short[0], new String[0], new String[0]);
+
+    /**
+     * Resolves the tracked block IDs and tags against the block state registry.
+     */
+    public static OreTable resolve(Set<ResourceLocation> trackedBlocks, Set<TagKey<Block>> trackedTags) {
+        long start = System.nanoTime();
+        short[] oreByState = new short[Block.BLOCK_STATE_REGISTRY.size()];
+        Arrays.fill(oreByState, (short) -1);
+        Map<Block, Integer> oreIndices = new HashMap<>();
+        List<String> ores = new ArrayList<>();
+        List<String> groups = new ArrayList<>();
+        int matched = 0;
+
+        for (BlockState state : Block.BLOCK_STATE_REGISTRY) {
+            if (resolve(state, trackedBlocks, trackedTags)) {
+                int id = Block.BLOCK_STATE_REGISTRY.getId(state);
+                Integer ore = oreIndices.get(state.getBlock());
+                if (ore == null) {
+                    ore = ores.size();
+                    oreIndices.put(state.getBlock(), ore);
+                    ores.add(BuiltInRegistries.BLOCK.getKey(state.getBlock()).toString());
+                    groups.add(groupOf(state.getBlock()));
+                }
+                oreByState[id] = (short) (int) ore;
+                matched++;
+            }
+        }
+
+        OreHeatmapMod.LOGGER.info("Resolved {} tracked block states ({} ore blocks) out of {} in {} µs",
+                matched, ores.size(), Block.BLOCK_STATE_REGISTRY.size(), (System.nanoTime() - start) / 1000);
+        return new OreTable(oreByState, ores.toArray(new String[0]), groups.toArray(new String[0]));
+    }
+
+    /**
+     * Switches matching to a new table, e.g. after the tracked ore list or the block tags changed.
+     */
+    public void setTable(OreTable newTable) {
+        table = newTable;
+    }
+
+    public OreTable table() {
+        return table;
+    }
+
+    private static boolean resolve(BlockState state, Set<ResourceLocation> trackedBlocks, Set<TagKey<Block>> trackedTags) {
+        if (trackedBlocks.contains(BuiltInRegistries.BLOCK.getKey(state.getBlock()))) {
+            return true;
+        }
+        for (TagKey<Block> tag : trackedTags) {
+            if (state.is(tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Names the group of an ore block after its conventional {@code c:ores/<name>} tag,
+     * falling back to the block's own path for ores without one.
+     */
+    @SuppressWarnings("deprecation")
+    private static String groupOf(Block block) {
+        Holder<Block> holder = block.builtInRegistryHolder();
+        return holder.tags()
+                .map(TagKey::location)
+                .filter(tag -> tag.getNamespace().equals(ORE_GROUP_NAMESPACE) && tag.getPath().startsWith(ORE_GROUP_PREFIX))
+                .map(tag -> tag.getPath().substring(ORE_GROUP_PREFIX.length()))
+                .findFirst()
+                .orElseGet(() -> BuiltInRegistries.BLOCK.getKey(block).getPath());
+    }
+}
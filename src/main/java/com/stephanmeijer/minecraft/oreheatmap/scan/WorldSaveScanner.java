@@ -0,0 +1,315 @@
+package com.stephanmeijer.minecraft.oreheatmap.scan;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import com.stephanmeijer.minecraft.oreheatmap.OreHeatmapMod;
+import com.stephanmeijer.minecraft.oreheatmap.cache.RegionKeys;
+
+/**
+ * Counts tracked ores in the region files of a world save, without a running game.
+ *
+ * <p>Region files are memory-mapped and split into fork/join tasks of {@link #CHUNKS_PER_TASK}
+ * chunks, so all workers stay busy on worlds of any shape, from one huge region to thousands of
+ * sparse ones. Each worker decompresses and walks chunk NBT with its own buffers; see
+ * {@link AnvilRegionFile} and {@link AnvilChunkScanner}. Ores are matched by block ID, so tags
+ * must be resolved into block IDs by the caller.
+ *
+ * <p>Only fully generated chunks are counted. Damaged chunks, chunks compressed with LZ4 and
+ * chunks saved by versions before 1.18 that the game has not upgraded yet are skipped and counted
+ * in the {@link Summary}.
+ */
+public final class WorldSaveScanner implements AutoCloseable {
+
+    /**
+     * The vanilla blocks in {@code #c:ores}, for scans without the game's tags.
+     */
+    public static final List<String> VANILLA_ORES = List.of(
+            "minecraft:coal_ore", "minecraft:deepslate_coal_ore",
+            "minecraft:iron_ore", "minecraft:deepslate_iron_ore",
+            "minecraft:copper_ore", "minecraft:deepslate_copper_ore",
+            "minecraft:gold_ore", "minecraft:deepslate_gold_ore", "minecraft:nether_gold_ore",
+            "minecraft:redstone_ore", "minecraft:deepslate_redstone_ore",
+            "minecraft:emerald_ore", "minecraft:deepslate_emerald_ore",
+            "minecraft:lapis_ore", "minecraft:deepslate_lapis_ore",
+            "minecraft:diamond_ore", "minecraft:deepslate_diamond_ore",
+            "minecraft:nether_quartz_ore", "minecraft:ancient_debris");
+
+    private static final String REGION_DIRECTORY = "region";
+    private static final String CUSTOM_DIMENSIONS_DIRECTORY = "dimensions";
+    private static final int CHUNKS_PER_TASK = 128;
+
+    /**
+     * Receives every fully generated chunk, including those without tracked ores, so they can be
+     * recorded as scanned. Called concurrently from the worker threads.
+     */
+    @FunctionalInterface
+    public interface ChunkSink {
+        /**
+         * @param histogram per-section counts with ore ids indexing the scanner's ore list; empty if the
+         *                  chunk holds no tracked ores
+         */
+        void accept(String dimension, long chunkPos, int[] histogram);
+    }
+
+    /**
+     * What a scan went through.
+     *
+     * @param chunks        fully generated chunks counted
+     * @param chunksWithOres of those, the chunks holding tracked ores
+     * @param chunksPending chunks saved before they finished generating
+     * @param chunksFailed  damaged or unreadable chunks
+     */
+    public record Summary(int dimensions, int regions, long chunks, long chunksWithOres, long chunksPending,
+                          long chunksFailed, long elapsedNanos) {
+    }
+
+    private final List<String> ores;
+    private final ForkJoinPool pool;
+    private volatile boolean cancelled;
+
+    /**
+     * @param ores        block IDs to count; histogram ore ids index this list
+     * @param parallelism number of worker threads
+     */
+    public WorldSaveScanner(List<String> ores, int parallelism) {
+        this.ores = List.copyOf(ores);
+        this.pool = new ForkJoinPool(parallelism, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("OreHeatmap-SaveScanner-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+    }
+
+    /**
+     * Cache world id of a single-player world, from its save directory.
+     *
+     * @return null if the path has no directory name
+     */
+    public static String localWorldId(Path worldDirectory) {
+        Path fileName = worldDirectory.toAbsolutePath().normalize().getFileName();
+        if (fileName == null) {
+            return null;
+        }
+        return "local_" + fileName.toString().replaceAll("[^a-zA-Z0-9_()-]", "_");
+    }
+
+    /**
+     * Region directories of the dimensions saved in a world, by dimension key, overworld first.
+     */
+    public static Map<String, Path> findDimensions(Path worldDirectory) throws IOException {
+        Map<String, Path> dimensions = new LinkedHashMap<>();
+        addIfPresent(dimensions, "minecraft:overworld", worldDirectory.resolve(REGION_DIRECTORY));
+        addIfPresent(dimensions, "minecraft:the_nether", worldDirectory.resolve("DIM-1").resolve(REGION_DIRECTORY));
+        addIfPresent(dimensions, "minecraft:the_end", worldDirectory.resolve("DIM1").resolve(REGION_DIRECTORY));
+
+        // Other dimensions live in dimensions/<namespace>/<path>/region, where the path may nest
+        Path custom = worldDirectory.resolve(CUSTOM_DIMENSIONS_DIRECTORY);
+        if (Files.isDirectory(custom)) {
+            try (Stream<Path> paths = Files.walk(custom)) {
+                for (Path regionDirectory : paths.filter(path -> path.getFileName().toString().equals(REGION_DIRECTORY)
+                        && Files.isDirectory(path)).sorted().toList()) {
+                    Path relative = custom.relativize(regionDirectory.getParent());
+                    if (relative.getNameCount() < 2) {
+                        continue;
+                    }
+                    String namespace = relative.getName(0).toString();
+                    String path = relative.subpath(1, relative.getNameCount()).toString().replace('\\', '/');
+                    dimensions.putIfAbsent(namespace + ":" + path, regionDirectory);
+                }
+            }
+        }
+        return dimensions;
+    }
+
+    /**
+     * Scans every dimension of a world save, blocking until done.
+     */
+    public Summary scan(Path worldDirectory, ChunkSink sink) throws IOException {
+        long start = System.nanoTime();
+        Stats stats = new Stats();
+        Map<String, Path> dimensions = findDimensions(worldDirectory);
+        for (Map.Entry<String, Path> dimension : dimensions.entrySet()) {
+            if (cancelled) {
+                break;
+            }
+            List<Path> files = regionFiles(dimension.getValue());
+            if (!files.isEmpty()) {
+                pool.invoke(new RegionsTask(dimension.getKey(), files, 0, files.size(), sink, stats));
+            }
+            OreHeatmapMod.LOGGER.info("Scanned save files of {}: {} chunks so far", dimension.getKey(), stats.chunks.sum());
+        }
+        return new Summary(dimensions.size(), stats.regions.intValue(), stats.chunks.sum(), stats.chunksWithOres.sum(),
+                stats.chunksPending.sum(), stats.chunksFailed.sum(), System.nanoTime() - start);
+    }
+
+    /**
+     * Scans every dimension of a world save on the worker threads.
+     */
+    public CompletableFuture<Summary> scanAsync(Path worldDirectory, ChunkSink sink) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return scan(worldDirectory, sink);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, pool);
+    }
+
+    /**
+     * Stops a running scan after the chunks in hand; the sink may still receive a few.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    @Override
+    public void close() {
+        cancelled = true;
+        pool.shutdown();
+    }
+
+    private static void addIfPresent(Map<String, Path> dimensions, String dimension, Path regionDirectory) {
+        if (Files.isDirectory(regionDirectory)) {
+            dimensions.put(dimension, regionDirectory);
+        }
+    }
+
+    private static List<Path> regionFiles(Path regionDirectory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(regionDirectory, "r.*" + AnvilRegionFile.EXTENSION)) {
+            stream.forEach(files::add);
+        }
+        return files;
+    }
+
+    /**
+     * Totals shared by the tasks of one scan.
+     */
+    private static final class Stats {
+        private final LongAdder regions = new LongAdder();
+        private final LongAdder chunks = new LongAdder();
+        private final LongAdder chunksWithOres = new LongAdder();
+        private final LongAdder chunksPending = new LongAdder();
+        private final LongAdder chunksFailed = new LongAdder();
+    }
+
+    /**
+     * Splits a dimension's region files in halves down to single files.
+     */
+    private final class RegionsTask extends RecursiveAction {
+        private final String dimension;
+        private final List<Path> files;
+        private final int from;
+        private final int to;
+        private final ChunkSink sink;
+        private final Stats stats;
+
+        RegionsTask(String dimension, List<Path> files, int from, int to, ChunkSink sink, Stats stats) {
+            this.dimension = dimension;
+            this.files = files;
+            this.from = from;
+            this.to = to;
+            this.sink = sink;
+            this.stats = stats;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new RegionsTask(dimension, files, from, middle, sink, stats),
+                        new RegionsTask(dimension, files, middle, to, sink, stats));
+                return;
+            }
+            if (cancelled) {
+                return;
+            }
+            AnvilRegionFile region;
+            try {
+                region = AnvilRegionFile.open(files.get(from));
+            } catch (IOException e) {
+                OreHeatmapMod.LOGGER.warn("Skipping unreadable region file {}", files.get(from), e);
+                return;
+            }
+            if (region != null) {
+                stats.regions.increment();
+                new ChunksTask(dimension, region, 0, RegionKeys.CHUNKS_PER_REGION, sink, stats).compute();
+            }
+        }
+    }
+
+    /**
+     * Splits the chunks of one region down to {@link #CHUNKS_PER_TASK} and counts them.
+     */
+    private final class ChunksTask extends RecursiveAction {
+        private final String dimension;
+        private final AnvilRegionFile region;
+        private final int from;
+        private final int to;
+        private final ChunkSink sink;
+        private final Stats stats;
+
+        ChunksTask(String dimension, AnvilRegionFile region, int from, int to, ChunkSink sink, Stats stats) {
+            this.dimension = dimension;
+            this.region = region;
+            this.from = from;
+            this.to = to;
+            this.sink = sink;
+            this.stats = stats;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > CHUNKS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ChunksTask(dimension, region, from, middle, sink, stats),
+                        new ChunksTask(dimension, region, middle, to, sink, stats));
+                return;
+            }
+            AnvilChunkScanner scanner = new AnvilChunkScanner(ores);
+            try (AnvilRegionFile.Decoder decoder = new AnvilRegionFile.Decoder()) {
+                for (int index = from; index < to && !cancelled; index++) {
+                    if (region.hasChunk(index)) {
+                        scanChunk(scanner, decoder, index);
+                    }
+                }
+            }
+        }
+
+        private void scanChunk(AnvilChunkScanner scanner, AnvilRegionFile.Decoder decoder, int index) {
+            int[] histogram;
+            try {
+                int length = region.read(index, decoder);
+                // The decoder's buffer may have grown while reading
+                histogram = scanner.scan(decoder.buffer(), length);
+            } catch (IOException e) {
+                stats.chunksFailed.increment();
+                OreHeatmapMod.LOGGER.debug("Skipping chunk {} of {}: {}", index, region.path(), e.getMessage());
+                return;
+            }
+            if (histogram == null) {
+                stats.chunksPending.increment();
+                return;
+            }
+            stats.chunks.increment();
+            if (histogram.length > 0) {
+                stats.chunksWithOres.increment();
+            }
+            sink.accept(dimension, region.chunkPos(index), histogram);
+        }
+    }
+}
@@ -0,0 +1,521 @@
+package com.stephanmeijer.minecraft.oreheatmap.journeymap;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import com.stephanmeijer.minecraft.oreheatmap.OreHeatmapConfig;
+import com.stephanmeijer.minecraft.oreheatmap.cache.OreHistogram;
+import com.stephanmeijer.minecraft.oreheatmap.cache.WorldCache;
+import com.stephanmeijer.minecraft.oreheatmap.metrics.HeatmapMetrics;
+import com.stephanmeijer.minecraft.oreheatmap.scan.ChunkOreScanner;
+import com.stephanmeijer.minecraft.oreheatmap.scan.ChunkSnapshot;
+import com.stephanmeijer.minecraft.oreheatmap.scan.SectionStates;
+import com.stephanmeijer.minecraft.oreheatmap.scan.TrackedOreMatcher;
+import journeymap.api.v2.client.IClientAPI;
+import journeymap.api.v2.client.display.Context;
+import journeymap.api.v2.client.util.UIState;
+import net.minecraft.core.registries.Registries;
+import net.minecraft.network.chat.Component;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.tags.TagKey;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.Block;
+
+/**
+ * Replays a {@link SessionTrace} through a real {@link OreHeatmapOverlayManager} without a client:
+ * the recorded chunk loads, block changes, ticks and commands are fed to the manager, which scans
+ * the recorded blocks on its worker pipeline, defers captures and rescans within its tick budget and
+ * draws overlays against a JourneyMap API stub that answers with the recorded map states and drops
+ * every overlay.
+ *
+ * <p>Each run starts from a cache holding the chunks that were already cached when they loaded in
+ * the recording, in a temporary game directory. Ticks follow each other as fast as the manager
+ * handles them unless {@code --tick-millis} paces them, which leaves the scan workers less time per
+ * tick than in game. Tick latency is the manager's time per tick, including the chunk loads and
+ * block changes that arrived since the previous tick. The first runs warm up the JIT; the report
+ * covers the last.
+ *
+ * <p>Usage: {@code TraceReplay <trace> [--mode POLYGONS|IMAGE_TILES] [--normalization MAX|P95|LOG]
+ * [--opacity <0.1-1.0>] [--tick-budget <ms>] [--tick-millis <ms>] [--runs <n>]}
+ */
+public final class TraceReplay implements SessionTrace.Listener {
+
+    private static final String WORLD_ID = "replay";
+
+    private final ReplayClient client;
+    private final OreHeatmapOverlayManager manager;
+    private final long tickMillis;
+
+    private long[] tickNanos = new long[1024];
+    private int ticks;
+    private long currentTickNanos;
+    private boolean inTick;
+    private long nextTickAt;
+    private long chunkLoads;
+    private long blockChanges;
+
+    private TraceReplay(ReplayClient client, long tickMillis) {
+        this.client = client;
+        this.manager = new OreHeatmapOverlayManager(stubClientAPI(client::uiState), client);
+        this.tickMillis = tickMillis;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0 || args[0].isEmpty()) {
+            System.err.println("Usage: TraceReplay <trace> [--mode POLYGONS|IMAGE_TILES] [--normalization MAX|P95|LOG] "
+                    + "[--opacity <0.1-1.0>] [--tick-budget <ms>] [--tick-millis <ms>] [--runs <n>]");
+            System.exit(2);
+        }
+        Path trace = Path.of(args[0]);
+        Overrides overrides = new Overrides();
+        long tickMillis = 0;
+        int runs = 2;
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--mode" -> overrides.mode = OreHeatmapConfig.RenderMode.valueOf(value.toUpperCase(Locale.ROOT));
+                case "--normalization" -> overrides.normalization = OreHeatmapConfig.Normalization.valueOf(value.toUpperCase(Locale.ROOT));
+                case "--opacity" -> overrides.opacity = Double.parseDouble(value);
+                case "--tick-budget" -> overrides.tickBudgetMillis = Double.parseDouble(value);
+                case "--tick-millis" -> tickMillis = Long.parseLong(value);
+                case "--runs" -> runs = Math.max(1, Integer.parseInt(value));
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        System.out.printf(Locale.ROOT, "Replaying %s (%d KB), %d runs%n", trace, Files.size(trace) / 1024, runs);
+        for (int run = 1; run <= runs; run++) {
+            Path gameDirectory = Files.createTempDirectory("oreheatmap-replay");
+            try {
+                CacheSeed seed = CacheSeed.write(trace, gameDirectory.resolve("journeymap").resolve("ore_heatmap_cache").resolve(WORLD_ID));
+                if (seed.settings == null) {
+                    throw new IOException("Session trace has no settings: " + trace);
+                }
+                HeatmapMetrics.reset();
+                ReplayClient client = new ReplayClient(gameDirectory, overrides, seed.settings, seed.ores);
+                TraceReplay replay = new TraceReplay(client, tickMillis);
+                long start = System.nanoTime();
+                long records = SessionTrace.replay(trace, replay);
+                replay.endTick();
+                long elapsed = System.nanoTime() - start;
+                List<String> stats = replay.manager.statsReport();
+                long leaveStart = System.nanoTime();
+                replay.manager.leaveWorld();
+                long leaveNanos = System.nanoTime() - leaveStart;
+                if (run == runs) {
+                    replay.report(records, elapsed, seed.chunks, leaveNanos, stats);
+                } else {
+                    System.out.printf(Locale.ROOT, "Warm-up run %d: %.1f ms%n", run, elapsed / 1_000_000.0);
+                }
+            } finally {
+                deleteRecursively(gameDirectory);
+            }
+        }
+    }
+
+    @Override
+    public void settings(HeatmapClient.Settings settings) {
+        client.settings = client.overrides.apply(settings);
+    }
+
+    @Override
+    public void oreTable(TrackedOreMatcher.OreTable ores) {
+        client.ores = ores;
+        timed(manager::resolveTrackedOres);
+    }
+
+    @Override
+    public void dimension(String dimension) {
+        client.changeLevel(dimension);
+    }
+
+    @Override
+    public void mapState(Context.UI ui, SessionTrace.MapState state) {
+        client.mapStates.put(ui, state);
+    }
+
+    @Override
+    public void tick(int blockX, int blockY, int blockZ, int renderDistance) {
+        endTick();
+        if (tickMillis > 0) {
+            long wait = nextTickAt - System.nanoTime();
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            nextTickAt = System.nanoTime() + tickMillis * 1_000_000;
+        }
+        inTick = true;
+        client.player = new HeatmapClient.Player(client.dimension, blockX, blockY, blockZ);
+        client.renderDistance = renderDistance;
+        timed(client::runTasks);
+        timed(manager::tick);
+    }
+
+    @Override
+    public void chunkLoad(long chunkPos, List<SectionStates> sections, boolean cached) {
+        chunkLoads++;
+        client.chunks.put(chunkPos, sections);
+        timed(() -> manager.chunkLoaded(client.dimension, chunkPos));
+    }
+
+    @Override
+    public void chunkUnload(long chunkPos) {
+        client.chunks.remove(chunkPos);
+    }
+
+    @Override
+    public void blockChange(long chunkPos, int blockY, int previousStateId, int currentStateId) {
+        blockChanges++;
+        List<SectionStates> sections = client.chunks.get(chunkPos);
+        if (sections != null) {
+            client.chunks.put(chunkPos, withChange(sections, blockY >> 4, previousStateId, currentStateId));
+        }
+        timed(() -> manager.blockChanged(client.dimension, chunkPos, blockY, previousStateId, currentStateId));
+    }
+
+    @Override
+    public void cycleOreView() {
+        timed(manager::cycleOreView);
+    }
+
+    @Override
+    public void reset() {
+        timed(manager::resetCache);
+    }
+
+    private static List<SectionStates> withChange(List<SectionStates> sections, int sectionY, int previousStateId, int currentStateId) {
+        SectionStates[] changed = sections.toArray(new SectionStates[0]);
+        for (int i = 0; i < changed.length; i++) {
+            if (changed[i].sectionY() == sectionY) {
+                changed[i] = changed[i].withChange(previousStateId, currentStateId);
+                return List.of(changed);
+            }
+        }
+        // A section that was all air
+        SectionStates placed = new SectionStates(sectionY, new int[] {previousStateId}, new int[] {4096}).withChange(previousStateId, currentStateId);
+        SectionStates[] added = Arrays.copyOf(changed, changed.length + 1);
+        added[changed.length] = placed;
+        return List.of(added);
+    }
+
+    private void timed(Runnable call) {
+        long start = System.nanoTime();
+        call.run();
+        currentTickNanos += System.nanoTime() - start;
+    }
+
+    private void endTick() {
+        if (inTick) {
+            if (ticks == tickNanos.length) {
+                tickNanos = Arrays.copyOf(tickNanos, ticks * 2);
+            }
+            tickNanos[ticks++] = currentTickNanos;
+        }
+        currentTickNanos = 0;
+    }
+
+    private void report(long records, long elapsedNanos, int seededChunks, long leaveNanos, List<String> stats) {
+        double seconds = elapsedNanos / 1_000_000_000.0;
+        long[] sorted = Arrays.copyOf(tickNanos, ticks);
+        Arrays.sort(sorted);
+        long managerNanos = 0;
+        for (long nanos : sorted) {
+            managerNanos += nanos;
+        }
+        long churn = HeatmapMetrics.OVERLAYS_SHOWN.get() + HeatmapMetrics.OVERLAYS_UPDATED.get() + HeatmapMetrics.OVERLAYS_REMOVED.get();
+        long updates = HeatmapMetrics.OVERLAY_UPDATE.count();
+        System.out.printf(Locale.ROOT, "Replayed %d records in %.2f s (%.2f s in the manager): %d ticks, %d chunk loads, %d block changes, "
+                        + "%d chunks cached up front%n", records, seconds, managerNanos / 1_000_000_000.0, ticks, chunkLoads, blockChanges, seededChunks);
+        System.out.printf(Locale.ROOT, "Throughput: %.0f ticks/s, %.0f chunk loads/s, %d chunks scanned%n",
+                ticks / seconds, chunkLoads / seconds, HeatmapMetrics.CHUNKS_SCANNED.get());
+        System.out.printf(Locale.ROOT, "Tick latency: p50=%d µs p95=%d µs p99=%d µs max=%d µs%n",
+                percentile(sorted, 0.5) / 1000, percentile(sorted, 0.95) / 1000, percentile(sorted, 0.99) / 1000,
+                sorted.length == 0 ? 0 : sorted[sorted.length - 1] / 1000);
+        System.out.printf(Locale.ROOT, "Overlay churn: %d JourneyMap calls, %.1f per update over %d updates%n",
+                churn, updates == 0 ? 0.0 : churn / (double) updates, updates);
+        System.out.printf(Locale.ROOT, "Saving on leaving the world: %.1f ms%n", leaveNanos / 1_000_000.0);
+        for (String line : stats) {
+            System.out.println("  " + line);
+        }
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(fraction * sorted.length) - 1)];
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * An {@link IClientAPI} that answers with the given map states and otherwise accepts every
+     * call and does nothing: no overlays kept. Also drives the overlay benchmarks.
+     */
+    static IClientAPI stubClientAPI(Function<Context.UI, UIState> uiStates) {
+        return (IClientAPI) Proxy.newProxyInstance(TraceReplay.class.getClassLoader(), new Class<?>[] {IClientAPI.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("getUIState")) {
+                        return uiStates.apply((Context.UI) args[0]);
+                    }
+                    Class<?> type = method.getReturnType();
+                    if (type == boolean.class) {
+                        return false;
+                    }
+                    if (type == int.class) {
+                        return 0;
+                    }
+                    if (type == long.class) {
+                        return 0L;
+                    }
+                    if (type == float.class) {
+                        return 0.0f;
+                    }
+                    if (type == double.class) {
+                        return 0.0;
+                    }
+                    return method.getName().equals("toString") ? "StubClientAPI" : null;
+                });
+    }
+
+    /**
+     * Settings given on the command line, replacing the recorded ones.
+     */
+    private static final class Overrides {
+        private OreHeatmapConfig.RenderMode mode;
+        private OreHeatmapConfig.Normalization normalization;
+        private Double opacity;
+        private Double tickBudgetMillis;
+
+        HeatmapClient.Settings apply(HeatmapClient.Settings s) {
+            return new HeatmapClient.Settings(s.enabled(), tickBudgetMillis != null ? tickBudgetMillis : s.tickBudgetMillis(),
+                    s.updateIntervalTicks(), s.cacheMemoryMb(), normalization != null ? normalization : s.normalization(),
+                    mode != null ? mode : s.renderMode(), opacity != null ? opacity : s.overlayOpacity(), s.showOverlayInCaves(),
+                    s.yBandMode(), s.yBandHalfHeight(), s.rescanRadiusMultiplier(), s.trackedOres());
+        }
+    }
+
+    /**
+     * The recorded game: the player's level holds the chunks loaded so far, as recorded.
+     */
+    private static final class ReplayClient implements HeatmapClient {
+
+        private final Path gameDirectory;
+        private final Overrides overrides;
+        private final Map<Long, List<SectionStates>> chunks = new HashMap<>();
+        private final Map<Context.UI, SessionTrace.MapState> mapStates = new EnumMap<>(Context.UI.class);
+        private final Queue<Runnable> tasks = new ArrayDeque<>();
+        private Settings settings;
+        private TrackedOreMatcher.OreTable ores;
+        private String dimension;
+        private ResourceKey<Level> level;
+        private Player player;
+        private int renderDistance = 12;
+
+        ReplayClient(Path gameDirectory, Overrides overrides, Settings settings, TrackedOreMatcher.OreTable ores) {
+            this.gameDirectory = gameDirectory;
+            this.overrides = overrides;
+            this.settings = overrides.apply(settings);
+            this.ores = ores;
+            changeLevel("minecraft:overworld");
+        }
+
+        void changeLevel(String newDimension) {
+            dimension = newDimension;
+            level = ResourceKey.create(Registries.DIMENSION, ResourceLocation.parse(newDimension));
+            chunks.clear();
+        }
+
+        UIState uiState(Context.UI ui) {
+            SessionTrace.MapState state = mapStates.get(ui);
+            if (state == null) {
+                return null;
+            }
+            return new UIState(ui, state.active(), level, state.zoom(), state.mapType(), null, state.chunkY(), state.blockBounds(), null);
+        }
+
+        void runTasks() {
+            for (Runnable task = tasks.poll(); task != null; task = tasks.poll()) {
+                task.run();
+            }
+        }
+
+        @Override
+        public Settings settings() {
+            return settings;
+        }
+
+        @Override
+        public Path gameDirectory() {
+            return gameDirectory;
+        }
+
+        @Override
+        public String worldId() {
+            return WORLD_ID;
+        }
+
+        @Override
+        public Path localWorldPath() {
+            return null;
+        }
+
+        @Override
+        public Player player() {
+            return player;
+        }
+
+        @Override
+        public int renderDistance() {
+            return renderDistance;
+        }
+
+        @Override
+        public boolean hasChunk(int chunkX, int chunkZ) {
+            return chunks.containsKey(ChunkPos.asLong(chunkX, chunkZ));
+        }
+
+        @Override
+        public ChunkSnapshot capture(String captureDimension, long chunkPos, TrackedOreMatcher matcher) {
+            return ChunkOreScanner.capture(captureDimension, chunkPos, chunks.getOrDefault(chunkPos, List.of()), matcher.table());
+        }
+
+        @Override
+        public int[] scan(long chunkPos, TrackedOreMatcher.OreTable table) {
+            return ChunkOreScanner.scan(ChunkOreScanner.capture(dimension, chunkPos, chunks.getOrDefault(chunkPos, List.of()), table));
+        }
+
+        @Override
+        public List<SectionStates> blockStates(long chunkPos) {
+            return chunks.getOrDefault(chunkPos, List.of());
+        }
+
+        @Override
+        public TrackedOreMatcher.OreTable resolveOres(Set<ResourceLocation> trackedBlocks, Set<TagKey<Block>> trackedTags) {
+            return ores;
+        }
+
+        @Override
+        public void showMessage(Component message, boolean actionBar) {
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+    }
+
+    /**
+     * First pass over a trace: writes the chunks that were cached when they first loaded, before any
+     * reset, into a world cache, and picks up the settings and ore table the recording started with.
+     */
+    private static final class CacheSeed implements SessionTrace.Listener {
+
+        private final WorldCache cache = new WorldCache();
+        private final Set<String> seen = new HashSet<>();
+        private HeatmapClient.Settings settings;
+        private TrackedOreMatcher.OreTable ores;
+        private TrackedOreMatcher.OreTable current;
+        private String dimension = "minecraft:overworld";
+        private boolean reset;
+        private int chunks;
+
+        static CacheSeed write(Path trace, Path worldDirectory) throws IOException {
+            CacheSeed seed = new CacheSeed();
+            seed.cache.open(worldDirectory, null);
+            try {
+                SessionTrace.replay(trace, seed);
+                seed.cache.save();
+            } finally {
+                seed.cache.close();
+            }
+            return seed;
+        }
+
+        @Override
+        public void settings(HeatmapClient.Settings recorded) {
+            if (settings == null) {
+                settings = recorded;
+            }
+        }
+
+        @Override
+        public void oreTable(TrackedOreMatcher.OreTable table) {
+            if (ores == null) {
+                ores = table;
+            }
+            current = table;
+        }
+
+        @Override
+        public void dimension(String newDimension) {
+            dimension = newDimension;
+        }
+
+        @Override
+        public void mapState(Context.UI ui, SessionTrace.MapState state) {
+        }
+
+        @Override
+        public void tick(int blockX, int blockY, int blockZ, int renderDistance) {
+        }
+
+        @Override
+        public void chunkLoad(long chunkPos, List<SectionStates> sections, boolean cached) {
+            if (!seen.add(dimension + "/" + chunkPos) || !cached || reset || current == null) {
+                return;
+            }
+            int[] histogram = ChunkOreScanner.scan(ChunkOreScanner.capture(dimension, chunkPos, sections, current));
+            int[] oreIds = new int[current.oreCount()];
+            for (int i = 0; i < oreIds.length; i++) {
+                oreIds[i] = cache.ores().intern(current.ores()[i]);
+            }
+            cache.dimension(dimension).put(chunkPos, OreHistogram.total(histogram), OreHistogram.remap(histogram, oreIds));
+            chunks++;
+        }
+
+        @Override
+        public void chunkUnload(long chunkPos) {
+        }
+
+        @Override
+        public void blockChange(long chunkPos, int blockY, int previousStateId, int currentStateId) {
+        }
+
+        @Override
+        public void cycleOreView() {
+        }
+
+        @Override
+        public void reset() {
+            reset = true;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.stephanmeijer.minecraft.oreheatmap.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class CacheJournalTest {
+
+    // On-disk record types; kept literal so a change to the format shows up here
+    private static final int RECORD_DIMENSION = 1;
+    private static final int RECORD_ORE = 3;
+    private static final int RECORD_CHUNK_HISTOGRAM = 5;
+    // Chunk totals without a histogram, written by older versions
+    private static final int OLD_RECORD_CHUNK = 2;
+    private static final String OVERWORLD = "minecraft:overworld";
+    private static final String NETHER = "minecraft:the_nether";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void replaysWhatWasAppended() throws IOException {
+        OreIndex ores = new OreIndex();
+        int iron = ores.intern("minecraft:iron_ore");
+        int gold = ores.intern("minecraft:gold_ore");
+        CacheJournal journal = new CacheJournal(directory, ores, 3);
+        journal.append(List.of(
+                change(OVERWORLD, 1, 2, OreHistogram.entry(iron, 60, 5)),
+                change(NETHER, -7, 8, OreHistogram.entry(gold, 130, 2), OreHistogram.entry(gold, 131, 1))));
+        journal.append(List.of(change(OVERWORLD, 1, 3)));
+        journal.close();
+
+        // A fresh index numbers the ores differently; replay translates the ids
+        OreIndex replayOres = new OreIndex();
+        int replayGold = replayOres.intern("minecraft:gold_ore");
+        List<CacheJournal.Change> replayed = new ArrayList<>();
+        int next = CacheJournal.replayAll(directory, replayOres, collect(replayed));
+
+        assertEquals(4, next);
+        assertEquals(3, replayed.size());
+        int replayIron = replayOres.intern("minecraft:iron_ore");
+        assertChange(replayed.get(0), OVERWORLD, 1, 2, 5, OreHistogram.entry(replayIron, 60, 5));
+        assertChange(replayed.get(1), NETHER, -7, 8, 3, OreHistogram.entry(replayGold, 130, 2), OreHistogram.entry(replayGold, 131, 1));
+        assertChange(replayed.get(2), OVERWORLD, 1, 3, 0);
+    }
+
+    @Test
+    void keepsChunksWithoutAHistogramApart() throws IOException {
+        CacheJournal journal = new CacheJournal(directory, new OreIndex(), 0);
+        journal.append(List.of(
+                new CacheJournal.Change(OVERWORLD, ChunkCountStore.pack(0, 0), 37, null),
+                new CacheJournal.Change(OVERWORLD, ChunkCountStore.pack(0, 1), 0, OreHistogram.EMPTY)));
+        journal.close();
+
+        List<CacheJournal.Change> replayed = new ArrayList<>();
+        CacheJournal.replayAll(directory, new OreIndex(), collect(replayed));
+        assertEquals(37, replayed.get(0).count());
+        assertNull(replayed.get(0).histogram());
+        assertArrayEquals(OreHistogram.EMPTY, replayed.get(1).histogram());
+    }
+
+    @Test
+    void replaysJournalsInSequenceOrder() throws IOException {
+        OreIndex ores = new OreIndex();
+        CacheJournal journal = new CacheJournal(directory, ores, 9);
+        journal.append(List.of(change(OVERWORLD, 0, 0)));
+        journal.rotate();
+        journal.append(List.of(change(OVERWORLD, 0, 10)));
+        journal.close();
+
+        List<CacheJournal.Change> replayed = new ArrayList<>();
+        assertEquals(11, CacheJournal.replayAll(directory, new OreIndex(), collect(replayed)));
+        assertEquals(2, replayed.size());
+        assertEquals(0, ChunkCountStore.unpackZ(replayed.get(0).chunkPos()));
+        assertEquals(10, ChunkCountStore.unpackZ(replayed.get(1).chunkPos()));
+    }
+
+    @Test
+    void stopsAtATornTail() throws IOException {
+        OreIndex ores = new OreIndex();
+        int iron = ores.intern("minecraft:iron_ore");
+        CacheJournal journal = new CacheJournal(directory, ores, 0);
+        for (int z = 0; z < 3; z++) {
+            journal.append(List.of(change(OVERWORLD, 0, z, OreHistogram.entry(iron, 70, z + 1))));
+        }
+        journal.close();
+        Path file = directory.resolve("journal.0.log");
+        byte[] bytes = Files.readAllBytes(file);
+        for (int cut = 1; cut < 25; cut++) {
+            Files.write(file, Arrays.copyOf(bytes, bytes.length - cut));
+            List<CacheJournal.Change> replayed = new ArrayList<>();
+            assertEquals(1, CacheJournal.replayAll(directory, new OreIndex(), collect(replayed)));
+            assertEquals(2, replayed.size(), "cut " + cut);
+        }
+    }
+
+    @Test
+    void stopsAtAChecksumMismatch() throws IOException {
+        OreIndex ores = new OreIndex();
+        CacheJournal journal = new CacheJournal(directory, ores, 0);
+        journal.append(List.of(change(OVERWORLD, 0, 0)));
+        long secondRecord = Files.size(directory.resolve("journal.0.log"));
+        journal.append(List.of(change(OVERWORLD, 0, 1), change(OVERWORLD, 0, 2)));
+        journal.close();
+
+        Path file = directory.resolve("journal.0.log");
+        byte[] bytes = Files.readAllBytes(file);
+        // Flip a bit of the second record's count; the records after it are intact but not trusted
+        bytes[(int) secondRecord + 1 + 2 + 8 + 3] ^= 1;
+        Files.write(file, bytes);
+
+        List<CacheJournal.Change> replayed = new ArrayList<>();
+        CacheJournal.replayAll(directory, new OreIndex(), collect(replayed));
+        assertEquals(1, replayed.size());
+        assertEquals(0, ChunkCountStore.unpackZ(replayed.get(0).chunkPos()));
+    }
+
+    @Test
+    void stopsAtAnUndeclaredOre() throws IOException {
+        RecordWriter records = new RecordWriter();
+        records.name(RECORD_DIMENSION, 0, OVERWORLD);
+        records.name(RECORD_ORE, 0, "minecraft:coal_ore");
+        records.chunk(RECORD_CHUNK_HISTOGRAM, 0, ChunkCountStore.pack(0, 0), 4, OreHistogram.entry(0, 70, 4));
+        records.chunk(RECORD_CHUNK_HISTOGRAM, 0, ChunkCountStore.pack(0, 1), 4, OreHistogram.entry(1, 70, 4));
+        records.chunk(RECORD_CHUNK_HISTOGRAM, 0, ChunkCountStore.pack(0, 2), 4, OreHistogram.entry(0, 70, 4));
+        records.writeTo(directory.resolve("journal.0.log"));
+
+        List<CacheJournal.Change> replayed = new ArrayList<>();
+        CacheJournal.replayAll(directory, new OreIndex(), collect(replayed));
+        assertEquals(1, replayed.size());
+    }
+
+    @Test
+    void stopsAtAnUndeclaredDimension() throws IOException {
+        RecordWriter records = new RecordWriter();
+        records.name(RECORD_DIMENSION, 0, OVERWORLD);
+        records.chunk(RECORD_CHUNK_HISTOGRAM, 0, ChunkCountStore.pack(0, 0), 0);
+        records.chunk(RECORD_CHUNK_HISTOGRAM, 1, ChunkCountStore.pack(0, 1), 0);
+        records.writeTo(directory.resolve("journal.0.log"));
+
+        List<CacheJournal.Change> replayed = new ArrayList<>();
+        CacheJournal.replayAll(directory, new OreIndex(), collect(replayed));
+        assertEquals(1, replayed.size());
+    }
+
+    @Test
+    void stopsAtAnOlderRecordType() throws IOException {
+        RecordWriter records = new RecordWriter();
+        records.name(RECORD_DIMENSION, 4, NETHER);
+        records.name(RECORD_ORE, 0, "minecraft:nether_gold_ore");
+        records.chunk(RECORD_CHUNK_HISTOGRAM, 4, ChunkCountStore.pack(5, 6), 2, OreHistogram.entry(0, 40, 2));
+        records.chunk(OLD_RECORD_CHUNK, 4, ChunkCountStore.pack(5, 7), 12);
+        records.chunk(RECORD_CHUNK_HISTOGRAM, 4, ChunkCountStore.pack(5, 8), 2, OreHistogram.entry(0, 40, 2));
+        records.writeTo(directory.resolve("journal.2.log"));
+
+        List<CacheJournal.Change> replayed = new ArrayList<>();
+        assertEquals(3, CacheJournal.replayAll(directory, new OreIndex(), collect(replayed)));
+        assertEquals(1, replayed.size());
+        assertChange(replayed.get(0), NETHER, 5, 6, 2, OreHistogram.entry(0, 40, 2));
+    }
+
+    private static CacheJournal.Change change(String dimension, int chunkX, int chunkZ, int... histogram) {
+        return new CacheJournal.Change(dimension, ChunkCountStore.pack(chunkX, chunkZ), OreHistogram.total(histogram), histogram);
+    }
+
+    private static CacheJournal.ChangeSink collect(List<CacheJournal.Change> replayed) {
+        return (dimension, chunkPos, count, histogram) -> replayed.add(new CacheJournal.Change(dimension, chunkPos, count, histogram));
+    }
+
+    private static void assertChange(CacheJournal.Change change, String dimension, int chunkX, int chunkZ, int count, int... histogram) {
+        assertEquals(dimension, change.dimension());
+        assertEquals(chunkX, ChunkCountStore.unpackX(change.chunkPos()));
+        assertEquals(chunkZ, ChunkCountStore.unpackZ(change.chunkPos()));
+        assertEquals(count, change.count());
+        assertArrayEquals(histogram, change.histogram());
+    }
+
+    /**
+     * Writes raw journal records, including ones the journal never produces.
+     */
+    private static final class RecordWriter {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        void name(int type, int id, String name) throws IOException {
+            byte[] encoded = name.getBytes(StandardCharsets.UTF_8);
+            ByteArrayOutputStream record = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(record);
+            out.writeByte(type);
+            out.writeShort(id);
+            out.writeShort(encoded.length);
+            out.write(encoded);
+            finish(record);
+        }
+
+        void chunk(int type, int dimensionId, long chunkPos, int count, int... entries) throws IOException {
+            ByteArrayOutputStream record = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(record);
+            out.writeByte(type);
+            out.writeShort(dimensionId);
+            out.writeLong(chunkPos);
+            out.writeInt(count);
+            out.writeShort(entries.length);
+            for (int entry : entries) {
+                out.writeInt(entry);
+            }
+            finish(record);
+        }
+
+        void writeTo(Path file) throws IOException {
+            Files.write(file, bytes.toByteArray());
+        }
+
+        private void finish(ByteArrayOutputStream record) throws IOException {
+            byte[] body = record.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.write(body);
+            out.writeInt((int) crc.getValue());
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.stephanmeijer.minecraft.oreheatmap.cache;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CacheMergeTest {
+
+    private static final String OVERWORLD = "minecraft:overworld";
+    private static final String IRON = "minecraft:iron_ore";
+    private static final long SHARED = ChunkCountStore.pack(3, 4);
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    @TempDir
+    Path root;
+
+    @Test
+    void keepsTheTargetWhenItIsNotListed() throws IOException {
+        Path target = root.resolve("target");
+        Path source = root.resolve("source");
+        writeCache(target, Map.of(ChunkCountStore.pack(0, 0), 5, SHARED, 1), 0);
+        writeCache(source, Map.of(ChunkCountStore.pack(100, 0), 7, SHARED, 2), 0);
+
+        CacheMerge.Summary summary = CacheMerge.merge(List.of(source), null, target, CacheMerge.Policy.MAX);
+
+        assertEquals(3, summary.chunks());
+        assertEquals(1, summary.conflicts());
+        DimensionCache merged = open(target);
+        assertEquals(5, merged.count(ChunkCountStore.pack(0, 0)));
+        assertEquals(7, merged.count(ChunkCountStore.pack(100, 0)));
+        assertEquals(2, merged.count(SHARED));
+        // Only the merged generation is left
+        assertEquals(Map.of(WorldCache.fileBaseName(OVERWORLD), 1), WorldCache.newestGenerations(target));
+        assertFalse(Files.exists(WorldCache.filePath(target, OVERWORLD, 0)));
+    }
+
+    @Test
+    void newestGoesByFileTimesUnlessOverridden() throws IOException {
+        Path target = root.resolve("target");
+        Path source = root.resolve("source");
+        long now = System.currentTimeMillis();
+        writeCache(target, Map.of(SHARED, 1), now);
+        writeCache(source, Map.of(SHARED, 2), now - HOUR);
+
+        CacheMerge.merge(List.of(source, target), null, target, CacheMerge.Policy.NEWEST);
+        assertEquals(1, open(target).count(SHARED));
+
+        // The target's data is older than its file, e.g. rewritten by a save just before
+        CacheMerge.merge(List.of(source), null, target, CacheMerge.Policy.NEWEST,
+                Map.of(WorldCache.fileBaseName(OVERWORLD), now - 2 * HOUR));
+        assertEquals(2, open(target).count(SHARED));
+    }
+
+    @Test
+    void authoritativeSourceWins() throws IOException {
+        Path target = root.resolve("target");
+        Path server = root.resolve("server");
+        long now = System.currentTimeMillis();
+        writeCache(target, Map.of(SHARED, 9), now);
+        writeCache(server, Map.of(SHARED, 3), now - HOUR);
+
+        assertThrows(IllegalArgumentException.class, () -> CacheMerge.merge(List.of(server), null, target, CacheMerge.Policy.AUTHORITATIVE));
+        CacheMerge.merge(List.of(server), server, target, CacheMerge.Policy.AUTHORITATIVE);
+        assertEquals(3, open(target).count(SHARED));
+    }
+
+    @Test
+    void leavesDamagedTilesOut() throws IOException {
+        Path target = root.resolve("target");
+        Path source = root.resolve("source");
+        writeCache(target, Map.of(SHARED, 1), 0);
+        writeCache(source, Map.of(SHARED, 2, ChunkCountStore.pack(200, 0), 4), 0);
+        // Garble the end of the last tile in Z-order, the one of region 6,0
+        Path file = WorldCache.filePath(source, OVERWORLD, 0);
+        byte[] bytes = Files.readAllBytes(file);
+        for (int i = bytes.length - 20; i < bytes.length; i++) {
+            bytes[i] = (byte) 0xFF;
+        }
+        Files.write(file, bytes);
+
+        CacheMerge.merge(List.of(source), null, target, CacheMerge.Policy.MAX);
+        DimensionCache merged = open(target);
+        assertEquals(2, merged.count(SHARED));
+        assertFalse(merged.contains(ChunkCountStore.pack(200, 0)));
+    }
+
+    @Test
+    void importRunsOnTheWriterAndReopensTheCache() throws Exception {
+        Path local = root.resolve("local");
+        Path export = root.resolve("export");
+        long now = System.currentTimeMillis();
+        writeCache(export, Map.of(SHARED, 2), now - HOUR);
+        writeCache(local, Map.of(SHARED, 1), now - 2 * HOUR);
+
+        WorldCache cache = new WorldCache();
+        cache.open(local, null);
+        int iron = cache.ores().intern(IRON);
+        long recent = ChunkCountStore.pack(-1, -1);
+        // Unsaved change elsewhere; the save before the import rewrites the local file
+        cache.dimension(OVERWORLD).put(recent, 6, new int[] {OreHistogram.entry(iron, 130, 6)});
+
+        CompletableFuture<CacheMerge.Summary> done = cache.importFrom(export, null, CacheMerge.Policy.NEWEST);
+        assertTrue(cache.isImporting());
+        assertThrows(IllegalStateException.class, () -> cache.importFrom(export, null, CacheMerge.Policy.NEWEST));
+        // Recorded during the merge and replayed when the cache reopens
+        long during = ChunkCountStore.pack(-2, -2);
+        cache.dimension(OVERWORLD).put(during, 3, new int[] {OreHistogram.entry(iron, 130, 3)});
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!done.isDone() && System.nanoTime() < deadline) {
+            cache.flushJournal();
+            cache.pollCompletions();
+            Thread.sleep(5);
+        }
+
+        // The saved local chunks and the export's; the one put during the merge comes from the journal
+        assertEquals(2, done.get().chunks());
+        assertFalse(cache.isImporting());
+        DimensionCache reopened = cache.dimension(OVERWORLD);
+        // The export is newer than the local data, whatever the local file's time after the save
+        assertEquals(2, reopened.count(SHARED));
+        assertEquals(6, reopened.count(recent));
+        assertEquals(3, reopened.count(during));
+        cache.close();
+    }
+
+    /**
+     * Writes a one-dimension cache with the given iron counts, all in section index 130.
+     *
+     * @param modified file time in milliseconds, or 0 to leave it
+     */
+    private static void writeCache(Path directory, Map<Long, Integer> chunks, long modified) throws IOException {
+        Files.createDirectories(directory);
+        ChunkCountStore counts = new ChunkCountStore();
+        ChunkHistogramStore histograms = new ChunkHistogramStore();
+        chunks.forEach((chunkPos, count) -> {
+            counts.put(chunkPos, count);
+            histograms.put(chunkPos, new int[] {OreHistogram.entry(0, 130, count)});
+        });
+        List<RegionTileFile.Tile> tiles = chunks.keySet().stream().map(RegionKeys::regionOf).distinct()
+                .map(regionKey -> RegionTileFile.encodeTile(regionKey, counts, histograms, null)).toList();
+        Path path = WorldCache.filePath(directory, OVERWORLD, 0);
+        RegionTileFile.write(path, OVERWORLD, List.of(IRON), tiles);
+        if (modified != 0) {
+            Files.setLastModifiedTime(path, FileTime.fromMillis(modified));
+        }
+    }
+
+    private static DimensionCache open(Path directory) throws IOException {
+        WorldCache cache = new WorldCache();
+        cache.open(directory, null);
+        DimensionCache dimension = cache.dimension(OVERWORLD);
+        dimension.loadRegionsIn(-1000, -1000, 1000, 1000);
+        return dimension;
+    }
+}
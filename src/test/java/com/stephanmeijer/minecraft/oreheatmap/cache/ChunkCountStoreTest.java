@@ -0,0 +1,183 @@
+package com.stephanmeijer.minecraft.oreheatmap.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChunkCountStoreTest {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    @Test
+    void packRoundTripsNegativeCoordinates() {
+        long packed = ChunkCountStore.pack(-30_000_000, 29_999_999);
+        assertEquals(-30_000_000, ChunkCountStore.unpackX(packed));
+        assertEquals(29_999_999, ChunkCountStore.unpackZ(packed));
+    }
+
+    @Test
+    void putReturnsPreviousCount() {
+        ChunkCountStore store = new ChunkCountStore();
+        long chunk = ChunkCountStore.pack(3, -4);
+        assertEquals(-1, store.put(chunk, 7));
+        assertEquals(7, store.put(chunk, 0));
+        assertEquals(0, store.get(chunk, -1));
+        assertTrue(store.contains(chunk));
+        assertEquals(1, store.size());
+        assertEquals(42, store.get(ChunkCountStore.pack(4, -4), 42));
+    }
+
+    @Test
+    void randomOperationsMatchHashMap() {
+        Random random = new Random(1234);
+        ChunkCountStore store = new ChunkCountStore();
+        Map<Long, Integer> reference = new HashMap<>();
+        // A small key space, so probe chains collide, wrap and get shortened by removals
+        for (int i = 0; i < 200_000; i++) {
+            long chunk = ChunkCountStore.pack(random.nextInt(64) - 32, random.nextInt(64) - 32);
+            if (random.nextInt(3) == 0) {
+                store.remove(chunk);
+                reference.remove(chunk);
+            } else {
+                int count = random.nextInt(1000);
+                Integer previous = reference.put(chunk, count);
+                assertEquals(previous == null ? -1 : previous, store.put(chunk, count));
+            }
+            assertEquals(reference.size(), store.size());
+            assertEquals(reference.getOrDefault(chunk, -1), store.get(chunk, -1));
+        }
+        assertSameContents(reference, store);
+    }
+
+    @Test
+    void removeShiftsBackAcrossTheEndOfTheTable() {
+        // Keys whose home is the last slot wrap around to the start of the table
+        List<Long> lastSlot = keysWithHome(DEFAULT_CAPACITY - 1, 3);
+        List<Long> firstSlot = keysWithHome(0, 1);
+        ChunkCountStore store = new ChunkCountStore();
+        Map<Long, Integer> reference = new HashMap<>();
+        for (long chunk : lastSlot) {
+            store.put(chunk, reference.size() + 1);
+            reference.put(chunk, reference.size() + 1);
+        }
+        store.put(firstSlot.get(0), 99);
+        reference.put(firstSlot.get(0), 99);
+
+        for (long chunk : lastSlot) {
+            store.remove(chunk);
+            reference.remove(chunk);
+            assertSameContents(reference, store);
+        }
+        assertEquals(99, store.get(firstSlot.get(0), -1));
+        store.remove(firstSlot.get(0));
+        assertTrue(store.isEmpty());
+    }
+
+    @Test
+    void removeKeepsChainsThatStartBeforeTheGap() {
+        List<Long> sameHome = keysWithHome(5, 4);
+        ChunkCountStore store = new ChunkCountStore();
+        for (int i = 0; i < sameHome.size(); i++) {
+            store.put(sameHome.get(i), i);
+        }
+        store.remove(sameHome.get(1));
+        assertEquals(0, store.get(sameHome.get(0), -1));
+        assertFalse(store.contains(sameHome.get(1)));
+        assertEquals(2, store.get(sameHome.get(2), -1));
+        assertEquals(3, store.get(sameHome.get(3), -1));
+        assertEquals(3, store.size());
+    }
+
+    @Test
+    void growingKeepsEveryEntry() {
+        ChunkCountStore store = new ChunkCountStore();
+        Map<Long, Integer> reference = new HashMap<>();
+        for (int x = -150; x < 150; x++) {
+            for (int z = -150; z < 150; z++) {
+                long chunk = ChunkCountStore.pack(x, z);
+                store.put(chunk, x * 1000 + z + 200_000);
+                reference.put(chunk, x * 1000 + z + 200_000);
+            }
+        }
+        assertSameContents(reference, store);
+        assertEquals(150 * 1000 + 149 + 200_000 - 1000, store.max());
+
+        store.ensureCapacity(1_000_000);
+        assertSameContents(reference, store);
+
+        store.clear();
+        assertTrue(store.isEmpty());
+        assertEquals(-1, store.get(ChunkCountStore.pack(0, 0), -1));
+    }
+
+    @Test
+    void readersSeeStableEntriesWhileTheWriterResizes() throws Exception {
+        ChunkCountStore store = new ChunkCountStore();
+        long stable = ChunkCountStore.pack(12345, -678);
+        store.put(stable, 77);
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> failure = new AtomicReference<>();
+        List<Thread> readers = new ArrayList<>();
+        for (int t = 0; t < 3; t++) {
+            Thread reader = new Thread(() -> {
+                while (!done.get()) {
+                    int count = store.get(stable, -1);
+                    if (count != 77) {
+                        failure.compareAndSet(null, "Read " + count);
+                    }
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 20_000; i++) {
+                store.put(ChunkCountStore.pack(i, round), i);
+            }
+            for (int i = 0; i < 20_000; i++) {
+                store.remove(ChunkCountStore.pack(i, round));
+            }
+        }
+        done.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertNull(failure.get());
+        assertEquals(1, store.size());
+    }
+
+    private static void assertSameContents(Map<Long, Integer> reference, ChunkCountStore store) {
+        assertEquals(reference.size(), store.size());
+        for (Map.Entry<Long, Integer> entry : reference.entrySet()) {
+            assertEquals(entry.getValue(), store.get(entry.getKey(), -1));
+        }
+        Map<Long, Integer> visited = new HashMap<>();
+        store.forEach(visited::put);
+        assertEquals(reference, visited);
+    }
+
+    /**
+     * The first keys along x whose home slot in a table of the default capacity is {@code slot}.
+     */
+    private static List<Long> keysWithHome(int slot, int howMany) {
+        List<Long> keys = new ArrayList<>();
+        for (int x = 0; keys.size() < howMany; x++) {
+            long chunk = ChunkCountStore.pack(x, 0);
+            if ((ChunkCountStore.mix(chunk) & (DEFAULT_CAPACITY - 1)) == slot) {
+                keys.add(chunk);
+            }
+        }
+        return keys;
+    }
+}
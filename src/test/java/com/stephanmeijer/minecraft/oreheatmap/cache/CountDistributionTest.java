@@ -0,0 +1,132 @@
+package com.stephanmeijer.minecraft.oreheatmap.cache;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CountDistributionTest {
+
+    @Test
+    void emptyDistributionReportsZero() {
+        CountDistribution distribution = new CountDistribution();
+        assertEquals(0, distribution.size());
+        assertEquals(0, distribution.max());
+        assertEquals(0, distribution.quantile(0.95));
+    }
+
+    @Test
+    void countsBelowSixtyFourAreExact() {
+        CountDistribution distribution = new CountDistribution();
+        for (int count = 1; count < 64; count++) {
+            distribution.update(0, count);
+        }
+        assertEquals(63, distribution.size());
+        assertEquals(63, distribution.max());
+        for (int rank = 1; rank <= 63; rank++) {
+            assertEquals(rank, distribution.quantile(rank / 63.0));
+        }
+        assertEquals(1, distribution.quantile(0));
+    }
+
+    @Test
+    void largerCountsAreAtMostOneSixteenthHigh() {
+        for (int count = 64; count < 1 << 20; count++) {
+            assertReportedWithinBin(count);
+        }
+        Random random = new Random(7);
+        for (int i = 0; i < 100_000; i++) {
+            assertReportedWithinBin(64 + random.nextInt(Integer.MAX_VALUE - 64));
+        }
+        assertReportedWithinBin(Integer.MAX_VALUE);
+    }
+
+    @Test
+    void everyDoublingHasSixteenBins() {
+        for (int exponent = 6; exponent < 20; exponent++) {
+            Set<Integer> reported = new HashSet<>();
+            for (int count = 1 << exponent; count < 1 << (exponent + 1); count++) {
+                reported.add(reportedMax(count));
+            }
+            assertEquals(16, reported.size(), "2^" + exponent);
+            // Each bin reports its upper bound; the last one ends just before the next power of two
+            assertTrue(reported.contains((1 << (exponent + 1)) - 1));
+        }
+        // Bin edges right above the linear range are 4 wide
+        assertEquals(67, reportedMax(64));
+        assertEquals(71, reportedMax(68));
+        assertEquals(135, reportedMax(128));
+    }
+
+    @Test
+    void quantileWalksTheBinsInOrder() {
+        CountDistribution distribution = new CountDistribution();
+        for (int count = 1; count <= 100; count++) {
+            distribution.update(0, count);
+        }
+        // Rank 95 is 95, in the bin 92..95
+        assertEquals(95, distribution.quantile(0.95));
+        assertEquals(50, distribution.quantile(0.5));
+        assertEquals(103, distribution.quantile(1.0));
+        assertEquals(103, distribution.max());
+    }
+
+    @Test
+    void removingReversesInserting() {
+        Random random = new Random(99);
+        int[] chunks = new int[2000];
+        CountDistribution distribution = new CountDistribution();
+        for (int i = 0; i < 100_000; i++) {
+            int chunk = random.nextInt(chunks.length);
+            int count = random.nextInt(4) == 0 ? 0 : random.nextInt(1 << random.nextInt(16));
+            distribution.update(chunks[chunk], count);
+            chunks[chunk] = count;
+        }
+        CountDistribution rebuilt = new CountDistribution();
+        for (int count : chunks) {
+            rebuilt.update(0, count);
+        }
+        assertEquals(Arrays.stream(chunks).filter(count -> count > 0).count(), distribution.size());
+        assertEquals(rebuilt.size(), distribution.size());
+        assertEquals(rebuilt.max(), distribution.max());
+        for (double fraction = 0; fraction <= 1.0; fraction += 0.05) {
+            assertEquals(rebuilt.quantile(fraction), distribution.quantile(fraction));
+        }
+
+        for (int count : chunks) {
+            distribution.update(count, 0);
+        }
+        assertEquals(0, distribution.size());
+        assertEquals(0, distribution.max());
+        assertEquals(0, distribution.quantile(0.5));
+    }
+
+    @Test
+    void nonPositiveCountsAreNotRecorded() {
+        CountDistribution distribution = new CountDistribution();
+        distribution.update(0, 0);
+        distribution.update(-1, -5);
+        assertEquals(0, distribution.size());
+        distribution.update(-1, 3);
+        distribution.update(3, 3);
+        assertEquals(1, distribution.size());
+        assertEquals(3, distribution.max());
+    }
+
+    private static void assertReportedWithinBin(int count) {
+        int reported = reportedMax(count);
+        assertTrue(reported >= count, () -> count + " reported as " + reported);
+        assertTrue(reported - count <= count / 16, () -> count + " reported as " + reported);
+    }
+
+    private static int reportedMax(int count) {
+        CountDistribution distribution = new CountDistribution();
+        distribution.update(0, count);
+        return distribution.max();
+    }
+}
@@ -0,0 +1,67 @@
+package com.stephanmeijer.minecraft.oreheatmap.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class DimensionCacheTest {
+
+    private static final String OVERWORLD = "minecraft:overworld";
+
+    @Test
+    void visitsOnlyChunksInsideTheArea() {
+        Random random = new Random(7);
+        DimensionCache cache = new DimensionCache(OVERWORLD);
+        Map<Long, Integer> all = new HashMap<>();
+        for (int i = 0; i < 2000; i++) {
+            int chunkX = random.nextInt(200) - 100;
+            int chunkZ = random.nextInt(200) - 100;
+            int count = 1 + random.nextInt(50);
+            put(cache, chunkX, chunkZ, count);
+            all.put(ChunkCountStore.pack(chunkX, chunkZ), count);
+        }
+
+        // Spans region borders on both axes, on both sides of the origin
+        int minX = -40;
+        int minZ = -7;
+        int maxX = 33;
+        int maxZ = 70;
+        Map<Long, Integer> expected = new HashMap<>();
+        all.forEach((chunkPos, count) -> {
+            int x = ChunkCountStore.unpackX(chunkPos);
+            int z = ChunkCountStore.unpackZ(chunkPos);
+            if (x >= minX && x <= maxX && z >= minZ && z <= maxZ) {
+                expected.put(chunkPos, count);
+            }
+        });
+        Map<Long, Integer> visited = new HashMap<>();
+        cache.forEachInArea(minX, minZ, maxX, maxZ, (chunkPos, count) ->
+                assertNull(visited.put(chunkPos, count), "visited twice"));
+
+        assertEquals(expected, visited);
+    }
+
+    @Test
+    void coversLargeSparseAreas() {
+        DimensionCache cache = new DimensionCache(OVERWORLD);
+        put(cache, 5, 5, 3);
+        put(cache, 100_000, 100_000, 4);
+
+        Map<Long, Integer> visited = new HashMap<>();
+        cache.forEachInArea(-1000, -1000, 1000, 1000, visited::put);
+        assertEquals(Map.of(ChunkCountStore.pack(5, 5), 3), visited);
+
+        visited.clear();
+        cache.forEachInArea(100_000, 100_000, 100_000, 100_000, visited::put);
+        assertEquals(Map.of(ChunkCountStore.pack(100_000, 100_000), 4), visited);
+    }
+
+    private static void put(DimensionCache cache, int chunkX, int chunkZ, int count) {
+        cache.put(ChunkCountStore.pack(chunkX, chunkZ), count, null);
+    }
+}
@@ -0,0 +1,85 @@
+package com.stephanmeijer.minecraft.oreheatmap.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HeatPyramidTest {
+
+    private record Cell(int cellX, int cellZ, int oreSum, int chunkCount) {
+    }
+
+    @Test
+    void sumsChunksIntoEveryLevel() {
+        HeatPyramid pyramid = new HeatPyramid();
+        pyramid.update(ChunkCountStore.pack(0, 0), -1, 3);
+        pyramid.update(ChunkCountStore.pack(1, 1), -1, 4);
+        pyramid.update(ChunkCountStore.pack(2, 0), -1, 5);
+
+        assertEquals(List.of(new Cell(0, 0, 7, 2), new Cell(1, 0, 5, 1)), cells(pyramid, 1, 0, 0, 1, 1));
+        assertEquals(List.of(new Cell(0, 0, 12, 3)), cells(pyramid, 2, 0, 0, 0, 0));
+        assertEquals(List.of(new Cell(0, 0, 12, 3)), cells(pyramid, HeatPyramid.MAX_LEVEL, 0, 0, 0, 0));
+    }
+
+    @Test
+    void rescansApplyTheDeltaWithoutCountingTheChunkAgain() {
+        HeatPyramid pyramid = new HeatPyramid();
+        long chunk = ChunkCountStore.pack(5, 6);
+        pyramid.update(chunk, -1, 10);
+        pyramid.update(chunk, 10, 2);
+
+        assertEquals(List.of(new Cell(1, 1, 2, 1)), cells(pyramid, 2, 0, 0, 3, 3));
+    }
+
+    @Test
+    void chunksWithoutOresStillCountAsScanned() {
+        HeatPyramid pyramid = new HeatPyramid();
+        pyramid.update(ChunkCountStore.pack(0, 0), -1, 0);
+        pyramid.update(ChunkCountStore.pack(1, 0), -1, 6);
+
+        assertEquals(List.of(new Cell(0, 0, 6, 2)), cells(pyramid, 1, 0, 0, 0, 0));
+    }
+
+    @Test
+    void negativeChunksLandInNegativeCells() {
+        HeatPyramid pyramid = new HeatPyramid();
+        pyramid.update(ChunkCountStore.pack(-1, -3), -1, 8);
+
+        assertEquals(List.of(new Cell(-1, -2, 8, 1)), cells(pyramid, 1, -1, -2, 0, 0));
+        assertEquals(List.of(new Cell(-1, -1, 8, 1)), cells(pyramid, 2, -1, -1, -1, -1));
+    }
+
+    @Test
+    void onlyVisitsCellsInsideTheRange() {
+        HeatPyramid pyramid = new HeatPyramid();
+        pyramid.update(ChunkCountStore.pack(0, 0), -1, 1);
+        pyramid.update(ChunkCountStore.pack(40, 0), -1, 1);
+
+        assertEquals(List.of(new Cell(0, 0, 1, 1)), cells(pyramid, 1, 0, 0, 10, 10));
+        assertTrue(cells(pyramid, 1, 1, 1, 30, 30).isEmpty());
+    }
+
+    @Test
+    void clearingARegionLeavesItsNeighboursAlone() {
+        HeatPyramid pyramid = new HeatPyramid();
+        pyramid.update(ChunkCountStore.pack(3, 3), -1, 4);
+        pyramid.update(ChunkCountStore.pack(RegionKeys.REGION_SIZE, 3), -1, 9);
+
+        pyramid.clearRegion(ChunkCountStore.pack(0, 0));
+
+        assertTrue(cells(pyramid, 1, 0, 0, 15, 15).isEmpty());
+        assertTrue(cells(pyramid, HeatPyramid.MAX_LEVEL, 0, 0, 0, 0).isEmpty());
+        assertEquals(List.of(new Cell(1, 0, 9, 1)), cells(pyramid, HeatPyramid.MAX_LEVEL, 0, 0, 1, 0));
+    }
+
+    private static List<Cell> cells(HeatPyramid pyramid, int level, int fromX, int fromZ, int toX, int toZ) {
+        List<Cell> cells = new ArrayList<>();
+        pyramid.forEachInRange(level, fromX, fromZ, toX, toZ,
+                (cellX, cellZ, oreSum, chunkCount) -> cells.add(new Cell(cellX, cellZ, oreSum, chunkCount)));
+        return cells;
+    }
+}
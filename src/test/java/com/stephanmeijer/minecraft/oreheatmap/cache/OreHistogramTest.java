@@ -0,0 +1,130 @@
+package com.stephanmeijer.minecraft.oreheatmap.cache;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class OreHistogramTest {
+
+    private static final int IRON = 0;
+    private static final int GOLD = 1;
+    private static final int DIAMOND = 2;
+
+    @Test
+    void entryFieldsRoundTrip() {
+        int entry = OreHistogram.entry(OreHistogram.MAX_ORE_ID, 255, 4096);
+        assertEquals(OreHistogram.MAX_ORE_ID, OreHistogram.oreId(entry));
+        assertEquals(255, OreHistogram.section(entry));
+        assertEquals(4096, OreHistogram.count(entry));
+    }
+
+    @Test
+    void sectionIndexClampsToTheStoredRange() {
+        assertEquals(128, OreHistogram.sectionIndex(0));
+        assertEquals(124, OreHistogram.sectionIndex(-4));
+        assertEquals(1, OreHistogram.sectionIndex(-127));
+        assertEquals(0, OreHistogram.sectionIndex(-500));
+        assertEquals(255, OreHistogram.sectionIndex(500));
+    }
+
+    @Test
+    void rangeSumMatchesDirectSums() {
+        Random random = new Random(42);
+        for (int round = 0; round < 500; round++) {
+            int[] entries = randomHistogram(random);
+            boolean[] included = random.nextBoolean() ? null : new boolean[] {random.nextBoolean(), random.nextBoolean(), true};
+            int[] prefix = OreHistogram.prefixSums(entries, included);
+            for (int i = 0; i < 20; i++) {
+                int from = 100 + random.nextInt(60);
+                int to = from + random.nextInt(30) - 5;
+                assertEquals(directSum(entries, included, from, to), OreHistogram.rangeSum(prefix, from, to),
+                        () -> "range " + from + ".." + to);
+            }
+        }
+    }
+
+    @Test
+    void rangeSumIncludesBothEnds() {
+        int[] entries = {
+            OreHistogram.entry(IRON, 120, 1),
+            OreHistogram.entry(IRON, 121, 10),
+            OreHistogram.entry(IRON, 125, 100),
+            OreHistogram.entry(GOLD, 125, 1000),
+        };
+        int[] prefix = OreHistogram.prefixSums(entries, null);
+        assertEquals(120, prefix[0]);
+        assertEquals(1111, OreHistogram.rangeSum(prefix, 120, 125));
+        assertEquals(1, OreHistogram.rangeSum(prefix, 120, 120));
+        assertEquals(1100, OreHistogram.rangeSum(prefix, 125, 125));
+        assertEquals(11, OreHistogram.rangeSum(prefix, 0, 124));
+        assertEquals(1110, OreHistogram.rangeSum(prefix, 121, 255));
+        assertEquals(0, OreHistogram.rangeSum(prefix, 122, 124));
+        assertEquals(0, OreHistogram.rangeSum(prefix, 126, 200));
+        assertEquals(0, OreHistogram.rangeSum(prefix, 1, 119));
+        assertEquals(0, OreHistogram.rangeSum(prefix, 125, 120));
+    }
+
+    @Test
+    void prefixSumsSkipUnselectedOres() {
+        int[] entries = {
+            OreHistogram.entry(IRON, 110, 5),
+            OreHistogram.entry(DIAMOND, 140, 2),
+        };
+        int[] prefix = OreHistogram.prefixSums(entries, new boolean[] {false, false, true});
+        assertEquals(140, prefix[0]);
+        assertEquals(2, OreHistogram.rangeSum(prefix, 0, 255));
+        assertArrayEquals(OreHistogram.EMPTY, OreHistogram.prefixSums(entries, new boolean[] {false, true}));
+    }
+
+    @Test
+    void addKeepsSectionsApart() {
+        int[] entries = {OreHistogram.entry(IRON, 120, 3)};
+        int[] placed = OreHistogram.add(entries, IRON, 130, 1);
+        assertArrayEquals(new int[] {OreHistogram.entry(IRON, 120, 3), OreHistogram.entry(IRON, 130, 1)}, placed);
+
+        int[] mined = OreHistogram.add(placed, IRON, 130, -1);
+        assertArrayEquals(entries, mined);
+        // Nothing to take from in another section
+        assertSame(mined, OreHistogram.add(mined, IRON, 125, -1));
+        assertSame(mined, OreHistogram.add(mined, GOLD, 120, -1));
+    }
+
+    @Test
+    void sortTreatsHighOreIdsAsUnsigned() {
+        int[] entries = {
+            OreHistogram.entry(OreHistogram.MAX_ORE_ID, 130, 1),
+            OreHistogram.entry(IRON, 130, 1),
+            OreHistogram.entry(OreHistogram.MAX_ORE_ID / 2 + 1, 130, 1),
+        };
+        OreHistogram.sort(entries);
+        assertEquals(IRON, OreHistogram.oreId(entries[0]));
+        assertEquals(OreHistogram.MAX_ORE_ID / 2 + 1, OreHistogram.oreId(entries[1]));
+        assertEquals(OreHistogram.MAX_ORE_ID, OreHistogram.oreId(entries[2]));
+    }
+
+    private static int[] randomHistogram(Random random) {
+        int[] entries = new int[random.nextInt(12)];
+        for (int i = 0; i < entries.length; i++) {
+            int section = 110 + random.nextInt(40);
+            entries[i] = OreHistogram.entry(random.nextInt(3), section, 1 + random.nextInt(200));
+        }
+        OreHistogram.sort(entries);
+        return entries;
+    }
+
+    private static int directSum(int[] entries, boolean[] included, int from, int to) {
+        int sum = 0;
+        for (int entry : entries) {
+            int section = OreHistogram.section(entry);
+            boolean selected = included == null || included[OreHistogram.oreId(entry)];
+            if (selected && section >= from && section <= to) {
+                sum += OreHistogram.count(entry);
+            }
+        }
+        return sum;
+    }
+}
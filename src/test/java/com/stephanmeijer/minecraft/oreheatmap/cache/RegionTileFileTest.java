@@ -0,0 +1,380 @@
+package com.stephanmeijer.minecraft.oreheatmap.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RegionTileFileTest {
+
+    private static final int MAGIC = 0x4F484D43;
+    private static final int VERSION = 6;
+    private static final int BITMAP_LONGS = RegionKeys.CHUNKS_PER_REGION / Long.SIZE;
+    private static final String DIMENSION = "minecraft:overworld";
+    private static final List<String> ORES = List.of("minecraft:coal_ore", "minecraft:iron_ore", "minecraft:diamond_ore");
+    private static final int[] IDENTITY = {0, 1, 2};
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void currentFormatRoundTrips() throws IOException {
+        Random random = new Random(5);
+        ChunkCountStore counts = new ChunkCountStore();
+        ChunkHistogramStore histograms = new ChunkHistogramStore();
+        Map<Long, long[]> empty = new TreeMap<>();
+        List<Long> regions = List.of(ChunkCountStore.pack(0, 0), ChunkCountStore.pack(-1, 2), ChunkCountStore.pack(40, -33));
+        for (long regionKey : regions) {
+            long[] emptyBits = new long[BITMAP_LONGS];
+            for (int localIndex = 0; localIndex < RegionKeys.CHUNKS_PER_REGION; localIndex++) {
+                long chunkPos = RegionKeys.chunkAt(regionKey, localIndex);
+                int kind = random.nextInt(4);
+                if (kind == 0) {
+                    emptyBits[localIndex >>> 6] |= 1L << localIndex;
+                } else if (kind > 1) {
+                    int[] histogram = randomHistogram(random);
+                    // Counts past 127 and 16383 need multi-byte varints
+                    counts.put(chunkPos, kind == 3 ? 300_000 + random.nextInt(1000) : OreHistogram.total(histogram));
+                    histograms.put(chunkPos, histogram);
+                }
+            }
+            empty.put(regionKey, emptyBits);
+        }
+        // A chunk with a count but no histogram reads back without one
+        long noHistogram = RegionKeys.chunkAt(regions.get(0), 1023);
+        counts.put(noHistogram, 9);
+        histograms.remove(noHistogram);
+
+        List<RegionTileFile.Tile> tiles = new ArrayList<>();
+        for (long regionKey : regions) {
+            tiles.add(RegionTileFile.encodeTile(regionKey, counts, histograms, empty.get(regionKey)));
+        }
+        Path path = directory.resolve("overworld" + RegionTileFile.EXTENSION);
+        RegionTileFile.write(path, DIMENSION, ORES, tiles);
+
+        RegionTileFile file = RegionTileFile.open(path);
+        assertEquals(DIMENSION, file.dimension());
+        assertEquals(ORES, file.oreNames());
+        assertEquals(new HashSet<>(regions), file.regions());
+        for (long regionKey : regions) {
+            assertRegionMatches(file, regionKey, counts, histograms, empty.get(regionKey));
+        }
+        assertNull(readRegion(file, regions.get(0), IDENTITY).histograms.get(noHistogram));
+        assertFalse(file.hasRegion(ChunkCountStore.pack(1, 1)));
+        assertEquals(0, file.readTile(ChunkCountStore.pack(1, 1), new ChunkCountStore(), new ChunkHistogramStore(), IDENTITY, null));
+    }
+
+    @Test
+    void tilesAreStoredInZOrder() throws IOException {
+        List<Long> regions = new ArrayList<>();
+        for (int x = -4; x < 4; x++) {
+            for (int z = -4; z < 4; z++) {
+                regions.add(ChunkCountStore.pack(x, z));
+            }
+        }
+        Collections.shuffle(regions, new Random(3));
+        List<RegionTileFile.Tile> tiles = new ArrayList<>();
+        for (long regionKey : regions) {
+            tiles.add(singleChunkTile(regionKey, 1));
+        }
+        Path path = directory.resolve("zorder" + RegionTileFile.EXTENSION);
+        RegionTileFile.write(path, DIMENSION, ORES, tiles);
+
+        List<long[]> index = readIndex(path);
+        assertEquals(regions.size(), index.size());
+        for (int i = 1; i < index.size(); i++) {
+            assertTrue(RegionKeys.compareZOrder(index.get(i - 1)[0], index.get(i)[0]) < 0);
+            // Payloads follow each other in index order
+            assertEquals(index.get(i - 1)[1] + index.get(i - 1)[2], index.get(i)[1]);
+        }
+    }
+
+    @Test
+    void streamedWriteCopiesTileViews() throws IOException {
+        Path original = directory.resolve("original" + RegionTileFile.EXTENSION);
+        List<RegionTileFile.Tile> tiles = List.of(singleChunkTile(ChunkCountStore.pack(2, 2), 17), singleChunkTile(ChunkCountStore.pack(3, 2), 5));
+        RegionTileFile.write(original, DIMENSION, ORES, tiles);
+        RegionTileFile source = RegionTileFile.open(original);
+
+        // Fewer tiles than reserved leaves a gap in the index that readers skip
+        Path copy = directory.resolve("copy" + RegionTileFile.EXTENSION);
+        List<RegionTileFile.Tile> views = List.of(source.tileView(ChunkCountStore.pack(2, 2)), source.tileView(ChunkCountStore.pack(3, 2)));
+        RegionTileFile.write(copy, DIMENSION, ORES, 10, views.iterator());
+
+        RegionTileFile file = RegionTileFile.open(copy);
+        assertEquals(source.regions(), file.regions());
+        assertEquals(17, file.maxCount(ChunkCountStore.pack(2, 2)));
+        assertEquals(1, file.chunkCount(ChunkCountStore.pack(2, 2)));
+        assertEquals(17, readRegion(file, ChunkCountStore.pack(2, 2), IDENTITY).counts.get(RegionKeys.chunkAt(ChunkCountStore.pack(2, 2), 7), -1));
+        assertThrows(IOException.class, () -> RegionTileFile.write(directory.resolve("small" + RegionTileFile.EXTENSION), DIMENSION, ORES, 1, views.iterator()));
+    }
+
+    @Test
+    void sparseTilesStoreOnlyTheirChunks() {
+        long regionKey = ChunkCountStore.pack(4, 4);
+        RegionTileFile.Tile single = singleChunkTile(regionKey, 3);
+        // Two chunk counts, one position, a count and a one-entry histogram
+        assertTrue(single.payload().remaining() <= 12, "encoded " + single.payload().remaining() + " bytes");
+
+        long[] empty = new long[BITMAP_LONGS];
+        empty[BITMAP_LONGS - 1] = 1L << 63;
+        RegionTileFile.Tile onlyEmpty = RegionTileFile.encodeTile(regionKey, new ChunkCountStore(), new ChunkHistogramStore(), empty);
+        assertTrue(onlyEmpty.payload().remaining() <= 4, "encoded " + onlyEmpty.payload().remaining() + " bytes");
+        assertNull(RegionTileFile.encodeTile(regionKey, new ChunkCountStore(), new ChunkHistogramStore(), new long[BITMAP_LONGS]));
+    }
+
+    @Test
+    void remapsOreIdsWhenRead() throws IOException {
+        long regionKey = ChunkCountStore.pack(-3, 7);
+        long chunkPos = RegionKeys.chunkAt(regionKey, 5);
+        ChunkCountStore counts = new ChunkCountStore();
+        ChunkHistogramStore histograms = new ChunkHistogramStore();
+        counts.put(chunkPos, 5);
+        histograms.put(chunkPos, new int[] {OreHistogram.entry(0, 60, 4), OreHistogram.entry(2, 61, 1)});
+        Path path = directory.resolve("remap" + RegionTileFile.EXTENSION);
+        RegionTileFile.write(path, DIMENSION, ORES, List.of(RegionTileFile.encodeTile(regionKey, counts, histograms, null)));
+
+        // Ores 0 and 2 of the file are 7 and 3 in the world; entries come back sorted by the new ids
+        Decoded decoded = readRegion(RegionTileFile.open(path), regionKey, new int[] {7, 1, 3});
+        assertArrayEquals(new int[] {OreHistogram.entry(3, 61, 1), OreHistogram.entry(7, 60, 4)}, decoded.histograms.get(chunkPos));
+    }
+
+    @Test
+    void rejectsUnknownFiles() throws IOException {
+        // Only the current version is read; older caches are migrated from JSON or rebuilt
+        for (int version : new int[] {1, 5, 7}) {
+            Path unsupported = directory.resolve("v" + version + RegionTileFile.EXTENSION);
+            Files.write(unsupported, header(version).toByteArray());
+            assertThrows(IOException.class, () -> RegionTileFile.open(unsupported));
+        }
+        Path other = directory.resolve("other" + RegionTileFile.EXTENSION);
+        Files.write(other, new byte[64]);
+        assertThrows(IOException.class, () -> RegionTileFile.open(other));
+    }
+
+    @Test
+    void truncatedHeaderIsRejected() throws IOException {
+        Path path = directory.resolve("truncated" + RegionTileFile.EXTENSION);
+        RegionTileFile.write(path, DIMENSION, ORES, List.of(singleChunkTile(ChunkCountStore.pack(0, 0), 3)));
+        byte[] bytes = Files.readAllBytes(path);
+        int headerEnd = header(VERSION).size() + 20;
+        for (int length = 12; length < headerEnd; length++) {
+            Files.write(path, Arrays.copyOf(bytes, length));
+            assertThrows(IOException.class, () -> RegionTileFile.open(path), "length " + length);
+        }
+
+        // An ore name claiming more bytes than the file holds
+        ByteArrayOutputStream garbled = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(garbled);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        writeString(out, DIMENSION);
+        out.writeShort(1);
+        out.writeShort(0xFFFF);
+        Files.write(path, garbled.toByteArray());
+        assertThrows(IOException.class, () -> RegionTileFile.open(path));
+    }
+
+    @Test
+    void damagedTileFailsToDecode() throws IOException {
+        long regionKey = ChunkCountStore.pack(0, 0);
+        Path path = directory.resolve("damaged" + RegionTileFile.EXTENSION);
+        RegionTileFile.write(path, DIMENSION, ORES, List.of(singleChunkTile(regionKey, 3)));
+        long[] entry = readIndex(path).get(0);
+        byte[] bytes = Files.readAllBytes(path);
+        // Garble the Deflate stream after the length prefix
+        for (int i = (int) entry[1] + 4; i < entry[1] + entry[2]; i++) {
+            bytes[i] = (byte) 0xFF;
+        }
+        Files.write(path, bytes);
+
+        RegionTileFile file = RegionTileFile.open(path);
+        assertThrows(RuntimeException.class, () -> readRegion(file, regionKey, IDENTITY));
+    }
+
+    @Test
+    void impossibleTileLengthIsRejectedBeforeInflating() throws IOException {
+        long regionKey = ChunkCountStore.pack(0, 0);
+        Path path = directory.resolve("oversized" + RegionTileFile.EXTENSION);
+        RegionTileFile.write(path, DIMENSION, ORES, List.of(singleChunkTile(regionKey, 3)));
+        long[] entry = readIndex(path).get(0);
+        byte[] bytes = Files.readAllBytes(path);
+        // Would need a 2 GB buffer if believed
+        ByteBuffer.wrap(bytes).putInt((int) entry[1], Integer.MAX_VALUE - 8);
+        Files.write(path, bytes);
+
+        RegionTileFile file = RegionTileFile.open(path);
+        IllegalStateException damaged = assertThrows(IllegalStateException.class, () -> readRegion(file, regionKey, IDENTITY));
+        assertEquals("Damaged cache tile", damaged.getMessage());
+        assertThrows(IllegalStateException.class, () -> file.chunkCount(regionKey));
+        assertTrue(RegionTileFile.maxEncodedTileBytes(ORES.size()) < Integer.MAX_VALUE - 8);
+    }
+
+    @Test
+    void damagedTileLoadsAsEmptyRegion() throws IOException {
+        long good = ChunkCountStore.pack(0, 0);
+        long damaged = ChunkCountStore.pack(1, 0);
+        Path path = directory.resolve("cache" + RegionTileFile.EXTENSION);
+        RegionTileFile.write(path, DIMENSION, ORES, List.of(singleChunkTile(good, 3), singleChunkTile(damaged, 4)));
+        long[] damagedEntry = null;
+        for (long[] entry : readIndex(path)) {
+            if (entry[0] == damaged) {
+                damagedEntry = entry;
+            }
+        }
+        assertNotNull(damagedEntry);
+        byte[] bytes = Files.readAllBytes(path);
+        // Claim a longer tile than was stored, so inflating runs out of input
+        ByteBuffer.wrap(bytes).putInt((int) damagedEntry[1], 1 << 20);
+        Files.write(path, bytes);
+
+        DimensionCache cache = new DimensionCache(DIMENSION, new OreIndex(), null);
+        cache.attach(RegionTileFile.open(path), 1);
+        assertEquals(2, cache.unloadedRegionCount());
+        cache.loadRegionsIn(0, 0, 63, 31);
+
+        assertEquals(0, cache.unloadedRegionCount());
+        assertEquals(3, cache.count(RegionKeys.chunkAt(good, 7)));
+        assertFalse(cache.contains(RegionKeys.chunkAt(damaged, 7)));
+        assertEquals(1, cache.loadedChunkCount());
+        // The next save leaves the damaged tile out
+        assertTrue(cache.isDirty());
+        DimensionCache.SaveJob job = cache.beginSave();
+        assertNotNull(job);
+        assertEquals(List.of(good), job.tiles().stream().map(RegionTileFile.Tile::regionKey).toList());
+    }
+
+    private record Decoded(int chunks, ChunkCountStore counts, ChunkHistogramStore histograms, long[] empty) {
+    }
+
+    private static Decoded readRegion(RegionTileFile file, long regionKey, int[] oreIds) {
+        ChunkCountStore counts = new ChunkCountStore();
+        ChunkHistogramStore histograms = new ChunkHistogramStore();
+        long[] empty = new long[BITMAP_LONGS];
+        int chunks = file.readTile(regionKey, counts, histograms, oreIds, empty);
+        return new Decoded(chunks, counts, histograms, empty);
+    }
+
+    private static void assertRegionMatches(RegionTileFile file, long regionKey, ChunkCountStore counts, ChunkHistogramStore histograms, long[] emptyBits) {
+        Decoded decoded = readRegion(file, regionKey, IDENTITY);
+        int present = 0;
+        int max = 0;
+        for (int localIndex = 0; localIndex < RegionKeys.CHUNKS_PER_REGION; localIndex++) {
+            long chunkPos = RegionKeys.chunkAt(regionKey, localIndex);
+            int count = counts.get(chunkPos, -1);
+            assertEquals(count, decoded.counts.get(chunkPos, -1));
+            if (count >= 0) {
+                present++;
+                max = Math.max(max, count);
+                int[] histogram = histograms.get(chunkPos);
+                if (histogram == null || histogram.length == 0) {
+                    // Only a count of zero tells an empty histogram from a missing one
+                    histogram = count == 0 ? OreHistogram.EMPTY : null;
+                }
+                assertArrayEquals(histogram, decoded.histograms.get(chunkPos));
+            }
+        }
+        assertEquals(present, decoded.chunks);
+        assertEquals(max, file.maxCount(regionKey));
+        assertArrayEquals(emptyBits, decoded.empty);
+        int emptyCount = 0;
+        for (long word : emptyBits) {
+            emptyCount += Long.bitCount(word);
+        }
+        assertEquals(present + emptyCount, file.chunkCount(regionKey));
+    }
+
+    private static int[] randomHistogram(Random random) {
+        int[] entries = new int[random.nextInt(6)];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = OreHistogram.entry(random.nextInt(ORES.size()), 1 + random.nextInt(255), 1 + random.nextInt(4096));
+        }
+        OreHistogram.sort(entries);
+        // Each ore and section appears once
+        int unique = 0;
+        for (int i = 0; i < entries.length; i++) {
+            if (i == 0 || entries[i] >>> OreHistogram.COUNT_BITS != entries[unique - 1] >>> OreHistogram.COUNT_BITS) {
+                entries[unique++] = entries[i];
+            }
+        }
+        return Arrays.copyOf(entries, unique);
+    }
+
+    private static RegionTileFile.Tile singleChunkTile(long regionKey, int count) {
+        ChunkCountStore counts = new ChunkCountStore();
+        ChunkHistogramStore histograms = new ChunkHistogramStore();
+        long chunkPos = RegionKeys.chunkAt(regionKey, 7);
+        counts.put(chunkPos, count);
+        histograms.put(chunkPos, new int[] {OreHistogram.entry(1, 130, count)});
+        return RegionTileFile.encodeTile(regionKey, counts, histograms, null);
+    }
+
+    private static ByteArrayOutputStream header(int version) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeShort(version);
+        writeString(out, DIMENSION);
+        out.writeShort(ORES.size());
+        for (String ore : ORES) {
+            writeString(out, ore);
+        }
+        out.writeInt(0);
+        return bytes;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(encoded.length);
+        out.write(encoded);
+    }
+
+    /**
+     * Parses a file's index as {regionKey, offset, length} in stored order.
+     */
+    private static List<long[]> readIndex(Path path) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(path));
+        data.getInt();
+        data.getShort();
+        skipString(data);
+        int ores = data.getShort() & 0xFFFF;
+        for (int i = 0; i < ores; i++) {
+            skipString(data);
+        }
+        int tileCount = data.getInt();
+        List<long[]> index = new ArrayList<>();
+        for (int i = 0; i < tileCount; i++) {
+            long regionKey = ChunkCountStore.pack(data.getInt(), data.getInt());
+            index.add(new long[] {regionKey, data.getInt(), data.getInt()});
+            data.getInt();
+        }
+        return index;
+    }
+
+    private static void skipString(ByteBuffer data) {
+        int length = data.getShort() & 0xFFFF;
+        data.position(data.position() + length);
+    }
+}
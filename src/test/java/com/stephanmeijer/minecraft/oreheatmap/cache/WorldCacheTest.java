@@ -0,0 +1,189 @@
+package com.stephanmeijer.minecraft.oreheatmap.cache;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WorldCacheTest {
+
+    private static final String OVERWORLD = "minecraft:overworld";
+    private static final String NETHER = "minecraft:the_nether";
+    private static final String END = "minecraft:the_end";
+    private static final String IRON = "minecraft:iron_ore";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void evictsTheLeastRecentlyVisitedIdleDimensionFirst() throws IOException {
+        WorldCache cache = new WorldCache();
+        cache.open(directory, null);
+        fill(cache, OVERWORLD);
+        fill(cache, NETHER);
+        fill(cache, END);
+        cache.save();
+        long perDimension = cache.dimension(OVERWORLD).estimatedBytes();
+
+        cache.evictIdle(END, Long.MAX_VALUE);
+        cache.evictIdle(OVERWORLD, Long.MAX_VALUE);
+        assertFalse(cache.evictIdle(NETHER, 2 * perDimension));
+
+        assertEquals(Set.of(OVERWORLD, NETHER), inMemory(cache));
+        assertEquals(1, cache.storedDimensionCount());
+        // Opened from its file again when next used
+        DimensionCache end = cache.find(END);
+        end.loadRegionsIn(-100, -100, 100, 100);
+        assertEquals(5, end.count(ChunkCountStore.pack(3, 0)));
+        cache.close();
+    }
+
+    @Test
+    void staysUnderTheCapWithoutEvicting() throws IOException {
+        WorldCache cache = new WorldCache();
+        cache.open(directory, null);
+        fill(cache, OVERWORLD);
+        fill(cache, NETHER);
+        cache.save();
+
+        assertFalse(cache.evictIdle(OVERWORLD, Long.MAX_VALUE));
+        assertEquals(Set.of(OVERWORLD, NETHER), inMemory(cache));
+        assertEquals(0, cache.storedDimensionCount());
+        cache.close();
+    }
+
+    @Test
+    void savesAnIdleDimensionBeforeDroppingIt() throws IOException {
+        WorldCache cache = new WorldCache();
+        cache.open(directory, null);
+        fill(cache, NETHER);
+        cache.evictIdle(NETHER, Long.MAX_VALUE);
+        fill(cache, OVERWORLD);
+
+        assertTrue(cache.evictIdle(OVERWORLD, 0));
+        assertEquals(Set.of(OVERWORLD, NETHER), inMemory(cache));
+
+        cache.save();
+        cache.evictIdle(OVERWORLD, 0);
+        assertEquals(Set.of(OVERWORLD), inMemory(cache));
+        DimensionCache nether = cache.find(NETHER);
+        nether.loadRegionsIn(-100, -100, 100, 100);
+        assertEquals(5, nether.count(ChunkCountStore.pack(3, 0)));
+        cache.close();
+    }
+
+    @Test
+    void closingDuringAnImportCancelsIt() throws IOException {
+        Path source = directory.resolve("source");
+        WorldCache other = new WorldCache();
+        other.open(source, null);
+        fill(other, NETHER);
+        other.save();
+        other.close();
+
+        Path world = directory.resolve("world");
+        WorldCache cache = new WorldCache();
+        cache.open(world, null);
+        fill(cache, OVERWORLD);
+        CompletableFuture<CacheMerge.Summary> imported = cache.importFrom(source, null, CacheMerge.Policy.NEWEST);
+        cache.close();
+
+        assertTrue(imported.isCancelled());
+        assertFalse(cache.isImporting());
+        // The merge itself finished; the next open reads it
+        cache.open(world, null);
+        DimensionCache nether = cache.find(NETHER);
+        nether.loadRegionsIn(-100, -100, 100, 100);
+        assertEquals(5, nether.count(ChunkCountStore.pack(3, 0)));
+        cache.close();
+    }
+
+    @Test
+    void dimensionsOpenedDuringAnImportKeepTheirData() throws IOException {
+        Path source = directory.resolve("source");
+        WorldCache other = new WorldCache();
+        other.open(source, null);
+        fill(other, NETHER);
+        other.save();
+        other.close();
+
+        Path world = directory.resolve("world");
+        WorldCache cache = new WorldCache();
+        cache.open(world, null);
+        fill(cache, OVERWORLD);
+        cache.save();
+        cache.close();
+        cache.open(world, null);
+        assertEquals(1, cache.storedDimensionCount());
+        CompletableFuture<CacheMerge.Summary> imported = cache.importFrom(source, null, CacheMerge.Policy.NEWEST);
+        cache.awaitWriter();
+
+        // Merged, but not reopened yet: still read from the generation the merge replaced
+        DimensionCache overworld = cache.find(OVERWORLD);
+        overworld.loadRegionsIn(-100, -100, 100, 100);
+        assertEquals(5, overworld.count(ChunkCountStore.pack(3, 0)));
+
+        cache.pollCompletions();
+        assertTrue(imported.isDone());
+        overworld = cache.find(OVERWORLD);
+        overworld.loadRegionsIn(-100, -100, 100, 100);
+        assertEquals(5, overworld.count(ChunkCountStore.pack(3, 0)));
+        assertFalse(Files.exists(WorldCache.filePath(world, OVERWORLD, 0)));
+        DimensionCache nether = cache.find(NETHER);
+        nether.loadRegionsIn(-100, -100, 100, 100);
+        assertEquals(5, nether.count(ChunkCountStore.pack(3, 0)));
+        cache.close();
+    }
+
+    @Test
+    void changedBlocksAdjustTheCountOfMigratedChunks() throws IOException {
+        Path legacyJson = directory.resolve("legacy.json");
+        Files.writeString(legacyJson, "{\"" + OVERWORLD + "\": {\"3,4\": 37}}");
+        Path world = directory.resolve("world");
+        long chunk = ChunkCountStore.pack(3, 4);
+        int section = OreHistogram.sectionIndex(2);
+
+        WorldCache cache = new WorldCache();
+        cache.open(world, legacyJson);
+        cache.close();
+        cache.open(world, null);
+        int iron = cache.ores().intern(IRON);
+        DimensionCache overworld = cache.dimension(OVERWORLD);
+        // JSON held no per-ore counts, and the tile file keeps it that way
+        assertNull(overworld.histogram(chunk));
+        assertEquals(36, overworld.changeBlock(chunk, section, iron, -1));
+        assertEquals(37, overworld.changeBlock(chunk, section, -1, iron));
+        assertEquals(36, overworld.changeBlock(chunk, section, iron, -1));
+
+        // Replayed from the journal
+        cache.flushJournal();
+        cache.close();
+        cache.open(world, null);
+        overworld = cache.dimension(OVERWORLD);
+        assertEquals(36, overworld.count(chunk));
+        assertNull(overworld.histogram(chunk));
+        cache.close();
+    }
+
+    private static void fill(WorldCache cache, String dimension) {
+        int iron = cache.ores().intern(IRON);
+        DimensionCache dim = cache.dimension(dimension);
+        for (int x = 0; x < 10; x++) {
+            dim.put(ChunkCountStore.pack(x, 0), 5, new int[] {OreHistogram.entry(iron, 4, 5)});
+        }
+    }
+
+    private static Set<String> inMemory(WorldCache cache) {
+        return cache.dimensions().stream().map(DimensionCache::dimension).collect(Collectors.toSet());
+    }
+}
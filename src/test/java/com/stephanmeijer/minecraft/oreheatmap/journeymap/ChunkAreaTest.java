@@ -0,0 +1,60 @@
+package com.stephanmeijer.minecraft.oreheatmap.journeymap;
+
+import java.util.List;
+
+import com.stephanmeijer.minecraft.oreheatmap.cache.HeatPyramid;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChunkAreaTest {
+
+    private static final int MAX_CELLS = 4096;
+
+    @Test
+    void countsTheCellsTouchingAnArea() {
+        ChunkArea area = new ChunkArea(-1, 0, 16, 15);
+        assertEquals(18 * 16, area.cellsAt(0));
+        // -1 falls into the cell left of 0
+        assertEquals(10 * 8, area.cellsAt(1));
+        assertEquals(3, area.cellsAt(4));
+    }
+
+    @Test
+    void zoomingOutAggregatesChunks() {
+        // JourneyMap zoom is log2 of the pixels per block; the fullscreen map goes from -3 to 5
+        int[] expected = {4, 3, 2, 1, 0, 0, 0, 0, 0};
+        for (int zoom = -3; zoom <= 5; zoom++) {
+            List<ChunkArea> viewports = List.of(ChunkArea.around(0, 0, 12), fullscreen(1920, 1080, zoom));
+            int level = ChunkArea.detailLevel(viewports, MAX_CELLS);
+
+            assertEquals(expected[zoom + 3], level, "zoom " + zoom);
+            assertTrue(cells(viewports, level) <= MAX_CELLS, "zoom " + zoom);
+            if (level > 0) {
+                assertTrue(cells(viewports, level - 1) > MAX_CELLS, "zoom " + zoom);
+            }
+        }
+    }
+
+    @Test
+    void stopsAtTheCoarsestLevel() {
+        List<ChunkArea> world = List.of(ChunkArea.around(0, 0, 1 << 20));
+        assertEquals(HeatPyramid.MAX_LEVEL, ChunkArea.detailLevel(world, MAX_CELLS));
+        assertEquals(0, ChunkArea.detailLevel(List.of(), MAX_CELLS));
+    }
+
+    private static ChunkArea fullscreen(int widthPixels, int heightPixels, int zoom) {
+        double halfWidth = widthPixels / Math.pow(2, zoom) / 2;
+        double halfHeight = heightPixels / Math.pow(2, zoom) / 2;
+        return ChunkArea.ofBlocks(-halfWidth, -halfHeight, halfWidth, halfHeight).expand(4);
+    }
+
+    private static long cells(List<ChunkArea> viewports, int level) {
+        long cells = 0;
+        for (ChunkArea viewport : viewports) {
+            cells += viewport.cellsAt(level);
+        }
+        return cells;
+    }
+}
@@ -0,0 +1,59 @@
+package com.stephanmeijer.minecraft.oreheatmap.journeymap;
+
+import com.stephanmeijer.minecraft.oreheatmap.OreHeatmapConfig;
+import com.stephanmeijer.minecraft.oreheatmap.cache.ChunkCountStore;
+import com.stephanmeijer.minecraft.oreheatmap.cache.DimensionCache;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HeatScaleTest {
+
+    @Test
+    void referenceFollowsTheNormalization() {
+        DimensionCache cache = new DimensionCache("minecraft:overworld");
+        for (int x = 0; x < 100; x++) {
+            cache.put(ChunkCountStore.pack(x, 0), x + 1, null);
+        }
+        // An outlier that P95 ignores
+        cache.put(ChunkCountStore.pack(0, 1), 5000, null);
+
+        HeatScale max = HeatScale.of(OreHeatmapConfig.Normalization.MAX, cache);
+        HeatScale p95 = HeatScale.of(OreHeatmapConfig.Normalization.P95, cache);
+        HeatScale log = HeatScale.of(OreHeatmapConfig.Normalization.LOG, cache);
+        assertEquals(cache.maxCount(), max.reference());
+        assertTrue(max.reference() >= 5000 && max.reference() <= 5000 + 5000 / 16);
+        assertEquals(log.reference(), max.reference());
+        assertEquals(cache.distribution().quantile(0.95), p95.reference());
+        // Rank 96 of 101 is 96, reported as the top of its bin 96..99
+        assertEquals(99, p95.reference());
+    }
+
+    @Test
+    void densityIsLinearOrLogarithmicAndClamped() {
+        HeatScale linear = new HeatScale(OreHeatmapConfig.Normalization.P95, 100);
+        assertEquals(0.25f, linear.density(25), 1e-6f);
+        assertEquals(1.0f, linear.density(100), 1e-6f);
+        assertEquals(1.0f, linear.density(5000), 1e-6f);
+
+        HeatScale log = new HeatScale(OreHeatmapConfig.Normalization.LOG, 100);
+        assertEquals(Math.log(11) / Math.log(101), log.density(10), 1e-6);
+        assertTrue(log.density(10) > linear.density(10));
+        assertEquals(1.0f, log.density(1000), 1e-6f);
+        assertEquals(0.0f, log.density(0), 1e-6f);
+    }
+
+    @Test
+    void unscaledUntilSomeChunkHasTwoOres() {
+        DimensionCache cache = new DimensionCache("minecraft:overworld");
+        assertFalse(HeatScale.of(OreHeatmapConfig.Normalization.MAX, cache).isScaled());
+        cache.put(ChunkCountStore.pack(0, 0), 1, null);
+        HeatScale scale = HeatScale.of(OreHeatmapConfig.Normalization.MAX, cache);
+        assertFalse(scale.isScaled());
+        assertEquals(1.0f, scale.density(1), 1e-6f);
+        cache.put(ChunkCountStore.pack(0, 0), 2, null);
+        assertTrue(HeatScale.of(OreHeatmapConfig.Normalization.MAX, cache).isScaled());
+    }
+}
@@ -0,0 +1,89 @@
+package com.stephanmeijer.minecraft.oreheatmap.journeymap;
+
+import org.junit.jupiter.api.Test;
+
+import com.stephanmeijer.minecraft.oreheatmap.cache.ChunkCountStore;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RescanQueueTest {
+
+    @Test
+    void queuesATrueCircle() {
+        RescanQueue queue = new RescanQueue(0, 0, 2);
+
+        // The 5x5 square without the 12 chunks more than two chunks from the center
+        assertEquals(13, queue.queuedCount());
+    }
+
+    @Test
+    void pollsNearestChunksFirst() {
+        RescanQueue queue = new RescanQueue(10, -20, 6);
+
+        assertEquals(ChunkCountStore.pack(10, -20), queue.poll());
+        double previous = 0;
+        while (queue.hasQueued()) {
+            double distance = distance(queue.poll(), 10, -20);
+            assertTrue(Math.floor(distance) >= Math.floor(previous), "ring order broken at distance " + distance);
+            previous = distance;
+        }
+    }
+
+    @Test
+    void reordersAroundThePlayerOnceFarEnoughAway() {
+        RescanQueue queue = new RescanQueue(0, 0, 8);
+        queue.poll();
+
+        // Not far enough yet: still ordered around the old center
+        queue.recenter(3, 0);
+        assertEquals(1, Math.floor(distance(queue.poll(), 0, 0)));
+
+        queue.recenter(6, 0);
+        assertEquals(ChunkCountStore.pack(6, 0), queue.poll());
+        double previous = 0;
+        while (queue.hasQueued()) {
+            double distance = distance(queue.poll(), 6, 0);
+            assertTrue(Math.floor(distance) >= Math.floor(previous), "ring order broken at distance " + distance);
+            previous = distance;
+        }
+    }
+
+    @Test
+    void unparkedChunksGoToTheFront() {
+        RescanQueue queue = new RescanQueue(0, 0, 3);
+        int total = queue.queuedCount();
+        long first = queue.poll();
+        long second = queue.poll();
+        queue.park(first);
+        queue.park(second);
+        assertEquals(2, queue.parkedCount());
+
+        assertTrue(queue.unpark(second));
+        assertFalse(queue.unpark(second));
+        assertEquals(second, queue.poll());
+
+        assertTrue(queue.unpark(first));
+        assertEquals(0, queue.parkedCount());
+        assertEquals(first, queue.poll());
+        assertEquals(total - 2, queue.queuedCount());
+    }
+
+    @Test
+    void unparkingGrowsTheQueueWhenNothingWasTaken() {
+        RescanQueue queue = new RescanQueue(0, 0, 1);
+        int total = queue.queuedCount();
+        long outside = ChunkCountStore.pack(50, 50);
+        queue.park(outside);
+
+        assertTrue(queue.unpark(outside));
+        assertEquals(total + 1, queue.queuedCount());
+        assertEquals(outside, queue.poll());
+        assertEquals(ChunkCountStore.pack(0, 0), queue.poll());
+    }
+
+    private static double distance(long chunkPos, int centerX, int centerZ) {
+        return Math.hypot(ChunkCountStore.unpackX(chunkPos) - centerX, ChunkCountStore.unpackZ(chunkPos) - centerZ);
+    }
+}
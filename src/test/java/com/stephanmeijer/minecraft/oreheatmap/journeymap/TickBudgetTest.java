@@ -0,0 +1,69 @@
+package com.stephanmeijer.minecraft.oreheatmap.journeymap;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TickBudgetTest {
+
+    private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    void splitsTheBudgetByTheAssumedCost() {
+        TickBudget budget = new TickBudget();
+        budget.beginTick(2 * MILLI);
+
+        assertEquals(2 * MILLI / budget.costNanos(TickBudget.Task.RESCAN), budget.affordableUnits(TickBudget.Task.RESCAN));
+        assertTrue(budget.hasHeadroomFor(TickBudget.Task.OVERLAY_UPDATE));
+    }
+
+    @Test
+    void theFirstTaskOfATickAlwaysGetsOneUnit() {
+        TickBudget budget = new TickBudget();
+        budget.beginTick(0);
+        assertEquals(1, budget.affordableUnits(TickBudget.Task.SAVE));
+        assertFalse(budget.hasHeadroomFor(TickBudget.Task.SAVE));
+
+        budget.record(TickBudget.Task.SAVE, System.nanoTime(), 1);
+        assertEquals(0, budget.affordableUnits(TickBudget.Task.SAVE));
+        assertFalse(budget.canAfford(TickBudget.Task.RESCAN));
+
+        budget.beginTick(0);
+        assertTrue(budget.canAfford(TickBudget.Task.RESCAN));
+    }
+
+    @Test
+    void recordedTimeCountsAgainstTheTick() {
+        TickBudget budget = new TickBudget();
+        budget.beginTick(10 * MILLI);
+
+        budget.record(TickBudget.Task.SCAN_CAPTURE, System.nanoTime() - 4 * MILLI, 4);
+        assertTrue(budget.remainingNanos() <= 6 * MILLI);
+
+        budget.record(TickBudget.Task.SCAN_CAPTURE, System.nanoTime() - 8 * MILLI, 8);
+        assertEquals(0, budget.remainingNanos());
+        assertFalse(budget.canAfford(TickBudget.Task.SCAN_CAPTURE));
+    }
+
+    @Test
+    void costsMoveTowardsMeasurementsPerTask() {
+        TickBudget budget = new TickBudget();
+        long initial = budget.costNanos(TickBudget.Task.SCAN_RESULTS);
+        budget.beginTick(100 * MILLI);
+
+        // 1 ms per unit, an eighth of the way from the initial guess
+        budget.record(TickBudget.Task.SCAN_RESULTS, System.nanoTime() - 10 * MILLI, 10);
+        long cost = budget.costNanos(TickBudget.Task.SCAN_RESULTS);
+        assertTrue(cost >= initial + (MILLI - initial) / 8, "cost " + cost);
+        assertTrue(cost < MILLI / 2, "cost " + cost);
+        assertEquals(initial, budget.costNanos(TickBudget.Task.OVERLAY_UPDATE));
+
+        // Recording no units charges the time but keeps the average
+        budget.record(TickBudget.Task.SCAN_RESULTS, System.nanoTime() - MILLI, 0);
+        assertEquals(cost, budget.costNanos(TickBudget.Task.SCAN_RESULTS));
+    }
+}
@@ -0,0 +1,433 @@
+package com.stephanmeijer.minecraft.oreheatmap.scan;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.stephanmeijer.minecraft.oreheatmap.cache.ChunkCountStore;
+import com.stephanmeijer.minecraft.oreheatmap.cache.OreHistogram;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WorldSaveScannerTest {
+
+    private static final String OVERWORLD = "minecraft:overworld";
+    private static final String NETHER = "minecraft:the_nether";
+    private static final List<String> ORES = List.of("minecraft:iron_ore", "minecraft:diamond_ore", "minecraft:ancient_debris");
+    private static final int IRON = 0;
+    private static final int DIAMOND = 1;
+    private static final int DEBRIS = 2;
+
+    private static final int GZIP = 1;
+    private static final int ZLIB = 2;
+    private static final int NONE = 3;
+    private static final int LZ4 = 4;
+    private static final int EXTERNAL = 0x80;
+
+    @TempDir
+    Path world;
+
+    @Test
+    void countsEachSectionOfEveryCompression() throws IOException {
+        Random random = new Random(11);
+        RegionWriter region = new RegionWriter();
+        Map<Long, int[]> expected = new LinkedHashMap<>();
+        int[] compressions = {ZLIB, GZIP, NONE, EXTERNAL | ZLIB};
+        for (int x = 0; x < compressions.length; x++) {
+            ChunkBuilder chunk = new ChunkBuilder("minecraft:full");
+            chunk.section(-4, random, "minecraft:stone", "minecraft:iron_ore", "minecraft:deepslate", "minecraft:diamond_ore");
+            // A single-state section stores no block data
+            chunk.uniformSection(0, "minecraft:iron_ore");
+            chunk.section(1, random, "minecraft:stone", "minecraft:air");
+            chunk.section(5, random, "minecraft:netherrack", "minecraft:ancient_debris");
+            region.put(x, 0, compressions[x], chunk.build());
+            expected.put(ChunkCountStore.pack(x, 0), chunk.histogram());
+        }
+        region.writeTo(world.resolve("region"), 0, 0);
+
+        Map<Long, int[]> scanned = new ConcurrentHashMap<>();
+        WorldSaveScanner.Summary summary = scan(scanned, OVERWORLD);
+
+        assertEquals(1, summary.dimensions());
+        assertEquals(1, summary.regions());
+        assertEquals(compressions.length, summary.chunks());
+        assertEquals(compressions.length, summary.chunksWithOres());
+        assertEquals(0, summary.chunksFailed());
+        assertEquals(expected.keySet(), scanned.keySet());
+        for (Map.Entry<Long, int[]> chunk : expected.entrySet()) {
+            assertSameHistogram(chunk.getValue(), scanned.get(chunk.getKey()));
+        }
+        // The uniform section is all iron, the stone and air section is left out
+        int[] histogram = scanned.get(ChunkCountStore.pack(0, 0));
+        assertEquals(4096, sectionCount(histogram, IRON, 0));
+        assertEquals(0, sectionCount(histogram, IRON, 1) + sectionCount(histogram, DIAMOND, 1));
+        assertTrue(sectionCount(histogram, DEBRIS, 5) > 0);
+    }
+
+    @Test
+    void countsWidePalettes() throws IOException {
+        Random random = new Random(12);
+        RegionWriter region = new RegionWriter();
+        Map<Long, int[]> expected = new LinkedHashMap<>();
+        // 5 bits leave 4 bits of padding per long, 9 bits leave 1, 12 bits need more longs than blocks fit evenly
+        int[] paletteSizes = {17, 300, 2100};
+        for (int x = 0; x < paletteSizes.length; x++) {
+            String[] palette = new String[paletteSizes[x]];
+            for (int i = 0; i < palette.length; i++) {
+                palette[i] = "minecraft:filler_" + i;
+            }
+            palette[3] = "minecraft:iron_ore";
+            palette[palette.length / 2] = "minecraft:diamond_ore";
+            palette[palette.length - 1] = "minecraft:ancient_debris";
+            ChunkBuilder chunk = new ChunkBuilder("full");
+            chunk.section(-1, random, palette);
+            chunk.section(2, random, palette);
+            region.put(x, 5, ZLIB, chunk.build());
+            expected.put(ChunkCountStore.pack(x, 5), chunk.histogram());
+        }
+        region.writeTo(world.resolve("region"), 0, 0);
+
+        Map<Long, int[]> scanned = new ConcurrentHashMap<>();
+        scan(scanned, OVERWORLD);
+        assertEquals(expected.keySet(), scanned.keySet());
+        for (Map.Entry<Long, int[]> chunk : expected.entrySet()) {
+            assertSameHistogram(chunk.getValue(), scanned.get(chunk.getKey()));
+            assertEquals(3, Arrays.stream(chunk.getValue()).map(OreHistogram::oreId).distinct().count());
+        }
+    }
+
+    @Test
+    void skipsPartlyGeneratedAndDamagedChunks() throws IOException {
+        Random random = new Random(13);
+        RegionWriter region = new RegionWriter();
+        ChunkBuilder pending = new ChunkBuilder("minecraft:features");
+        pending.section(0, random, "minecraft:stone", "minecraft:iron_ore");
+        region.put(0, 0, ZLIB, pending.build());
+
+        ChunkBuilder noOres = new ChunkBuilder("minecraft:full");
+        noOres.section(0, random, "minecraft:stone", "minecraft:dirt");
+        region.put(1, 0, ZLIB, noOres.build());
+
+        ChunkBuilder good = new ChunkBuilder("minecraft:full");
+        good.section(3, random, "minecraft:stone", "minecraft:diamond_ore");
+        byte[] goodNbt = good.build();
+        region.put(2, 0, ZLIB, goodNbt);
+        // Garbage instead of a zlib stream
+        region.putRaw(3, 0, ZLIB, new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+        // A valid stream of cut-off NBT
+        region.put(4, 0, ZLIB, Arrays.copyOf(goodNbt, goodNbt.length / 2));
+        region.put(5, 0, LZ4, goodNbt);
+        // Too little block data for the palette
+        ChunkBuilder shortData = new ChunkBuilder("minecraft:full");
+        shortData.sectionWithData(0, new long[10], "minecraft:stone", "minecraft:iron_ore");
+        region.put(6, 0, ZLIB, shortData.build());
+        // External chunk whose .mcc file is missing
+        region.put(7, 0, EXTERNAL | ZLIB, goodNbt);
+        // The region lies west of the origin
+        Path regionDirectory = world.resolve("DIM-1").resolve("region");
+        region.writeTo(regionDirectory, -1, 0);
+        Files.delete(regionDirectory.resolve("c.-25.0.mcc"));
+        // Empty region files are common and hold nothing
+        Files.createFile(regionDirectory.resolve("r.4.4.mca"));
+
+        Map<Long, int[]> scanned = new ConcurrentHashMap<>();
+        WorldSaveScanner.Summary summary = scan(scanned, NETHER);
+
+        assertEquals(1, summary.regions());
+        assertEquals(2, summary.chunks());
+        assertEquals(1, summary.chunksWithOres());
+        assertEquals(1, summary.chunksPending());
+        assertEquals(5, summary.chunksFailed());
+        assertNull(scanned.get(ChunkCountStore.pack(-32, 0)));
+        assertArrayEquals(OreHistogram.EMPTY, scanned.get(ChunkCountStore.pack(-31, 0)));
+        assertSameHistogram(good.histogram(), scanned.get(ChunkCountStore.pack(-30, 0)));
+    }
+
+    @Test
+    void findsVanillaAndCustomDimensions() throws IOException {
+        Files.createDirectories(world.resolve("region"));
+        Files.createDirectories(world.resolve("DIM1").resolve("region"));
+        Files.createDirectories(world.resolve("dimensions").resolve("mymod").resolve("deep").resolve("caves").resolve("region"));
+        // Not a dimension: no path below the namespace
+        Files.createDirectories(world.resolve("dimensions").resolve("other").resolve("region"));
+
+        Map<String, Path> dimensions = WorldSaveScanner.findDimensions(world);
+        assertEquals(List.of(OVERWORLD, "minecraft:the_end", "mymod:deep/caves"), new ArrayList<>(dimensions.keySet()));
+        assertEquals(world.resolve("DIM1").resolve("region"), dimensions.get("minecraft:the_end"));
+        assertFalse(dimensions.containsKey(NETHER));
+    }
+
+    @Test
+    void worldIdsAreSafeFileNames() {
+        assertEquals("local_My_World__2_", WorldSaveScanner.localWorldId(world.resolve("My World #2!")));
+        assertNotNull(WorldSaveScanner.localWorldId(world));
+    }
+
+    private WorldSaveScanner.Summary scan(Map<Long, int[]> scanned, String dimension) throws IOException {
+        try (WorldSaveScanner scanner = new WorldSaveScanner(ORES, 4)) {
+            return scanner.scan(world, (scannedDimension, chunkPos, histogram) -> {
+                assertEquals(dimension, scannedDimension);
+                scanned.put(chunkPos, histogram);
+            });
+        }
+    }
+
+    private static void assertSameHistogram(int[] expected, int[] actual) {
+        assertNotNull(actual);
+        int[] sortedExpected = expected.clone();
+        int[] sortedActual = actual.clone();
+        Arrays.sort(sortedExpected);
+        Arrays.sort(sortedActual);
+        assertArrayEquals(sortedExpected, sortedActual);
+    }
+
+    private static int sectionCount(int[] histogram, int ore, int sectionY) {
+        int count = 0;
+        for (int entry : histogram) {
+            if (OreHistogram.oreId(entry) == ore && OreHistogram.section(entry) == OreHistogram.sectionIndex(sectionY)) {
+                count += OreHistogram.count(entry);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Builds the NBT of a saved chunk in the 1.18+ layout, with some of the tags the scanner skips,
+     * and the histogram the scanner should produce for it.
+     */
+    private static final class ChunkBuilder {
+
+        private final String status;
+        private final List<byte[]> sections = new ArrayList<>();
+        private int[] histogram = OreHistogram.EMPTY;
+
+        ChunkBuilder(String status) {
+            this.status = status;
+        }
+
+        /**
+         * Adds a section of random blocks from the palette.
+         */
+        void section(int sectionY, Random random, String... palette) throws IOException {
+            int[] blocks = new int[4096];
+            int[] counts = new int[ORES.size()];
+            for (int i = 0; i < blocks.length; i++) {
+                blocks[i] = random.nextInt(palette.length);
+                int ore = ORES.indexOf(palette[blocks[i]]);
+                if (ore >= 0) {
+                    counts[ore]++;
+                }
+            }
+            histogram = OreHistogram.appendSection(histogram, counts, sectionY);
+            sectionWithData(sectionY, pack(blocks, palette.length), palette);
+        }
+
+        void uniformSection(int sectionY, String block) throws IOException {
+            int[] counts = new int[ORES.size()];
+            int ore = ORES.indexOf(block);
+            if (ore >= 0) {
+                counts[ore] = 4096;
+            }
+            histogram = OreHistogram.appendSection(histogram, counts, sectionY);
+            sectionWithData(sectionY, null, block);
+        }
+
+        void sectionWithData(int sectionY, long[] data, String... palette) throws IOException {
+            Nbt section = new Nbt();
+            section.tag(Nbt.BYTE, "Y").writeByte(sectionY);
+            section.tag(Nbt.COMPOUND, "biomes");
+            section.tag(Nbt.LIST, "palette").list(Nbt.STRING, 1).string("minecraft:plains");
+            section.end();
+            section.tag(Nbt.COMPOUND, "block_states");
+            section.tag(Nbt.LIST, "palette").list(Nbt.COMPOUND, palette.length);
+            for (String block : palette) {
+                section.tag(Nbt.STRING, "Name").string(block);
+                section.tag(Nbt.COMPOUND, "Properties");
+                section.tag(Nbt.STRING, "axis").string("y");
+                section.end();
+                section.end();
+            }
+            if (data != null) {
+                section.tag(Nbt.LONG_ARRAY, "data").writeInt(data.length);
+                for (long word : data) {
+                    section.writeLong(word);
+                }
+            }
+            section.end();
+            section.tag(Nbt.BYTE_ARRAY, "BlockLight").writeInt(2048);
+            section.write(new byte[2048]);
+            section.end();
+            sections.add(section.bytes());
+        }
+
+        byte[] build() throws IOException {
+            Nbt root = new Nbt();
+            root.writeByte(Nbt.COMPOUND);
+            root.writeShort(0);
+            root.tag(Nbt.INT, "DataVersion").writeInt(3955);
+            root.tag(Nbt.LONG, "LastUpdate").writeLong(123_456);
+            root.tag(Nbt.LIST, "block_entities").list(Nbt.END, 0);
+            root.tag(Nbt.COMPOUND, "Heightmaps");
+            root.tag(Nbt.LONG_ARRAY, "WORLD_SURFACE").writeInt(37);
+            root.write(new byte[37 * Long.BYTES]);
+            root.end();
+            root.tag(Nbt.LIST, "sections").list(Nbt.COMPOUND, sections.size());
+            for (byte[] section : sections) {
+                root.write(section);
+            }
+            root.tag(Nbt.DOUBLE, "InhabitedTime").writeDouble(1.5);
+            // Status after the sections, as the game writes it
+            root.tag(Nbt.STRING, "Status").string(status);
+            root.end();
+            return root.bytes();
+        }
+
+        int[] histogram() {
+            return histogram;
+        }
+
+        private static long[] pack(int[] blocks, int paletteSize) {
+            int bits = Math.max(4, Integer.SIZE - Integer.numberOfLeadingZeros(paletteSize - 1));
+            int perLong = Long.SIZE / bits;
+            long[] data = new long[(blocks.length + perLong - 1) / perLong];
+            for (int i = 0; i < blocks.length; i++) {
+                data[i / perLong] |= (long) blocks[i] << ((i % perLong) * bits);
+            }
+            return data;
+        }
+    }
+
+    /**
+     * Minimal NBT writer.
+     */
+    private static final class Nbt extends DataOutputStream {
+
+        static final int END = 0;
+        static final int BYTE = 1;
+        static final int INT = 3;
+        static final int LONG = 4;
+        static final int DOUBLE = 6;
+        static final int BYTE_ARRAY = 7;
+        static final int STRING = 8;
+        static final int LIST = 9;
+        static final int COMPOUND = 10;
+        static final int LONG_ARRAY = 12;
+
+        Nbt() {
+            super(new ByteArrayOutputStream());
+        }
+
+        Nbt tag(int type, String name) throws IOException {
+            writeByte(type);
+            return string(name);
+        }
+
+        Nbt string(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeShort(bytes.length);
+            write(bytes);
+            return this;
+        }
+
+        Nbt list(int elementType, int size) throws IOException {
+            writeByte(elementType);
+            writeInt(size);
+            return this;
+        }
+
+        void end() throws IOException {
+            writeByte(END);
+        }
+
+        byte[] bytes() {
+            return ((ByteArrayOutputStream) out).toByteArray();
+        }
+    }
+
+    /**
+     * Writes a region file with chunks compressed as asked, and {@code .mcc} files for external chunks.
+     */
+    private static final class RegionWriter {
+
+        private final Map<Integer, byte[]> stored = new LinkedHashMap<>();
+        private final Map<Integer, Integer> compressions = new LinkedHashMap<>();
+        private final Map<Integer, byte[]> external = new LinkedHashMap<>();
+
+        void put(int localX, int localZ, int compression, byte[] nbt) throws IOException {
+            byte[] compressed = switch (compression & ~EXTERNAL) {
+                case ZLIB, GZIP -> compress(compression & ~EXTERNAL, nbt);
+                default -> nbt;
+            };
+            if ((compression & EXTERNAL) != 0) {
+                external.put(localZ * 32 + localX, compressed);
+                compressed = new byte[0];
+            }
+            putRaw(localX, localZ, compression, compressed);
+        }
+
+        void putRaw(int localX, int localZ, int compression, byte[] payload) {
+            stored.put(localZ * 32 + localX, payload);
+            compressions.put(localZ * 32 + localX, compression);
+        }
+
+        void writeTo(Path regionDirectory, int regionX, int regionZ) throws IOException {
+            Files.createDirectories(regionDirectory);
+            ByteArrayOutputStream sectors = new ByteArrayOutputStream();
+            int[] locations = new int[1024];
+            int sector = 2;
+            for (Map.Entry<Integer, byte[]> chunk : stored.entrySet()) {
+                DataOutputStream out = new DataOutputStream(sectors);
+                byte[] payload = chunk.getValue();
+                out.writeInt(payload.length + 1);
+                out.writeByte(compressions.get(chunk.getKey()));
+                out.write(payload);
+                int length = payload.length + 5;
+                int sectorCount = (length + 4095) / 4096;
+                out.write(new byte[sectorCount * 4096 - length]);
+                locations[chunk.getKey()] = (sector << 8) | sectorCount;
+                sector += sectorCount;
+            }
+            DataOutputStream file = new DataOutputStream(Files.newOutputStream(regionDirectory.resolve("r." + regionX + "." + regionZ + ".mca")));
+            try (file) {
+                for (int location : locations) {
+                    file.writeInt(location);
+                }
+                file.write(new byte[4096]);
+                sectors.writeTo(file);
+            }
+            for (Map.Entry<Integer, byte[]> chunk : external.entrySet()) {
+                int chunkX = regionX * 32 + (chunk.getKey() & 31);
+                int chunkZ = regionZ * 32 + (chunk.getKey() >> 5);
+                Files.write(regionDirectory.resolve("c." + chunkX + "." + chunkZ + ".mcc"), chunk.getValue());
+            }
+        }
+
+        private static byte[] compress(int compression, byte[] nbt) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (OutputStream stream = compression == GZIP ? new GZIPOutputStream(bytes) : new DeflaterOutputStream(bytes)) {
+                stream.write(nbt);
+            }
+            return bytes.toByteArray();
+        }
+    }
+}